@@ -1,14 +1,29 @@
 package heron.gameboardeditor;
 
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Application; 
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Alert.AlertType;
+import javafx.scene.control.ButtonType;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import heron.gameboardeditor.datamodel.Autosave;
+import heron.gameboardeditor.datamodel.EditJournal;
 import heron.gameboardeditor.datamodel.Grid;
+import heron.gameboardeditor.datamodel.SaveQueue;
+import heron.gameboardeditor.datamodel.TemplateCatalog;
 
 /**
  * JavaFX App
@@ -18,14 +33,123 @@ public class App extends Application {
     private static Scene scene;
     private static Stage mainWindow;
     private static Grid gridData;//creates the data for the grid
+    private static EditJournal journal; //the journal of the edits of gridData, to recover them if the editor dies
+    private static Autosave autosave; //saves what changed in gridData next to its file every few seconds, null until it has a file
+    private static Timeline autosaveTimer; //runs the autosave on the FX thread, made once JavaFX is started
+    private static final File RECOVERY_DIRECTORY = new File(System.getProperty("user.home"), ".heron" + File.separator + "recovery"); //holds a journal per editor which runs or died
+    private static final ThreadPoolExecutor background = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> new Thread(task, "heron-background"));
+    private static final SaveQueue saveQueue = new SaveQueue(); //one for the whole app, so the saves of every screen are written one at a time
+    private static final TemplateCatalog templates = new TemplateCatalog("AugieLetter.json", "Heart.heron", "TalkTree.heron", "Duck.heron"); //the templates of the editing screen, read in the background as the app starts
+    static {
+    	background.allowCoreThreadTimeOut(true); // the thread stops once it is idle, so a save still running keeps the app alive until it is written but nothing else does
+    }
     
     @Override
     public void start(Stage stage) throws IOException {
+        templates.prewarm(background); // read while the user is on the welcome screen
+        Grid recoveredGrid = recoverGrid();
         scene = new Scene(loadFXML("welcomeScreen"), 1280, 720);
         stage.setScene(scene);
         stage.setResizable(true);
         stage.show();
         mainWindow = stage;
+        autosaveTimer = new Timeline(new KeyFrame(Duration.seconds(5), event -> {
+        	if (autosave != null) {
+        		autosave.save();
+        	}
+        }));
+        autosaveTimer.setCycleCount(Timeline.INDEFINITE);
+        autosaveTimer.play();
+        if (recoveredGrid != null) {
+        	setRoot("editingScreen");
+        }
+    }
+    
+    @Override
+    public void stop() {
+    	if (autosaveTimer != null) {
+    		autosaveTimer.stop();
+    	}
+    	stopAutosave();
+    	if (journal != null) {
+    		journal.discard(); // the editor exits normally, there is nothing to recover
+    	}
+    }
+    
+    /**
+     * Offers to recover the grid of each editor which did not exit normally, the newest first, until the user
+     * takes one. The journals of the editors which are still open are not offered. The recovered grid becomes
+     * gridData, with a journal of this editor
+     * 
+     * @return the recovered grid, or null if there is none or the user does not want any
+     */
+    private static Grid recoverGrid() {
+    	for (File directory : EditJournal.findJournals(RECOVERY_DIRECTORY)) {
+    		Alert alert = new Alert(AlertType.CONFIRMATION, "The editor was not closed normally. Do you want to recover your last board?", ButtonType.YES, ButtonType.NO);
+    		Optional<ButtonType> result = alert.showAndWait();
+    		Grid grid;
+    		try {
+    			if (result.isEmpty() || result.get() != ButtonType.YES) {
+    				EditJournal.delete(directory);
+    				continue;
+    			}
+    			grid = EditJournal.recover(directory);
+    		} catch (IOException ex) {
+    			new Alert(AlertType.ERROR, "The last board could not be recovered.").showAndWait();
+    			return null;
+    		}
+    		setGrid(grid);
+    		try {
+    			if (journal != null) {
+    				journal.sync(); // the grid is in the new journal before the old one is deleted
+    				EditJournal.delete(directory);
+    			}
+    		} catch (IOException ex) {
+    			// the old journal is kept, it is offered again the next time
+    		}
+    		return grid;
+    	}
+    	return null;
+    }
+    
+    /**
+     * Starts the journal of the edits of a new grid, in place of the journal of the old one
+     * 
+     * @param file - the file the grid was just opened from, or null
+     */
+    private static void startJournal(Grid grid, File file) {
+    	if (journal != null) {
+    		journal.discard();
+    		journal = null;
+    	}
+    	try {
+    		journal = EditJournal.start(EditJournal.createDirectory(RECOVERY_DIRECTORY), grid, file); // a directory of its own, so other editors can run at the same time
+    	} catch (IOException ex) {
+    		// the editor works without a journal, the work since the last save just cannot be recovered
+    	}
+    }
+
+    /**
+     * Starts to autosave gridData next to the file it was saved to or opened from (see Autosave.fileFor). The
+     * autosave goes on while gridData is the grid, a save to the same file keeps it as it is
+     *
+     * @param projectFile - the .heron file of gridData
+     */
+    static void autosaveTo(File projectFile) {
+    	File file = Autosave.fileFor(projectFile);
+    	if (autosave != null && autosave.getFile().equals(file)) {
+    		return;
+    	}
+    	stopAutosave();
+    	autosave = Autosave.start(gridData, file);
+    }
+
+    private static void stopAutosave() {
+    	if (autosave != null) {
+    		autosave.save(); // the last edits, written before the thread of the autosave stops
+    		autosave.stop();
+    		autosave = null;
+    	}
     }
 
     static void setRoot(String fxml) throws IOException {
@@ -52,7 +176,7 @@ public class App extends Application {
 	 * @param neHeight - the number of rows of the new grid
      */
     public static void useNewGrid(int columns, int rows) {
-    	gridData = new Grid(columns, rows);
+    	setGrid(new Grid(columns, rows));
     }
     
     /**
@@ -75,12 +199,72 @@ public class App extends Application {
     	return gridData;
     }
         
+    /**
+     * Returns a new grid with the cells of a bundled template, without reading its file again once it was read
+     * 
+     * @param name - the name of the template file
+     * @return a grid the user can edit, which does not change the template
+     */
+    public static Grid getTemplate(String name) throws IOException {
+    	return templates.get(name);
+    }
+        
     public static Stage getMainWindow() {
     	return mainWindow;
     }
     
     public static void setGrid(Grid newGrid) {
+    	setGrid(newGrid, null);
+    }
+    
+    /**
+     * Replaces gridData by a grid which was just opened from a file. Its journal and its autosave start from the file,
+     * so the grid is not written again. The file the old grid was opened from is closed once its saves are written
+     * 
+     * @param newGrid - the new grid
+     * @param file - the file the grid was just opened from, which holds the grid as it is now, or null if there is none
+     */
+    public static void setGrid(Grid newGrid, File file) {
+    	Grid oldGrid = gridData;
+    	Autosave oldAutosave = autosave;
+    	stopAutosave();
     	gridData = newGrid;
+    	startJournal(newGrid, file);
+    	if (file != null) {
+    		autosave = Autosave.start(newGrid, Autosave.fileFor(file), file);
+    	}
+    	if (oldGrid != null && oldGrid != newGrid) {
+    		runInBackground(() -> { // after the tasks which read the old grid
+    			try {
+    				if (oldAutosave != null) {
+    					oldAutosave.awaitStop();
+    				}
+    				saveQueue.sync();
+    			} catch (InterruptedException ex) {
+    				Thread.currentThread().interrupt();
+    				return; // the file stays open, a save may still read it
+    			}
+    			oldGrid.closeSource();
+    		});
+    	}
+    }
+    
+    /**
+     * Returns the queue of the saves of the app
+     */
+    public static SaveQueue getSaveQueue() {
+    	return saveQueue;
+    }
+    
+    /**
+     * Runs a task on the background thread of the app. The tasks run one at a time, in the order they are given,
+     * so two saves of the same file never overlap. A task must not read the grid the user edits, only a read-only
+     * version of it taken on the FX thread (see Grid.snapshot), and it goes back to the FX thread with Platform.runLater
+     * 
+     * @param task - the task to run
+     */
+    public static void runInBackground(Runnable task) {
+    	background.execute(task);
     }
 
 }
@@ -0,0 +1,202 @@
+package heron.gameboardeditor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import heron.gameboardeditor.datamodel.Grid;
+import heron.gameboardeditor.datamodel.ProjectIO;
+
+/**
+ * A command line tool to check and convert the .heron files of a folder and of its subfolders, without JavaFX:
+ *
+ *     java -cp <classpath> heron.gameboardeditor.BatchConverter <folder> <binary|mapped|json|check> [threads]
+ *
+ * Each file is read and checked with ProjectIO.check, then saved again in place in the format asked for, or left as
+ * it is with check. The files are converted in parallel, one per thread, on as many threads as there are cores unless
+ * told otherwise. The autosave files (see Autosave.fileFor) are left alone. A file which fails is reported with why
+ * and is left as it was, the others go on. The tool ends with the number of files and the throughput, and exits with
+ * 1 if a file failed.
+ */
+public class BatchConverter {
+
+	/**
+	 * What is done with each file once it is checked
+	 */
+	public enum Format {
+		BINARY, MAPPED, JSON, CHECK
+	}
+
+	/**
+	 * What happened to one file
+	 */
+	public static final class Result {
+		private final Path file;
+		private final long bytesRead;
+		private final long bytesWritten;
+		private final Exception failure;
+
+		private Result(Path file, long bytesRead, long bytesWritten, Exception failure) {
+			this.file = file;
+			this.bytesRead = bytesRead;
+			this.bytesWritten = bytesWritten;
+			this.failure = failure;
+		}
+
+		public Path getFile() {
+			return file;
+		}
+
+		public long getBytesRead() {
+			return bytesRead;
+		}
+
+		public long getBytesWritten() {
+			return bytesWritten;
+		}
+
+		/**
+		 * Returns why the file could not be checked or converted, or null if it was
+		 */
+		public Exception getFailure() {
+			return failure;
+		}
+	}
+
+	private BatchConverter() {
+	}
+
+	public static void main(String[] args) {
+		if (args.length < 2 || args.length > 3) {
+			System.err.println("Usage: BatchConverter <folder> <binary|mapped|json|check> [threads]");
+			System.exit(2);
+		}
+		Path folder = Path.of(args[0]);
+		Format format;
+		int threads;
+		try {
+			format = Format.valueOf(args[1].toUpperCase(Locale.ROOT));
+			threads = (args.length == 3) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		} catch (IllegalArgumentException ex) {
+			System.err.println("Usage: BatchConverter <folder> <binary|mapped|json|check> [threads]");
+			System.exit(2);
+			return;
+		}
+		if (threads < 1) {
+			System.err.println("Usage: BatchConverter <folder> <binary|mapped|json|check> [threads]");
+			System.exit(2);
+			return;
+		}
+
+		long start = System.nanoTime();
+		List<Result> results;
+		try {
+			results = convert(folder, format, threads);
+		} catch (IOException ex) {
+			System.err.println(folder + ": " + ex.getMessage());
+			System.exit(2);
+			return;
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		int failures = 0;
+		long bytesRead = 0;
+		long bytesWritten = 0;
+		for (Result result : results) {
+			if (result.getFailure() != null) {
+				failures++;
+				Exception failure = result.getFailure();
+				System.err.println(result.getFile() + ": " + ((failure.getMessage() != null) ? failure.getMessage() : failure));
+			}
+			bytesRead += result.getBytesRead();
+			bytesWritten += result.getBytesWritten();
+		}
+		System.out.printf("%d files, %d failed, in %.2f s on %d threads: %.1f files/s, %.1f MB/s read, %.1f MB read, %.1f MB written%n",
+				results.size(), failures, seconds, threads, results.size() / seconds, bytesRead / 1e6 / seconds, bytesRead / 1e6, bytesWritten / 1e6);
+		System.exit((failures > 0) ? 1 : 0);
+	}
+
+	/**
+	 * Checks and converts the .heron files of a folder and of its subfolders
+	 *
+	 * @param folder - the folder
+	 * @param format - the format the files are saved in, or CHECK to only check them
+	 * @param threads - the number of files converted at once
+	 * @return the result of each file, in the order of their paths
+	 * @throws IOException if the folder cannot be walked
+	 */
+	public static List<Result> convert(Path folder, Format format, int threads) throws IOException {
+		if (threads < 1) {
+			throw new IllegalArgumentException("At least one thread is needed");
+		}
+		List<Path> files;
+		try (Stream<Path> paths = Files.walk(folder)) {
+			files = paths.filter(BatchConverter::isProjectFile).sorted().collect(Collectors.toList());
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads, task -> {
+			Thread thread = new Thread(task, "heron-batch");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<Future<Result>> conversions = new ArrayList<>();
+			for (Path file : files) {
+				conversions.add(executor.submit(() -> convertFile(file, format)));
+			}
+			List<Result> results = new ArrayList<>();
+			for (Future<Result> conversion : conversions) {
+				results.add(conversion.get());
+			}
+			return results;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("The conversion was interrupted", ex);
+		} catch (ExecutionException ex) {
+			throw new IllegalStateException(ex.getCause()); // convertFile catches what a file can throw
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns if a path is a .heron file of a board, and not the autosave of one
+	 */
+	private static boolean isProjectFile(Path path) {
+		String name = path.getFileName().toString();
+		return name.endsWith(".heron") && !name.endsWith(".autosave.heron") && Files.isRegularFile(path);
+	}
+
+	private static Result convertFile(Path file, Format format) {
+		File input = file.toFile();
+		long bytesRead = input.length();
+		try {
+			Grid grid = ProjectIO.check(input);
+			switch (format) {
+			case BINARY:
+				ProjectIO.save(grid, input);
+				break;
+			case MAPPED:
+				ProjectIO.saveMapped(grid, input);
+				break;
+			case JSON:
+				ProjectIO.saveJson(grid, input);
+				break;
+			case CHECK:
+				return new Result(file, bytesRead, 0, null);
+			}
+			return new Result(file, bytesRead, input.length(), null);
+		} catch (IOException | RuntimeException ex) { // a damaged file can also fail as it is decoded
+			return new Result(file, bytesRead, 0, ex);
+		}
+	}
+}
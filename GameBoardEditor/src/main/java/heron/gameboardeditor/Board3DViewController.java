@@ -1,10 +1,15 @@
 package heron.gameboardeditor;
 
-import javafx.scene.image.Image;
+import java.util.ArrayList;
+import java.util.List;
 
-import heron.gameboardeditor.datamodel.Block;
+import javafx.application.Platform;
+import javafx.scene.image.Image;
 
+import heron.gameboardeditor.datamodel.CellRectangle;
 import heron.gameboardeditor.datamodel.Grid;
+import heron.gameboardeditor.datamodel.GridChangeEvent;
+import heron.gameboardeditor.datamodel.GridListener;
 import javafx.scene.Group;
 import javafx.scene.LightBase;
 import javafx.scene.shape.Box;
@@ -25,6 +30,10 @@ import javafx.stage.Stage;
 
 /**
  * Credits: Most of the code for this file are from https://genuinecoder.com
+ * 
+ * The preview listens to its Grid while it is shown and only rebuilds the blocks which changed.
+ * The blocks are first built on the background thread of the app from a read-only version of the grid, so the
+ * board can still be edited meanwhile: the changes made while they are built are applied once the preview shows.
  */
 
 
@@ -36,6 +45,17 @@ public class Board3DViewController {
 	private static final int BLOCK_Z_HEIGHT = 15;
 
 	private Stage stage3D;
+	private SmartGroup group;
+	private int width;
+	private int height;
+	private int originX; // the origin of the grid when the preview was opened, the preview keeps showing the same cells if the grid grows on the left or the top
+	private int originY;
+	private Box[][] boxes;
+	private Group[][] pointyTops; // the pyramid on top of each pointy block, null if the block is not pointy
+	private PhongMaterial material;
+	private Grid version; // the grid as it was when the preview was opened, the blocks are built from it
+	private List<CellRectangle> pendingCells = new ArrayList<>(); // the cells of the preview changed while the blocks were built, null once they are built
+	private final GridListener gridListener = this::gridChanged;
 
 	// Tracks drag starting point for x and y
 	private double anchorX, anchorY;
@@ -50,57 +70,56 @@ public class Board3DViewController {
 
 	public Board3DViewController(Grid gridData) {
 		this.gridData = gridData;
-		int width = gridData.getWidth();
-		int height = gridData.getHeight();
+		this.width = gridData.getWidth();
+		this.height = gridData.getHeight();
+		this.originX = gridData.getOriginX();
+		this.originY = gridData.getOriginY();
 	
 		//Create Material
-		PhongMaterial material = new PhongMaterial();
+		material = new PhongMaterial();
 		material.setDiffuseMap(new Image(getClass().getResourceAsStream("/wood.jpg")));
 
 		// Prepare transformable Group container
-		SmartGroup group = new SmartGroup();
-		
-		int level = 0;
-		int maxLevel = gridData.getMaxLevel();
-		
+		group = new SmartGroup();
+		boxes = new Box[width][height];
+		pointyTops = new Group[width][height];
+	}
+
+	/**
+	 * Builds the blocks in the background, then opens the preview
+	 */
+	public void show() {
+		version = gridData.snapshot();
+		gridData.addGridListener(gridListener); // from now on, every change after the version is in pendingCells
+		App.runInBackground(() -> {
+			buildBlocks(); // the group is not in a window yet, so it can be built on any thread
+			Platform.runLater(this::showBlocks);
+		});
+	}
+
+	private void buildBlocks() {
 		for (int x = 0; x < width; x++) {
 			for (int y = 0; y < height; y++) {
-				Block block = gridData.getBlockAt(x, y);
-				level = block.getZ();
-				
-				Box box = new Box( BLOCK_SIZE, BLOCK_SIZE, level*BLOCK_Z_HEIGHT);
-				
-
+				Box box = new Box( BLOCK_SIZE, BLOCK_SIZE, 0);
 				box.translateXProperty().set( BLOCK_SIZE*(x - width/2));
 				box.translateYProperty().set( BLOCK_SIZE*(y - height/2));
-				box.translateZProperty().set(-(level*BLOCK_Z_HEIGHT)/2);
-
-				
-				if (block.isPointy()) {
-					int size = BLOCK_SIZE;
-					int zForFlatBox = -level * BLOCK_Z_HEIGHT;
-
-
-					for (int i = 0; i < 50; i ++) {
-						Box pointyBox = new Box( size, size, 1);
-						size -= 1;
-						
-						pointyBox.translateXProperty().set( BLOCK_SIZE*(x - width/2));
-						pointyBox.translateYProperty().set( BLOCK_SIZE*(y - height/2));
-
-						pointyBox.translateZProperty().set(zForFlatBox);	
-						zForFlatBox -= 1;
-						
-						group.getChildren().add(pointyBox);
-					}
-				}
+				box.setMaterial(material);
+				boxes[x][y] = box;
 				group.getChildren().add(box);
 				group.getChildren().add(prepareLightSource());
-				box.setMaterial(material);
+				updateBlock(version, x, y);
 			}
 		}
-		
-	
+	}
+
+	private void showBlocks() {
+		version = null;
+		List<CellRectangle> changedCells = pendingCells;
+		pendingCells = null;
+		for (CellRectangle cells : changedCells) {
+			updateBlocks(cells);
+		}
+
 		Camera camera = new PerspectiveCamera();
 		camera.translateZProperty().set(-1200);
 
@@ -118,6 +137,7 @@ public class Board3DViewController {
 		stage3D = new Stage();
 		stage3D.setTitle("Genuine Coder");
 		stage3D.setScene(scene);
+		stage3D.setOnHidden(event -> gridData.removeGridListener(gridListener));
 
 		// Add keyboard control.
 		stage3D.addEventHandler(KeyEvent.KEY_PRESSED, event -> {
@@ -142,11 +162,80 @@ public class Board3DViewController {
 				break;
 			}
 		});
+		stage3D.show();
+	}
+	
+	/**
+	 * Rebuilds the blocks which changed. The preview keeps the size it was opened with
+	 */
+	private void gridChanged(GridChangeEvent event) {
+		CellRectangle preview = new CellRectangle(0, 0, width, height);
+		int shiftX = gridData.getOriginX() - originX;
+		int shiftY = gridData.getOriginY() - originY;
+		for (CellRectangle changed : event.getRegion().getRectangles()) {
+			CellRectangle cells = changed.translate(shiftX, shiftY).intersection(preview);
+			if (cells != null && pendingCells != null) {
+				pendingCells.add(cells);
+			} else if (cells != null) {
+				updateBlocks(cells);
+			}
+		}
+	}
 
+	/**
+	 * Rebuilds the blocks of some cells of the preview from the grid
+	 */
+	private void updateBlocks(CellRectangle cells) {
+		int shiftX = gridData.getOriginX() - originX;
+		int shiftY = gridData.getOriginY() - originY;
+		for (int y = cells.getY(); y < cells.getEndY(); y++) {
+			for (int x = cells.getX(); x < cells.getEndX(); x++) {
+				if (gridData.isCoordinateInGrid(x - shiftX, y - shiftY)) {
+					updateBlock(gridData, x, y);
+				}
+			}
+		}
 	}
+	
+	/**
+	 * Sets the height of the box of a block and adds or removes its pointy top
+	 * 
+	 * @param source - the grid, or a version of it, the block is read from
+	 * @param x - the x coordinate of the block in the preview
+	 * @param y - the y coordinate of the block in the preview
+	 */
+	private void updateBlock(Grid source, int x, int y) {
+		int gridX = x + originX - source.getOriginX();
+		int gridY = y + originY - source.getOriginY();
+		int level = source.getZ(gridX, gridY);
+		Box box = boxes[x][y];
+		box.setDepth(level*BLOCK_Z_HEIGHT);
+		box.translateZProperty().set(-(level*BLOCK_Z_HEIGHT)/2);
+		
+		if (pointyTops[x][y] != null) {
+			group.getChildren().remove(pointyTops[x][y]);
+			pointyTops[x][y] = null;
+		}
+		if (source.isPointy(gridX, gridY)) {
+			Group pointyTop = new Group();
+			int size = BLOCK_SIZE;
+			int zForFlatBox = -level * BLOCK_Z_HEIGHT;
 
-	public void show() {
-		stage3D.show();
+			for (int i = 0; i < 50; i ++) {
+				Box pointyBox = new Box( size, size, 1);
+				size -= 1;
+				
+				pointyBox.translateXProperty().set( BLOCK_SIZE*(x - width/2));
+				pointyBox.translateYProperty().set( BLOCK_SIZE*(y - height/2));
+
+				pointyBox.translateZProperty().set(zForFlatBox);	
+				zForFlatBox -= 1;
+				
+				pointyTop.getChildren().add(pointyBox);
+			}
+			pointyTops[x][y] = pointyTop;
+			group.getChildren().add(pointyTop);
+		}
 	}
 	
 	private LightBase prepareLightSource() {
@@ -29,9 +29,9 @@ public class CellUI extends StackPane implements Cloneable {
     
     private int xIndex;
     private int yIndex;
-    private int tileSize;
 
 	private boolean showLevel = false;
+	private boolean isPainted = false; //if the cell read its level, which it only does once it is shown (see GridBoardUI.viewportChanged)
     private boolean isClicked;
    
     private String displayLevel;
@@ -48,7 +48,6 @@ public class CellUI extends StackPane implements Cloneable {
 		this.xIndex = xIndex;
 		this.yIndex = yIndex;
 		this.levelText = new Text("");
-		updateVisualBasedOnBlock();
 		this.setSelected(false);
 		generateColors();
     }
@@ -102,8 +101,7 @@ public class CellUI extends StackPane implements Cloneable {
      */
 	public void setPointy(boolean pointy) {
 		Block block = getBlock(); 
-		block.setPointy(pointy);
-		updateVisualBasedOnBlock();
+		block.setPointy(pointy); //the grid board repaints the cell when the grid changes
 	}
     
 	//------------------------Update Visual Based on its Features ----------------------------
@@ -111,12 +109,12 @@ public class CellUI extends StackPane implements Cloneable {
      * Updates the cell color to reflect the level of the block
      */
     public void updateVisualBasedOnBlock() {
+    	isPainted = true;
     	Block block = getBlock(); 
     	if (block.isVisible()) {
     		colorRect.setFill(colorList.get(getLevel() - 1));
     	} else {
       		colorRect.setFill(DEFAULT_COLOR); //if the cell is not visible, the level is zero
-      		block.setPointy(false);
     	}
     	
     	if (showLevel) {
@@ -153,6 +151,10 @@ public class CellUI extends StackPane implements Cloneable {
      * This method shows the level text on each cell.
      */
     public void updateVisualDisplayLevel() {
+    	if (!isPainted) {
+    		showLevel = true; // the level is shown once the cell is painted
+    		return;
+    	}
     	updateVisualRemoveLevel();
 
     	Block block = getBlock(); 
@@ -168,8 +170,6 @@ public class CellUI extends StackPane implements Cloneable {
      * This method removes the level text on each cell.
      */
     public void updateVisualRemoveLevel() {
-    	Block block = getBlock(); 
-    	int level = block.getZ();
 		this.getChildren().remove(this.levelText);
 		showLevel = false;
 	}
@@ -182,8 +182,7 @@ public class CellUI extends StackPane implements Cloneable {
      */
 	public void setLevel(int level) {
 		Block block = getBlock();
-		block.setZ(level);//if cell level is zero it should not be visible
-		updateVisualBasedOnBlock();
+		block.setZ(level);//if cell level is zero it should not be visible. The grid board repaints the cell when the grid changes
 	}
 	
     /**
@@ -204,6 +203,26 @@ public class CellUI extends StackPane implements Cloneable {
     	return gridBoard.getGridData().getBlockAt(xIndex, yIndex);
     }
 
+    /**
+     * Moves the cell to another place of the grid board, when columns or rows are added or removed on the left or the top
+     * 
+     * @param xIndex - the new x index of the cell
+     * @param yIndex - the new y index of the cell
+     */
+    public void setIndex(int xIndex, int yIndex) {
+    	this.xIndex = xIndex;
+    	this.yIndex = yIndex;
+    	this.setLayoutX(xIndex * gridBoard.getTileSize()); // the size of the cells of the board, which changes when it is zoomed
+    	this.setLayoutY(yIndex * gridBoard.getTileSize());
+    }
+
+    /**
+     * Returns if the cell was painted, which it is once it is shown
+     */
+    public boolean isPainted() {
+    	return isPainted;
+    }
+
     public String getDisplayLevel() {
   		return displayLevel;
   	}
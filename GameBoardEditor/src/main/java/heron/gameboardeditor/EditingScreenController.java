@@ -2,27 +2,28 @@ package heron.gameboardeditor;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Optional;
-import com.google.gson.JsonIOException;
-import com.google.gson.JsonSyntaxException;
 import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
 import javafx.geometry.Pos;
-import heron.gameboardeditor.datamodel.Block;
 import heron.gameboardeditor.datamodel.Grid;
 import heron.gameboardeditor.datamodel.ProjectIO;
+import heron.gameboardeditor.datamodel.SaveQueue.SaveListener;
 import heron.gameboardeditor.tools.TerrainTool.TerrainObject;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.CheckBox;
+import javafx.scene.control.Label;
 import javafx.scene.control.MenuButton;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.control.ScrollPane;
 import javafx.scene.control.Slider;
 import javafx.scene.control.TextField;
 import javafx.scene.control.TextInputDialog;
@@ -40,6 +41,8 @@ public class EditingScreenController {
 	@FXML
 	private AnchorPane mapDisplay;
 	@FXML
+	private ScrollPane mapScrollPane;
+	@FXML
 	private TextField numRow;
 	@FXML
 	private TextField numColumn;
@@ -57,6 +60,10 @@ public class EditingScreenController {
 	private Button undoButton;
 	@FXML
 	private Button redoButton;
+	@FXML
+	private Label saveLabel;
+	@FXML
+	private ProgressBar saveProgressBar;
 
 	private BorderPane gridMapPane;
 	private VBox boardParentVBox;
@@ -70,6 +77,25 @@ public class EditingScreenController {
 		this.undoRedoHandler = new UndoRedoHandler(this);
 		refreshUIFromGrid();
 		this.terrainObjects = gridBoard.terrainTool.getTerrainObjects();
+		InvalidationListener viewportListener = observable -> viewportChanged();
+		mapScrollPane.hvalueProperty().addListener(viewportListener); // the cells are painted as they are shown, and the ones around them read ahead, as the board is scrolled
+		mapScrollPane.vvalueProperty().addListener(viewportListener);
+		mapScrollPane.viewportBoundsProperty().addListener(viewportListener);
+	}
+
+	/**
+	 * Tells the board which part of it is shown in the scroll pane
+	 */
+	private void viewportChanged() {
+		gridBoard.viewportChanged(gridBoard.sceneToLocal(mapScrollPane.localToScene(mapScrollPane.getBoundsInLocal())));
+	}
+
+	/**
+	 * Lays out the board again once it was replaced or zoomed, which the scroll pane may not tell, and paints the cells it shows now
+	 */
+	private void refreshViewport() {
+		mapScrollPane.layout();
+		viewportChanged();
 	}
 
 	// ------------------------ State Restored to make or re-make
@@ -83,6 +109,7 @@ public class EditingScreenController {
 		int tileSize = CellUI.DEFAULT_TILE_SIZE;
 		if (gridBoard != null) {
 			tileSize = gridBoard.getTileSize();
+			gridBoard.dispose(); // the grid is kept, so the old board must stop listening to it
 		}
 
 		// creates a viewer GridBoardUI, which is the grid the user can see
@@ -113,15 +140,6 @@ public class EditingScreenController {
 		terrainMenuButton.getItems().add(customMenuItem);
 	}
 
-	private ArrayList<TerrainObject> getTerrainObjects() {
-		return this.terrainObjects;
-	}
-
-	private void setTerrainObjects(ArrayList<TerrainObject> terrainObjects) {
-		this.terrainObjects = terrainObjects;
-		gridBoard.terrainTool.setTerrainObjects(this.terrainObjects);
-	}
-
 	@FXML
 	/**
 	 * When the user clicks on Set Size button, this method get the number of rows
@@ -141,8 +159,7 @@ public class EditingScreenController {
 
 		}
 		if (!numRow.getText().isBlank() && !numColumn.getText().isBlank()) {
-			App.resizeGrid(columns, rows);
-			gridBoard.updateVisualBasedOnGrid();
+			App.resizeGrid(columns, rows); // the grid board adds or removes its cells when the grid is resized
 			undoRedoHandler.saveState();
 		}
 
@@ -166,6 +183,7 @@ public class EditingScreenController {
 	 */
 	void zoomIn() {
 		gridBoard.setTileSize(gridBoard.getTileSize() + 10);
+		refreshViewport();
 	}
 
 	@FXML
@@ -175,6 +193,7 @@ public class EditingScreenController {
 	void zoomOut() {
 		if (gridBoard.getTileSize() > 10) {
 			gridBoard.setTileSize(gridBoard.getTileSize() - 10);
+			refreshViewport();
 		}
 	}
 
@@ -203,19 +222,16 @@ public class EditingScreenController {
 	@FXML
 	void pencilButtonOn(ActionEvent event) {
 		gridBoard.gridEditor.setCurrentTool(gridBoard.pencilTool);
-		undoRedoHandler.saveState();
 	}
 
 	@FXML
 	void eraserButtonOn(ActionEvent event) {
 		gridBoard.gridEditor.setCurrentTool(gridBoard.eraserTool);
-		undoRedoHandler.saveState();
 	}
 
 	@FXML
 	void digButtonOn(ActionEvent event) {
 		gridBoard.gridEditor.setCurrentTool(gridBoard.digTool);
-		undoRedoHandler.saveState();
 	}
 
 	@FXML
@@ -223,26 +239,22 @@ public class EditingScreenController {
 		gridBoard.levelPickerTool.addSlider(levelSlider);
 		gridBoard.gridEditor.setCurrentTool(gridBoard.levelPickerTool);
 		levelSlider.setValue(gridBoard.getLevel());
-		undoRedoHandler.saveState();
 	}
 
 	@FXML
 	void fillToolOn(ActionEvent event) {
 		gridBoard.gridEditor.setCurrentTool(gridBoard.fillTool);
-		undoRedoHandler.saveState();
 	}
 
 	@FXML
 	void selectToolOn(ActionEvent event) {
 		gridBoard.gridEditor.setCurrentTool(gridBoard.selectionTool);
-		undoRedoHandler.saveState();
 	}
 
 	@FXML
 	void terrainToolOn(ActionEvent event) {
 		gridBoard.terrainTool.setCurrentTerrainObject(null);
 		gridBoard.gridEditor.setCurrentTool(gridBoard.terrainTool);
-		undoRedoHandler.saveState();
 	}
 
 	@FXML
@@ -250,7 +262,6 @@ public class EditingScreenController {
 		MenuItem item = (MenuItem) event.getSource();
 		gridBoard.terrainTool.setCurrentTerrainObject(item.getText());
 		gridBoard.gridEditor.setCurrentTool(gridBoard.terrainTool);
-		undoRedoHandler.saveState();
 	}
 
 	@FXML
@@ -279,13 +290,11 @@ public class EditingScreenController {
 																																														// list
 		gridBoard.terrainTool.createCustomTerrainObject(name);
 		terrainObjects = gridBoard.terrainTool.getTerrainObjects();
-		undoRedoHandler.saveState(); // save the custom Terrain objects
 	}
 
 	@FXML
 	void pointyToolOn(ActionEvent event) {
 		gridBoard.gridEditor.setCurrentTool(gridBoard.pointyTool);
-		undoRedoHandler.saveState();
 	}
 
 	@FXML
@@ -305,16 +314,40 @@ public class EditingScreenController {
 		textInputDialog.setHeaderText("Enter number of possible levels to work on: ");
 		textInputDialog.showAndWait();
 		int newMaxLevel = Integer.parseInt(textInputDialog.getResult());
-		gridBoard.getGridData().setMaxZ(newMaxLevel);
+		Grid grid = gridBoard.getGridData();
+		grid.edit(() -> { //the new max level and the lowered blocks are one edit
+			grid.setMaxZ(newMaxLevel);
+			if (newMaxLevel < grid.getMaxLevel()) {
+				grid.lowerBlocksHigherThan(newMaxLevel);
+			}
+		});
 
 		levelSlider.setMax(newMaxLevel);
-		if (newMaxLevel < gridBoard.getGridData().getMaxLevel()) {
-			gridBoard.getGridData().lowerBlocksHigherThan(newMaxLevel);
-		}
 		CellUI.generateColors();
 		gridBoard.updateVisual();
 	}
 
+	@FXML
+	void extendBoard(ActionEvent event) {
+		TextInputDialog textInputDialog = new TextInputDialog("0 0 0 0");
+		textInputDialog.setHeaderText("Enter the number of columns or rows to add on the left, top, right and bottom\n(a negative number removes them): ");
+		textInputDialog.showAndWait();
+		String result = textInputDialog.getResult();
+		if (result == null) {
+			return;
+		}
+		String[] sides = result.trim().split("\\s+");
+		if (sides.length != 4) {
+			Alert errorAlert = new Alert(AlertType.ERROR);
+			errorAlert.setHeaderText("Error");
+			errorAlert.setContentText("Enter four numbers: left, top, right and bottom!");
+			errorAlert.showAndWait();
+			return;
+		}
+		gridBoard.extend(Integer.parseInt(sides[0]), Integer.parseInt(sides[1]), Integer.parseInt(sides[2]), Integer.parseInt(sides[3])); // the grid board only adds or removes the cells of the edges
+		undoRedoHandler.saveState();
+	}
+
 	@FXML
 	void generateMaze(ActionEvent event) {
 		gridBoard.generateMaze();
@@ -323,38 +356,48 @@ public class EditingScreenController {
 
 	// --------------------------------Templates----------------------
 	@FXML
-	void templateOne(ActionEvent event) throws JsonSyntaxException, JsonIOException, IOException {
-		templetLoaderHelper("GameBoardEditor/src/main/resources/heron/gameboardeditor/Templates/AugieLetter.json");
+	void templateOne(ActionEvent event) throws IOException {
+		templetLoaderHelper("AugieLetter.json");
 	}
 
 	@FXML
-	void templateTwo(ActionEvent event) throws JsonSyntaxException, JsonIOException, IOException {
-		templetLoaderHelper("GameBoardEditor/src/main/resources/heron/gameboardeditor/Templates/Heart.heron");
+	void templateTwo(ActionEvent event) throws IOException {
+		templetLoaderHelper("Heart.heron");
 	}
 
 	@FXML
-	void templateThree(ActionEvent event) throws JsonSyntaxException, JsonIOException, IOException {
-		templetLoaderHelper("GameBoardEditor/src/main/resources/heron/gameboardeditor/Templates/TalkTree.heron");
+	void templateThree(ActionEvent event) throws IOException {
+		templetLoaderHelper("TalkTree.heron");
 	}
 
 	@FXML
-	void templateFour(ActionEvent event) throws JsonSyntaxException, JsonIOException, IOException {
-		templetLoaderHelper("GameBoardEditor/src/main/resources/heron/gameboardeditor/Templates/Duck.heron");
+	void templateFour(ActionEvent event) throws IOException {
+		templetLoaderHelper("Duck.heron");
 	}
 
-	private void templetLoaderHelper(String path) throws JsonSyntaxException, JsonIOException, IOException {
+	private void templetLoaderHelper(String name) throws IOException {
 		clear();
-		File file = new File(path);
-		if (file != null) {
-			Grid grid = ProjectIO.load(file);
-			App.setGrid(grid);
-			undoRedoHandler = new UndoRedoHandler(this);
-			gridBoard = new GridBoardUI(grid, undoRedoHandler, CellUI.DEFAULT_TILE_SIZE);
-			this.terrainObjects = gridBoard.terrainTool.getTerrainObjects();
-			refreshTerrainMenu();
-			boardParentVBox.getChildren().clear();
-			boardParentVBox.getChildren().addAll(gridBoard);
-		}
+		Grid grid = App.getTemplate(name); // a copy of the template read as the app started
+		showNewGrid(grid, null);
+	}
+
+	/**
+	 * Replaces the grid of the app and the board which shows it, with a new history
+	 *
+	 * @param grid - the new grid
+	 * @param file - the file the grid was just opened from, or null if there is none
+	 */
+	private void showNewGrid(Grid grid, File file) {
+		App.setGrid(grid, file);
+		undoRedoHandler.dispose();
+		undoRedoHandler = new UndoRedoHandler(this);
+		gridBoard.dispose(); // the old board must stop listening to the old grid and repainting, or it keeps the grid alive
+		gridBoard = new GridBoardUI(grid, undoRedoHandler, CellUI.DEFAULT_TILE_SIZE);
+		this.terrainObjects = gridBoard.terrainTool.getTerrainObjects();
+		refreshTerrainMenu();
+		boardParentVBox.getChildren().clear();
+		boardParentVBox.getChildren().addAll(gridBoard);
+		refreshViewport();
 	}
 
 	// ------------------------- File menu bar ----------------------
@@ -363,18 +406,12 @@ public class EditingScreenController {
 		File file = saveLoadHelper("open", "heron");
 		if (file != null) {
 			try {
-				Grid grid = ProjectIO.load(file);
-				App.setGrid(grid);
-				undoRedoHandler = new UndoRedoHandler(this);
-				gridBoard = new GridBoardUI(grid, undoRedoHandler, CellUI.DEFAULT_TILE_SIZE);
-				boardParentVBox.getChildren().clear();
-				boardParentVBox.getChildren().addAll(gridBoard);
-				this.terrainObjects = gridBoard.terrainTool.getTerrainObjects();
-				refreshTerrainMenu();
+				Grid grid = ProjectIO.open(file); // the chunks of a large board are read as they are shown
+				showNewGrid(grid, file); // its autosave starts from the file
 			} catch (FileNotFoundException ex) {
 				new Alert(AlertType.ERROR, "The file you tried to open could not be found.").showAndWait();
 			} catch (IOException ex) {
-				new Alert(AlertType.ERROR, "Error opening file.  Did you choose a valid .heron file (which uses JSON format?)")
+				new Alert(AlertType.ERROR, "Error opening file.  Did you choose a valid .heron file?")
 						.show();
 			}
 		}
@@ -385,20 +422,48 @@ public class EditingScreenController {
 		File file = saveLoadHelper("save", "heron");
 		if (file != null) {
 			Grid grid = App.getGrid();
-			try {
-				ProjectIO.save(grid, file);
-			} catch (IOException ex) {
-				new Alert(AlertType.ERROR, "An I/O error occurred while trying to save this file.").showAndWait();
-			}
+			App.getSaveQueue().save(grid, file, new SaveListener() { // written in the background while the board can still be edited
+				@Override
+				public void saveProgressed(File file, double progress) {
+					Platform.runLater(() -> showSaveProgress("Saving " + file.getName(), progress));
+				}
+
+				@Override
+				public void saveFinished(File file, IOException failure) {
+					Platform.runLater(() -> {
+						showSaveProgress(null, 1);
+						if (failure != null) {
+							new Alert(AlertType.ERROR, "An I/O error occurred while trying to save this file.").showAndWait();
+						} else if (App.getGrid() == grid) { // unless another board was opened during the save
+							App.autosaveTo(file);
+						}
+					});
+				}
+			});
 		}
 	}
 
+	/**
+	 * Shows how much of a save is written at the bottom of the screen
+	 *
+	 * @param text - what is saved, or null to hide the progress once the save is over
+	 * @param progress - the part of the grid which is written, from 0 to 1
+	 */
+	private void showSaveProgress(String text, double progress) {
+		saveLabel.setText(text);
+		saveLabel.setVisible(text != null);
+		saveProgressBar.setProgress(progress);
+		saveProgressBar.setVisible(text != null);
+	}
+
 	private File saveLoadHelper(String dialog, String fileType) {
 		File file;
 		FileChooser chooser = new FileChooser();
 		FileChooser.ExtensionFilter extention;
 		if (fileType == "heron") {
 			extention = new FileChooser.ExtensionFilter("Heron game (*.heron)", "*.heron");
+		} else if (fileType == "PNG") {
+			extention = new FileChooser.ExtensionFilter("Heightmap (*.png)", "*.png");
 		} else {
 			extention = new FileChooser.ExtensionFilter("OBJ File (*.OBJ)", "*.OBJ");
 		}
@@ -460,80 +525,60 @@ public class EditingScreenController {
 	}
 
 	@FXML
-	void exportToObj() throws IOException {
+	void exportToObj() {
 		File file = saveLoadHelper("save", "OBJ");
 		if (file != null) {
-			Grid grid = App.getGrid();
-			FileWriter writer = new FileWriter(file);
-			for (int x = 0; x < grid.getWidth(); x++) {
-				for (int y = 0; y < grid.getHeight(); y++) {
-					Block blocks = grid.getBlockAt(x, y);
-					int r = blocks.getY();
-					int c = blocks.getX();
-					int e = blocks.getZ();
-					writer.write("v " + c + " " + r + " " + e + "\n");
-					writer.write("v " + c + " " + r + " " + 0 + "\n");
-					writer.write("v " + c + " " + (r + 1) + " " + 0 + "\n");
-					writer.write("v " + c + " " + (r + 1) + " " + e + "\n");
-					writer.write("v " + (c + 1) + " " + r + " " + e + "\n");
-					writer.write("v " + (c + 1) + " " + r + " " + 0 + "\n");
-					writer.write("v " + (c + 1) + " " + (r + 1) + " " + 0 + "\n");
-					writer.write("v " + (c + 1) + " " + (r + 1) + " " + e + "\n");
-					if (grid.getBlockAt(x, y).isPointy()) {
-						writer.write("v " + (c + 0.5) + " " + (r + 0.5) + " " + (e + 1) + "\n");
-					}
-
-				}
-			}
-
-			int i = 0;
-			for (int x = 0; x < grid.getWidth(); x++) {
-				for (int y = 0; y < grid.getHeight(); y++) {
-					writer.write("f " + (i + 4) + " " + (i + 3) + " " + (i + 2) + " " + (i + 1) + "\n");
-					writer.write("f " + (i + 2) + " " + (i + 6) + " " + (i + 5) + " " + (i + 1) + "\n");
-					writer.write("f " + (i + 3) + " " + (i + 7) + " " + (i + 6) + " " + (i + 2) + "\n");
-					writer.write("f " + (i + 8) + " " + (i + 7) + " " + (i + 3) + " " + (i + 4) + "\n");
-					writer.write("f " + (i + 5) + " " + (i + 8) + " " + (i + 4) + " " + (i + 1) + "\n");
-					writer.write("f " + (i + 6) + " " + (i + 7) + " " + (i + 8) + " " + (i + 5) + "\n");
-					if (grid.getBlockAt(x, y).isPointy()) {
-						writer.write("f " + (i + 9) + " " + (i + 1) + " " + (i + 4) + "\n");
-						writer.write("f " + (i + 9) + " " + (i + 4) + " " + (i + 8) + "\n");
-						writer.write("f " + (i + 9) + " " + (i + 8) + " " + (i + 5) + "\n");
-						writer.write("f " + (i + 9) + " " + (i + 5) + " " + (i + 1) + "\n");
-						i = i + 9;
-					} else {
-						i += 8;
-					}
+			Grid version = App.getGrid().snapshot(); // written in the background while the board can still be edited
+			App.runInBackground(() -> {
+				try {
+					ProjectIO.exportObj(version, file);
+				} catch (IOException ex) {
+					Platform.runLater(() -> new Alert(AlertType.ERROR, "An I/O error occurred while trying to export this file.").showAndWait());
 				}
-			}
-			writer.close();
+			});
 		}
 	}
 
-	public class State {
-		private Grid grid;
-		private ArrayList<TerrainObject> terrainObjects;
-
-		public State() {
-			grid = (Grid) App.getGrid().clone();
-			terrainObjects = getTerrainObjects();
-		}
-
-		public void restore() {
-			App.setGrid(grid.clone());
-			refreshUIFromGrid();
-			refreshSlider();
-			setTerrainObjects(terrainObjects); // set the terrainObjects to what was saved
-			refreshTerrainMenu(); // updates the menu for the terrainTool
+	@FXML
+	void importHeightmap(ActionEvent event) {
+		File file = saveLoadHelper("open", "PNG");
+		if (file != null) {
+			try {
+				Grid grid = ProjectIO.importHeightmap(file, App.getGrid().getMaxZ()); // white is the max level of the current board
+				showNewGrid(grid, null);
+			} catch (IOException ex) {
+				new Alert(AlertType.ERROR, "This image could not be imported.").showAndWait();
+			}
 		}
 	}
 
-	public State createMemento() {
-		return new State();
+	@FXML
+	void exportHeightmap(ActionEvent event) {
+		File file = saveLoadHelper("save", "PNG");
+		if (file != null) {
+			Grid version = App.getGrid().snapshot(); // written in the background while the board can still be edited
+			App.runInBackground(() -> {
+				try {
+					ProjectIO.exportHeightmap(version, file);
+				} catch (IOException ex) {
+					Platform.runLater(() -> new Alert(AlertType.ERROR, "An I/O error occurred while trying to export this file.").showAndWait());
+				}
+			});
+		}
 	}
 
-	public void restoreState(State gridBoardState) {
-		gridBoardState.restore();
-
+	/**
+	 * Refreshes the screen after a step was undone or redone on the grid. The board listens to the grid,
+	 * so it already repaints the cells of the step, and adds or removes cells if the step resized the grid
+	 *
+	 * @param isMaxLevelChanged - if the step changed the max level of the grid, so the colors of the levels are made again
+	 */
+	public void restoreState(boolean isMaxLevelChanged) {
+		gridBoard.selectionTool.deselectAll(); // like before, an undone or redone step leaves nothing selected
+		refreshSlider();
+		if (isMaxLevelChanged) {
+			CellUI.generateColors(); // a cell may be above the old max level, which had no color
+			gridBoard.updateVisual();
+		}
 	}
 }
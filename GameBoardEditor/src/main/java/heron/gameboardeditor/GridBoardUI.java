@@ -2,8 +2,19 @@
 package heron.gameboardeditor;
 
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import heron.gameboardeditor.datamodel.CellRectangle;
+import heron.gameboardeditor.datamodel.DirtyRegion;
 import heron.gameboardeditor.datamodel.Grid;
+import heron.gameboardeditor.datamodel.GridChangeEvent;
+import heron.gameboardeditor.datamodel.GridListener;
 import heron.gameboardeditor.generators.Maze;
 import heron.gameboardeditor.tools.DigTool;
 import heron.gameboardeditor.tools.EraserTool;
@@ -13,16 +24,28 @@ import heron.gameboardeditor.tools.PencilTool;
 import heron.gameboardeditor.tools.PointyTool;
 import heron.gameboardeditor.tools.SelectionTool;
 import heron.gameboardeditor.tools.TerrainTool;
+import javafx.animation.AnimationTimer;
+import javafx.geometry.Bounds;
+import javafx.scene.Node;
 import javafx.scene.layout.AnchorPane;
+import javafx.scene.layout.Region;
 
 /**
- * This class represents the grid of cells
+ * This class represents the grid of cells. It listens to its Grid and repaints only the cells which changed,
+ * at most once per frame.
+ *
+ * Only the cells in the viewport have a CellUI on the board (see viewportChanged): the CellUIs of the cells which
+ * leave it are reused for the cells which enter it, so a board of 10000x10000 cells has a few thousand nodes, not
+ * 100 million. The tools can still get the CellUI of any cell (see getCell), it is made when it is asked for and
+ * kept while the cell is selected. A cell is only painted once it is shown: until then it does not read its level,
+ * so a large board opened from a file (see ProjectIO.open) only reads the chunks of the part of it which is on the
+ * screen. The cells which were not painted yet are skipped by the repaints, they read their level when they are shown
  */
-public class GridBoardUI extends AnchorPane {
+public class GridBoardUI extends AnchorPane implements GridListener {
 
 	
 	private Grid gridData;
-	private CellUI[][] cellArray;
+	private Map<Long, CellUI> cells = new HashMap<>(); //the CellUIs which were made, by the place of their cell (see keyOf)
 	public GridEditor gridEditor; //controls which tool the user is currently using
 	private UndoRedoHandler undoRedoHandler;
 	
@@ -30,7 +53,16 @@ public class GridBoardUI extends AnchorPane {
     private int height; //number of cells of the height
 	private int level = 1; //the level of the depth map the user is currently working on. The user starts on level 1
     private boolean isPointy = false;
+    private boolean isLevelShown = false; //if the cells show their level, so the cells which are shown later show it too
     private int tileSize;
+    private DirtyRegion changedCells = new DirtyRegion(); //the cells which changed since the last frame
+    private CellRectangle shownCells; //the cells in the viewport, null until the board is shown
+    private final AnimationTimer repaintTimer = new AnimationTimer() { //runs once per frame while cells are waiting for a repaint
+		@Override
+		public void handle(long now) {
+			repaintChangedCells();
+		}
+    };
     
     public final PencilTool pencilTool;
     public final EraserTool eraserTool;
@@ -43,16 +75,11 @@ public class GridBoardUI extends AnchorPane {
   
 	public GridBoardUI(Grid grid, UndoRedoHandler undoRedoHandler, int tileSize) {
         this.gridData = grid;
-        cellArray = new CellUI[grid.getWidth()][grid.getHeight()];
         this.tileSize = tileSize;
-        for (int x = 0; x < grid.getWidth(); x++) {
-        	for (int y = 0; y < grid.getHeight(); y++) { //creates the grid
-                cellArray[x][y] = new CellUI(this, x, y, tileSize);
-                cellArray[x][y].setLayoutX(x * tileSize); //spaces out the tiles based on TILE_SIZE
-                cellArray[x][y].setLayoutY(y * tileSize);
-                this.getChildren().add(cellArray[x][y]);
-            }
-        }
+        this.width = gridData.getWidth();
+        this.height = gridData.getHeight();
+        this.setMinSize(Region.USE_PREF_SIZE, Region.USE_PREF_SIZE); //the board keeps the size of all its cells, though only the shown ones are on it
+        updateBoardSize();
         
         //create the tools associated with the buttons and the editor
         this.pencilTool = new PencilTool(this, undoRedoHandler);
@@ -71,67 +98,238 @@ public class GridBoardUI extends AnchorPane {
 		this.setOnMouseReleased(e -> gridEditor.mouseReleased(e));
 		this.setOnMouseDragged(e -> gridEditor.mouseDragged(e));
 		
-		this.width = gridData.getWidth();
-		this.height = gridData.getHeight();
+		gridData.addGridListener(this);
     }
     
+	/**
+	 * Stops listening to the grid, once this board is replaced by another one
+	 */
+	public void dispose() {
+		gridData.removeGridListener(this);
+		repaintTimer.stop();
+	}
+
 	// ----------------- update visual based on each feature ----------------
 	
 	/**
 	 * Overview updates the GridBoardUI to reflect the grid
 	 */
     public void updateVisualBasedOnGrid() {
-    	CellUI[][] newCellArray = new CellUI[gridData.getWidth()][gridData.getHeight()];
-    	for (int x = 0; x < gridData.getWidth(); x++) {
-        	for (int y = 0; y < gridData.getHeight(); y++) {
-        		if (x >= width || y >= height) { //if grid board must add new cells
-        			newCellArray[x][y] = new CellUI(this, x, y, tileSize);
-                    newCellArray[x][y].setLayoutX(x * tileSize);
-                    newCellArray[x][y].setLayoutY(y * tileSize);
-                    this.getChildren().add(newCellArray[x][y]);
-        		} else { //if contains cell, copy the cell to the new array
-        			newCellArray[x][y] = cellArray[x][y];
-        		}
-        	}
-    	}
-    	
-    	for (int x = 0; x < width; x++) {
-        	for (int y = 0; y < height; y++) {
-        		if (x >= gridData.getWidth() || y >= gridData.getHeight()) { //remove the cells if they are not in the new gridBoard size
-        			this.getChildren().remove(cellArray[x][y]);
-        		}
-        	}
+    	updateVisualBasedOnGrid(0, 0);
+    }
+    
+    /**
+     * Updates the GridBoardUI after columns or rows were added or removed on any side of the grid.
+     * The CellUIs of the cells which are still in the grid are kept (and moved if the grid changed on the left or the top),
+     * only the ones of the cells which left the grid are removed, and the new cells get one once they are shown
+     * 
+     * @param shiftX - the number of columns the cells moved to the right
+     * @param shiftY - the number of rows the cells moved down
+     */
+    public void updateVisualBasedOnGrid(int shiftX, int shiftY) {
+    	Map<Long, CellUI> newCells = new HashMap<>();
+    	Set<Node> removedCells = new HashSet<>();
+    	for (Map.Entry<Long, CellUI> entry : cells.entrySet()) {
+    		int x = xOf(entry.getKey()) + shiftX;
+    		int y = yOf(entry.getKey()) + shiftY;
+    		CellUI cell = entry.getValue();
+    		if (gridData.isCoordinateInGrid(x, y)) { //if contains cell, move the cell to its new place
+    			newCells.put(keyOf(x, y), cell);
+    			if (shiftX != 0 || shiftY != 0) {
+    				cell.setIndex(x, y);
+    			}
+    		} else { //remove the cells if they are not in the new gridBoard size
+    			selectionTool.removeSelectedCell(cell);
+    			removedCells.add(cell);
+    		}
     	}
+    	this.getChildren().removeAll(removedCells);
     	
-    	this.cellArray = newCellArray;
+    	this.cells = newCells;
     	this.width = gridData.getWidth();
     	this.height = gridData.getHeight();
+    	updateBoardSize();
+    	updateShownCells(); // the new cells in the viewport
+    }
+    
+    /**
+     * Repaints the cells of the region which changed, and adds or removes cells if the grid was resized
+     */
+    @Override
+    public void gridChanged(GridChangeEvent event) {
+    	if (event.isResized()) {
+    		repaintChangedCells(); // the cells waiting for a repaint are still where they were before the resize
+    		updateVisualBasedOnGrid(event.getShiftX(), event.getShiftY());
+    	}
+    	changedCells.addAll(event.getRegion());
+    	repaintTimer.start(); // a drag changes many cells between two frames, they are painted together
+    }
+
+    /**
+     * Repaints the cells which changed since the last frame
+     */
+    private void repaintChangedCells() {
+    	repaintTimer.stop();
+    	DirtyRegion region = changedCells;
+    	changedCells = new DirtyRegion();
+    	CellRectangle board = new CellRectangle(0, 0, width, height);
+    	for (CellRectangle changed : region.getRectangles()) {
+    		CellRectangle part = changed.intersection(board);
+    		if (part == null) {
+    			continue;
+    		}
+    		if ((long) part.getWidth() * part.getHeight() > cells.size()) { // a fill of the whole board changes far more cells than have a CellUI
+    			for (Map.Entry<Long, CellUI> entry : cells.entrySet()) {
+    				if (part.contains(xOf(entry.getKey()), yOf(entry.getKey())) && entry.getValue().isPainted()) {
+    					entry.getValue().updateVisualBasedOnBlock();
+    				}
+    			}
+    		} else {
+    			for (int y = part.getY(); y < part.getEndY(); y++) {
+    				for (int x = part.getX(); x < part.getEndX(); x++) {
+    					CellUI cell = cells.get(keyOf(x, y));
+    					if (cell != null && cell.isPainted()) { // the others read their level once they are shown
+    						cell.updateVisualBasedOnBlock();
+    					}
+    				}
+    			}
+    		}
+    	}
     }
     
     public void updateVisual() {
-    	for (int y = 0; y < gridData.getHeight(); y++) {
-    		for (int x = 0; x < gridData.getWidth(); x++) {
-            	cellArray[x][y].updateVisualBasedOnBlock();
-            }
+    	for (CellUI cell : cells.values()) {
+    		if (cell.isPainted()) {
+    			cell.updateVisualBasedOnBlock();
+    		}
     	}
     }
     
     public void updateVisualDisplayLevel() {
-    	for (int y = 0; y < gridData.getHeight(); y++) {
-    		for (int x = 0; x < gridData.getWidth(); x++) {
-            	cellArray[x][y].updateVisualDisplayLevel();
-            }
+    	isLevelShown = true;
+    	for (CellUI cell : cells.values()) {
+    		cell.updateVisualDisplayLevel();
     	}
     }
     
     public void updateVisualRemoveLevel() {
-    	for (int y = 0; y < gridData.getHeight(); y++) {
-    		for (int x = 0; x < gridData.getWidth(); x++) {
-            	cellArray[x][y].updateVisualRemoveLevel();
-            }
+    	isLevelShown = false;
+    	for (CellUI cell : cells.values()) {
+    		cell.updateVisualRemoveLevel();
     	}
     }
     
+    /**
+     * Paints the cells of the part of the board which is shown which were not painted yet, then reads ahead the cells
+     * around it, one screen on each side, so they are ready once the board is scrolled there. Only a grid opened from
+     * a large file reads its cells when they are used (see ProjectIO.open), for the others reading ahead does nothing
+     * 
+     * @param visible - the part of the board which is shown, in the coordinates of the board
+     */
+    public void viewportChanged(Bounds visible) {
+    	int left = (int) Math.floor(visible.getMinX() / tileSize);
+    	int top = (int) Math.floor(visible.getMinY() / tileSize);
+    	int columns = (int) Math.ceil(visible.getWidth() / tileSize) + 1;
+    	int rows = (int) Math.ceil(visible.getHeight() / tileSize) + 1;
+    	shownCells = new CellRectangle(left, top, columns, rows);
+    	updateShownCells();
+    	gridData.prefetch(new CellRectangle(left - columns, top - rows, 3 * columns, 3 * rows));
+    }
+
+    /**
+     * Puts the CellUIs of the cells in the viewport on the board and paints the ones which were not painted yet. The
+     * CellUIs of the cells which left the viewport are taken off the board and reused for the cells which entered it,
+     * except the selected ones, which are kept for the selection tool
+     */
+    private void updateShownCells() {
+    	CellRectangle shown = (shownCells == null) ? null : shownCells.intersection(new CellRectangle(0, 0, width, height));
+    	Set<Node> hiddenCells = new HashSet<>();
+    	ArrayDeque<CellUI> unusedCells = new ArrayDeque<>();
+    	for (Iterator<Map.Entry<Long, CellUI>> it = cells.entrySet().iterator(); it.hasNext(); ) {
+    		Map.Entry<Long, CellUI> entry = it.next();
+    		CellUI cell = entry.getValue();
+    		if (shown == null || !shown.contains(xOf(entry.getKey()), yOf(entry.getKey()))) {
+    			if (cell.getParent() == this) {
+    				hiddenCells.add(cell);
+    			}
+    			if (!cell.isSelected()) {
+    				it.remove();
+    				unusedCells.add(cell);
+    			}
+    		}
+    	}
+    	this.getChildren().removeAll(hiddenCells); // a set, so each cell is found at once
+    	if (shown == null) {
+    		return;
+    	}
+    	
+    	List<CellUI> newCells = new ArrayList<>();
+    	for (int y = shown.getY(); y < shown.getEndY(); y++) {
+    		for (int x = shown.getX(); x < shown.getEndX(); x++) {
+    			CellUI cell = cells.get(keyOf(x, y));
+    			if (cell == null) {
+    				cell = unusedCells.isEmpty() ? createCell(x, y) : reuseCell(unusedCells.poll(), x, y);
+    				cells.put(keyOf(x, y), cell);
+    			}
+    			if (!cell.isPainted()) {
+    				cell.updateVisualBasedOnBlock();
+    			}
+    			if (cell.getParent() != this) {
+    				newCells.add(cell);
+    			}
+    		}
+    	}
+    	this.getChildren().addAll(0, newCells); // under the selection rectangle
+    }
+
+    /**
+     * Makes the CellUI of a cell, which is painted once it is shown
+     */
+    private CellUI createCell(int x, int y) {
+    	CellUI cell = new CellUI(this, x, y, tileSize);
+    	cell.setLayoutX(x * tileSize); //spaces out the tiles based on the tile size
+    	cell.setLayoutY(y * tileSize);
+    	if (isLevelShown) {
+    		cell.updateVisualDisplayLevel();
+    	}
+    	return cell;
+    }
+
+    /**
+     * Moves the CellUI of a cell which left the viewport to a cell which entered it, and paints it
+     */
+    private CellUI reuseCell(CellUI cell, int x, int y) {
+    	cell.updateVisualRemoveLevel();
+    	cell.setIndex(x, y);
+    	cell.updateVisualBasedOnBlock();
+    	if (isLevelShown) {
+    		cell.updateVisualDisplayLevel();
+    	}
+    	return cell;
+    }
+
+    /**
+     * Sets the size of the board to the size of all its cells, so it can be scrolled to the ones which are not shown
+     */
+    private void updateBoardSize() {
+    	this.setPrefSize((double) width * tileSize, (double) height * tileSize);
+    }
+
+    /**
+     * Returns the key of the place of a cell in cells
+     */
+    private static long keyOf(int x, int y) {
+    	return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+
+    private static int xOf(long key) {
+    	return (int) (key >> 32);
+    }
+
+    private static int yOf(long key) {
+    	return (int) key;
+    }
+    
     //---------------- Access the local references such as getters and setters -------------
     public int getTileSize() { 
 		return tileSize;
@@ -139,15 +337,14 @@ public class GridBoardUI extends AnchorPane {
     
     public void setTileSize(int size) throws ArithmeticException { 
     	this.tileSize = size;
-    	for (int y = 0; y < gridData.getHeight(); y++) { 
-    		for (int x = 0; x < gridData.getWidth(); x++) {
-               	cellArray[x][y].getColorRect().setWidth(size - 1);
-               	cellArray[x][y].getColorRect().setHeight(size - 1);
-            	cellArray[x][y].setLayoutX(x*size);
-            	cellArray[x][y].setLayoutY(y*size);
-            	updateVisual();
-            }
+    	for (Map.Entry<Long, CellUI> entry : cells.entrySet()) {
+    		CellUI cell = entry.getValue();
+    		cell.getColorRect().setWidth(size - 1);
+    		cell.getColorRect().setHeight(size - 1);
+    		cell.setLayoutX(xOf(entry.getKey()) * size);
+    		cell.setLayoutY(yOf(entry.getKey()) * size);
     	}
+    	updateBoardSize();
 	}
     
     public Grid getGridData() { //grid data represents the data of the GridUI
@@ -155,7 +352,7 @@ public class GridBoardUI extends AnchorPane {
 	}
         
 	/**
-	 * Get the cell at a particular index position on grid
+	 * Get the cell at a particular index position on grid. Its CellUI is made if the cell is not shown
 	 * 
 	 * @param xIndex - the x index
 	 * @param yIndex - the y index
@@ -163,7 +360,17 @@ public class GridBoardUI extends AnchorPane {
 	 * @return the cell at that index position
 	 */
     public CellUI getCell(int xIndex, int yIndex) throws IndexOutOfBoundsException {
-        return cellArray[xIndex][yIndex];
+    	if (xIndex < 0 || xIndex >= width || yIndex < 0 || yIndex >= height) {
+    		throw new IndexOutOfBoundsException("Cell " + xIndex + ", " + yIndex + " is not on the board");
+    	}
+    	return cells.computeIfAbsent(keyOf(xIndex, yIndex), key -> createCell(xIndex, yIndex));
+    }
+
+    /**
+     * Returns the number of CellUIs on the board, the ones of the shown cells
+     */
+    int getShownCellCount() {
+    	return (int) this.getChildren().stream().filter(child -> child instanceof CellUI).count();
     }
     
     
@@ -178,7 +385,7 @@ public class GridBoardUI extends AnchorPane {
     public CellUI getCellAtPixelCoordinates(double x, double y) throws IndexOutOfBoundsException {
     	int xIndex = (int) (x / getTileSize());
     	int yIndex = (int) (y / getTileSize());
-    	return cellArray[xIndex][yIndex];
+    	return getCell(xIndex, yIndex);
     }
     
     public boolean isPointy() {
@@ -198,14 +405,7 @@ public class GridBoardUI extends AnchorPane {
     }
  
     public Boolean isEmpty() {
-    	for (int y = 0; y < gridData.getHeight(); y++) {
-    		for (int x = 0; x < gridData.getWidth(); x++) {
-    			if(gridData.getBlockAt(x, y).getZ() != 0) {
-    				return false;
-				}
-            }
-    	}
-    	return true;
+    	return gridData.isEmpty();
     }
     
     //------------------ Some Features --------------------
@@ -215,9 +415,11 @@ public class GridBoardUI extends AnchorPane {
      */
     public void setAllSelectedCellsToLevel(int level) {
     	Set<CellUI> selectedCells = selectionTool.getSelectedCells();
-    	for(CellUI cell : selectedCells){
-    		cell.setLevel(level);
-    	}
+    	gridData.edit(() -> {
+	    	for(CellUI cell : selectedCells){
+	    		cell.setLevel(level);
+	    	}
+    	});
     }
     
     /**
@@ -225,37 +427,29 @@ public class GridBoardUI extends AnchorPane {
      * @param isSelected - if the cells should be selected
      */
     public void selectLevel(boolean isSelected) { //Different from getLevel()
-    	for (int y = 0; y < gridData.getHeight(); y++) {
-    		for (int x = 0; x < gridData.getWidth(); x++) {
-            	if ((cellArray[x][y]).getBlock().getZ() == level) {
-            		if (isSelected) {
-            			selectionTool.addSelectedCell(cellArray[x][y]);
-            		} else {
-            			selectionTool.removeSelectedCell(cellArray[x][y]);
-            		}
-            	}
-            }
-    	}
+    	gridData.forEachCellAtLevel(level, (x, y) -> { //only visits the cells at the level
+    		if (isSelected) {
+    			selectionTool.addSelectedCell(getCell(x, y));
+    		} else if (cells.containsKey(keyOf(x, y))) { // a cell without a CellUI is not selected
+    			selectionTool.removeSelectedCell(cells.get(keyOf(x, y)));
+    		}
+    	});
     }
     
     public void resize(int newWidth, int newHeight) {
     	gridData.resize(newWidth, newHeight);
     }
     
+    public void extend(int left, int top, int right, int bottom) {
+    	gridData.extend(left, top, right, bottom);
+    }
+    
     public void clearAll() {
-    	for (int y = 0; y < gridData.getHeight(); y++) {
-    		for (int x = 0; x < gridData.getWidth(); x++) {
-    			if(gridData.getBlockAt(x, y).getZ() != 0) {
-    				gridData.getBlockAt(x, y).setZ(0);
-    				cellArray[x][y].updateVisualBasedOnBlock();
-				}
-            }
-    	}
+    	gridData.allBlocksSetZ(0);
     }
 
     public void generateMaze() {
     	Maze maze = new Maze(gridData);
-    	maze.generateMaze();
-    	updateVisual();
+    	gridData.edit(maze::generateMaze);
     }
 }
\ No newline at end of file
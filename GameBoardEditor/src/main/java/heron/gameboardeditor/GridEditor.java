@@ -5,10 +5,14 @@ import javafx.scene.input.MouseEvent;
 
 /**
  * This class uses the State pattern. It passes all the listening responsibilities to the currentTool
+ * 
+ * It also tells the tool where a gesture (a stroke) begins and ends: from the mouse press to the mouse release,
+ * so the whole gesture is one step of the undo history
  */
 public class GridEditor {
 
 	private Tool currentTool;
+	private Tool strokeTool; //the tool of the gesture in progress, null between gestures
 
 	public GridEditor(Tool initialTool) {
 		this.currentTool = initialTool;
@@ -19,18 +23,30 @@ public class GridEditor {
      *@param newTool - the tool which current tool will be set to
      */
 	public void setCurrentTool(Tool newTool) {
+		endStroke();
 		currentTool = newTool;
 	}
 
 	public void mousePressed(MouseEvent e) {
+		endStroke(); // in case the release of the last gesture was missed
+		strokeTool = currentTool;
+		currentTool.beginStroke();
 		currentTool.mousePressed(e);
 	}
 
 	public void mouseReleased(MouseEvent e) {
 		currentTool.mouseReleased(e);
+		endStroke();
 	}
 
 	public void mouseDragged(MouseEvent e) {
 		currentTool.mouseDragged(e);
 	}
+
+	private void endStroke() {
+		if (strokeTool != null) {
+			strokeTool.endStroke();
+			strokeTool = null;
+		}
+	}
 }
@@ -1,34 +1,40 @@
 package heron.gameboardeditor;
 
-import java.util.Stack;
+import heron.gameboardeditor.datamodel.Grid;
+import heron.gameboardeditor.datamodel.GridHistory;
 
 public class UndoRedoHandler {
-	private Stack<EditingScreenController.State> undoStack, redoStack;
-	// invariant: The top state of the undoStack always is a copy of the
-	// current state of the canvas.
+	private GridHistory history; // the changed cells of each step, not a copy of the grid per step
 	private EditingScreenController controller;
 
 	/**
 	 * constructor
-	 * 
+	 *
 	 * @param controller -  the EditingScreenController whose changes are saved for later
 	 *               restoration.
 	 */
 	public UndoRedoHandler(EditingScreenController controller) {
-		undoStack = new Stack<EditingScreenController.State>();
-		redoStack = new Stack<EditingScreenController.State>();
+		this(controller, App.getGrid());
+	}
+
+	/**
+	 * constructor
+	 *
+	 * @param controller - the EditingScreenController which is refreshed after an undo or a redo
+	 * @param grid - the grid whose changes are recorded
+	 */
+	UndoRedoHandler(EditingScreenController controller, Grid grid) {
+		long memoryBudget = Long.getLong("heron.undoBudget", GridHistory.DEFAULT_MEMORY_BUDGET); // in bytes, older steps are moved to a temporary file past it
+		this.history = new GridHistory(grid, memoryBudget);
 		this.controller = controller;
-		// store the initial state of the canvas on the undo stack
-		undoStack.push(controller.createMemento());
 	}
 
 	/**
-	 * saves the current state of the editing screen controller for later restoration
+	 * saves the changes made since the last saved state as one step which can be undone.
+	 * Nothing is saved if the grid did not change, for example when a tool button is clicked
 	 */
 	public void saveState() {
-		EditingScreenController.State canvasState = controller.createMemento();
-		undoStack.push(canvasState);
-		redoStack.clear();
+		history.saveStep();
 	}
 
 	/**
@@ -38,12 +44,10 @@ public class UndoRedoHandler {
 	 * the startup state).
 	 */
 	public void undo() {
-		if (undoStack.size() == 1) // only the current state is on the stack
-			return;
-
-		EditingScreenController.State canvasState = undoStack.pop();
-		redoStack.push(canvasState);
-		controller.restoreState(undoStack.peek());
+		int maxZ = history.getGrid().getMaxZ(); // an edit of the max level which was not saved yet is undone as a step of its own
+		if (history.undo()) {
+			controller.restoreState(history.getGrid().getMaxZ() != maxZ);
+		}
 	}
 
 	/**
@@ -52,11 +56,20 @@ public class UndoRedoHandler {
 	 * since the last undo, then this method does nothing.
 	 */
 	public void redo() {
-		if (redoStack.isEmpty())
-			return;
+		int maxZ = history.getGrid().getMaxZ();
+		if (history.redo()) {
+			controller.restoreState(history.getGrid().getMaxZ() != maxZ);
+		}
+	}
+
+	/**
+	 * stops recording the changes of the grid, when the grid or the handler is replaced
+	 */
+	public void dispose() {
+		history.dispose();
+	}
 
-		EditingScreenController.State canvasState = redoStack.pop();
-		undoStack.push(canvasState);
-		controller.restoreState(canvasState);
+	public GridHistory getHistory() {
+		return history;
 	}
 }
@@ -0,0 +1,411 @@
+package heron.gameboardeditor.datamodel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class saves a grid again and again while it is edited, to a log .heron file (see LogFormat), so the cost
+ * of a save follows the size of the edits since the last one, not the size of the board.
+ *
+ * It listens to the grid and keeps the tiles of the tile space whose cells changed since the last save. A save takes
+ * a read-only version of the grid and appends only those tiles and a commit to the file, on a thread of its own, so
+ * the grid can be edited while it is written. The records of the tiles which were saved again are dead bytes: once
+ * they are most of the file, the file is compacted, the newest version of each tile is written to a new file which
+ * is moved in place of the old one, on the same thread. The file can be opened like any .heron file, with
+ * ProjectIO.load, and holds the last save which was written completely even if the editor dies while it writes.
+ *
+ * The autosave of a board which was just opened starts from the file it was opened from: the file is linked next to
+ * the autosave file (see baseFileFor), which is the base of the log (see LogFormat), and only the tiles which changed
+ * since are written, so opening a large board does not write it again. A compaction then writes the newest version of
+ * the tiles which changed, not of every tile. If the file cannot be linked, the whole grid is written as without a base.
+ */
+public class Autosave implements GridListener {
+	static final long MIN_COMPACT_LENGTH = 1 << 20; //a file shorter than this is never compacted, it would cost more than it saves
+	private static final int COMPACT_RATIO = 2; //a file is compacted once it is this many times longer than its live records
+
+	private final Grid grid;
+	private final File file;
+	private final long minCompactLength;
+	private Set<Long> changedTiles = new HashSet<>(); //the keys of the tiles which changed since the last save
+	private CellRectangle keptTiles; //the tiles which stayed in the grid since the last save, null if none did
+	private CellRectangle bounds; //the origin and the size of the grid after the last change
+	private CellRectangle savedBounds; //the origin and the size of the grid at the last save
+	private int savedMaxZ;
+	private final ThreadPoolExecutor thread = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> new Thread(task, "heron-autosave"));
+	private volatile IOException failure; //why the last save failed, null if it was written
+
+	private final String baseName; //the name of the link to the base of the file, null if the file has no base
+
+	// used by the thread of the autosave only
+	private FileChannel channel;
+	private final Map<Long, Integer> liveLengths = new HashMap<>(); //the length of the newest record of each tile which is not empty, by key
+	private long liveTileLength; //the sum of liveLengths
+	private CellRectangle liveRange; //the tiles of the grid at the last save written, null if it had none
+	private final Set<Long> recordedTiles = new HashSet<>(); //with a base, the tiles which changed since the start, the others are read from the base
+	private CellRectangle liveBaseRange; //with a base, the tiles of the base which stayed in the grid since the start, null if none did
+
+	private Autosave(Grid grid, File file, long minCompactLength, String baseName) {
+		this.grid = grid;
+		this.file = file;
+		this.minCompactLength = minCompactLength;
+		this.baseName = baseName;
+		thread.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Starts to autosave a grid: the whole grid is written to the file in the background, then each save appends
+	 * what changed since
+	 *
+	 * @param grid - the grid, which must be edited by the thread which calls save
+	 * @param file - the log .heron file, which is replaced
+	 * @return the autosave of the grid
+	 */
+	public static Autosave start(Grid grid, File file) {
+		return start(grid, file, null, MIN_COMPACT_LENGTH);
+	}
+
+	/**
+	 * Starts to autosave a grid which was just opened from a file, without writing it: the file is linked next to the
+	 * autosave file, then each save appends what changed since
+	 *
+	 * @param grid - the grid, which must be edited by the thread which calls save
+	 * @param file - the log .heron file, which is replaced
+	 * @param baseFile - the file the grid was opened from, which must hold the grid as it is now, or null to write the whole grid
+	 * @return the autosave of the grid
+	 */
+	public static Autosave start(Grid grid, File file, File baseFile) {
+		return start(grid, file, baseFile, MIN_COMPACT_LENGTH);
+	}
+
+	static Autosave start(Grid grid, File file, long minCompactLength) {
+		return start(grid, file, null, minCompactLength);
+	}
+
+	static Autosave start(Grid grid, File file, File baseFile, long minCompactLength) {
+		String baseName = null;
+		if (baseFile != null) {
+			File link = baseFileFor(file);
+			try {
+				if (!LogFormat.isLog(baseFile)) { // its base would not be next to the link
+					Files.deleteIfExists(link.toPath());
+					Files.createLink(link.toPath(), baseFile.toPath()); // the file itself may be replaced by a save, the link keeps this version
+					baseName = link.getName();
+				}
+			} catch (IOException | UnsupportedOperationException ex) {
+				// the whole grid is written instead, like a grid which was not opened from a file
+			}
+		}
+		Autosave autosave = new Autosave(grid, file, minCompactLength, baseName);
+		Grid version = grid.snapshot();
+		autosave.bounds = boundsOf(version);
+		autosave.savedBounds = autosave.bounds;
+		autosave.savedMaxZ = version.getMaxZ();
+		autosave.keptTiles = keptRangeOf(version);
+		autosave.liveBaseRange = autosave.keptTiles;
+		grid.addGridListener(autosave);
+		autosave.thread.execute(() -> autosave.write(() -> autosave.compact(version)));
+		return autosave;
+	}
+
+	/**
+	 * Returns the autosave file of a project file, next to it: board.heron is autosaved to board.autosave.heron
+	 *
+	 * @param projectFile - the .heron file of the project
+	 */
+	public static File fileFor(File projectFile) {
+		String name = projectFile.getName();
+		String base = name.endsWith(".heron") ? name.substring(0, name.length() - ".heron".length()) : name;
+		return new File(projectFile.getAbsoluteFile().getParentFile(), base + ".autosave.heron");
+	}
+
+	/**
+	 * Returns the link to the file a grid was opened from which an autosave file is based on, next to it:
+	 * board.autosave.heron is based on board.autosave.heron.base
+	 *
+	 * @param file - the autosave file
+	 */
+	static File baseFileFor(File file) {
+		return new File(file.getPath() + ".base");
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns why the last save could not be written, or null if it was. The next save tries again
+	 */
+	public IOException getFailure() {
+		return failure;
+	}
+
+	@Override
+	public void gridChanged(GridChangeEvent event) {
+		for (CellRectangle cells : event.getRegion().getRectangles()) {
+			int firstTileX = (grid.getOriginX() + cells.getX()) >> Tile.SHIFT;
+			int firstTileY = (grid.getOriginY() + cells.getY()) >> Tile.SHIFT;
+			int endTileX = ((grid.getOriginX() + cells.getEndX() - 1) >> Tile.SHIFT) + 1;
+			int endTileY = ((grid.getOriginY() + cells.getEndY() - 1) >> Tile.SHIFT) + 1;
+			tilesChanged(firstTileX, firstTileY, endTileX - firstTileX, endTileY - firstTileY);
+		}
+		if (event.isResized()) {
+			CellRectangle newBounds = boundsOf(grid);
+			CellRectangle tileRange = tileRangeOf(grid);
+			if (keptTiles != null) { // the tiles outside of the new bounds were dropped, with their cells
+				keptTiles = keptTiles.intersection(tileRange);
+			}
+			if (tileRange.getArea() > 0) { // the cropped cells of the tiles on the cropped sides were cleared, outside of the region of the event
+				if (newBounds.getX() > bounds.getX()) {
+					tilesChanged(tileRange.getX(), tileRange.getY(), 1, tileRange.getHeight());
+				}
+				if (newBounds.getY() > bounds.getY()) {
+					tilesChanged(tileRange.getX(), tileRange.getY(), tileRange.getWidth(), 1);
+				}
+				if (newBounds.getEndX() < bounds.getEndX()) {
+					tilesChanged(tileRange.getEndX() - 1, tileRange.getY(), 1, tileRange.getHeight());
+				}
+				if (newBounds.getEndY() < bounds.getEndY()) {
+					tilesChanged(tileRange.getX(), tileRange.getEndY() - 1, tileRange.getWidth(), 1);
+				}
+			}
+			bounds = newBounds;
+		}
+	}
+
+	private void tilesChanged(int firstTileX, int firstTileY, int across, int down) {
+		for (int tileY = firstTileY; tileY < firstTileY + down; tileY++) {
+			for (int tileX = firstTileX; tileX < firstTileX + across; tileX++) {
+				changedTiles.add(LogFormat.keyOf(tileX, tileY));
+			}
+		}
+	}
+
+	/**
+	 * Saves the tiles of the grid which changed since the last save, in the background. It must be called by the
+	 * thread which edits the grid, and does nothing if the grid did not change
+	 */
+	public void save() {
+		Grid version = grid.snapshot();
+		CellRectangle tileRange = keptRangeOf(version);
+		if (changedTiles.isEmpty() && Objects.equals(keptTiles, tileRange) && boundsOf(version).equals(savedBounds) && version.getMaxZ() == savedMaxZ) {
+			return;
+		}
+		Set<Long> tiles = changedTiles;
+		CellRectangle kept = keptTiles;
+		changedTiles = new HashSet<>();
+		keptTiles = tileRange;
+		savedBounds = boundsOf(version);
+		savedMaxZ = version.getMaxZ();
+		thread.execute(() -> write(() -> append(version, tiles, kept)));
+	}
+
+	/**
+	 * Waits until the saves asked for are written
+	 */
+	public void sync() throws IOException {
+		try {
+			thread.submit(() -> { }).get();
+		} catch (ExecutionException ex) {
+			throw new IOException(ex.getCause());
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for the autosave", ex);
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Stops listening to the grid, once the saves asked for are written. The file is left as it is
+	 */
+	public void stop() {
+		grid.removeGridListener(this);
+		thread.execute(() -> {
+			try {
+				if (channel != null) {
+					channel.close();
+					channel = null;
+				}
+			} catch (IOException ex) {
+				// what was forced to the disk is safe, nothing was written since
+			}
+		});
+		thread.shutdown();
+	}
+
+	/**
+	 * Waits until the saves asked for before stop are written and the file is closed
+	 */
+	public void awaitStop() throws InterruptedException {
+		thread.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	//------------- the thread of the autosave -------------
+
+	/**
+	 * A write of the file, which may fail
+	 */
+	private interface FileWrite {
+		void run() throws IOException;
+	}
+
+	private void write(FileWrite write) {
+		try {
+			write.run();
+			failure = null;
+		} catch (IOException ex) {
+			failure = ex;
+			try {
+				if (channel != null) { // the next save writes the whole file, the end of this one may be torn
+					channel.close();
+				}
+			} catch (IOException closeFailure) {
+				ex.addSuppressed(closeFailure);
+			}
+			channel = null;
+		}
+	}
+
+	/**
+	 * Appends the tiles which changed and a commit to the file, then compacts it if it holds mostly dead records
+	 */
+	private void append(Grid version, Set<Long> tiles, CellRectangle kept) throws IOException {
+		if (baseName != null) { // what a compaction writes on top of the base
+			recordedTiles.addAll(tiles);
+			liveBaseRange = (liveBaseRange == null || kept == null) ? null : liveBaseRange.intersection(kept);
+		}
+		if (channel == null) { // the file could not be written before, it is written again from scratch
+			compact(version);
+			return;
+		}
+		CellRectangle tileRange = tileRangeOf(version);
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		if (!Objects.equals(kept, liveRange)) { // the tiles of the file outside of the kept tiles are dropped by the commit
+			liveLengths.entrySet().removeIf(entry -> {
+				boolean isDropped = kept == null || !kept.contains(LogFormat.tileXOf(entry.getKey()), LogFormat.tileYOf(entry.getKey()));
+				liveTileLength -= isDropped ? entry.getValue() : 0;
+				return isDropped;
+			});
+		}
+		liveRange = keptRangeOf(version);
+		for (long key : tiles) {
+			int tileX = LogFormat.tileXOf(key);
+			int tileY = LogFormat.tileYOf(key);
+			if (tileRange.contains(tileX, tileY)) { // the other tiles were cropped since, the commit drops them
+				Tile tile = version.getTile(tileX, tileY);
+				byte[] record = LogFormat.tileRecord(tileX, tileY, tile);
+				records.write(record, 0, record.length);
+				Integer oldLength = (tile == null) ? liveLengths.remove(key) : liveLengths.put(key, record.length);
+				liveTileLength += ((tile == null) ? 0 : record.length) - ((oldLength == null) ? 0 : oldLength);
+			}
+		}
+		byte[] commit = LogFormat.commitRecord(version, kept);
+		records.write(commit, 0, commit.length);
+		channel.write(ByteBuffer.wrap(records.toByteArray()));
+		channel.force(false);
+
+		long liveLength = LogFormat.HEADER_LENGTH + liveTileLength + commit.length; //about the length of the file once compacted
+		long fileLength = channel.size();
+		if (fileLength > minCompactLength && fileLength > COMPACT_RATIO * liveLength) {
+			compact(version);
+		}
+	}
+
+	/**
+	 * Writes every tile of a version to a new file, which is moved in place of the file once it is on the disk. With
+	 * a base, only the tiles which changed since the start are written, after the base
+	 */
+	private void compact(Grid version) throws IOException {
+		File parent = file.getAbsoluteFile().getParentFile();
+		File temp = File.createTempFile("." + file.getName() + ".", ".tmp", parent);
+		try {
+			CellRectangle tileRange = tileRangeOf(version);
+			liveLengths.clear();
+			liveTileLength = 0;
+			liveRange = keptRangeOf(version);
+			try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+				ByteArrayOutputStream records = new ByteArrayOutputStream();
+				records.write(LogFormat.header(), 0, LogFormat.HEADER_LENGTH);
+				if (baseName != null) {
+					byte[] base = LogFormat.baseRecord(baseName);
+					records.write(base, 0, base.length);
+					recordedTiles.removeIf(key -> !tileRange.contains(LogFormat.tileXOf(key), LogFormat.tileYOf(key))); // cropped, the commit drops them
+					for (long key : recordedTiles) {
+						Tile tile = version.getTile(LogFormat.tileXOf(key), LogFormat.tileYOf(key));
+						byte[] record = LogFormat.tileRecord(LogFormat.tileXOf(key), LogFormat.tileYOf(key), tile); // an empty tile too, it replaces the one of the base
+						records.write(record, 0, record.length);
+						if (tile != null) {
+							liveLengths.put(key, record.length);
+							liveTileLength += record.length;
+						}
+						if (records.size() >= 1 << 20) { // so many changed tiles are never all in memory
+							out.write(ByteBuffer.wrap(records.toByteArray()));
+							records.reset();
+						}
+					}
+				} else {
+					for (int tileY = tileRange.getY(); tileY < tileRange.getEndY(); tileY++) {
+						for (int tileX = tileRange.getX(); tileX < tileRange.getEndX(); tileX++) {
+							Tile tile = version.getTile(tileX, tileY);
+							if (tile != null) {
+								byte[] record = LogFormat.tileRecord(tileX, tileY, tile);
+								records.write(record, 0, record.length);
+								liveLengths.put(LogFormat.keyOf(tileX, tileY), record.length);
+								liveTileLength += record.length;
+							}
+						}
+						out.write(ByteBuffer.wrap(records.toByteArray())); // a row of tiles at a time, so a huge board is never all in memory
+						records.reset();
+					}
+				}
+				out.write(ByteBuffer.wrap(records.toByteArray()));
+				byte[] commit = LogFormat.commitRecord(version, (baseName != null) ? liveBaseRange : keptRangeOf(version));
+				out.write(ByteBuffer.wrap(commit));
+				out.force(true);
+			}
+			if (channel != null) {
+				channel.close();
+				channel = null;
+			}
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			if (baseName == null) {
+				Files.deleteIfExists(baseFileFor(file).toPath()); // the base of an older autosave of the file
+			}
+		} finally {
+			temp.delete();
+		}
+	}
+
+	private static CellRectangle boundsOf(Grid grid) {
+		return new CellRectangle(grid.getOriginX(), grid.getOriginY(), grid.getWidth(), grid.getHeight());
+	}
+
+	private static CellRectangle tileRangeOf(Grid grid) {
+		return LogFormat.tileRangeOf(grid.getOriginX(), grid.getOriginY(), grid.getWidth(), grid.getHeight());
+	}
+
+	/**
+	 * Returns the range of the tiles of a grid, or null if the grid has no cells, like an intersection which is empty
+	 */
+	private static CellRectangle keptRangeOf(Grid grid) {
+		CellRectangle tileRange = tileRangeOf(grid);
+		return (tileRange.getArea() == 0) ? null : tileRange;
+	}
+}
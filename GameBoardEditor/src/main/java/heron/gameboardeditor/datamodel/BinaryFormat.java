@@ -0,0 +1,818 @@
+package heron.gameboardeditor.datamodel;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.DoubleConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * This class reads and writes the binary .heron format, version 6 of the .heron files (version 1 is the JSON of
+ * JsonFormat, version 3 the mapped files of PlaneFormat, version 5 the log files of LogFormat).
+ *
+ * A file starts with MAGIC and the version, then the width, the height and the max level of the grid, and the number
+ * of rows and of columns of a chunk as varints. The chunks follow, row by row: each one holds CHUNK_COLUMNS / Tile.SIZE
+ * tiles of a row of tiles, Tile.SIZE rows of cells, and is compressed on its own, so the chunks are compressed and
+ * decompressed in parallel, on the threads of a ForkJoinPool, and any chunk can be read without the others.
+ * Each chunk is its length, its compressed length (varints) and the CRC32 of its compressed bytes, then the bytes.
+ * Before compression, a chunk holds the levels of its cells, row by row, as runs: the length of the run and the level
+ * of its cells, both varints, then the number of its pointy cells and, if there are any, a bitset of them, 8 cells a byte.
+ * The file ends with the index: the place of each chunk in the file, the number of cells at each level (the number
+ * of levels which have cells, then each of them and its number of cells, as varints), the place of the index, and a
+ * CRC32 of the header and the index. So the chunks are found from the end of the file, a damaged file is detected, and
+ * a grid can be opened from the header and the index alone, its chunks read when they are used (see open).
+ */
+final class BinaryFormat {
+	static final byte[] MAGIC = { (byte) 0x89, 'H', 'R', 'N' }; //0x89 is not the start of a text file, so JSON is never taken for it
+	static final int VERSION = 6;
+	static final int CHUNK_COLUMNS = 8 * Tile.SIZE; //the width of a chunk, which bounds what is read to show a part of a wide board
+	private static final int CHUNKS_PER_THREAD = 2; //the chunks compressed or decompressed ahead of the one being written or placed, for each thread
+
+	private BinaryFormat() {
+	}
+
+	/**
+	 * Returns if the first bytes of a file are the ones of the binary format
+	 *
+	 * @param head - the first bytes of the file, at least MAGIC.length of them if the file has that many
+	 */
+	static boolean isBinary(byte[] head) {
+		if (head.length < MAGIC.length) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (head[i] != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Writes a grid, compressing its chunks on the common pool
+	 *
+	 * @param grid - the grid, which can be a read-only version written from a background thread
+	 * @param output - where the grid is written, it should be buffered
+	 */
+	static void write(Grid grid, OutputStream output) throws IOException {
+		write(grid, output, ForkJoinPool.commonPool(), null);
+	}
+
+	/**
+	 * Writes a grid, compressing its chunks on the threads of a pool while the chunks before them are written
+	 *
+	 * @param grid - the grid, which can be a read-only version written from a background thread. It must not change while it is written
+	 * @param output - where the grid is written, it should be buffered
+	 * @param pool - the threads which compress the chunks
+	 * @param progress - told the part of the grid which is written, from 0 to 1, after each chunk, or null
+	 */
+	static void write(Grid grid, OutputStream output, ForkJoinPool pool, DoubleConsumer progress) throws IOException {
+		Layout layout = new Layout(grid.getWidth(), grid.getHeight(), grid.getMaxZ(), CHUNK_COLUMNS);
+		CRC32 crc = new CRC32();
+		DataOutputStream out = new DataOutputStream(output);
+		DataOutputStream header = new DataOutputStream(new CheckedOutputStream(out, crc));
+		header.write(MAGIC);
+		header.writeByte(VERSION);
+		writeVarint(header, layout.width);
+		writeVarint(header, layout.height);
+		writeVarint(header, layout.maxZ);
+		writeVarint(header, Tile.SIZE);
+		writeVarint(header, CHUNK_COLUMNS);
+
+		long[] offsets = new long[layout.chunkCount];
+		long offset = out.size();
+		ArrayDeque<ForkJoinTask<Chunk>> inFlight = new ArrayDeque<>();
+		try {
+			for (int chunk = 0, next = 0; chunk < layout.chunkCount; chunk++) {
+				while (next < layout.chunkCount && inFlight.size() < CHUNKS_PER_THREAD * pool.getParallelism()) {
+					int nextChunk = next++;
+					inFlight.add(pool.submit(() -> Chunk.encode(grid, layout, nextChunk)));
+				}
+				offsets[chunk] = offset;
+				offset += join(inFlight.poll(), chunk).writeTo(out);
+				if (progress != null) {
+					progress.accept((chunk + 1) / (double) layout.chunkCount);
+				}
+			}
+		} finally {
+			inFlight.forEach(task -> task.cancel(false));
+		}
+
+		DataOutputStream index = new DataOutputStream(new CheckedOutputStream(out, crc));
+		for (long chunkOffset : offsets) {
+			index.writeLong(chunkOffset);
+		}
+		long[] levelCounts = grid.getLevelCounts();
+		writeVarint(index, Arrays.stream(levelCounts).filter(count -> count > 0).count());
+		for (int level = 1; level < levelCounts.length; level++) {
+			if (levelCounts[level] > 0) {
+				writeVarint(index, level);
+				writeVarint(index, levelCounts[level]);
+			}
+		}
+		index.writeLong(offset);
+		out.writeInt((int) crc.getValue());
+		out.flush();
+	}
+
+	/**
+	 * Reads a grid written by write, decompressing its chunks on the common pool
+	 *
+	 * @param input - where the grid is read from, it should be buffered
+	 * @return the grid
+	 */
+	static Grid read(InputStream input) throws IOException {
+		return read(input, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Reads a grid written by write, decompressing its chunks on the threads of a pool while
+	 * the next chunks are read
+	 *
+	 * @param input - where the grid is read from, it should be buffered
+	 * @param pool - the threads which decompress the chunks
+	 * @return the grid
+	 */
+	static Grid read(InputStream input, ForkJoinPool pool) throws IOException {
+		CRC32 crc = new CRC32();
+		DataInputStream in = new DataInputStream(new CheckedInputStream(input, crc));
+		byte[] magic = new byte[MAGIC.length];
+		in.readFully(magic);
+		if (!isBinary(magic)) {
+			throw new IOException("This is not a binary .heron file");
+		}
+		int version = in.readUnsignedByte();
+		Layout layout = Layout.read(in, version);
+		long offset = layout.headerLength;
+
+		DecodedTiles tiles = new DecodedTiles(layout);
+		long[] offsets = new long[layout.chunkCount];
+		DataInputStream data = new DataInputStream(input); // the chunks are checked by their own CRC32
+		ArrayDeque<ForkJoinTask<Chunk>> inFlight = new ArrayDeque<>();
+		try {
+			for (int chunk = 0, placed = 0; placed < layout.chunkCount; ) {
+				if (chunk < layout.chunkCount && inFlight.size() < CHUNKS_PER_THREAD * pool.getParallelism()) {
+					offsets[chunk] = offset;
+					Chunk frame = Chunk.readFrom(data, layout.columnsOf(chunk));
+					offset += frame.getFrameLength();
+					int readChunk = chunk++;
+					inFlight.add(pool.submit(() -> frame.decode(layout, readChunk, tiles.owner)));
+				} else {
+					tiles.place(placed, join(inFlight.poll(), placed));
+					placed++;
+				}
+			}
+		} finally {
+			inFlight.forEach(task -> task.cancel(false));
+		}
+
+		DataInputStream index = new DataInputStream(new CheckedInputStream(input, crc));
+		boolean isIndexValid = true;
+		for (long chunkOffset : offsets) {
+			isIndexValid &= index.readLong() == chunkOffset;
+		}
+		long[] levelCounts = readLevelCounts(index);
+		for (int level = 1; level < Math.max(levelCounts.length, tiles.levelCounts.length); level++) {
+			isIndexValid &= countAt(levelCounts, level) == countAt(tiles.levelCounts, level);
+		}
+		isIndexValid &= index.readLong() == offset;
+		int expected = (int) crc.getValue();
+		if (data.readInt() != expected || !isIndexValid) {
+			throw new IOException("This .heron file is damaged");
+		}
+		Grid grid = new Grid(tiles);
+		grid.detachSource();
+		return grid;
+	}
+
+	/**
+	 * Reads the number of cells at each level from the index, where each level which has cells is its level and
+	 * its number of cells, as varints
+	 */
+	private static long[] readLevelCounts(DataInputStream index) throws IOException {
+		int levels = readInt(index);
+		long[] levelCounts = new long[Grid.DEFAULT_MAX_Z + 1];
+		for (int i = 0, lastLevel = 0; i < levels; i++) {
+			int level = readInt(index);
+			if (level <= lastLevel || level > Short.MAX_VALUE) {
+				throw new IOException("This .heron file is damaged");
+			}
+			if (level >= levelCounts.length) {
+				levelCounts = Arrays.copyOf(levelCounts, Math.max(level + 1, levelCounts.length * 2));
+			}
+			levelCounts[level] = readVarint(index);
+			lastLevel = level;
+		}
+		return levelCounts;
+	}
+
+	private static long countAt(long[] levelCounts, int level) {
+		return (level < levelCounts.length) ? levelCounts[level] : 0;
+	}
+
+	/**
+	 * Opens a file written by write without reading its chunks: a chunk is read when one of its tiles is used
+	 *
+	 * @param file - the file, which must not change while it is open: a new version must be written to another file and moved in its place
+	 * @return the source of the tiles of the file
+	 * @throws IOException if the file is not a version 6 file, or its header or its index is damaged
+	 */
+	static ChunkedSource open(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long fileLength = channel.size();
+			byte[] head = readAt(channel, 0, (int) Math.min(fileLength, 64)); // MAGIC, the version and 5 varints of at most 10 bytes
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(head));
+			byte[] magic = new byte[MAGIC.length];
+			in.readFully(magic);
+			int version = isBinary(magic) ? in.readUnsignedByte() : -1;
+			if (version != VERSION) {
+				throw new IOException(file.getName() + " is not a binary .heron file with an index");
+			}
+			Layout layout = Layout.read(in, version);
+			if (fileLength < layout.headerLength + 12) {
+				throw new IOException(file.getName() + " is cut short");
+			}
+			DataInputStream tail = new DataInputStream(new ByteArrayInputStream(readAt(channel, fileLength - 12, 12)));
+			long indexOffset = tail.readLong();
+			int checksum = tail.readInt();
+			if (indexOffset < layout.headerLength || indexOffset > fileLength - 12 - 8L * layout.chunkCount) {
+				throw new IOException(file.getName() + " has a damaged index");
+			}
+			byte[] indexBytes = readAt(channel, indexOffset, (int) (fileLength - 4 - indexOffset));
+			CRC32 crc = new CRC32();
+			crc.update(head, 0, (int) layout.headerLength);
+			crc.update(indexBytes);
+			DataInputStream index = new DataInputStream(new ByteArrayInputStream(indexBytes));
+			long[] offsets = new long[layout.chunkCount + 1]; // the end of the last chunk is the index
+			for (int chunk = 0; chunk < layout.chunkCount; chunk++) {
+				offsets[chunk] = index.readLong();
+			}
+			offsets[layout.chunkCount] = indexOffset;
+			long[] levelCounts = readLevelCounts(index);
+			boolean isIndexValid = (int) crc.getValue() == checksum && index.available() == 8 && (layout.chunkCount == 0 || offsets[0] == layout.headerLength);
+			for (int chunk = 0; chunk < layout.chunkCount; chunk++) {
+				isIndexValid &= offsets[chunk] < offsets[chunk + 1];
+			}
+			if (!isIndexValid) {
+				throw new IOException(file.getName() + " has a damaged index");
+			}
+			return new ChunkedSource(channel, layout, offsets, levelCounts);
+		} catch (IOException | RuntimeException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Reads bytes of a file at a place, without moving the position of the channel, so threads can read at once
+	 */
+	private static byte[] readAt(FileChannel channel, long offset, int length) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(length);
+		while (bytes.hasRemaining()) {
+			if (channel.read(bytes, offset + bytes.position()) < 0) {
+				throw new EOFException("The .heron file is cut short");
+			}
+		}
+		return bytes.array();
+	}
+
+	/**
+	 * Waits for the task of a chunk, and throws the IOException of the task if it failed
+	 */
+	private static <T> T join(ForkJoinTask<T> task, int chunk) throws IOException {
+		try {
+			return task.join();
+		} catch (UncheckedIOException ex) {
+			throw new IOException("Chunk " + chunk + " of this .heron file: " + ex.getCause().getMessage(), ex.getCause());
+		}
+	}
+
+	//------------- chunks -------------
+
+	/**
+	 * Where the chunks of a grid are: a chunk is a part of a row of tiles, chunkColumns wide, and the chunks are
+	 * numbered row by row
+	 */
+	private static final class Layout {
+		private final int width;
+		private final int height;
+		private final int maxZ;
+		private final int chunkColumns; //the number of columns of cells of a chunk
+		private final int chunksAcross;
+		private final int chunkCount;
+		private final long headerLength;
+
+		private Layout(int width, int height, int maxZ, int chunkColumns) {
+			this(width, height, maxZ, chunkColumns, 0);
+		}
+
+		private Layout(int width, int height, int maxZ, int chunkColumns, long headerLength) {
+			this.width = width;
+			this.height = height;
+			this.maxZ = maxZ;
+			this.chunkColumns = chunkColumns;
+			this.chunksAcross = Math.max(1, (width + chunkColumns - 1) / chunkColumns); // a grid without columns still has its rows of tiles
+			this.chunkCount = chunksAcross * ((height + Tile.MASK) >> Tile.SHIFT);
+			this.headerLength = headerLength;
+		}
+
+		/**
+		 * Reads the rest of the header of a file, after its version
+		 */
+		private static Layout read(DataInputStream in, int version) throws IOException {
+			if (version != VERSION) {
+				throw new IOException("This .heron file is version " + version + ", which this editor cannot read");
+			}
+			int width = readInt(in);
+			int height = readInt(in);
+			int maxZ = readInt(in);
+			int chunkRows = readInt(in);
+			int chunkColumns = readInt(in);
+			if (chunkRows != Tile.SIZE || chunkColumns == 0 || (chunkColumns & Tile.MASK) != 0) {
+				throw new IOException("This .heron file has chunks of " + chunkRows + "x" + chunkColumns + " cells, which this editor cannot read");
+			}
+			long headerLength = MAGIC.length + 1 + varintLength(width) + varintLength(height) + varintLength(maxZ) + varintLength(chunkRows)
+					+ varintLength(chunkColumns);
+			if ((long) width * height > 1L << 40) {
+				throw new IOException("This .heron file is too large: " + width + "x" + height);
+			}
+			return new Layout(width, height, maxZ, chunkColumns, headerLength);
+		}
+
+		private int tileRowOf(int chunk) {
+			return chunk / chunksAcross;
+		}
+
+		private int leftOf(int chunk) {
+			return (chunk % chunksAcross) * chunkColumns;
+		}
+
+		private int columnsOf(int chunk) {
+			return Math.min(chunkColumns, width - leftOf(chunk));
+		}
+
+		private int rowsOf(int chunk) {
+			return Math.min(Tile.SIZE, height - (tileRowOf(chunk) << Tile.SHIFT));
+		}
+	}
+
+	/**
+	 * A chunk of a file, a part of a row of tiles, as it is compressed
+	 */
+	private static final class Chunk {
+		private final int length; //the length of the chunk before it is compressed
+		private final int checksum;
+		private final byte[] compressed;
+		private Tile[] tiles; //once decoded, the tiles of the chunk, null for the empty ones
+		private long[] levelCounts; //once decoded, the number of cells at each level
+
+		private Chunk(int length, int checksum, byte[] compressed) {
+			this.length = length;
+			this.checksum = checksum;
+			this.compressed = compressed;
+		}
+
+		/**
+		 * Encodes and compresses a chunk of a grid
+		 */
+		private static Chunk encode(Grid grid, Layout layout, int chunk) {
+			int left = layout.leftOf(chunk);
+			int columns = layout.columnsOf(chunk);
+			int top = layout.tileRowOf(chunk) << Tile.SHIFT;
+			int rows = layout.rowsOf(chunk);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			try {
+				short[] row = new short[left + columns];
+				long[] pointyBits = new long[(int) (((long) columns * rows + 63) / 64)];
+				int pointyCells = 0;
+				for (int y = 0; y < rows; y++) {
+					grid.getRow(top + y, left, left + columns, row);
+					int x = left;
+					while (x < left + columns) {
+						int level = row[x];
+						int runEnd = x + 1;
+						while (runEnd < left + columns && row[runEnd] == level) {
+							runEnd++;
+						}
+						writeVarint(out, runEnd - x);
+						writeVarint(out, level);
+						for (int i = x; level != 0 && i < runEnd; i++) { // only a raised cell can be pointy
+							if (grid.isPointy(i, top + y)) {
+								int bit = y * columns + i - left;
+								pointyBits[bit >> 6] |= 1L << bit;
+								pointyCells++;
+							}
+						}
+						x = runEnd;
+					}
+				}
+				writeVarint(out, pointyCells);
+				if (pointyCells > 0) {
+					for (int i = 0; i < ((long) columns * rows + 7) / 8; i++) {
+						out.writeByte((int) (pointyBits[i >> 3] >>> ((i & 7) << 3)));
+					}
+				}
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+			byte[] compressed = Compression.deflate(bytes.toByteArray());
+			CRC32 crc = new CRC32();
+			crc.update(compressed);
+			return new Chunk(bytes.size(), (int) crc.getValue(), compressed);
+		}
+
+		/**
+		 * Writes the chunk
+		 *
+		 * @return the number of bytes written
+		 */
+		private long writeTo(DataOutputStream out) throws IOException {
+			writeVarint(out, length);
+			writeVarint(out, compressed.length);
+			out.writeInt(checksum);
+			out.write(compressed);
+			return getFrameLength();
+		}
+
+		/**
+		 * Reads a chunk written by writeTo
+		 *
+		 * @param columns - the width of the chunk, which bounds its length
+		 */
+		private static Chunk readFrom(DataInputStream in, int columns) throws IOException {
+			long maxLength = (long) columns * Tile.SIZE * 9 + 16; //a run of 8 bytes per cell, and a byte for the pointy cells of each 8 cells
+			int length = readInt(in);
+			int compressedLength = readInt(in);
+			if (length > maxLength || compressedLength > length + (length >> 4) + 64) {
+				throw new IOException("A chunk of this .heron file is too long");
+			}
+			int checksum = in.readInt();
+			byte[] compressed = new byte[compressedLength];
+			in.readFully(compressed);
+			return new Chunk(length, checksum, compressed);
+		}
+
+		private long getFrameLength() {
+			return varintLength(length) + varintLength(compressed.length) + 4 + compressed.length;
+		}
+
+		/**
+		 * Decompresses the chunk and makes its tiles
+		 *
+		 * @param layout - the chunks of the grid
+		 * @param chunk - the number of this chunk
+		 * @param owner - the edit token of the tiles
+		 * @return this chunk, decoded
+		 */
+		private Chunk decode(Layout layout, int chunk, Object owner) {
+			int columns = layout.columnsOf(chunk);
+			int rows = layout.rowsOf(chunk);
+			try {
+				CRC32 crc = new CRC32();
+				crc.update(compressed);
+				if ((int) crc.getValue() != checksum) {
+					throw new IOException("the chunk is damaged");
+				}
+				ByteArrayInputStream bytes;
+				try {
+					bytes = new ByteArrayInputStream(Compression.inflate(compressed, length));
+				} catch (UncheckedIOException ex) {
+					throw new IOException("the chunk cannot be decompressed", ex.getCause());
+				}
+				DataInputStream in = new DataInputStream(bytes);
+				tiles = new Tile[(columns + Tile.MASK) >> Tile.SHIFT];
+				levelCounts = new long[Grid.DEFAULT_MAX_Z + 1];
+				for (int y = 0; y < rows; y++) {
+					int x = 0;
+					while (x < columns) {
+						int runLength = readInt(in);
+						int level = readInt(in);
+						if (runLength == 0 || runLength > columns - x) {
+							throw new IOException("a run of levels goes past the end of row " + y);
+						}
+						if (level > Short.MAX_VALUE) {
+							throw new IOException("level " + level + " of row " + y + " is too high");
+						}
+						if (level != 0) {
+							if (level >= levelCounts.length) {
+								levelCounts = Arrays.copyOf(levelCounts, Math.max(level + 1, levelCounts.length * 2));
+							}
+							levelCounts[level] += runLength;
+							for (int i = x; i < x + runLength; i++) {
+								if (tiles[i >> Tile.SHIFT] == null) {
+									tiles[i >> Tile.SHIFT] = new Tile(owner);
+								}
+								tiles[i >> Tile.SHIFT].setZ(Tile.indexOf(i, y), level);
+							}
+						}
+						x += runLength;
+					}
+				}
+				if (readVarint(in) > 0) {
+					int bits = 0;
+					int bitCount = 8;
+					for (int y = 0; y < rows; y++) {
+						for (int x = 0; x < columns; x++) {
+							if (bitCount == 8) {
+								bits = in.readUnsignedByte();
+								bitCount = 0;
+							}
+							if ((bits & (1 << bitCount++)) != 0 && tiles[x >> Tile.SHIFT] != null) {
+								tiles[x >> Tile.SHIFT].setPointy(Tile.indexOf(x, y), true);
+							}
+						}
+					}
+				}
+				if (bytes.available() > 0) {
+					throw new IOException("the chunk is longer than its rows");
+				}
+				return this;
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+	}
+
+	/**
+	 * The decoded tiles of a file, which the grid of the file is made from
+	 */
+	private static final class DecodedTiles implements TileSource {
+		private final Layout layout;
+		private final int tilesAcross;
+		private final Tile[] tiles;
+		private long[] levelCounts = new long[Grid.DEFAULT_MAX_Z + 1];
+		private final Object owner = new Object(); //the edit token of the tiles, the grid copies them before writing
+
+		private DecodedTiles(Layout layout) {
+			this.layout = layout;
+			this.tilesAcross = (layout.width + Tile.MASK) >> Tile.SHIFT;
+			this.tiles = new Tile[tilesAcross * ((layout.height + Tile.MASK) >> Tile.SHIFT)];
+		}
+
+		/**
+		 * Places the tiles of a decoded chunk
+		 */
+		private void place(int chunk, Chunk decoded) {
+			int firstTile = layout.tileRowOf(chunk) * tilesAcross + (layout.leftOf(chunk) >> Tile.SHIFT);
+			System.arraycopy(decoded.tiles, 0, tiles, firstTile, decoded.tiles.length);
+			if (decoded.levelCounts.length > levelCounts.length) {
+				levelCounts = Arrays.copyOf(levelCounts, decoded.levelCounts.length);
+			}
+			for (int level = 1; level < decoded.levelCounts.length; level++) {
+				levelCounts[level] += decoded.levelCounts[level];
+			}
+		}
+
+		@Override
+		public int getWidth() {
+			return layout.width;
+		}
+
+		@Override
+		public int getHeight() {
+			return layout.height;
+		}
+
+		@Override
+		public int getMaxZ() {
+			return layout.maxZ;
+		}
+
+		@Override
+		public long[] getLevelCounts() {
+			return levelCounts;
+		}
+
+		@Override
+		public Tile getTile(int tileX, int tileY) {
+			return tiles[tileY * tilesAcross + tileX];
+		}
+	}
+
+	/**
+	 * The tiles of an open file (see open). A chunk is read and decoded when one of its tiles is first used, or
+	 * before, by prefetch, on a thread of its own. Its tiles are kept through a soft reference, so the garbage collector
+	 * drops the chunks which are not used anymore once memory is short, and they are read again if they are used again.
+	 * A chunk found damaged once it is read throws an UncheckedIOException where its tiles are used
+	 */
+	static final class ChunkedSource implements TileSource {
+		private static final ThreadPoolExecutor prefetcher = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> {
+			Thread thread = new Thread(task, "heron-prefetch");
+			thread.setDaemon(true); // reading ahead never keeps the app alive
+			return thread;
+		});
+		static {
+			prefetcher.allowCoreThreadTimeOut(true);
+		}
+
+		private final FileChannel channel; //kept open, so the file is still read once a save moves a new file in its place
+		private final Layout layout;
+		private final long[] offsets; //the place of each chunk, then the place of the index
+		private final long[] levelCounts;
+		private final AtomicReferenceArray<SoftReference<Tile[]>> cache; //for each chunk, null if it was never read, or a soft reference to its tiles
+		private final AtomicInteger prefetchCount = new AtomicInteger(); //the number of calls to prefetch, a prefetch stops once a newer one is asked for
+		private final Object owner = new Object(); //the edit token of the tiles, which no grid has, so the grids copy them before writing
+
+		private ChunkedSource(FileChannel channel, Layout layout, long[] offsets, long[] levelCounts) {
+			this.channel = channel;
+			this.layout = layout;
+			this.offsets = offsets;
+			this.levelCounts = levelCounts;
+			this.cache = new AtomicReferenceArray<>(layout.chunkCount);
+		}
+
+		@Override
+		public int getWidth() {
+			return layout.width;
+		}
+
+		@Override
+		public int getHeight() {
+			return layout.height;
+		}
+
+		@Override
+		public int getMaxZ() {
+			return layout.maxZ;
+		}
+
+		@Override
+		public long[] getLevelCounts() {
+			return levelCounts.clone();
+		}
+
+		@Override
+		public Tile getTile(int tileX, int tileY) {
+			int tilesPerChunk = layout.chunkColumns >> Tile.SHIFT;
+			int chunk = tileY * layout.chunksAcross + tileX / tilesPerChunk;
+			if (tileX < 0 || tileY < 0 || tileX >= (layout.width + Tile.MASK) >> Tile.SHIFT || chunk >= layout.chunkCount) {
+				return null;
+			}
+			return tilesOf(chunk)[tileX % tilesPerChunk];
+		}
+
+		/**
+		 * Returns the tiles of a chunk, reading it if it is not in memory. Two threads may read the same chunk at once,
+		 * they make the same tiles
+		 */
+		private Tile[] tilesOf(int chunk) {
+			SoftReference<Tile[]> cached = cache.get(chunk);
+			Tile[] tiles = (cached == null) ? null : cached.get();
+			if (tiles == null) {
+				try {
+					byte[] frame = readAt(channel, offsets[chunk], (int) (offsets[chunk + 1] - offsets[chunk]));
+					tiles = Chunk.readFrom(new DataInputStream(new ByteArrayInputStream(frame)), layout.columnsOf(chunk)).decode(layout, chunk, owner).tiles;
+				} catch (IOException ex) {
+					throw new UncheckedIOException("Chunk " + chunk + " of this .heron file: " + ex.getMessage(), ex);
+				}
+				cache.set(chunk, new SoftReference<>(tiles));
+			}
+			return tiles;
+		}
+
+		/**
+		 * Reads the chunks of a range of tiles on the thread of the prefetches, the ones nearest to the middle of the
+		 * range first
+		 */
+		@Override
+		public void prefetch(int firstTileX, int firstTileY, int endTileX, int endTileY) {
+			int prefetch = prefetchCount.incrementAndGet();
+			int tilesPerChunk = layout.chunkColumns >> Tile.SHIFT;
+			double middleX = (firstTileX + endTileX) / 2.0;
+			double middleY = (firstTileY + endTileY) / 2.0;
+			List<Integer> chunks = new ArrayList<>();
+			for (int tileY = Math.max(0, firstTileY); tileY < endTileY && tileY * layout.chunksAcross < layout.chunkCount; tileY++) {
+				for (int across = Math.max(0, firstTileX) / tilesPerChunk; across < Math.min(layout.chunksAcross, (endTileX + tilesPerChunk - 1) / tilesPerChunk); across++) {
+					chunks.add(tileY * layout.chunksAcross + across);
+				}
+			}
+			chunks.sort(Comparator.comparingDouble(chunk -> Math.hypot((chunk % layout.chunksAcross + 0.5) * tilesPerChunk - middleX, chunk / layout.chunksAcross + 0.5 - middleY)));
+			for (int chunk : chunks) {
+				prefetcher.execute(() -> {
+					if (prefetchCount.get() == prefetch) { // the viewport did not move on since
+						try {
+							tilesOf(chunk);
+						} catch (UncheckedIOException ex) {
+							// the chunk throws again when its tiles are used
+						}
+					}
+				});
+			}
+		}
+
+		/**
+		 * Closes the file. A chunk which is not in memory cannot be read anymore, reading it throws
+		 */
+		@Override
+		public void close() {
+			prefetchCount.incrementAndGet(); // the prefetches which wait are not read anymore
+			try {
+				channel.close();
+			} catch (IOException ex) {
+				// nothing was written to the file, there is nothing to lose
+			}
+		}
+
+		/**
+		 * Returns if the file is still open. Used by the tests
+		 */
+		boolean isOpen() {
+			return channel.isOpen();
+		}
+
+		/**
+		 * Waits until the chunks asked for by prefetch are read. Used by the tests
+		 */
+		void awaitPrefetch() throws InterruptedException, ExecutionException {
+			prefetcher.submit(() -> { }).get();
+		}
+
+		/**
+		 * Returns the number of chunks held in memory now. Used by the tests
+		 */
+		int getDecodedChunkCount() {
+			int count = 0;
+			for (int i = 0; i < cache.length(); i++) {
+				SoftReference<Tile[]> cached = cache.get(i);
+				if (cached != null && cached.get() != null) {
+					count++;
+				}
+			}
+			return count;
+		}
+	}
+
+
+	//------------- varints -------------
+
+	/**
+	 * Writes a value which is not negative, 7 bits a byte, the lowest first. The high bit of a byte is set if more bytes follow
+	 */
+	static void writeVarint(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	static long readVarint(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("A varint of this .heron file is too long");
+	}
+
+	/**
+	 * Returns the number of bytes writeVarint writes for a value
+	 */
+	static int varintLength(long value) {
+		int length = 1;
+		while ((value & ~0x7FL) != 0) {
+			value >>>= 7;
+			length++;
+		}
+		return length;
+	}
+
+	private static int readInt(DataInputStream in) throws IOException {
+		long value = readVarint(in);
+		if (value < 0 || value > Integer.MAX_VALUE) {
+			throw new IOException("A number of this .heron file is too large");
+		}
+		return (int) value;
+	}
+}
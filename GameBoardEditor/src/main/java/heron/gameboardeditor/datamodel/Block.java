@@ -1,36 +1,57 @@
 package heron.gameboardeditor.datamodel;
 
-import javafx.fxml.FXML;
-
+/**
+ * This class represents one block of the Grid.
+ *
+ * A block which belongs to a grid is only a light view of one cell of that grid: it stores its
+ * coordinates and reads and writes the level and the pointy status straight from the grid's storage,
+ * so two views of the same cell are equal and always agree. A block created with the public
+ * constructor is detached from any grid and keeps its own values.
+ */
 public class Block {
+    private final Grid grid; // the grid this block is a view of, or null if the block is detached
     private int x;
     private int y;
-    private int z;  // If the level is zero, it should not be visible
-    private boolean isPointy = false;
-    
+    private int z;  // If the level is zero, it should not be visible. Only used by detached blocks
+    private boolean isPointy = false; // only used by detached blocks
+
 	/**
-	 * Constructs a block
-	 * 
+	 * Constructs a block which does not belong to any grid
+	 *
 	 * @param x - the x coordinate
 	 * @param y - the y coordinate
-	 * @param z - the height or level 
-	 * 
+	 * @param z - the height or level
+	 *
 	 */
     public Block(int x, int y, int z) {
+    	this.grid = null;
     	this.x = x;
     	this.y = y;
     	this.z = z;
-    	
+
     }
-    
+
+	/**
+	 * Constructs a view of the cell of the grid at (x, y)
+	 *
+	 * @param grid - the grid which stores the data of the block
+	 * @param x - the x coordinate
+	 * @param y - the y coordinate
+	 */
+    Block(Grid grid, int x, int y) {
+    	this.grid = grid;
+    	this.x = x;
+    	this.y = y;
+    }
+
     /**
      * This method checks if a block is visible.
-     * 
-     * @return true - if the height is bigger than 0, the block itself is visible 
-     * @return false - if the height is less than or equal to 0, the block itself is inVisible 
+     *
+     * @return true - if the height is bigger than 0, the block itself is visible
+     * @return false - if the height is less than or equal to 0, the block itself is inVisible
      */
 	public boolean isVisible() {
-		return z > 0;
+		return getZ() > 0;
 	}
 
 	public int getX() {
@@ -40,53 +61,96 @@ public class Block {
 	public int getY() {
 		return y;
 	}
-	
+
 	public int getZ() {
-		return z;
+		if (grid == null) {
+			return z;
+		}
+		return grid.getZ(x, y);
 	}
 
 	public void setX(int x) {
 		this.x = x;
 	}
-	
+
 	public void setY(int y) {
 		this.y = y;
 	}
-    
+
 	/**
 	 * This method sets the height/level of the block.
 	 * A z value of zero makes the block "invisible",
 	 * otherwise it is visible.
-	 * 
+	 *
 	 * @param z - the value that the height of the block will be set to
 	 */
 	public void setZ(int z) {
-		this.z = z;
+		if (grid == null) {
+			this.z = z;
+		} else {
+			grid.setZ(x, y, z);
+		}
 	}
 
-	
+
 	/**
 	 * This method sets the isPointy data field of the block
-	 * 
+	 *
 	 * @param pointy - true if the block is pointy and false if the block is not pointy
 	 */
 	public void setPointy(boolean pointy) {
-		this.isPointy = pointy;
+		if (grid == null) {
+			this.isPointy = pointy;
+		} else {
+			grid.setPointy(x, y, pointy);
+		}
 	}
-	
+
 	/**
 	 * This method checks whether the block is pointy
-	 * 
+	 *
 	 * @return true if the block is pointy
 	 * @return false if the block is not pointy
 	 */
 	public boolean isPointy() {
-		return isPointy;
+		if (grid == null) {
+			return isPointy;
+		}
+		return grid.isPointy(x, y);
+	}
+
+	/**
+	 * Two views of the same cell of the same grid are equal. A detached block is only equal to itself.
+	 */
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (grid == null || !(other instanceof Block)) {
+			return false;
+		}
+		Block block = (Block) other;
+		return grid == block.grid && x == block.x && y == block.y;
+	}
+
+	@Override
+	public int hashCode() {
+		if (grid == null) {
+			return System.identityHashCode(this);
+		}
+		return 31 * (31 * System.identityHashCode(grid) + x) + y;
 	}
 
-	
+	/**
+	 * creates and returns a detached copy of this block, holding the values the block has right now
+	 *
+	 * @return a detached copy of this block
+	 */
 	public Block clone() {
-		return new Block(x,y,z);
+		Block clone = new Block(x, y, getZ());
+		clone.isPointy = isPointy();
+		return clone;
 	}
 
 }
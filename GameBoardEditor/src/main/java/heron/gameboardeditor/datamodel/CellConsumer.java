@@ -0,0 +1,13 @@
+package heron.gameboardeditor.datamodel;
+
+/**
+ * An action done for a cell of a Grid, given by its coordinates
+ */
+public interface CellConsumer {
+
+	/**
+	 * @param x - the x coordinate of the cell
+	 * @param y - the y coordinate of the cell
+	 */
+	void accept(int x, int y);
+}
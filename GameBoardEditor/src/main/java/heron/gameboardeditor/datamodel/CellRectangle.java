@@ -0,0 +1,128 @@
+package heron.gameboardeditor.datamodel;
+
+/**
+ * This class represents a rectangle of cells of a Grid. It is immutable.
+ */
+public final class CellRectangle {
+	private final int x;
+	private final int y;
+	private final int width;
+	private final int height;
+
+	/**
+	 * Constructs a rectangle of cells
+	 * 
+	 * @param x - the x coordinate of the top left cell
+	 * @param y - the y coordinate of the top left cell
+	 * @param width - the number of columns
+	 * @param height - the number of rows
+	 */
+	public CellRectangle(int x, int y, int width, int height) {
+		this.x = x;
+		this.y = y;
+		this.width = width;
+		this.height = height;
+	}
+
+	public int getX() {
+		return x;
+	}
+
+	public int getY() {
+		return y;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * Returns the x coordinate just after the last column of the rectangle
+	 */
+	public int getEndX() {
+		return x + width;
+	}
+
+	/**
+	 * Returns the y coordinate just after the last row of the rectangle
+	 */
+	public int getEndY() {
+		return y + height;
+	}
+
+	/**
+	 * Returns the number of cells in the rectangle
+	 */
+	public long getArea() {
+		return (long) width * height;
+	}
+
+	public boolean contains(int cellX, int cellY) {
+		return cellX >= x && cellX < getEndX() && cellY >= y && cellY < getEndY();
+	}
+
+	/**
+	 * Returns the number of cells which are in both rectangles
+	 */
+	public long getOverlapArea(CellRectangle other) {
+		long overlapWidth = Math.min(getEndX(), other.getEndX()) - Math.max(x, other.x);
+		long overlapHeight = Math.min(getEndY(), other.getEndY()) - Math.max(y, other.y);
+		if (overlapWidth <= 0 || overlapHeight <= 0) {
+			return 0;
+		}
+		return overlapWidth * overlapHeight;
+	}
+
+	/**
+	 * Returns the smallest rectangle which contains this rectangle and the other one
+	 */
+	public CellRectangle union(CellRectangle other) {
+		int unionX = Math.min(x, other.x);
+		int unionY = Math.min(y, other.y);
+		return new CellRectangle(unionX, unionY, Math.max(getEndX(), other.getEndX()) - unionX, Math.max(getEndY(), other.getEndY()) - unionY);
+	}
+
+	/**
+	 * Returns the part of this rectangle which is inside the other one, or null if they do not overlap
+	 */
+	public CellRectangle intersection(CellRectangle other) {
+		int startX = Math.max(x, other.x);
+		int startY = Math.max(y, other.y);
+		int endX = Math.min(getEndX(), other.getEndX());
+		int endY = Math.min(getEndY(), other.getEndY());
+		if (endX <= startX || endY <= startY) {
+			return null;
+		}
+		return new CellRectangle(startX, startY, endX - startX, endY - startY);
+	}
+
+	/**
+	 * Returns this rectangle moved by dx columns and dy rows
+	 */
+	public CellRectangle translate(int dx, int dy) {
+		return new CellRectangle(x + dx, y + dy, width, height);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (!(other instanceof CellRectangle)) {
+			return false;
+		}
+		CellRectangle rectangle = (CellRectangle) other;
+		return x == rectangle.x && y == rectangle.y && width == rectangle.width && height == rectangle.height;
+	}
+
+	@Override
+	public int hashCode() {
+		return ((x * 31 + y) * 31 + width) * 31 + height;
+	}
+
+	@Override
+	public String toString() {
+		return width + "x" + height + " at (" + x + ", " + y + ")";
+	}
+}
@@ -0,0 +1,131 @@
+package heron.gameboardeditor.datamodel;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class is a content-addressed store of compressed chunks of bytes. A chunk is found by the SHA-256 hash
+ * of its bytes, so bytes added again are neither compressed nor kept a second time: the chunk already stored
+ * gets one more reference, and is removed once every reference is released.
+ *
+ * GridHistory keeps the changes of each tile of its compressed steps here, so a step which repeats changes
+ * already in the history (the same stamp, fill or stroke made again, or undone and made again) costs only its references.
+ */
+final class ChunkStore {
+	static final int CHUNK_OVERHEAD = 96; //an estimate of the memory used by a chunk and its entry in the store, besides its bytes
+
+	private final Map<ByteBuffer, Chunk> chunks = new HashMap<>(); //the chunks, by the hash of their bytes
+	private final MessageDigest digest;
+	private long byteSize; //the memory used by the chunks, each counted once
+	private long referencedByteSize; //the memory the chunks would use if each reference had its own copy
+
+	ChunkStore() {
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException ex) {
+			throw new IllegalStateException(ex); // every Java platform has SHA-256
+		}
+	}
+
+	/**
+	 * A chunk of the store, its bytes compressed
+	 */
+	static final class Chunk {
+		private final ByteBuffer hash;
+		private final byte[] compressed;
+		private final int length; //the length of the bytes before compression
+		private int references;
+
+		private Chunk(ByteBuffer hash, byte[] compressed, int length) {
+			this.hash = hash;
+			this.compressed = compressed;
+			this.length = length;
+		}
+
+		byte[] getCompressed() {
+			return compressed;
+		}
+
+		int getLength() {
+			return length;
+		}
+
+		private long getByteSize() {
+			return CHUNK_OVERHEAD + compressed.length;
+		}
+	}
+
+	/**
+	 * Adds bytes to the store. They are compressed only if the store does not already hold them
+	 *
+	 * @param bytes - the bytes
+	 * @return the chunk holding the bytes, with one more reference, which must be released once it is not used anymore
+	 */
+	Chunk add(byte[] bytes) {
+		ByteBuffer hash = ByteBuffer.wrap(digest.digest(bytes));
+		Chunk chunk = chunks.get(hash);
+		if (chunk == null) {
+			chunk = new Chunk(hash, Compression.deflate(bytes), bytes.length);
+			chunks.put(hash, chunk);
+			byteSize += chunk.getByteSize();
+		}
+		chunk.references++;
+		referencedByteSize += chunk.getByteSize();
+		return chunk;
+	}
+
+	/**
+	 * Releases a reference to a chunk. The chunk is removed from the store with its last reference
+	 *
+	 * @param chunk - the chunk, returned by add
+	 */
+	void release(Chunk chunk) {
+		referencedByteSize -= chunk.getByteSize();
+		if (--chunk.references == 0) {
+			chunks.remove(chunk.hash);
+			byteSize -= chunk.getByteSize();
+		}
+	}
+
+	/**
+	 * Returns the bytes of a chunk, as they were added
+	 *
+	 * @param chunk - the chunk
+	 */
+	byte[] read(Chunk chunk) {
+		return Compression.inflate(chunk.compressed, chunk.length);
+	}
+
+	//------------- getters -------------
+
+	/**
+	 * Returns the number of different chunks in the store
+	 */
+	int getChunkCount() {
+		return chunks.size();
+	}
+
+	/**
+	 * Returns an estimate of the memory used by the chunks, in bytes
+	 */
+	long getByteSize() {
+		return byteSize;
+	}
+
+	/**
+	 * Returns the memory the chunks would use if each reference to a chunk had its own copy, in bytes
+	 */
+	long getReferencedByteSize() {
+		return referencedByteSize;
+	}
+
+	/**
+	 * Returns the memory the chunks would use without deduplication divided by the memory they use, 1 if the store is empty
+	 */
+	double getDedupeRatio() {
+		return (byteSize == 0) ? 1 : (double) referencedByteSize / byteSize;
+	}
+}
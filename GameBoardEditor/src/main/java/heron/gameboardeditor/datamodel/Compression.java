@@ -0,0 +1,68 @@
+package heron.gameboardeditor.datamodel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * This class compresses and decompresses bytes with Deflate, for the chunks of the undo history (see ChunkStore)
+ * and the chunks and tiles of the .heron files (see BinaryFormat and LogFormat). It favors speed over size.
+ */
+final class Compression {
+
+	private Compression() {
+	}
+
+	/**
+	 * Compresses bytes
+	 *
+	 * @param bytes - the bytes
+	 * @return the compressed bytes
+	 */
+	static byte[] deflate(byte[] bytes) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try {
+			deflater.setInput(bytes);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 16);
+			byte[] buffer = new byte[4096];
+			while (!deflater.finished()) {
+				out.write(buffer, 0, deflater.deflate(buffer));
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Decompresses bytes compressed by deflate
+	 *
+	 * @param compressed - the compressed bytes
+	 * @param length     - the length of the bytes before compression
+	 * @return the bytes
+	 * @throws UncheckedIOException if the compressed bytes are damaged, or hold fewer than length bytes
+	 */
+	static byte[] inflate(byte[] compressed, int length) {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			byte[] bytes = new byte[length];
+			int read = 0;
+			while (read < length && !inflater.finished()) {
+				read += inflater.inflate(bytes, read, length - read);
+			}
+			if (read != length) {
+				throw new DataFormatException("shorter than " + length + " bytes");
+			}
+			return bytes;
+		} catch (DataFormatException ex) {
+			throw new UncheckedIOException(new IOException("Compressed data is damaged", ex));
+		} finally {
+			inflater.end();
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package heron.gameboardeditor.datamodel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class collects the cells of a Grid which changed, as a short list of rectangles.
+ * 
+ * Rectangles are merged when their union does not contain more cells than the two rectangles together
+ * (for example two neighbouring cells of a row, or two rows of the same width), so painting the region
+ * never paints a cell which did not change. Once the list is too long, the new rectangle is merged with
+ * the rectangle which grows the least, which may add a few unchanged cells but keeps the list short.
+ */
+public class DirtyRegion {
+	private static final int MAX_RECTANGLES = 32;
+
+	private final List<CellRectangle> rectangles = new ArrayList<>();
+
+	/**
+	 * Adds one cell to the region
+	 */
+	public void add(int x, int y) {
+		add(new CellRectangle(x, y, 1, 1));
+	}
+
+	/**
+	 * Adds a rectangle of cells to the region
+	 * 
+	 * @param rectangle - the cells which changed
+	 */
+	public void add(CellRectangle rectangle) {
+		if (rectangle.getWidth() <= 0 || rectangle.getHeight() <= 0) {
+			return;
+		}
+		boolean isMerged = true;
+		while (isMerged) { // a merged rectangle may now be mergeable with another one
+			isMerged = false;
+			for (int i = 0; i < rectangles.size(); i++) {
+				CellRectangle other = rectangles.get(i);
+				CellRectangle union = other.union(rectangle);
+				if (union.getArea() <= other.getArea() + rectangle.getArea() - other.getOverlapArea(rectangle)) {
+					rectangles.remove(i);
+					rectangle = union;
+					isMerged = true;
+					break;
+				}
+			}
+		}
+		if (rectangles.size() == MAX_RECTANGLES) {
+			int closest = 0;
+			long smallestGrowth = Long.MAX_VALUE;
+			for (int i = 0; i < rectangles.size(); i++) {
+				long growth = rectangles.get(i).union(rectangle).getArea() - rectangles.get(i).getArea();
+				if (growth < smallestGrowth) {
+					smallestGrowth = growth;
+					closest = i;
+				}
+			}
+			rectangle = rectangles.remove(closest).union(rectangle);
+		}
+		rectangles.add(rectangle);
+	}
+
+	/**
+	 * Adds all the rectangles of another region to this region
+	 */
+	public void addAll(DirtyRegion region) {
+		for (CellRectangle rectangle : region.rectangles) {
+			add(rectangle);
+		}
+	}
+
+	/**
+	 * Moves every rectangle of the region by dx columns and dy rows
+	 */
+	public void translate(int dx, int dy) {
+		rectangles.replaceAll(rectangle -> rectangle.translate(dx, dy));
+	}
+
+	public boolean isEmpty() {
+		return rectangles.isEmpty();
+	}
+
+	public List<CellRectangle> getRectangles() {
+		return Collections.unmodifiableList(rectangles);
+	}
+
+	/**
+	 * Returns the number of cells in the region
+	 */
+	public long getCellCount() {
+		long count = 0;
+		for (CellRectangle rectangle : rectangles) {
+			count += rectangle.getArea();
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the smallest rectangle which contains the whole region, or null if the region is empty
+	 */
+	public CellRectangle getBounds() {
+		CellRectangle bounds = null;
+		for (CellRectangle rectangle : rectangles) {
+			bounds = (bounds == null) ? rectangle : bounds.union(rectangle);
+		}
+		return bounds;
+	}
+
+	@Override
+	public String toString() {
+		return rectangles.toString();
+	}
+}
@@ -0,0 +1,549 @@
+package heron.gameboardeditor.datamodel;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * This class is a write-ahead journal of the edits of a Grid, so the work done since the last save can be
+ * recovered if the editor dies.
+ *
+ * The journal is made of two files in its directory: a checkpoint, which holds the whole grid as it was at
+ * some point, and the journal itself, which holds every edit made since, in order. Each edit is appended as a
+ * record (its length, a CRC32 of its bytes, and the GridEdit as written by GridEdit.write), so a record torn by
+ * a crash is detected and recovery stops at the last whole record.
+ *
+ * The records are written by a thread of the journal, never by the thread which edits the grid: the records
+ * waiting when the thread wakes up are written and forced to the disk together (group commit). Once the journal
+ * holds checkpointBytes of records, a new checkpoint is taken from a read-only version of the grid and the
+ * journal starts over. The checkpoint replaces the old one atomically, and replaying a record onto a checkpoint
+ * which already contains it writes the same states again, so a crash at any point leaves a recoverable pair.
+ *
+ * The journal of a board which was just opened does not write the board again: its first checkpoint is a link to the
+ * file it was opened from, in the directory of the journal, with only the origin, the size and the max level of the
+ * grid. If the file cannot be linked, like on another file system, the first checkpoint holds the whole grid.
+ *
+ * Each editor has a journal of its own, in a directory made by createDirectory, and holds a lock on a file of the
+ * directory as long as the journal runs. The lock goes away with the editor, even if it dies, so a journal whose lock
+ * is free belongs to an editor which did not exit normally, and only those are recovered (see findJournals).
+ */
+public class EditJournal implements GridListener {
+	public static final long DEFAULT_CHECKPOINT_BYTES = 16 << 20;
+	static final String CHECKPOINT_FILE = "checkpoint.bin";
+	static final String JOURNAL_FILE = "journal.bin";
+	static final String LOCK_FILE = "lock";
+	static final String BASE_FILE = "base.heron"; //the link to the file the grid was opened from, while the checkpoint is based on it
+	private static final int CHECKPOINT_MAGIC = 0x4845524E; // "HERN"
+	private static final int BASE_MAGIC = 0x48455242; // "HERB", a checkpoint whose cells are the ones of BASE_FILE
+
+	private final Grid grid;
+	private final File directory;
+	private final File checkpointFile;
+	private final File journalFile;
+	private final long checkpointBytes;
+	private long journaledBytes; //the bytes of the records sent to the writer since the last checkpoint
+	private final BlockingQueue<Object> queue = new LinkedBlockingQueue<>(); //the records, checkpoints and markers for the writer, in order
+	private final Thread writer;
+	private volatile IOException failure; //set if the writer could not write, the journal stops then
+
+	private FileLock lock; //held while the journal runs, so no other editor recovers it
+
+	private static final Object STOP = new Object(); //ends the writer once it is taken from the queue
+
+	/**
+	 * The first checkpoint of a grid which was just opened from a file, linked as BASE_FILE
+	 */
+	private static final class BaseCheckpoint {
+		private final Grid version;
+
+		private BaseCheckpoint(Grid version) {
+			this.version = version;
+		}
+	}
+
+	private EditJournal(File directory, Grid grid, long checkpointBytes) {
+		this.grid = grid;
+		this.directory = directory;
+		this.checkpointFile = new File(directory, CHECKPOINT_FILE);
+		this.journalFile = new File(directory, JOURNAL_FILE);
+		this.checkpointBytes = checkpointBytes;
+		this.writer = new Thread(this::writeQueue, "heron-journal");
+		writer.setDaemon(true); // the journal is only needed if the editor does not exit normally
+	}
+
+	/**
+	 * Makes a new directory for the journal of an editor, which no other editor uses
+	 *
+	 * @param root - the directory holding the journals of every editor
+	 * @return the new directory
+	 */
+	public static File createDirectory(File root) throws IOException {
+		Files.createDirectories(root.toPath());
+		return Files.createTempDirectory(root.toPath(), "journal-").toFile();
+	}
+
+	/**
+	 * Starts the journal of a grid, as it is now, with the default checkpoint size. An older journal in the directory is replaced
+	 *
+	 * @param directory - the directory of the journal
+	 * @param grid - the grid, which must only be edited by the thread starting the journal
+	 * @return the journal
+	 */
+	public static EditJournal start(File directory, Grid grid) throws IOException {
+		return start(directory, grid, DEFAULT_CHECKPOINT_BYTES, null);
+	}
+
+	/**
+	 * Starts the journal of a grid which was just opened from a file, with the default checkpoint size: the first
+	 * checkpoint is a link to the file, so the grid is not written again. An older journal in the directory is replaced
+	 *
+	 * @param directory - the directory of the journal
+	 * @param grid - the grid, which must only be edited by the thread starting the journal
+	 * @param baseFile - the file the grid was opened from, which must hold the grid as it is now, or null to write the whole grid
+	 * @return the journal
+	 */
+	public static EditJournal start(File directory, Grid grid, File baseFile) throws IOException {
+		return start(directory, grid, DEFAULT_CHECKPOINT_BYTES, baseFile);
+	}
+
+	/**
+	 * Starts the journal of a grid, as it is now. An older journal in the directory is replaced
+	 *
+	 * @param directory - the directory of the journal
+	 * @param grid - the grid, which must only be edited by the thread starting the journal
+	 * @param checkpointBytes - the bytes of records after which a new checkpoint is written
+	 * @return the journal
+	 * @throws IOException if the directory cannot be written, or if another journal runs in it
+	 */
+	public static EditJournal start(File directory, Grid grid, long checkpointBytes) throws IOException {
+		return start(directory, grid, checkpointBytes, null);
+	}
+
+	static EditJournal start(File directory, Grid grid, long checkpointBytes, File baseFile) throws IOException {
+		Files.createDirectories(directory.toPath());
+		EditJournal journal = new EditJournal(directory, grid, checkpointBytes);
+		journal.lock = tryLock(directory); // before the first checkpoint, so the journal is never seen unlocked
+		if (journal.lock == null) {
+			throw new IOException("The journal in " + directory + " is used by another editor");
+		}
+		journal.queue.add(journal.linkBase(baseFile) ? new BaseCheckpoint(grid.snapshot()) : grid.snapshot()); // the first checkpoint, written before any record
+		journal.writer.start();
+		grid.addGridListener(journal);
+		return journal;
+	}
+
+	/**
+	 * Links the file a grid was opened from in the directory of the journal
+	 *
+	 * @return if the file is linked
+	 */
+	private boolean linkBase(File baseFile) {
+		if (baseFile == null) {
+			return false;
+		}
+		File link = new File(directory, BASE_FILE);
+		try {
+			if (LogFormat.isLog(baseFile)) {
+				return false; // its base would not be next to the link
+			}
+			Files.deleteIfExists(link.toPath());
+			Files.createLink(link.toPath(), baseFile.toPath()); // the file itself may be replaced by a save, the link keeps this version
+			return true;
+		} catch (IOException | UnsupportedOperationException ex) {
+			return false;
+		}
+	}
+
+	@Override
+	public void gridChanged(GridChangeEvent event) {
+		GridEdit edit = event.getEdit();
+		if (edit == null || edit.isEmpty() || failure != null) {
+			return;
+		}
+		byte[] record = toRecord(edit);
+		queue.add(record);
+		journaledBytes += record.length;
+		if (journaledBytes >= checkpointBytes) {
+			checkpoint();
+		}
+	}
+
+	/**
+	 * Writes a new checkpoint of the grid as it is now, after the records already sent to the writer, and starts the journal over
+	 */
+	public void checkpoint() {
+		queue.add(grid.snapshot());
+		journaledBytes = 0;
+	}
+
+	/**
+	 * Waits until everything sent to the writer is on the disk
+	 *
+	 * @throws IOException if the writer could not write
+	 */
+	public void sync() throws IOException {
+		CountDownLatch written = new CountDownLatch(1);
+		queue.add(written);
+		try {
+			while (!written.await(100, TimeUnit.MILLISECONDS) && writer.isAlive()) { // the writer may have stopped on an error
+			}
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Stops the journal and deletes its files and its directory: the grid was saved, or the editor exits normally
+	 */
+	public void discard() {
+		grid.removeGridListener(this);
+		queue.add(STOP);
+		try {
+			writer.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		unlock(lock); // before the files are deleted, a locked file cannot be deleted on some systems
+		deleteFiles(directory);
+	}
+
+	/**
+	 * Returns the error which stopped the journal, or null if it works
+	 */
+	public IOException getFailure() {
+		return failure;
+	}
+
+	//------------- writer thread -------------
+
+	private void writeQueue() {
+		List<Object> batch = new ArrayList<>();
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		try (FileOutputStream journalOut = new FileOutputStream(journalFile)) { // an older journal is replaced
+			while (true) {
+				batch.add(queue.take());
+				queue.drainTo(batch); // everything which arrived while the last batch was written
+				for (Object item : batch) {
+					if (item == STOP) {
+						return;
+					}
+					if (failure != null) {
+						if (item instanceof CountDownLatch) {
+							((CountDownLatch) item).countDown();
+						}
+						continue;
+					}
+					try {
+						if (item instanceof byte[]) {
+							records.write((byte[]) item);
+						} else if (item instanceof Grid) { // the records before the checkpoint are in it, so they are not written
+							records.reset();
+							writeCheckpoint((Grid) item, checkpointFile, false);
+							journalOut.getChannel().truncate(0);
+							new File(directory, BASE_FILE).delete(); // not needed anymore once the cells are in a checkpoint
+						} else if (item instanceof BaseCheckpoint) {
+							records.reset();
+							writeCheckpoint(((BaseCheckpoint) item).version, checkpointFile, true);
+							journalOut.getChannel().truncate(0);
+						} else {
+							writeRecords(records, journalOut);
+							((CountDownLatch) item).countDown();
+						}
+					} catch (IOException ex) {
+						failure = ex;
+					}
+				}
+				batch.clear();
+				try {
+					writeRecords(records, journalOut);
+				} catch (IOException ex) {
+					failure = ex;
+				}
+			}
+		} catch (IOException ex) {
+			failure = ex;
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void writeRecords(ByteArrayOutputStream records, FileOutputStream journalOut) throws IOException {
+		if (records.size() == 0 || failure != null) {
+			return;
+		}
+		records.writeTo(journalOut);
+		records.reset();
+		journalOut.getChannel().force(false);
+	}
+
+	/**
+	 * Writes a checkpoint to a temporary file, then moves it in place of the old one
+	 *
+	 * @param isBased - if the cells are the ones of BASE_FILE, and are not written
+	 */
+	private static void writeCheckpoint(Grid version, File file, boolean isBased) throws IOException {
+		File temporaryFile = new File(file.getPath() + ".tmp");
+		FileOutputStream fileOut = new FileOutputStream(temporaryFile);
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(fileOut, deflater), 1 << 16))) {
+			out.writeInt(isBased ? BASE_MAGIC : CHECKPOINT_MAGIC);
+			out.writeInt(version.getOriginX());
+			out.writeInt(version.getOriginY());
+			out.writeInt(version.getWidth());
+			out.writeInt(version.getHeight());
+			out.writeInt(version.getMaxZ());
+			for (int y = 0; y < version.getHeight() && !isBased; y++) {
+				for (int x = 0; x < version.getWidth(); x++) {
+					out.writeShort(version.getZ(x, y) << 1 | (version.isPointy(x, y) ? 1 : 0));
+				}
+			}
+			out.flush();
+			fileOut.getFD().sync();
+		} finally {
+			deflater.end();
+		}
+		Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static byte[] toRecord(GridEdit edit) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(0); // the length and the checksum are filled in below
+			out.writeInt(0);
+			edit.write(out);
+		} catch (IOException ex) {
+			throw new IllegalStateException(ex); // a ByteArrayOutputStream does not fail
+		}
+		byte[] record = bytes.toByteArray();
+		int length = record.length - 8;
+		CRC32 crc = new CRC32();
+		crc.update(record, 8, length);
+		writeInt(record, 0, length);
+		writeInt(record, 4, (int) crc.getValue());
+		return record;
+	}
+
+	private static void writeInt(byte[] bytes, int offset, int value) {
+		bytes[offset] = (byte) (value >>> 24);
+		bytes[offset + 1] = (byte) (value >>> 16);
+		bytes[offset + 2] = (byte) (value >>> 8);
+		bytes[offset + 3] = (byte) value;
+	}
+
+	//------------- lock -------------
+
+	/**
+	 * Takes the lock of a directory of a journal
+	 *
+	 * @return the lock, or null if another journal holds it, in this editor or in another one
+	 */
+	private static FileLock tryLock(File directory) throws IOException {
+		FileChannel channel = FileChannel.open(new File(directory, LOCK_FILE).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		try {
+			FileLock lock = channel.tryLock();
+			if (lock == null) {
+				channel.close();
+			}
+			return lock;
+		} catch (OverlappingFileLockException ex) { // held by this editor
+			channel.close();
+			return null;
+		} catch (IOException | RuntimeException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	private static void unlock(FileLock lock) {
+		try {
+			lock.channel().close(); // which releases the lock
+		} catch (IOException ex) {
+			// the lock goes away with the editor anyway
+		}
+	}
+
+	private static void deleteFiles(File directory) {
+		new File(directory, CHECKPOINT_FILE).delete();
+		new File(directory, JOURNAL_FILE).delete();
+		new File(directory, BASE_FILE).delete();
+		new File(directory, LOCK_FILE).delete();
+		directory.delete(); // only if nothing else is in it
+	}
+
+	//------------- recovery -------------
+
+	/**
+	 * Returns the directories of the journals which can be recovered, the newest first: the ones which an editor did
+	 * not discard and whose editor is not running anymore. The journals of the editors which are open are left out
+	 *
+	 * @param root - the directory holding the journals of every editor
+	 */
+	public static List<File> findJournals(File root) {
+		List<File> journals = new ArrayList<>();
+		File[] directories = root.listFiles(File::isDirectory);
+		if (directories == null) {
+			return journals;
+		}
+		for (File directory : directories) {
+			if (hasJournal(directory)) {
+				journals.add(directory);
+			}
+		}
+		journals.sort(Comparator.comparingLong((File directory) -> new File(directory, CHECKPOINT_FILE).lastModified()).reversed());
+		return journals;
+	}
+
+	/**
+	 * Returns if the directory holds a journal which can be recovered, which is the case if the editor did not discard it
+	 * and does not run anymore
+	 *
+	 * @param directory - the directory of the journal
+	 */
+	public static boolean hasJournal(File directory) {
+		if (!new File(directory, CHECKPOINT_FILE).isFile()) {
+			return false;
+		}
+		if (!new File(directory, LOCK_FILE).isFile()) {
+			return true; // never locked, no editor runs it
+		}
+		try {
+			FileLock lock = tryLock(directory);
+			if (lock == null) {
+				return false;
+			}
+			unlock(lock);
+			return true;
+		} catch (IOException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * Deletes a journal which no editor runs, once it was recovered or the user did not want it. Nothing happens if
+	 * an editor runs it
+	 *
+	 * @param directory - the directory of the journal
+	 */
+	public static void delete(File directory) throws IOException {
+		FileLock lock = tryLock(directory);
+		if (lock == null) {
+			return;
+		}
+		unlock(lock);
+		deleteFiles(directory);
+	}
+
+	/**
+	 * Rebuilds the grid of a journal: reads its checkpoint and replays its records, up to the last whole record
+	 *
+	 * @param directory - the directory of the journal
+	 * @return the grid as it was after the last edit which reached the disk
+	 * @throws IOException if the journal cannot be read, or if an editor runs it
+	 */
+	public static Grid recover(File directory) throws IOException {
+		FileLock lock = tryLock(directory); // so two editors which start together do not both recover it
+		if (lock == null) {
+			throw new IOException("The journal in " + directory + " is used by another editor");
+		}
+		try {
+			return replay(directory);
+		} finally {
+			unlock(lock);
+		}
+	}
+
+	private static Grid replay(File directory) throws IOException {
+		Grid grid = readCheckpoint(directory);
+		File journalFile = new File(directory, JOURNAL_FILE);
+		if (!journalFile.isFile()) {
+			return grid;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+			while (true) {
+				byte[] record;
+				int checksum;
+				try {
+					int length = in.readInt();
+					checksum = in.readInt();
+					if (length < 0 || length > journalFile.length()) {
+						break; // a torn length
+					}
+					record = new byte[length];
+					in.readFully(record);
+				} catch (EOFException ex) {
+					break; // the last record was not written completely
+				}
+				CRC32 crc = new CRC32();
+				crc.update(record);
+				if ((int) crc.getValue() != checksum) {
+					break;
+				}
+				GridEdit.read(new DataInputStream(new ByteArrayInputStream(record))).redo(grid);
+			}
+		}
+		return grid;
+	}
+
+	private static Grid readCheckpoint(File directory) throws IOException {
+		File file = new File(directory, CHECKPOINT_FILE);
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(file)), 1 << 16))) {
+			int magic = in.readInt();
+			if (magic != CHECKPOINT_MAGIC && magic != BASE_MAGIC) {
+				throw new IOException(file + " is not a checkpoint of a grid");
+			}
+			int originX = in.readInt();
+			int originY = in.readInt();
+			int width = in.readInt();
+			int height = in.readInt();
+			if (magic == BASE_MAGIC) {
+				Grid grid = ProjectIO.load(new File(directory, BASE_FILE));
+				if (grid.getOriginX() != originX || grid.getOriginY() != originY || grid.getWidth() != width || grid.getHeight() != height) {
+					throw new IOException("The board of the journal in " + directory + " is not the one it was started from");
+				}
+				grid.setMaxZ(in.readInt());
+				return grid;
+			}
+			Grid grid = new Grid(width, height);
+			grid.setBounds(originX, originY, width, height); // the records refer to cells by their place in the tile space
+			grid.setMaxZ(in.readInt());
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					int state = in.readUnsignedShort();
+					if (state != 0) {
+						grid.setZ(x, y, state >> 1);
+						grid.setPointy(x, y, (state & 1) != 0);
+					}
+				}
+			}
+			return grid;
+		}
+	}
+}
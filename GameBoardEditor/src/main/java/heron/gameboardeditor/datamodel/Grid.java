@@ -1,25 +1,86 @@
 package heron.gameboardeditor.datamodel;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.Set;
 
 import heron.gameboardeditor.CellUI;
-import javafx.scene.control.Alert;
-import javafx.scene.control.Alert.AlertType;
 
 /**
  * This class represents the data of the GridBoardUI class
+ *
+ * The cells are stored in square tiles of Tile.SIZE x Tile.SIZE cells. A tile is only allocated once
+ * one of its cells is changed, and it is released again when all its cells are back at level 0, so
+ * empty regions of the grid cost nothing. A clone shares all the tiles with the original grid and a
+ * tile is only copied when one of the two grids writes to it (copy-on-write), so clone and resize
+ * cost is proportional to the number of tiles and edited tiles, not to the number of cells.
+ * getBlockAt returns a light Block view of a cell.
+ *
+ * The tiles are kept in a TileDirectory made of pages of tiles which are shared and copied on write the same
+ * way, so snapshot returns a read-only version of the grid for one reference per page. The versions share
+ * everything the grid did not change since, and the first write to a shared tile copies only that tile and its page.
+ *
+ * The tiles are laid out in a fixed tile space and the grid is a window of that space which starts at its
+ * origin, so the grid can grow or be cropped on any of its four sides (see extend) without moving a cell.
+ * The directory of the tiles is allocated with some spare room on the sides the grid grows towards, like
+ * a deque, so growing the grid again and again only reallocates the directory now and then.
+ *
+ * The grid also keeps the number of cells at each level up to date on every change, so the highest and
+ * lowest levels, the count of a level and emptiness are known without scanning the cells. Each tile
+ * keeps a bitmap of its cells at each level, so the cells at one level are found in time proportional
+ * to the number of tiles and matching cells.
+ *
+ * Every change is published to the GridListeners as a GridChangeEvent which carries the region of the cells
+ * which changed. Many writes can be grouped in one edit (see edit, beginEdit and commitEdit): the edit publishes
+ * one event at the end, for the union of the cells it changed, and returns a GridEdit which records the old and
+ * the new state of those cells, so the whole edit can be undone at once. A write outside of an edit, and each bulk
+ * operation, is an edit of its own.
+ *
+ * A grid can be backed by a TileSource, like a board file mapped in memory (see ProjectIO.loadMapped): a tile the
+ * grid never wrote is read from the source when it is used, and the source may drop it again once memory is short,
+ * so the grid can be larger than the heap. A tile read from the source is shared like the tile of a clone, so the
+ * grid copies it before writing to it, and only the tiles which changed stay in memory.
  */
 public class Grid implements Cloneable {
 
-	private Block[][] blockGrid;
+	public static final int DEFAULT_MAX_Z = 5;
+
+	private TileDirectory tiles; //the tiles row by row, a tile is null if all its cells are at level 0 or outside of the grid
+	private int tilesAcross; //the number of tiles in a row of the directory
+	private int firstTileX; //the column of the first tile of the directory in the tile space
+	private int firstTileY; //the row of the first tile of the directory in the tile space
+	private Object owner; //the edit token of this grid, a tile owned by another token is shared and must be copied before writing
+	private int originX; //the column of the cell (0, 0) in the tile space
+	private int originY; //the row of the cell (0, 0) in the tile space
 	private int width;
 	private int height;
 	private int maxZ; //the max level a block can be
 	
+	private long[] levelCounts = new long[DEFAULT_MAX_Z + 1]; //the number of cells at each level above 0
+	private long raisedCells; //the number of cells above level 0
+	private int maxLevel; //the highest level of a cell, 0 if all the cells are at level 0
+	
+	private List<GridListener> listeners = new ArrayList<>();
+	private DirtyRegion changedRegion; //the cells changed by the open edit, null if no edit is open
+	private boolean isResized; //if the grid was resized by the open edit
+	private GridEdit openEdit; //the record of the open edit, null if no edit is open or nothing needs its record
+	private int editDepth; //the number of nested edits which are open, the event is published when the outermost one is committed
+	private int editOriginX; //the origin of the grid when the open edit began
+	private int editOriginY;
+	private int editWidth; //the size of the grid when the open edit began
+	private int editHeight;
+	private boolean isFrozen; //true if this grid is a read-only version made by snapshot
+	private TileSource source; //where the tiles the grid never wrote are read from, null if all the tiles are in memory
+	private int sourceFirstTileX; //the tiles of the tile space which are still read from the source, from the first to the end one excluded
+	private int sourceFirstTileY;
+	private int sourceEndTileX;
+	private int sourceEndTileY;
+
+	private static final Tile CLEARED = new Tile(new Object()); //in the directory of a grid with a source, a tile whose cells were all put back to level 0
+	
 	/**
 	 * Constructs a grid 
 	 * 
@@ -30,15 +91,34 @@ public class Grid implements Cloneable {
 	public Grid(int width, int height) {
 		this.width = width;
 		this.height = height;
-		blockGrid = new Block[width][height];
-		
-		for (int y = 0; y < height; y++) {
-			for (int x = 0; x < width; x++) {
-				blockGrid[x][y] = new Block(x,y,0);
-			}			
+		this.tilesAcross = tilesFor(width);
+		this.tiles = new TileDirectory(tilesAcross * tilesFor(height));
+		this.owner = new Object();
+		this.maxZ = DEFAULT_MAX_Z; //default max level
+	}
+
+	/**
+	 * Constructs a grid backed by a source: its tiles are read from the source when they are used
+	 *
+	 * @param source - the source of the tiles, whose tile (0, 0) holds the cell (0, 0)
+	 */
+	Grid(TileSource source) {
+		this(source.getWidth(), source.getHeight());
+		this.maxZ = source.getMaxZ();
+		this.source = source;
+		this.sourceEndTileX = tilesAcross;
+		this.sourceEndTileY = tilesFor(height);
+		long[] counts = source.getLevelCounts();
+		for (int level = 1; level < counts.length; level++) { // the cells are counted by the source, none of them is read here
+			if (counts[level] > 0) {
+				if (level >= levelCounts.length) {
+					levelCounts = Arrays.copyOf(levelCounts, level + 1);
+				}
+				levelCounts[level] = counts[level];
+				raisedCells += counts[level];
+				maxLevel = level;
+			}
 		}
-		
-		this.maxZ = 5; //default max level
 	}
 
 	//------------- getters and setters -------------
@@ -48,11 +128,215 @@ public class Grid implements Cloneable {
 	}
 	
 	public void setMaxZ(int maxZ) {
+		checkWritable();
 		this.maxZ = maxZ;
 	}
 
 	public Block getBlockAt(int x, int y) {
-		return blockGrid[x][y];
+		checkCoordinate(x, y);
+		return new Block(this, x, y);
+	}
+
+	/**
+	 * Returns the level of the cell at (x, y)
+	 * 
+	 * @param x - the x coordinate
+	 * @param y - the y coordinate
+	 * @return the level of the cell
+	 */
+	public int getZ(int x, int y) {
+		checkCoordinate(x, y);
+		Tile tile = tileAt(tileIndexOf(x, y));
+		return (tile == null) ? 0 : tile.getZ(cellIndexOf(x, y));
+	}
+
+	/**
+	 * Sets the level of the cell at (x, y)
+	 * 
+	 * @param x - the x coordinate
+	 * @param y - the y coordinate
+	 * @param z - the new level of the cell
+	 */
+	public void setZ(int x, int y, int z) {
+		checkCoordinate(x, y);
+		checkLevel(z);
+		int oldLevel = getZ(x, y);
+		if (oldLevel == z) {
+			return;
+		}
+		beginChanges(false);
+		try {
+			int tileIndex = tileIndexOf(x, y);
+			recordCell(tileAt(tileIndex), x, y);
+			writableTile(tileIndex).setZ(cellIndexOf(x, y), z);
+			levelChanged(oldLevel, z);
+			releaseIfEmpty(tileIndex);
+			cellChanged(x, y);
+		} finally {
+			endChanges();
+		}
+	}
+
+	/**
+	 * Copies the levels of a row of cells, tile by tile. Used to write files, where reading each cell with getZ is too slow
+	 *
+	 * @param y - the row
+	 * @param levels - receives the level of each cell of the row, from column 0, it must hold at least getWidth() levels
+	 */
+	void getRow(int y, short[] levels) {
+		getRow(y, 0, width, levels);
+	}
+
+	/**
+	 * Copies the levels of a part of a row of cells, like getRow
+	 *
+	 * @param y - the row
+	 * @param fromX - the first column
+	 * @param endX - the end column, excluded
+	 * @param levels - receives the level of each cell of the part, at the index of its column
+	 */
+	void getRow(int y, int fromX, int endX, short[] levels) {
+		checkCoordinate(0, y);
+		if (fromX < 0 || endX > width || fromX > endX) {
+			throw new IndexOutOfBoundsException("Columns " + fromX + " to " + endX + " are not in the grid");
+		}
+		for (int x = fromX; x < endX; ) {
+			int end = Math.min(endX, x + Tile.SIZE - ((originX + x) & Tile.MASK)); //the end of the row in this tile
+			Tile tile = tileAt(tileIndexOf(x, y));
+			if (tile == null) {
+				Arrays.fill(levels, x, end, (short) 0);
+				x = end;
+			} else {
+				for (; x < end; x++) {
+					levels[x] = (short) tile.getZ(cellIndexOf(x, y));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies the states of a row of cells, level << 1 | pointy, like getRow
+	 *
+	 * @param y - the row
+	 * @param states - receives the state of each cell of the row, from column 0, it must hold at least getWidth() states
+	 */
+	void getRowStates(int y, short[] states) {
+		checkCoordinate(0, y);
+		for (int x = 0; x < width; ) {
+			int end = Math.min(width, x + Tile.SIZE - ((originX + x) & Tile.MASK));
+			Tile tile = tileAt(tileIndexOf(x, y));
+			if (tile == null) {
+				Arrays.fill(states, x, end, (short) 0);
+				x = end;
+			} else {
+				for (; x < end; x++) {
+					int i = cellIndexOf(x, y);
+					states[x] = (short) (tile.getZ(i) << 1 | (tile.isPointy(i) ? 1 : 0));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sets the levels of a row of cells as one change, tile by tile. Used to load files, where setting each cell
+	 * with setZ is too slow
+	 *
+	 * @param y - the row
+	 * @param levels - the level of each cell of the row, from column 0
+	 */
+	void setRow(int y, short[] levels) {
+		checkCoordinate(0, y);
+		setLine(0, y, true, levels);
+	}
+
+	/**
+	 * Sets the levels of a column of cells as one change, like setRow
+	 *
+	 * @param x - the column
+	 * @param levels - the level of each cell of the column, from row 0
+	 */
+	void setColumn(int x, short[] levels) {
+		checkCoordinate(x, 0);
+		setLine(x, 0, false, levels);
+	}
+
+	/**
+	 * Sets the levels of the cells of a whole row or column, starting at (x, y), tile by tile
+	 */
+	private void setLine(int x, int y, boolean isRow, short[] levels) {
+		beginChanges();
+		try {
+			int length = isRow ? width : height;
+			int first = length; //the first and last cells of the line which changed
+			int last = -1;
+			for (int n = 0; n < length; ) {
+				int end = Math.min(length, n + Tile.SIZE - ((isRow ? originX + n : originY + n) & Tile.MASK)); //the end of the line in this tile
+				int tileIndex = isRow ? tileIndexOf(n, y) : tileIndexOf(x, n);
+				Tile tile = tileAt(tileIndex);
+				for (; n < end; n++) {
+					int cellX = isRow ? n : x;
+					int cellY = isRow ? y : n;
+					int i = cellIndexOf(cellX, cellY);
+					int oldLevel = (tile == null) ? 0 : tile.getZ(i);
+					int level = levels[n];
+					if (level != oldLevel) {
+						checkLevel(level);
+						recordCell(tile, cellX, cellY);
+						tile = writableTile(tileIndex);
+						tile.setZ(i, level);
+						levelChanged(oldLevel, level);
+						first = Math.min(first, n);
+						last = n;
+					}
+				}
+				releaseIfEmpty(tileIndex);
+			}
+			if (isRow) {
+				cellsChanged(new CellRectangle(first, y, last - first + 1, 1));
+			} else {
+				cellsChanged(new CellRectangle(x, first, 1, last - first + 1));
+			}
+		} finally {
+			endChanges();
+		}
+	}
+
+	/**
+	 * Returns if the cell at (x, y) is pointy
+	 *
+	 * @param x - the x coordinate
+	 * @param y - the y coordinate
+	 * @return true if the cell is pointy
+	 */
+	public boolean isPointy(int x, int y) {
+		checkCoordinate(x, y);
+		Tile tile = tileAt(tileIndexOf(x, y));
+		return tile != null && tile.isPointy(cellIndexOf(x, y));
+	}
+
+	/**
+	 * Sets if the cell at (x, y) is pointy. Only a cell above level 0 can be pointy, and a cell
+	 * set to level 0 is not pointy anymore
+	 * 
+	 * @param x - the x coordinate
+	 * @param y - the y coordinate
+	 * @param pointy - whether or not the cell is pointy
+	 */
+	public void setPointy(int x, int y, boolean pointy) {
+		checkCoordinate(x, y);
+		if (isPointy(x, y) == (pointy && getZ(x, y) != 0)) {
+			return;
+		}
+		beginChanges(false);
+		try {
+			int tileIndex = tileIndexOf(x, y);
+			recordCell(tileAt(tileIndex), x, y);
+			writableTile(tileIndex).setPointy(cellIndexOf(x, y), pointy);
+			releaseIfEmpty(tileIndex);
+			cellChanged(x, y);
+		} finally {
+			endChanges();
+		}
 	}
 
 	public int getWidth() {
@@ -62,9 +346,21 @@ public class Grid implements Cloneable {
 	public int getHeight() {
 		return height;
 	}
-	
-	public Block[][] getBlockGrid() {
-		return blockGrid;
+
+	/**
+	 * Returns the column of the cell (0, 0) counted from the first column of the grid when it was created,
+	 * so it is negative once columns were added on the left
+	 */
+	public int getOriginX() {
+		return originX;
+	}
+
+	/**
+	 * Returns the row of the cell (0, 0) counted from the first row of the grid when it was created,
+	 * so it is negative once rows were added on the top
+	 */
+	public int getOriginY() {
+		return originY;
 	}
 	
 	/**
@@ -73,17 +369,134 @@ public class Grid implements Cloneable {
 	 * @return max - the highest level of the grid
 	 */
 	public int getMaxLevel() {
-		int max = -1;
-		for (int y = 0; y < width; y++) {
-			for (int x = 0; x < height; x++) {
-				Block block = getBlockAt(x, y);
-				int level = block.getZ();
-				if (level > max) {
-					max = level;
+		if (width == 0 || height == 0) {
+			return -1;
+		}
+		return maxLevel;
+	}
+	
+	/**
+	 * This method return the current lowest level of the grid
+	 * 
+	 * @return the lowest level of the grid, or -1 if the grid has no cells
+	 */
+	public int getMinLevel() {
+		if (width == 0 || height == 0) {
+			return -1;
+		}
+		if (raisedCells < (long) width * height) {
+			return 0;
+		}
+		int level = 1;
+		while (levelCounts[level] == 0) {
+			level++;
+		}
+		return level;
+	}
+	
+	/**
+	 * Returns the number of cells at a level
+	 * 
+	 * @param level - the level to count
+	 * @return the number of cells at that level
+	 */
+	public long getLevelCount(int level) {
+		if (level == 0) {
+			return (long) width * height - raisedCells;
+		}
+		return (level > 0 && level < levelCounts.length) ? levelCounts[level] : 0;
+	}
+
+	/**
+	 * Returns the number of cells at each level above 0, up to the highest level of a cell, like TileSource.getLevelCounts.
+	 * Used to write the files which hold them
+	 */
+	long[] getLevelCounts() {
+		long[] counts = new long[maxLevel + 1];
+		System.arraycopy(levelCounts, 1, counts, 1, maxLevel);
+		return counts;
+	}
+	
+	/**
+	 * Does an action for every cell at a level, row of tiles by row of tiles
+	 * 
+	 * @param level - the level of the cells
+	 * @param action - the action done for each cell at that level
+	 */
+	public void forEachCellAtLevel(int level, CellConsumer action) {
+		if (getLevelCount(level) == 0) {
+			return;
+		}
+		for (int tileIndex = 0; tileIndex < tiles.size(); tileIndex++) {
+			int tileX = tileLeft(tileIndex);
+			int tileY = tileTop(tileIndex);
+			Tile tile = tileAt(tileIndex);
+			if (level == 0) { // the cells at level 0 are not indexed, they are the cells of empty tiles and the cells which are not raised
+				int endX = Math.min(tileX + Tile.SIZE, width);
+				int endY = Math.min(tileY + Tile.SIZE, height);
+				for (int y = Math.max(tileY, 0); y < endY; y++) {
+					for (int x = Math.max(tileX, 0); x < endX; x++) {
+						if (tile == null || tile.getZ(cellIndexOf(x, y)) == 0) {
+							action.accept(x, y);
+						}
+					}
+				}
+			} else if (tile != null && tile.getLevelCount(level) > 0) {
+				long[] bits = tile.getLevelBits(level);
+				for (int row = 0; row < bits.length; row++) {
+					for (long word = bits[row]; word != 0; word &= word - 1) {
+						action.accept(tileX + Long.numberOfTrailingZeros(word), tileY + row);
+					}
 				}
-			}			
+			}
+		}
+	}
+	
+	/**
+	 * Returns if all the cells are at level 0
+	 */
+	public boolean isEmpty() {
+		return raisedCells == 0;
+	}
+	
+	/**
+	 * Moves one cell from a level to another in the counts of cells per level
+	 */
+	private void levelChanged(int oldLevel, int newLevel) {
+		if (oldLevel == newLevel) {
+			return;
+		}
+		if (oldLevel != 0) {
+			levelCounts[oldLevel]--;
+			raisedCells--;
+		}
+		if (newLevel != 0) {
+			if (newLevel >= levelCounts.length) {
+				levelCounts = Arrays.copyOf(levelCounts, Math.max(newLevel + 1, levelCounts.length * 2));
+			}
+			levelCounts[newLevel]++;
+			raisedCells++;
+		}
+		if (newLevel > maxLevel) {
+			maxLevel = newLevel;
+		} else {
+			lowerMaxLevel();
+		}
+	}
+	
+	/**
+	 * Removes cells of a level from the counts of cells per level
+	 */
+	private void cellsRemoved(int level, long cells) {
+		levelCounts[level] -= cells;
+		raisedCells -= cells;
+		lowerMaxLevel();
+	}
+	
+	private void lowerMaxLevel() {
+		while (maxLevel > 0 && levelCounts[maxLevel] == 0) {
+			maxLevel--;
 		}
-		return max;
 	}
 	
 	/**
@@ -104,30 +517,535 @@ public class Grid implements Cloneable {
 		}
 	}
 	
+	private void checkCoordinate(int x, int y) {
+		if (!isCoordinateInGrid(x, y)) {
+			throw new IndexOutOfBoundsException("(" + x + ", " + y + ") is outside of the " + width + "x" + height + " grid");
+		}
+	}
+
+	private void checkWritable() {
+		if (isFrozen) {
+			throw new UnsupportedOperationException("This version of the grid is read-only");
+		}
+	}
+
+	private void checkLevel(int z) {
+		if (z < 0 || z > Short.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid level: " + z);
+		}
+	}
+	
+	//------------- change events -------------
+	
+	public void addGridListener(GridListener listener) {
+		listeners.add(listener);
+	}
+	
+	public void removeGridListener(GridListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Does many writes as one edit of the grid: the listeners get one event for all the writes once they are
+	 * done, and the returned record can undo them all at once. Edits can be nested, the changes of a nested edit
+	 * belong to the outermost one
+	 *
+	 * @param writes - the writes of the edit
+	 * @return the record of the edit, or null if it is nested in another edit
+	 */
+	public GridEdit edit(Runnable writes) {
+		GridEdit edit;
+		beginEdit();
+		try {
+			writes.run();
+		} finally {
+			edit = commitEdit();
+		}
+		return edit;
+	}
+
+	/**
+	 * Opens an edit of the grid. Every write until the matching commitEdit is part of the edit
+	 */
+	public void beginEdit() {
+		beginChanges(true);
+	}
+
+	/**
+	 * Closes the edit opened by the last beginEdit. When the outermost edit is closed, its changes are published
+	 * to the listeners as one event
+	 *
+	 * @return the record of the edit, or null if it is nested in another edit
+	 */
+	public GridEdit commitEdit() {
+		if (editDepth == 0) {
+			throw new IllegalStateException("No edit of the grid is open");
+		}
+		return endChanges();
+	}
+
 	/**
-	 * This method allows us to resize the grid by creating a new gird (with a new width and a new height) 
-	 * and set the data field blockGrid to this new grid. 
-	 * The new grid is created based on the old grid, hence, the information of the cells (from the old grid)
-	 * which fit in the new grid are kept and moved to the new grid.
+	 * Starts collecting the changes of an edit, so they are published as one event
+	 *
+	 * @param isRecorded - true if the caller needs the record of the edit, otherwise it is only recorded for the listeners
+	 */
+	private void beginChanges(boolean isRecorded) {
+		checkWritable();
+		if (editDepth == 0) {
+			changedRegion = new DirtyRegion();
+			isResized = false;
+			editOriginX = originX;
+			editOriginY = originY;
+			editWidth = width;
+			editHeight = height;
+			openEdit = (isRecorded || !listeners.isEmpty()) ? new GridEdit(this) : null;
+		}
+		editDepth++;
+	}
+
+	private void beginChanges() {
+		beginChanges(false);
+	}
+
+	/**
+	 * Ends an edit and publishes the changes it collected once the outermost edit ends
+	 *
+	 * @return the record of the edit, or null if it is nested in another edit or was not recorded
+	 */
+	private GridEdit endChanges() {
+		editDepth--;
+		if (editDepth > 0) {
+			return null;
+		}
+		DirtyRegion region = changedRegion;
+		GridEdit edit = openEdit;
+		changedRegion = null;
+		openEdit = null;
+		if (edit != null) {
+			edit.commit(this);
+		}
+		if (originX == editOriginX && originY == editOriginY && width == editWidth && height == editHeight) {
+			isResized = false; // the grid is back to its bounds, like an undo which grows the grid to write cells outside of it
+		}
+		if (!region.isEmpty() || isResized) {
+			fireGridChanged(new GridChangeEvent(this, region, isResized, editOriginX - originX, editOriginY - originY, edit));
+		}
+		return edit;
+	}
+
+	/**
+	 * Records the state of the cell (x, y) of a tile before the open edit changes it. The edit records
+	 * the cell at its place in the tile space, so the record stays right if the origin of the grid moves
+	 */
+	private void recordCell(Tile tile, int x, int y) {
+		if (openEdit != null) {
+			int i = cellIndexOf(x, y);
+			openEdit.record(originX + x, originY + y, (tile == null) ? 0 : tile.getZ(i), tile != null && tile.isPointy(i));
+		}
+	}
+
+	private void cellChanged(int x, int y) {
+		cellsChanged(new CellRectangle(x, y, 1, 1));
+	}
+
+	private void cellsChanged(CellRectangle rectangle) {
+		changedRegion.add(rectangle); // every change is made inside of an edit
+	}
+	
+	private void fireGridChanged(GridChangeEvent event) {
+		for (GridListener listener : new ArrayList<>(listeners)) { // a listener may remove itself
+			listener.gridChanged(event);
+		}
+	}
+	
+	//------------- tiles -------------
+	
+	private static int tilesFor(int cells) {
+		return (cells + Tile.MASK) >> Tile.SHIFT;
+	}
+	
+	private int tileIndexOf(int x, int y) {
+		return (((originY + y) >> Tile.SHIFT) - firstTileY) * tilesAcross + ((originX + x) >> Tile.SHIFT) - firstTileX;
+	}
+
+	/**
+	 * Returns the index of the cell (x, y) inside its tile
+	 */
+	private int cellIndexOf(int x, int y) {
+		return Tile.indexOf(originX + x, originY + y);
+	}
+
+	/**
+	 * Returns the x coordinate of the first column of the tile at tileIndex, which is negative if the tile starts left of the grid
+	 */
+	private int tileLeft(int tileIndex) {
+		return ((tileIndex % tilesAcross + firstTileX) << Tile.SHIFT) - originX;
+	}
+
+	/**
+	 * Returns the y coordinate of the first row of the tile at tileIndex, which is negative if the tile starts above the grid
+	 */
+	private int tileTop(int tileIndex) {
+		return ((tileIndex / tilesAcross + firstTileY) << Tile.SHIFT) - originY;
+	}
+
+	/**
+	 * Returns if some cells of the tile at tileIndex are inside the grid
+	 */
+	private boolean isTileInGrid(int tileIndex) {
+		int tileX = tileLeft(tileIndex);
+		int tileY = tileTop(tileIndex);
+		return tileX < width && tileX + Tile.SIZE > 0 && tileY < height && tileY + Tile.SIZE > 0;
+	}
+	
+	/**
+	 * Returns the tile at tileIndex, allocating it if it is empty and copying it if it is shared with another grid
+	 */
+	private Tile writableTile(int tileIndex) {
+		Tile tile = tileAt(tileIndex);
+		if (tile == null) {
+			tile = new Tile(owner);
+			tiles.set(tileIndex, tile, owner);
+		} else if (!tile.isOwnedBy(owner)) {
+			tile = tile.copy(owner);
+			tiles.set(tileIndex, tile, owner);
+		}
+		return tile;
+	}
+	
+	private void releaseIfEmpty(int tileIndex) {
+		if (tileAt(tileIndex) != null && tileAt(tileIndex).isEmpty()) {
+			tiles.set(tileIndex, (source == null) ? null : CLEARED, owner); // null would read the tile from the source again
+		}
+	}
+
+	/**
+	 * Returns the tile at tileIndex, reading it from the source if the grid never wrote it, or null if all its cells are at level 0
+	 */
+	private Tile tileAt(int tileIndex) {
+		Tile tile = tiles.get(tileIndex);
+		if (tile != null || source == null) {
+			return (tile == CLEARED) ? null : tile;
+		}
+		int tileX = tileIndex % tilesAcross + firstTileX;
+		int tileY = tileIndex / tilesAcross + firstTileY;
+		if (tileX < sourceFirstTileX || tileX >= sourceEndTileX || tileY < sourceFirstTileY || tileY >= sourceEndTileY) {
+			return null;
+		}
+		return source.getTile(tileX, tileY);
+	}
+
+	/**
+	 * Reads every tile the grid never wrote from its source, so the grid does not need the source anymore
+	 */
+	void detachSource() {
+		if (source == null) {
+			return;
+		}
+		for (int tileIndex = 0; tileIndex < tiles.size(); tileIndex++) {
+			Tile tile = tileAt(tileIndex);
+			if (tile != tiles.get(tileIndex)) { // the tile of the source is shared, like the tile of a clone
+				tiles.set(tileIndex, tile, owner);
+			}
+		}
+		source = null;
+	}
+
+	/**
+	 * Returns the source of the tiles the grid never wrote, or null if the grid is in memory only
+	 */
+	TileSource getSource() {
+		return source;
+	}
+
+	/**
+	 * Closes the source of the tiles the grid never wrote, like the file it was opened from (see ProjectIO.open), once
+	 * the grid is replaced. The grid and its read-only versions must not be used anymore: a tile which is not in memory
+	 * cannot be read once its source is closed. Does nothing if the grid is in memory only
+	 */
+	public void closeSource() {
+		if (source != null) {
+			source.close();
+		}
+	}
+
+	/**
+	 * Reads the tiles of a region of the grid from its source in the background, the ones nearest to the middle of the
+	 * region first, so they are ready once the grid uses them. Used to read the tiles around the part of a large board
+	 * which is shown before it is scrolled to. Does nothing if the grid is in memory only
+	 *
+	 * @param cells - the region, which may go past the edges of the grid. It replaces the region of the last call
+	 */
+	public void prefetch(CellRectangle cells) {
+		CellRectangle region = cells.intersection(new CellRectangle(0, 0, width, height));
+		if (source == null || region == null) {
+			return;
+		}
+		int firstTileX = Math.max(sourceFirstTileX, (originX + region.getX()) >> Tile.SHIFT);
+		int firstTileY = Math.max(sourceFirstTileY, (originY + region.getY()) >> Tile.SHIFT);
+		int endTileX = Math.min(sourceEndTileX, ((originX + region.getEndX() - 1) >> Tile.SHIFT) + 1);
+		int endTileY = Math.min(sourceEndTileY, ((originY + region.getEndY() - 1) >> Tile.SHIFT) + 1);
+		if (firstTileX < endTileX && firstTileY < endTileY) {
+			source.prefetch(firstTileX, firstTileY, endTileX, endTileY);
+		}
+	}
+
+	/**
+	 * Returns a tile of the tile space, which must not be written, or null if all its cells are at level 0 or it is
+	 * outside of the grid. Used to save the tiles which changed (see Autosave)
+	 *
+	 * @param tileX - the column of the tile in the tile space
+	 * @param tileY - the row of the tile in the tile space
+	 */
+	Tile getTile(int tileX, int tileY) {
+		int tileIndex = (tileY - firstTileY) * tilesAcross + tileX - firstTileX;
+		if (tileX < firstTileX || tileX >= firstTileX + tilesAcross || tileY < firstTileY || tileIndex >= tiles.size()) {
+			return null;
+		}
+		return isTileInGrid(tileIndex) ? tileAt(tileIndex) : null;
+	}
+
+	/**
+	 * Puts a tile in the tile space, where the grid has no tile yet, without an edit or an event. Used to load the
+	 * files made of tiles (see LogFormat)
+	 *
+	 * @param tileX - the column of the tile in the tile space
+	 * @param tileY - the row of the tile in the tile space
+	 * @param tile - the tile, whose cells outside of the grid are at level 0. The grid copies it before writing to it
+	 */
+	void putTile(int tileX, int tileY, Tile tile) {
+		checkWritable();
+		int tileIndex = (tileY - firstTileY) * tilesAcross + tileX - firstTileX;
+		if (tileX < firstTileX || tileX >= firstTileX + tilesAcross || tileY < firstTileY || tileIndex >= tiles.size()
+				|| !isTileInGrid(tileIndex)) {
+			throw new IllegalArgumentException("The tile (" + tileX + ", " + tileY + ") is outside of the grid");
+		}
+		if (tileAt(tileIndex) != null) {
+			throw new IllegalStateException("The grid already has the tile (" + tileX + ", " + tileY + ")");
+		}
+		tiles.set(tileIndex, tile, owner);
+		for (int level = 1; level <= tile.getLevelLimit(); level++) {
+			int count = tile.getLevelCount(level);
+			if (count > 0) {
+				if (level >= levelCounts.length) {
+					levelCounts = Arrays.copyOf(levelCounts, Math.max(level + 1, levelCounts.length * 2));
+				}
+				levelCounts[level] += count;
+				raisedCells += count;
+				maxLevel = Math.max(maxLevel, level);
+			}
+		}
+	}
+	
+	/**
+	 * Adds the cells of the tile at tileIndex which are inside the grid to the changed region
+	 */
+	private void tileChanged(int tileIndex) {
+		CellRectangle cells = new CellRectangle(tileLeft(tileIndex), tileTop(tileIndex), Tile.SIZE, Tile.SIZE).intersection(new CellRectangle(0, 0, width, height));
+		if (cells != null) {
+			cellsChanged(cells);
+		}
+	}
+	
+	/**
+	 * Returns the number of tiles which are allocated. Used by the tests
+	 */
+	int getAllocatedTileCount() {
+		int count = 0;
+		for (int tileIndex = 0; tileIndex < tiles.size(); tileIndex++) {
+			if (tileAt(tileIndex) != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Sets every cell of the tile at tileIndex which is inside the grid (or, if outside is true, outside the grid)
+	 * to a level or a pointy status
+	 * 
+	 * @param tileIndex - the index of the tile
+	 * @param outside - true to change the cells outside of the grid instead of the cells inside of it
+	 * @param level - the level the cells are set to, or -1 to keep their level
+	 * @param pointy - 1 to make the cells pointy, 0 to make them not pointy, or -1 to keep their pointy status
+	 */
+	private void fillTile(int tileIndex, boolean outside, int level, int pointy) {
+		int tileX = tileLeft(tileIndex);
+		int tileY = tileTop(tileIndex);
+		Tile tile = tileAt(tileIndex); //only read until a cell changes, so a tile shared with another grid is not copied for nothing
+		boolean isChanged = false;
+		for (int y = tileY; y < tileY + Tile.SIZE; y++) {
+			for (int x = tileX; x < tileX + Tile.SIZE; x++) {
+				if (isCoordinateInGrid(x, y) != outside) {
+					int i = cellIndexOf(x, y);
+					int oldLevel = (tile == null) ? 0 : tile.getZ(i);
+					boolean wasPointy = tile != null && tile.isPointy(i);
+					int newLevel = (level >= 0) ? level : oldLevel;
+					boolean isPointy = (pointy >= 0) ? pointy == 1 : wasPointy;
+					if (newLevel != oldLevel || (isPointy && newLevel != 0) != wasPointy) {
+						if (!isChanged) {
+							tile = writableTile(tileIndex);
+						}
+						recordCell(tile, x, y);
+						tile.setZ(i, newLevel);
+						levelChanged(oldLevel, newLevel);
+						tile.setPointy(i, isPointy);
+						isChanged = true;
+					}
+				}
+			}
+		}
+		if (isChanged) {
+			releaseIfEmpty(tileIndex);
+			if (!outside) {
+				tileChanged(tileIndex);
+			}
+		}
+	}
+	
+	/**
+	 * This method allows us to resize the grid by adding or removing columns on the right and rows on the bottom.
+	 * The tiles which are still in the new grid are kept as they are, so the information of the cells (from the old grid)
+	 * which fit in the new grid are kept without copying them.
 	 * 
 	 * @param newWidth - the number of columns of the new grid
 	 * @param newHeight - the number of rows of the new grid
 	 *           
 	 */
 	public void resize(int newWidth, int newHeight) {
-		Block[][] newBlockGrid = new Block[newWidth][newHeight];
-		for (int y = 0; y < newHeight; y++) {
-			for (int x = 0; x < newWidth; x++) {
-				if (x >= width || y >= height) {  // if the old grid does not contain the cell, create a new cell
-					newBlockGrid[x][y] = new Block(x,y,0);
-				} else { // if the old grid contains the cell, copy the cell to the new grid
-					newBlockGrid[x][y] = blockGrid[x][y];
+		setBounds(originX, originY, newWidth, newHeight);
+	}
+
+	/**
+	 * Adds columns and rows on any side of the grid, or removes them if the number is negative.
+	 * The cells of the grid stay where they are, so after adding columns on the left a cell is
+	 * found left more columns to the right
+	 *
+	 * @param left - the number of columns added on the left
+	 * @param top - the number of rows added on the top
+	 * @param right - the number of columns added on the right
+	 * @param bottom - the number of rows added on the bottom
+	 */
+	public void extend(int left, int top, int right, int bottom) {
+		setBounds(originX - left, originY - top, width + left + right, height + top + bottom);
+	}
+
+	/**
+	 * Moves the grid to another window of the tile space
+	 *
+	 * @param newOriginX - the column of the new cell (0, 0) in the tile space
+	 * @param newOriginY - the row of the new cell (0, 0) in the tile space
+	 * @param newWidth - the number of columns of the new grid
+	 * @param newHeight - the number of rows of the new grid
+	 */
+	void setBounds(int newOriginX, int newOriginY, int newWidth, int newHeight) {
+		if (newWidth < 0 || newHeight < 0) {
+			throw new IllegalArgumentException("Invalid size: " + newWidth + "x" + newHeight);
+		}
+		if (newOriginX == originX && newOriginY == originY && newWidth == width && newHeight == height) {
+			return;
+		}
+		beginChanges();
+		try {
+			int newFirstTileX = newOriginX >> Tile.SHIFT;
+			int newFirstTileY = newOriginY >> Tile.SHIFT;
+			int newEndTileX = (newWidth == 0) ? newFirstTileX : ((newOriginX + newWidth - 1) >> Tile.SHIFT) + 1;
+			int newEndTileY = (newHeight == 0) ? newFirstTileY : ((newOriginY + newHeight - 1) >> Tile.SHIFT) + 1;
+			for (int tileIndex = 0; tileIndex < tiles.size(); tileIndex++) {
+				int tileX = tileIndex % tilesAcross + firstTileX;
+				int tileY = tileIndex / tilesAcross + firstTileY;
+				boolean isKept = tileX >= newFirstTileX && tileX < newEndTileX && tileY >= newFirstTileY && tileY < newEndTileY;
+				if (!isKept && tileAt(tileIndex) != null) { // the cells of a dropped tile are not counted anymore
+					recordTile(tileIndex);
+					for (int level = 1; level <= tileAt(tileIndex).getLevelLimit(); level++) {
+						cellsRemoved(level, tileAt(tileIndex).getLevelCount(level));
+					}
+					tiles.set(tileIndex, null, owner);
+				}
+			}
+			sourceFirstTileX = Math.max(sourceFirstTileX, newFirstTileX); // a dropped tile of the source is empty if the grid grows again
+			sourceFirstTileY = Math.max(sourceFirstTileY, newFirstTileY);
+			sourceEndTileX = Math.min(sourceEndTileX, newEndTileX);
+			sourceEndTileY = Math.min(sourceEndTileY, newEndTileY);
+			boolean isCropped = newOriginX > originX || newOriginY > originY
+					|| newOriginX + newWidth < originX + width || newOriginY + newHeight < originY + height;
+			changedRegion.translate(originX - newOriginX, originY - newOriginY); // the changed cells keep their place in the tile space
+			this.originX = newOriginX;
+			this.originY = newOriginY;
+			this.width = newWidth;
+			this.height = newHeight;
+			placeTiles(newFirstTileX, newFirstTileY, newEndTileX, newEndTileY);
+
+			if (isCropped) { // the cropped cells of the first and last rows and columns of tiles are cleared, so they are empty if the grid grows again
+				for (int tileIndex = 0; tileIndex < tiles.size(); tileIndex++) {
+					int tileX = tileIndex % tilesAcross + firstTileX;
+					int tileY = tileIndex / tilesAcross + firstTileY;
+					boolean isEdge = tileX == newFirstTileX || tileX == newEndTileX - 1 || tileY == newFirstTileY || tileY == newEndTileY - 1;
+					if (tileAt(tileIndex) != null && isEdge) {
+						fillTile(tileIndex, true, 0, 0);
+					}
 				}
-			}			
+			}
+			if (openEdit != null) {
+				openEdit.resized(newOriginX, newOriginY, newWidth, newHeight);
+			}
+			isResized = true;
+		} finally {
+			endChanges();
+		}
+	}
+
+	/**
+	 * Makes sure the directory of the tiles holds the tiles from (firstX, firstY) to (endX, endY), excluded, of the
+	 * tile space. A new directory gets half of its size of spare room on each side the grid grew out of the old
+	 * one, so a grid which keeps growing on one side only gets a new directory now and then. A directory much
+	 * larger than the grid is shrunk
+	 */
+	private void placeTiles(int firstX, int firstY, int endX, int endY) {
+		int across = endX - firstX;
+		int down = endY - firstY;
+		int lastTileX = firstTileX + tilesAcross;
+		int lastTileY = firstTileY + ((tilesAcross == 0) ? 0 : tiles.size() / tilesAcross);
+		boolean isInside = firstX >= firstTileX && endX <= lastTileX && firstY >= firstTileY && endY <= lastTileY;
+		if (isInside && tiles.size() <= 4L * Math.max(across * down, 16)) {
+			return;
+		}
+		int newFirstX = firstX - ((firstX < firstTileX) ? across / 2 : 0);
+		int newFirstY = firstY - ((firstY < firstTileY) ? down / 2 : 0);
+		int newAcross = endX + ((endX > lastTileX) ? across / 2 : 0) - newFirstX;
+		int newDown = endY + ((endY > lastTileY) ? down / 2 : 0) - newFirstY;
+		TileDirectory newTiles = new TileDirectory(newAcross * newDown);
+		for (int tileIndex = 0; tileIndex < tiles.size(); tileIndex++) {
+			if (tiles.get(tileIndex) != null) { // only the tiles inside of the new range are left, the tiles of the source stay in it
+				int tileX = tileIndex % tilesAcross + firstTileX;
+				int tileY = tileIndex / tilesAcross + firstTileY;
+				newTiles.set((tileY - newFirstY) * newAcross + tileX - newFirstX, tiles.get(tileIndex), owner);
+			}
+		}
+		this.tiles = newTiles;
+		this.tilesAcross = newAcross;
+		this.firstTileX = newFirstX;
+		this.firstTileY = newFirstY;
+	}
+
+	/**
+	 * Records the state of every raised cell of the tile at tileIndex before the open edit drops the tile
+	 */
+	private void recordTile(int tileIndex) {
+		if (openEdit == null) {
+			return;
+		}
+		Tile tile = tileAt(tileIndex);
+		int tileX = tileLeft(tileIndex);
+		int tileY = tileTop(tileIndex);
+		for (int level = 1; level <= tile.getLevelLimit(); level++) {
+			long[] bits = tile.getLevelBits(level);
+			for (int row = 0; bits != null && row < bits.length; row++) {
+				for (long word = bits[row]; word != 0; word &= word - 1) {
+					recordCell(tile, tileX + Long.numberOfTrailingZeros(word), tileY + row); // a pointy cell is raised too
+				}
+			}
 		}
-		this.blockGrid = newBlockGrid;
-		this.width = newWidth;
-		this.height = newHeight;
 	}
 	
 	/**
@@ -135,11 +1053,16 @@ public class Grid implements Cloneable {
 	 * @param pointy - whether or not a block is pointy
 	 */
 	public void setPointy(boolean pointy) {
-		for (int y = 0; y < this.getHeight(); y++) {
-            for (int x = 0; x < this.getWidth(); x++) {
-            	blockGrid[x][y].setPointy(pointy);
-            }
-    	}
+		beginChanges();
+		try {
+			for (int tileIndex = 0; tileIndex < tiles.size(); tileIndex++) {
+				if (tileAt(tileIndex) != null) { // the cells of an empty tile are at level 0, so they cannot be pointy
+					fillTile(tileIndex, false, -1, pointy ? 1 : 0);
+				}
+			}
+		} finally {
+			endChanges();
+		}
 	}
 	
 	/**
@@ -164,13 +1087,17 @@ public class Grid implements Cloneable {
 	 * @param level - the level which the blocks should be set to
 	 */
 	public void allBlocksSetZ(int level) {
-		boolean isVisible = isVisibleLevel(level);
-		
-		for (int y = 0; y < this.getHeight(); y++) {
-            for (int x = 0; x < this.getWidth(); x++) {
-            	blockGrid[x][y].setZ(level);
-            }
-    	}
+		checkLevel(level);
+		beginChanges();
+		try {
+			for (int tileIndex = 0; tileIndex < tiles.size(); tileIndex++) {
+				if ((level != 0 && isTileInGrid(tileIndex)) || tileAt(tileIndex) != null) {
+					fillTile(tileIndex, false, level, -1);
+				}
+			}
+		} finally {
+			endChanges();
+		}
 	}
 	
 	/**
@@ -238,8 +1165,9 @@ public class Grid implements Cloneable {
     	
     	for (int y = 0; y < this.getHeight(); y++) {
             for (int x = 0; x < this.getWidth(); x++) {
-            	if (isEdgeBlock(blockGrid[x][y])) {
-            		edgeBlocks.add(blockGrid[x][y]); //adds all edge blocks to an array
+            	Block block = getBlockAt(x, y);
+            	if (isEdgeBlock(block)) {
+            		edgeBlocks.add(block); //adds all edge blocks to an array
             		edgeBlockCount = edgeBlockCount + 1;
             	}
             }
@@ -271,13 +1199,29 @@ public class Grid implements Cloneable {
 	 * @param level - the level which should be the highest in the grid
 	 */
 	public void lowerBlocksHigherThan(int level) {
-		for (int y = 0; y < this.getHeight(); y++) {
-            for (int x = 0; x < this.getWidth(); x++) {
-            	if (blockGrid[x][y].getZ() > level) {
-            		blockGrid[x][y].setZ(level);
-            	}
-            }
-    	}
+		checkLevel(level);
+		beginChanges();
+		try {
+			for (int tileIndex = 0; tileIndex < tiles.size(); tileIndex++) {
+				Tile tile = tileAt(tileIndex);
+				boolean isChanged = false;
+				for (int i = 0; tile != null && i < Tile.CELLS; i++) {
+					if (tile.getZ(i) > level) {
+						recordCell(tile, tileLeft(tileIndex) + (i & Tile.MASK), tileTop(tileIndex) + (i >> Tile.SHIFT));
+						tile = writableTile(tileIndex); // the tile is only copied if one of its cells is lowered
+						levelChanged(tile.getZ(i), level);
+						tile.setZ(i, level);
+						isChanged = true;
+					}
+				}
+				releaseIfEmpty(tileIndex);
+				if (isChanged) {
+					tileChanged(tileIndex);
+				}
+			}
+		} finally {
+			endChanges();
+		}
 	}
 	
 	//----------------- Related Terrain Tool ----------------------
@@ -297,23 +1241,28 @@ public class Grid implements Cloneable {
 	
 	//------------------ Related Selection Tool ----------------
 	public void cutAndPaste(Set<Block> selectedBlocks, int changeInXIndex, int changeInYIndex) throws ArrayIndexOutOfBoundsException {
-		Grid originalData = this.clone();
+		Block[] blocks = selectedBlocks.toArray(new Block[0]);
+		int[] originalLevels = new int[blocks.length]; //the levels are read before any of them is cut
+		for (int i = 0; i < blocks.length; i++) {
+			originalLevels[i] = getZ(blocks[i].getX(), blocks[i].getY());
+		}
     	
-		for (Block block : selectedBlocks) {
-    		int srcX = block.getX();
-    		int srcY = block.getY();
-    		blockGrid[srcX][srcY].setZ(0);
-    	}
-
-    	for (Block block : selectedBlocks) {
-    		int srcX = block.getX();
-    		int srcY = block.getY();
-	    	int destX = srcX + changeInXIndex;
-	    	int destY = srcY + changeInYIndex;
-    		if (destX < width && destX >= 0 && destY < height && destY >= 0) { //if block is in the grid
-	    		blockGrid[destX][destY].setZ(originalData.blockGrid[srcX][srcY].getZ());
-    		}
-    	}
+		beginChanges();
+		try {
+			for (Block block : blocks) {
+	    		setZ(block.getX(), block.getY(), 0);
+	    	}
+	
+	    	for (int i = 0; i < blocks.length; i++) {
+		    	int destX = blocks[i].getX() + changeInXIndex;
+		    	int destY = blocks[i].getY() + changeInYIndex;
+	    		if (isCoordinateInGrid(destX, destY)) { //if block is in the grid
+		    		setZ(destX, destY, originalLevels[i]);
+	    		}
+	    	}
+		} finally {
+			endChanges();
+		}
 	}
 	
 	/**
@@ -329,7 +1278,7 @@ public class Grid implements Cloneable {
 		for (int y = 0; y < height; y++) {
 			for (int x = 0; x < width; x++) {
 				sb.append(" ");
-				sb.append(blockGrid[x][y].getZ()) ;
+				sb.append(getZ(x, y)) ;
 			}
 			sb.append("\n");
 		}
@@ -337,19 +1286,52 @@ public class Grid implements Cloneable {
 	}
 
 	/**
-	 * creates and returns a clone of this Grid and the list of Block contained in this Grid and Block themselves
+	 * Returns a read-only version of this grid as it is now. The version shares the tiles of this grid, which copies
+	 * a shared tile before changing it, so the version never changes. Any change of the version throws an
+	 * UnsupportedOperationException, and a writable grid is made from a version with clone.
+	 * 
+	 * The version must be made by the thread which edits the grid, but once it is handed to other threads they can
+	 * read it (and clone it) while the grid keeps changing: this is how the grid is saved or exported in the background
+	 * 
+	 * @return the version of this grid
+	 */
+	public Grid snapshot() {
+		if (isFrozen) {
+			return this;
+		}
+		Grid version = clone();
+		version.isFrozen = true;
+		return version;
+	}
+
+	/**
+	 * Returns if this grid is a read-only version made by snapshot
+	 */
+	public boolean isFrozen() {
+		return isFrozen;
+	}
+
+	/**
+	 * creates and returns a clone of this Grid. The clone shares the tiles of this Grid, and each grid copies
+	 * a shared tile before writing to it, so the two grids are independent. The clone of a read-only version
+	 * is writable
 	 * 
-	 * @return a deep clone of this Grid
+	 * @return a clone of this Grid
 	 */
 	public Grid clone() {
 		try {
 			Grid clone = (Grid) super.clone();
-			clone.blockGrid = new Block[width][height];
-			for (int y = 0; y < height; y++) {
-				for (int x = 0; x < width; x++) {
-					clone.blockGrid[x][y] = this.blockGrid[x][y].clone();
-				}			
-			} 
+			clone.isFrozen = false;
+			clone.tiles = tiles.copy();
+			clone.levelCounts = levelCounts.clone();
+			clone.listeners = new ArrayList<>(); // the listeners of this grid do not listen to the clone
+			clone.changedRegion = null;
+			clone.openEdit = null;
+			clone.editDepth = 0;
+			clone.owner = new Object();
+			if (!isFrozen) { // a read-only version never writes, so cloning it changes nothing in it
+				this.owner = new Object(); // the tiles are shared now, so this grid must copy them before writing too
+			}
 			return clone;
 		} catch (CloneNotSupportedException e) {
 			e.printStackTrace();
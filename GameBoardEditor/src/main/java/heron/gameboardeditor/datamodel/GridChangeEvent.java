@@ -0,0 +1,66 @@
+package heron.gameboardeditor.datamodel;
+
+/**
+ * This class describes a change of a Grid: the region of the cells which changed, if the size of the grid changed
+ * and how far its cells moved if columns or rows were added or removed on the left or the top, and the record of
+ * the edit which made the change
+ */
+public class GridChangeEvent {
+	private final Grid grid;
+	private final DirtyRegion region;
+	private final boolean isResized;
+	private final int shiftX;
+	private final int shiftY;
+	private final GridEdit edit;
+
+	/**
+	 * Constructs a change event
+	 * 
+	 * @param grid - the grid which changed
+	 * @param region - the cells which changed
+	 * @param isResized - true if columns or rows of the grid were added or removed
+	 * @param shiftX - the number of columns the cells moved to the right, because columns were added on the left
+	 * @param shiftY - the number of rows the cells moved down, because rows were added on the top
+	 * @param edit - the record of the edit which made the change
+	 */
+	public GridChangeEvent(Grid grid, DirtyRegion region, boolean isResized, int shiftX, int shiftY, GridEdit edit) {
+		this.grid = grid;
+		this.region = region;
+		this.isResized = isResized;
+		this.shiftX = shiftX;
+		this.shiftY = shiftY;
+		this.edit = edit;
+	}
+
+	public Grid getGrid() {
+		return grid;
+	}
+
+	public DirtyRegion getRegion() {
+		return region;
+	}
+
+	public boolean isResized() {
+		return isResized;
+	}
+
+	/**
+	 * Returns the number of columns the cells moved to the right: the cell which was at x before the change is at x + shiftX.
+	 * It is negative if columns were removed on the left
+	 */
+	public int getShiftX() {
+		return shiftX;
+	}
+
+	/**
+	 * Returns the number of rows the cells moved down: the cell which was at y before the change is at y + shiftY.
+	 * It is negative if rows were removed on the top
+	 */
+	public int getShiftY() {
+		return shiftY;
+	}
+
+	public GridEdit getEdit() {
+		return edit;
+	}
+}
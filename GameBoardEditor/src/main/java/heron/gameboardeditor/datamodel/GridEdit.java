@@ -0,0 +1,521 @@
+package heron.gameboardeditor.datamodel;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is the record of one edit of a Grid: the old and the new level and pointy status of every cell
+ * the edit changed, and the bounds and max level of the grid before and after the edit. The cells are recorded at
+ * their place in the tile space of the grid (see Grid.getOriginX), so the record stays right when columns or rows
+ * are added or removed on the left or the top of the grid.
+ *
+ * While the edit is open, the grid records the old state of a cell the first time the edit writes to it.
+ * When the edit is committed the new states are read from the grid and the cells which are back at their
+ * old state are dropped, so a cell written many times costs the same as a cell written once.
+ * The cells are grouped by tile and each one is stored in 6 bytes: its index in the tile, and its old and new state.
+ */
+public class GridEdit {
+	private static final int SCAN_LIMIT = 16; //above this number of cells a tile keeps a bitmap of its recorded cells
+
+	private final int oldOriginX;
+	private final int oldOriginY;
+	private final int oldWidth;
+	private final int oldHeight;
+	private final int oldMaxZ;
+	private int newOriginX;
+	private int newOriginY;
+	private int newWidth;
+	private int newHeight;
+	private int newMaxZ;
+	private CellRectangle span; //the part of the tile space covered by the grid at some point of the edit
+
+	private Map<Long, TileChanges> openChanges = new HashMap<>(); //the changes by tile while the edit is open, null once it is committed
+	private TileChanges lastChanges; //the changes of the tile written last, most writes go to the same tile as the previous one
+	private TileChanges[] changes; //the changes by tile once the edit is committed
+
+	/**
+	 * Opens the record of an edit of a grid
+	 *
+	 * @param grid - the grid, as it is when the edit begins
+	 */
+	GridEdit(Grid grid) {
+		this(grid.getOriginX(), grid.getOriginY(), grid.getWidth(), grid.getHeight(), grid.getMaxZ());
+	}
+
+	private GridEdit(int oldOriginX, int oldOriginY, int oldWidth, int oldHeight, int oldMaxZ) {
+		this.oldOriginX = oldOriginX;
+		this.oldOriginY = oldOriginY;
+		this.oldWidth = oldWidth;
+		this.oldHeight = oldHeight;
+		this.oldMaxZ = oldMaxZ;
+		this.span = new CellRectangle(oldOriginX, oldOriginY, oldWidth, oldHeight);
+	}
+
+	/**
+	 * Merges committed edits, done one after the other on the same grid, into one record of all their changes.
+	 * A cell changed by several of the edits is kept once, with its state before the first one and after the last one
+	 *
+	 * @param edits - the edits, in the order they were done
+	 * @return one edit which undoes or redoes all of them
+	 */
+	static GridEdit merge(List<GridEdit> edits) {
+		GridEdit first = edits.get(0);
+		GridEdit last = edits.get(edits.size() - 1);
+		if (edits.size() == 1) {
+			return first;
+		}
+		GridEdit merged = new GridEdit(first.oldOriginX, first.oldOriginY, first.oldWidth, first.oldHeight, first.oldMaxZ);
+		merged.newOriginX = last.newOriginX;
+		merged.newOriginY = last.newOriginY;
+		merged.newWidth = last.newWidth;
+		merged.newHeight = last.newHeight;
+		merged.newMaxZ = last.newMaxZ;
+		Map<Long, List<TileChanges>> changesByTile = new LinkedHashMap<>();
+		for (GridEdit edit : edits) {
+			merged.span = merged.span.union(edit.span);
+			for (TileChanges tileChanges : edit.changes) {
+				changesByTile.computeIfAbsent(((long) tileChanges.tileY << 32) | (tileChanges.tileX & 0xFFFFFFFFL), key -> new ArrayList<>()).add(tileChanges);
+			}
+		}
+
+		short[] oldStates = new short[Tile.CELLS]; //the state of each cell of the tile before the first edit
+		short[] newStates = new short[Tile.CELLS];
+		long[] changedBits = new long[Tile.CELLS / 64];
+		List<TileChanges> changed = new ArrayList<>();
+		for (List<TileChanges> tileEdits : changesByTile.values()) {
+			Arrays.fill(changedBits, 0);
+			for (TileChanges tileChanges : tileEdits) {
+				for (int i = 0; i < tileChanges.count; i++) {
+					int cell = tileChanges.cells[i];
+					if ((changedBits[cell >> 6] & (1L << cell)) == 0) {
+						changedBits[cell >> 6] |= 1L << cell;
+						oldStates[cell] = tileChanges.oldStates[i];
+					}
+					newStates[cell] = tileChanges.newStates[i];
+				}
+			}
+			TileChanges mergedChanges = new TileChanges(tileEdits.get(0).tileX, tileEdits.get(0).tileY);
+			mergedChanges.newStates = new short[0];
+			for (int word = 0; word < changedBits.length; word++) {
+				for (long bits = changedBits[word]; bits != 0; bits &= bits - 1) {
+					int cell = (word << 6) | Long.numberOfTrailingZeros(bits);
+					if (oldStates[cell] != newStates[cell]) {
+						mergedChanges.add(cell, oldStates[cell], newStates[cell]);
+					}
+				}
+			}
+			if (mergedChanges.count > 0) {
+				mergedChanges.trim();
+				changed.add(mergedChanges);
+			}
+		}
+		merged.changes = changed.toArray(new TileChanges[0]);
+		merged.openChanges = null;
+		return merged;
+	}
+
+	/**
+	 * Records the state of the cell at (x, y) of the tile space before the edit, if the edit did not write to the cell yet
+	 */
+	void record(int x, int y, int level, boolean pointy) {
+		int tileX = x >> Tile.SHIFT;
+		int tileY = y >> Tile.SHIFT;
+		TileChanges tileChanges = lastChanges;
+		if (tileChanges == null || tileChanges.tileX != tileX || tileChanges.tileY != tileY) {
+			tileChanges = openChanges.computeIfAbsent(((long) tileY << 32) | (tileX & 0xFFFFFFFFL), key -> new TileChanges(tileX, tileY));
+			lastChanges = tileChanges;
+		}
+		tileChanges.record(Tile.indexOf(x, y), state(level, pointy));
+	}
+
+	/**
+	 * Records that the grid was moved to other bounds of the tile space during the edit
+	 */
+	void resized(int originX, int originY, int width, int height) {
+		span = span.union(new CellRectangle(originX, originY, width, height));
+	}
+
+	/**
+	 * Closes the record: reads the new state of the recorded cells from the grid and drops the cells which did not change
+	 *
+	 * @param grid - the grid the edit was done on
+	 */
+	void commit(Grid grid) {
+		newOriginX = grid.getOriginX();
+		newOriginY = grid.getOriginY();
+		newWidth = grid.getWidth();
+		newHeight = grid.getHeight();
+		newMaxZ = grid.getMaxZ();
+		List<TileChanges> changed = new ArrayList<>();
+		for (TileChanges tileChanges : openChanges.values()) {
+			tileChanges.commit(grid);
+			if (tileChanges.count > 0) {
+				changed.add(tileChanges);
+			}
+		}
+		changes = changed.toArray(new TileChanges[0]);
+		openChanges = null;
+		lastChanges = null;
+	}
+
+	/**
+	 * Writes a committed edit, so it can be kept compressed or on disk (see GridHistory)
+	 *
+	 * @param out - where the edit is written
+	 */
+	void write(DataOutput out) throws IOException {
+		writeHeader(out);
+		for (int t = 0; t < changes.length; t++) {
+			writeTile(t, out);
+		}
+	}
+
+	/**
+	 * Writes the bounds of the grid before and after the edit, and the number of tiles it changed
+	 *
+	 * @param out - where the header is written
+	 */
+	void writeHeader(DataOutput out) throws IOException {
+		out.writeInt(oldOriginX);
+		out.writeInt(oldOriginY);
+		out.writeInt(oldWidth);
+		out.writeInt(oldHeight);
+		out.writeInt(oldMaxZ);
+		out.writeInt(newOriginX);
+		out.writeInt(newOriginY);
+		out.writeInt(newWidth);
+		out.writeInt(newHeight);
+		out.writeInt(newMaxZ);
+		out.writeInt(span.getX());
+		out.writeInt(span.getY());
+		out.writeInt(span.getWidth());
+		out.writeInt(span.getHeight());
+		out.writeInt(changes.length);
+	}
+
+	/**
+	 * Writes the changes of one tile, which do not depend on the rest of the edit (see GridHistory, which stores them once when they repeat)
+	 *
+	 * @param t - the index of the tile among the tiles changed by the edit, from 0 to getTileCount() - 1
+	 * @param out - where the changes are written
+	 */
+	void writeTile(int t, DataOutput out) throws IOException {
+		TileChanges tileChanges = changes[t];
+		out.writeInt(tileChanges.tileX);
+		out.writeInt(tileChanges.tileY);
+		out.writeShort(tileChanges.count);
+		for (int i = 0; i < tileChanges.count; i++) {
+			out.writeShort(tileChanges.cells[i]);
+			out.writeShort(tileChanges.oldStates[i]);
+			out.writeShort(tileChanges.newStates[i]);
+		}
+	}
+
+	/**
+	 * Reads an edit written by write
+	 *
+	 * @param in - where the edit is read from
+	 * @return the edit, committed
+	 */
+	static GridEdit read(DataInput in) throws IOException {
+		GridEdit edit = readHeader(in);
+		for (int t = 0; t < edit.changes.length; t++) {
+			edit.readTile(t, in);
+		}
+		return edit;
+	}
+
+	/**
+	 * Reads a header written by writeHeader. The changes of each tile must then be read by readTile
+	 *
+	 * @param in - where the header is read from
+	 * @return the edit, committed, without its changes yet
+	 */
+	static GridEdit readHeader(DataInput in) throws IOException {
+		GridEdit edit = new GridEdit(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt());
+		edit.newOriginX = in.readInt();
+		edit.newOriginY = in.readInt();
+		edit.newWidth = in.readInt();
+		edit.newHeight = in.readInt();
+		edit.newMaxZ = in.readInt();
+		edit.span = new CellRectangle(in.readInt(), in.readInt(), in.readInt(), in.readInt());
+		edit.changes = new TileChanges[in.readInt()];
+		edit.openChanges = null;
+		return edit;
+	}
+
+	/**
+	 * Reads the changes of one tile written by writeTile
+	 *
+	 * @param t - the index of the tile among the tiles changed by the edit
+	 * @param in - where the changes are read from
+	 */
+	void readTile(int t, DataInput in) throws IOException {
+		TileChanges tileChanges = new TileChanges(in.readInt(), in.readInt());
+		int count = in.readUnsignedShort(); // a tile has at most 4096 cells
+		tileChanges.cells = new short[count];
+		tileChanges.oldStates = new short[count];
+		tileChanges.newStates = new short[count];
+		for (int i = 0; i < count; i++) {
+			tileChanges.cells[i] = in.readShort();
+			tileChanges.oldStates[i] = in.readShort();
+			tileChanges.newStates[i] = in.readShort();
+		}
+		tileChanges.count = count;
+		changes[t] = tileChanges;
+	}
+
+	//------------- getters -------------
+
+	/**
+	 * Returns if the edit changed nothing
+	 */
+	public boolean isEmpty() {
+		return getCellCount() == 0 && !isResized() && oldMaxZ == newMaxZ;
+	}
+
+	/**
+	 * Returns if the edit added or removed columns or rows of the grid
+	 */
+	public boolean isResized() {
+		return oldOriginX != newOriginX || oldOriginY != newOriginY || oldWidth != newWidth || oldHeight != newHeight;
+	}
+
+	/**
+	 * Returns the number of cells the edit changed
+	 */
+	public int getCellCount() {
+		int count = 0;
+		for (TileChanges tileChanges : changes) {
+			count += tileChanges.count;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of tiles in which the edit changed cells
+	 */
+	int getTileCount() {
+		return changes.length;
+	}
+
+	/**
+	 * Returns an estimate of the memory used by this record, in bytes
+	 */
+	public long getByteSize() {
+		long size = 64;
+		for (TileChanges tileChanges : changes) {
+			size += 48 + 6L * tileChanges.count;
+		}
+		return size;
+	}
+
+	public int getOldOriginX() {
+		return oldOriginX;
+	}
+
+	public int getOldOriginY() {
+		return oldOriginY;
+	}
+
+	public int getNewOriginX() {
+		return newOriginX;
+	}
+
+	public int getNewOriginY() {
+		return newOriginY;
+	}
+
+	public int getOldWidth() {
+		return oldWidth;
+	}
+
+	public int getOldHeight() {
+		return oldHeight;
+	}
+
+	public int getNewWidth() {
+		return newWidth;
+	}
+
+	public int getNewHeight() {
+		return newHeight;
+	}
+
+	public int getOldMaxZ() {
+		return oldMaxZ;
+	}
+
+	public int getNewMaxZ() {
+		return newMaxZ;
+	}
+
+	//------------- undo and redo -------------
+
+	/**
+	 * Puts the grid back in the state it had before this edit, as one edit of the grid
+	 *
+	 * @param grid - the grid this edit was done on, in the state it had after this edit
+	 * @return the record of the undo
+	 */
+	public GridEdit undo(Grid grid) {
+		return apply(grid, false);
+	}
+
+	/**
+	 * Does this edit again, as one edit of the grid
+	 *
+	 * @param grid - the grid this edit was done on, in the state it had before this edit
+	 * @return the record of the redo
+	 */
+	public GridEdit redo(Grid grid) {
+		return apply(grid, true);
+	}
+
+	private GridEdit apply(Grid grid, boolean isRedo) {
+		return grid.edit(() -> {
+			CellRectangle bounds = span.union(new CellRectangle(grid.getOriginX(), grid.getOriginY(), grid.getWidth(), grid.getHeight()));
+			grid.setBounds(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight()); // every recorded cell is inside the grid
+			for (TileChanges tileChanges : changes) {
+				short[] states = isRedo ? tileChanges.newStates : tileChanges.oldStates;
+				for (int i = 0; i < tileChanges.count; i++) {
+					int x = tileChanges.getX(i) - grid.getOriginX();
+					int y = tileChanges.getY(i) - grid.getOriginY();
+					grid.setZ(x, y, levelOf(states[i]));
+					grid.setPointy(x, y, isPointy(states[i])); // after the level, only a cell above level 0 can be pointy
+				}
+			}
+			if (isRedo) {
+				grid.setBounds(newOriginX, newOriginY, newWidth, newHeight);
+			} else {
+				grid.setBounds(oldOriginX, oldOriginY, oldWidth, oldHeight);
+			}
+			grid.setMaxZ(isRedo ? newMaxZ : oldMaxZ);
+		});
+	}
+
+	/**
+	 * The state of a cell is stored in a short: the level in the upper 15 bits and the pointy status in the lowest bit
+	 */
+	private static short state(int level, boolean pointy) {
+		return (short) (level << 1 | (pointy ? 1 : 0));
+	}
+
+	private static int levelOf(short state) {
+		return (state & 0xFFFF) >>> 1;
+	}
+
+	private static boolean isPointy(short state) {
+		return (state & 1) != 0;
+	}
+
+	/**
+	 * The changed cells of one tile
+	 */
+	private static final class TileChanges {
+		private final int tileX; //the column of the tile
+		private final int tileY; //the row of the tile
+		private int count;
+		private short[] cells = new short[4]; //the index of each cell in the tile
+		private short[] oldStates = new short[4];
+		private short[] newStates;
+		private long[] recordedBits; //one bit per cell of the tile which is recorded, only kept for tiles with many recorded cells
+
+		private TileChanges(int tileX, int tileY) {
+			this.tileX = tileX;
+			this.tileY = tileY;
+		}
+
+		private int getX(int i) {
+			return (tileX << Tile.SHIFT) | (cells[i] & Tile.MASK);
+		}
+
+		private int getY(int i) {
+			return (tileY << Tile.SHIFT) | (cells[i] >> Tile.SHIFT);
+		}
+
+		private void record(int cell, short oldState) {
+			if (isRecorded(cell)) {
+				return;
+			}
+			if (count == cells.length) {
+				int capacity = Math.min(count * 2, Tile.CELLS);
+				cells = Arrays.copyOf(cells, capacity);
+				oldStates = Arrays.copyOf(oldStates, capacity);
+			}
+			cells[count] = (short) cell;
+			oldStates[count] = oldState;
+			count++;
+			if (recordedBits != null) {
+				recordedBits[cell >> 6] |= 1L << cell;
+			} else if (count > SCAN_LIMIT) {
+				recordedBits = new long[Tile.CELLS / 64];
+				for (int i = 0; i < count; i++) {
+					recordedBits[cells[i] >> 6] |= 1L << cells[i];
+				}
+			}
+		}
+
+		/**
+		 * Adds a changed cell to a committed record
+		 */
+		private void add(int cell, short oldState, short newState) {
+			if (count == cells.length) {
+				int capacity = Math.min(count * 2, Tile.CELLS);
+				cells = Arrays.copyOf(cells, capacity);
+				oldStates = Arrays.copyOf(oldStates, capacity);
+			}
+			if (count == newStates.length) {
+				newStates = Arrays.copyOf(newStates, cells.length);
+			}
+			cells[count] = (short) cell;
+			oldStates[count] = oldState;
+			newStates[count] = newState;
+			count++;
+		}
+
+		private void trim() {
+			cells = Arrays.copyOf(cells, count);
+			oldStates = Arrays.copyOf(oldStates, count);
+			newStates = Arrays.copyOf(newStates, count);
+		}
+
+		private boolean isRecorded(int cell) {
+			if (recordedBits != null) {
+				return (recordedBits[cell >> 6] & (1L << cell)) != 0;
+			}
+			for (int i = 0; i < count; i++) {
+				if (cells[i] == cell) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private void commit(Grid grid) {
+			newStates = new short[count];
+			int kept = 0;
+			for (int i = 0; i < count; i++) {
+				int x = getX(i) - grid.getOriginX();
+				int y = getY(i) - grid.getOriginY();
+				short newState = grid.isCoordinateInGrid(x, y) ? state(grid.getZ(x, y), grid.isPointy(x, y)) : 0; // a cell outside of the grid is empty
+				if (newState != oldStates[i]) {
+					cells[kept] = cells[i];
+					oldStates[kept] = oldStates[i];
+					newStates[kept] = newState;
+					kept++;
+				}
+			}
+			count = kept;
+			trim();
+			recordedBits = null;
+		}
+	}
+}
@@ -0,0 +1,472 @@
+package heron.gameboardeditor.datamodel;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Stack;
+
+/**
+ * This class keeps the undo and redo history of a Grid as deltas: it listens to the grid and keeps the GridEdit
+ * of every change, so a step of the history only costs the cells it changed, whatever the size of the grid.
+ *
+ * The edits made since the last saved step are pending. saveStep merges them into one GridEdit, the step, and
+ * does nothing if the grid did not change, so saving a step after an action which changed nothing is free.
+ * Undo and redo replay a step on the grid itself, as one edit, so the listeners of the grid only repaint
+ * the cells of that step.
+ *
+ * The history has a memory budget. Only the LIVE_STEPS steps on each side of the current state are kept as they
+ * are, the others are compressed. Once the history uses more memory than its budget, the steps farthest from
+ * the current state are moved to a temporary file, and read back when the user undoes or redoes up to them.
+ *
+ * A compressed step keeps the changes of each of its tiles in a content-addressed ChunkStore, so changes which
+ * are already in the history, like a stroke drawn, erased and drawn again, are kept once. getDedupeRatio tells
+ * how much memory this saves.
+ */
+public class GridHistory implements GridListener {
+	public static final long DEFAULT_MEMORY_BUDGET = 32 << 20;
+	static final int LIVE_STEPS = 16; //the number of steps on each side of the current state which are not compressed
+
+	private final Grid grid;
+	private final Stack<Step> undoStack = new Stack<>(); //the steps which can be undone
+	private final Stack<Step> redoStack = new Stack<>();
+	private final ChunkStore chunks = new ChunkStore(); //the changes of the tiles of the compressed steps, each kept once
+	private List<GridEdit> pendingEdits = new ArrayList<>(); //the edits made since the last saved step
+	private boolean isRestoring; //true while a step is undone or redone, its edit is not a new change of the grid
+	private long memoryBudget;
+	private long byteSize; //the memory used by the steps of both stacks, besides their chunks
+	private long diskByteSize; //the bytes of the temporary file used by the steps of both stacks
+	private int undoSpilled; //the steps at the bottom of the undo stack are all in the temporary file up to this index
+	private int redoSpilled;
+	private File spillFile; //created when a step is moved out of memory for the first time
+	private RandomAccessFile spillData;
+
+	/**
+	 * Starts the history of a grid, as it is now, with the default memory budget
+	 *
+	 * @param grid - the grid
+	 */
+	public GridHistory(Grid grid) {
+		this(grid, DEFAULT_MEMORY_BUDGET);
+	}
+
+	/**
+	 * Starts the history of a grid, as it is now
+	 *
+	 * @param grid - the grid
+	 * @param memoryBudget - the memory the steps may use, in bytes, before they are moved to a temporary file
+	 */
+	public GridHistory(Grid grid, long memoryBudget) {
+		this.grid = grid;
+		this.memoryBudget = memoryBudget;
+		grid.addGridListener(this);
+	}
+
+	@Override
+	public void gridChanged(GridChangeEvent event) {
+		GridEdit edit = event.getEdit();
+		if (isRestoring || edit == null || edit.isEmpty()) {
+			return;
+		}
+		pendingEdits.add(edit);
+		if (!redoStack.isEmpty()) { // the grid left the state the redo steps start from
+			for (Step step : redoStack) {
+				byteSize -= step.getByteSize();
+				diskByteSize -= step.length;
+				step.discard();
+			}
+			redoStack.clear();
+			redoSpilled = 0;
+			releaseDisk();
+		}
+	}
+
+	/**
+	 * Makes one step of the history from the edits made since the last step
+	 *
+	 * @return true if the grid changed since the last step, false if there was nothing to save
+	 */
+	public boolean saveStep() {
+		if (pendingEdits.isEmpty()) {
+			return false;
+		}
+		GridEdit edit = GridEdit.merge(pendingEdits); // a cell changed many times in the step is kept once
+		pendingEdits = new ArrayList<>();
+		if (edit.isEmpty()) { // the edits put back what they changed
+			return false;
+		}
+		push(undoStack, new Step(edit));
+		enforceBudget();
+		return true;
+	}
+
+	/**
+	 * Puts the grid back in the state it had before the last step. The pending edits are saved as a step first
+	 *
+	 * @return true if a step was undone, false if there is nothing to undo
+	 */
+	public boolean undo() {
+		saveStep();
+		if (undoStack.isEmpty()) {
+			return false;
+		}
+		Step step = pop(undoStack);
+		replay(step.edit, false);
+		push(redoStack, step);
+		enforceBudget();
+		return true;
+	}
+
+	/**
+	 * Does the last undone step again
+	 *
+	 * @return true if a step was redone, false if there is nothing to redo
+	 */
+	public boolean redo() {
+		if (redoStack.isEmpty()) {
+			return false;
+		}
+		Step step = pop(redoStack);
+		replay(step.edit, true);
+		push(undoStack, step);
+		enforceBudget();
+		return true;
+	}
+
+	private void replay(GridEdit step, boolean isRedo) {
+		isRestoring = true;
+		try {
+			if (isRedo) {
+				step.redo(grid);
+			} else {
+				step.undo(grid);
+			}
+		} finally {
+			isRestoring = false;
+		}
+	}
+
+	/**
+	 * Stops listening to the grid and deletes the temporary file, once the history is not used anymore
+	 */
+	public void dispose() {
+		grid.removeGridListener(this);
+		if (spillData != null) {
+			try {
+				spillData.close();
+			} catch (IOException ex) {
+				// the file is deleted anyway
+			}
+			spillFile.delete();
+			spillData = null;
+		}
+	}
+
+	//------------- memory budget -------------
+
+	/**
+	 * Sets the memory the steps may use before they are moved to a temporary file
+	 *
+	 * @param memoryBudget - the budget, in bytes
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+		enforceBudget();
+	}
+
+	/**
+	 * Puts a step on top of a stack. The step which is now LIVE_STEPS steps below it is compressed
+	 */
+	private void push(Stack<Step> stack, Step step) {
+		stack.push(step);
+		byteSize += step.getByteSize();
+		int oldest = stack.size() - 1 - LIVE_STEPS;
+		if (oldest >= 0) {
+			Step oldStep = stack.get(oldest);
+			byteSize -= oldStep.getByteSize();
+			oldStep.compress();
+			byteSize += oldStep.getByteSize();
+		}
+	}
+
+	/**
+	 * Takes the step on top of a stack, and reads its edit back if it was compressed or in the temporary file
+	 */
+	private Step pop(Stack<Step> stack) {
+		Step step = stack.pop();
+		if (stack == undoStack) {
+			undoSpilled = Math.min(undoSpilled, undoStack.size());
+		} else {
+			redoSpilled = Math.min(redoSpilled, redoStack.size());
+		}
+		byteSize -= step.getByteSize();
+		diskByteSize -= step.length;
+		step.load();
+		releaseDisk();
+		return step;
+	}
+
+	/**
+	 * Drops the bytes of the temporary file which no step uses anymore: the file is emptied once none of the steps is
+	 * in it, and compacted once most of its bytes are dead, since undoing and redoing over the steps in the file reads
+	 * them back and moves other steps to the end of the file. So the file stays within twice the size of its steps
+	 */
+	private void releaseDisk() {
+		if (spillData == null) {
+			return;
+		}
+		try {
+			if (diskByteSize == 0) {
+				spillData.setLength(0);
+			} else if (spillData.length() > 2 * diskByteSize) {
+				compactDisk();
+			}
+		} catch (IOException ex) {
+			// the file keeps the dead bytes, until the next try or until it is deleted
+		}
+	}
+
+	/**
+	 * Moves the steps which are in the temporary file to its start, one after the other, in the order they are in it
+	 */
+	private void compactDisk() throws IOException {
+		List<Step> spilled = new ArrayList<>();
+		for (Step step : undoStack) {
+			if (step.isSpilled()) {
+				spilled.add(step);
+			}
+		}
+		for (Step step : redoStack) {
+			if (step.isSpilled()) {
+				spilled.add(step);
+			}
+		}
+		spilled.sort(Comparator.comparingLong(step -> step.offset));
+		long end = 0;
+		for (Step step : spilled) {
+			if (step.offset != end) { // a step only moves towards the start, over dead bytes or its own old place
+				byte[] bytes = new byte[step.length];
+				spillData.seek(step.offset);
+				spillData.readFully(bytes);
+				spillData.seek(end);
+				spillData.write(bytes);
+				step.offset = end;
+			}
+			end += step.length;
+		}
+		spillData.setLength(end);
+	}
+
+	/**
+	 * Moves steps to the temporary file, the farthest from the current state first, until the history fits in its budget
+	 */
+	private void enforceBudget() {
+		while (getByteSize() > memoryBudget) {
+			while (undoSpilled < undoStack.size() && undoStack.get(undoSpilled).isSpilled()) {
+				undoSpilled++;
+			}
+			while (redoSpilled < redoStack.size() && redoStack.get(redoSpilled).isSpilled()) {
+				redoSpilled++;
+			}
+			int undoDistance = undoStack.size() - undoSpilled; //how far from the current state the next step to move is, on each side
+			int redoDistance = redoStack.size() - redoSpilled;
+			if (undoDistance == 0 && redoDistance == 0) {
+				return; // every step is already in the file
+			}
+			Step step = (undoDistance >= redoDistance) ? undoStack.get(undoSpilled) : redoStack.get(redoSpilled);
+			byteSize -= step.getByteSize();
+			try {
+				step.spill();
+			} catch (IOException ex) {
+				byteSize += step.getByteSize(); // without a file the steps stay in memory, over the budget
+				return;
+			}
+			byteSize += step.getByteSize();
+			diskByteSize += step.length;
+		}
+	}
+
+	/**
+	 * One step of the history. Its edit is kept as it is, compressed in memory, or compressed in the temporary file
+	 */
+	private final class Step {
+		private GridEdit edit; //null once the step is compressed
+		private byte[] header; //the header of the compressed edit, null while the edit is kept and once it is in the file
+		private ChunkStore.Chunk[] tiles; //the changes of each tile of the compressed edit, in the chunk store
+		private long offset; //the place of the compressed edit in the file
+		private int length; //the size of the compressed edit in the file, 0 if it is not in the file
+
+		private Step(GridEdit edit) {
+			this.edit = edit;
+		}
+
+		private boolean isSpilled() {
+			return length > 0;
+		}
+
+		/**
+		 * Returns the memory used by the step, besides the chunks it refers to
+		 */
+		private long getByteSize() {
+			if (edit != null) {
+				return edit.getByteSize();
+			}
+			return 32 + ((header != null) ? header.length + 8L * tiles.length : 0);
+		}
+
+		private void compress() {
+			if (edit == null || header != null) {
+				return;
+			}
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			try {
+				edit.writeHeader(out);
+				header = bytes.toByteArray();
+				tiles = new ChunkStore.Chunk[edit.getTileCount()];
+				for (int t = 0; t < tiles.length; t++) {
+					bytes.reset();
+					edit.writeTile(t, out);
+					tiles[t] = chunks.add(bytes.toByteArray());
+				}
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex); // a ByteArrayOutputStream does not fail
+			}
+			edit = null;
+		}
+
+		/**
+		 * Moves the step to the file. Its chunks are written with it, the file is not deduplicated
+		 */
+		private void spill() throws IOException {
+			compress();
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (DataOutputStream out = new DataOutputStream(bytes)) {
+				out.writeInt(header.length);
+				out.write(header);
+				out.writeInt(tiles.length);
+				for (ChunkStore.Chunk tile : tiles) {
+					out.writeInt(tile.getLength());
+					out.writeInt(tile.getCompressed().length);
+					out.write(tile.getCompressed());
+				}
+			}
+			if (spillData == null) {
+				spillFile = File.createTempFile("heron-undo", ".bin");
+				spillFile.deleteOnExit();
+				spillData = new RandomAccessFile(spillFile, "rw");
+			}
+			offset = spillData.length();
+			spillData.seek(offset);
+			spillData.write(bytes.toByteArray());
+			length = bytes.size();
+			discard();
+		}
+
+		private void load() {
+			if (edit != null) {
+				return;
+			}
+			try {
+				if (header != null) {
+					edit = GridEdit.readHeader(new DataInputStream(new ByteArrayInputStream(header)));
+					for (int t = 0; t < tiles.length; t++) {
+						edit.readTile(t, new DataInputStream(new ByteArrayInputStream(chunks.read(tiles[t]))));
+					}
+					discard();
+				} else {
+					byte[] spilled = new byte[length];
+					spillData.seek(offset);
+					spillData.readFully(spilled);
+					length = 0;
+					DataInputStream in = new DataInputStream(new ByteArrayInputStream(spilled));
+					in.skipBytes(4); // the length of the header, which is read as it is
+					edit = GridEdit.readHeader(in);
+					int tileCount = in.readInt();
+					for (int t = 0; t < tileCount; t++) {
+						int tileLength = in.readInt();
+						byte[] compressed = new byte[in.readInt()];
+						in.readFully(compressed);
+						edit.readTile(t, new DataInputStream(new ByteArrayInputStream(Compression.inflate(compressed, tileLength))));
+					}
+				}
+			} catch (IOException ex) {
+				throw new UncheckedIOException("The undo history could not be read back from " + spillFile, ex);
+			}
+		}
+
+		/**
+		 * Releases the chunks of the step, once it is read back, moved to the file or dropped
+		 */
+		private void discard() {
+			if (tiles != null) {
+				for (ChunkStore.Chunk tile : tiles) {
+					chunks.release(tile);
+				}
+			}
+			header = null;
+			tiles = null;
+		}
+	}
+
+	//------------- getters -------------
+
+	public Grid getGrid() {
+		return grid;
+	}
+
+	public boolean canUndo() {
+		return !undoStack.isEmpty() || !pendingEdits.isEmpty();
+	}
+
+	public boolean canRedo() {
+		return !redoStack.isEmpty();
+	}
+
+	/**
+	 * Returns the number of steps which can be undone or redone
+	 */
+	public int getStepCount() {
+		return undoStack.size() + redoStack.size();
+	}
+
+	/**
+	 * Returns an estimate of the memory used by the saved steps, in bytes
+	 */
+	public long getByteSize() {
+		return byteSize + chunks.getByteSize();
+	}
+
+	/**
+	 * Returns the memory the compressed steps would use if the changes they share were not kept once, divided by the memory
+	 * they use: 1 if they share nothing, 2 if half of their changes are found in other steps
+	 */
+	public double getDedupeRatio() {
+		return chunks.getDedupeRatio();
+	}
+
+	/**
+	 * Returns the number of bytes of the temporary file used by the saved steps
+	 */
+	public long getDiskByteSize() {
+		return diskByteSize;
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * Returns the length of the temporary file, with its dead bytes, 0 if there is none. Used by the tests
+	 */
+	long getSpillFileLength() throws IOException {
+		return (spillData == null) ? 0 : spillData.length();
+	}
+}
@@ -0,0 +1,14 @@
+package heron.gameboardeditor.datamodel;
+
+/**
+ * A GridListener is told about the changes of a Grid, so it can refresh only the cells which changed
+ */
+public interface GridListener {
+
+	/**
+	 * Called after cells of the grid changed
+	 * 
+	 * @param event - the grid and the region of cells which changed
+	 */
+	void gridChanged(GridChangeEvent event);
+}
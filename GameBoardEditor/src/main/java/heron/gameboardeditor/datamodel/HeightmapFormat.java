@@ -0,0 +1,136 @@
+package heron.gameboardeditor.datamodel;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * This class turns grids into grayscale heightmaps and back, the images terrain is drawn in by image tools.
+ *
+ * The gray of a pixel is the level of its cell: black is level 0 and white is the max level of the grid, getMaxZ,
+ * the levels between are spread evenly over the grays and a gray is read as the nearest level. A heightmap is written
+ * with 8 bits per pixel, or 16 if the grid has more than 255 levels, so writing a grid and reading it back with the
+ * same max level gives the same levels. A color image is read through its luminance. The pointy cells are not kept.
+ *
+ * The pixels go in bulk between the rows of the image and the tiles of the grid, never one call per pixel, and the
+ * image is cut in stripes of Tile.SIZE rows which are read or written in parallel, on the threads of a ForkJoinPool.
+ */
+final class HeightmapFormat {
+
+	private HeightmapFormat() {
+	}
+
+	/**
+	 * Makes a grid from a heightmap, a cell for each pixel
+	 *
+	 * @param image - the heightmap
+	 * @param maxZ - the max level of the grid, the level of a white pixel
+	 * @param pool - where the stripes are read
+	 * @return the grid
+	 */
+	static Grid read(BufferedImage image, int maxZ, ForkJoinPool pool) {
+		if (maxZ < 1 || maxZ > Short.MAX_VALUE >> 1) {
+			throw new IllegalArgumentException("The max level of a heightmap must be from 1 to " + (Short.MAX_VALUE >> 1));
+		}
+		int width = image.getWidth();
+		int height = image.getHeight();
+		Grid grid = new Grid(width, height);
+		grid.setMaxZ(maxZ);
+		Object owner = new Object(); //the edit token of the tiles, the grid copies them before writing
+		List<ForkJoinTask<Tile[]>> stripes = new ArrayList<>();
+		for (int top = 0; top < height; top += Tile.SIZE) {
+			int stripeTop = top;
+			stripes.add(pool.submit(() -> readStripe(image, stripeTop, maxZ, owner)));
+		}
+		for (int tileY = 0; tileY < stripes.size(); tileY++) {
+			Tile[] tiles = stripes.get(tileY).join();
+			for (int tileX = 0; tileX < tiles.length; tileX++) {
+				if (tiles[tileX] != null) {
+					grid.putTile(tileX, tileY, tiles[tileX]);
+				}
+			}
+		}
+		return grid;
+	}
+
+	/**
+	 * Reads the tiles of a stripe of the image, the rows of a row of tiles
+	 *
+	 * @return the tiles from left to right, a tile is null if all its cells are at level 0
+	 */
+	private static Tile[] readStripe(BufferedImage image, int top, int maxZ, Object owner) {
+		int width = image.getWidth();
+		int rows = Math.min(Tile.SIZE, image.getHeight() - top);
+		Tile[] tiles = new Tile[(width + Tile.MASK) >> Tile.SHIFT];
+		short[][] states = new short[tiles.length][Tile.CELLS]; //the cells of each tile, level << 1, row by row
+		Raster raster = image.getRaster();
+		boolean isGray = image.getColorModel().getNumComponents() == 1;
+		long white = isGray ? (1L << image.getColorModel().getComponentSize(0)) - 1 : 255;
+		int[] pixels = new int[width];
+		for (int row = 0; row < rows; row++) {
+			if (isGray) {
+				raster.getSamples(0, top + row, width, 1, 0, pixels);
+			} else {
+				image.getRGB(0, top + row, width, 1, pixels, 0, width);
+				for (int x = 0; x < width; x++) {
+					int rgb = pixels[x];
+					pixels[x] = (((rgb >> 16) & 0xFF) * 299 + ((rgb >> 8) & 0xFF) * 587 + (rgb & 0xFF) * 114 + 500) / 1000;
+				}
+			}
+			for (int x = 0; x < width; x++) {
+				int level = (int) ((pixels[x] * (long) maxZ + white / 2) / white);
+				states[x >> Tile.SHIFT][Tile.indexOf(x, row)] = (short) (level << 1);
+			}
+		}
+		for (int tileX = 0; tileX < tiles.length; tileX++) {
+			tiles[tileX] = Tile.fromStates(states[tileX], owner);
+		}
+		return tiles;
+	}
+
+	/**
+	 * Makes the heightmap of a grid, a pixel for each cell. Nothing else writes the grid while its stripes are read,
+	 * so it should be a read-only version of the grid (see Grid.snapshot)
+	 *
+	 * @param grid - the grid
+	 * @param pool - where the stripes are written
+	 * @return a grayscale image of 8 bits per pixel, or of 16 bits if the grid has more than 255 levels
+	 */
+	static BufferedImage write(Grid grid, ForkJoinPool pool) {
+		int width = grid.getWidth();
+		int height = grid.getHeight();
+		int maxZ = grid.getMaxZ();
+		boolean isWide = maxZ > 255;
+		BufferedImage image = new BufferedImage(width, height, isWide ? BufferedImage.TYPE_USHORT_GRAY : BufferedImage.TYPE_BYTE_GRAY);
+		byte[] bytes = isWide ? null : ((DataBufferByte) image.getRaster().getDataBuffer()).getData(); //the pixels row by row, the rows of a new image are not padded
+		short[] shorts = isWide ? ((DataBufferUShort) image.getRaster().getDataBuffer()).getData() : null;
+		int white = isWide ? 0xFFFF : 0xFF;
+		List<ForkJoinTask<?>> stripes = new ArrayList<>();
+		for (int top = 0; top < height; top += Tile.SIZE) {
+			int stripeTop = top;
+			stripes.add(pool.submit(() -> {
+				short[] levels = new short[width];
+				for (int y = stripeTop; y < Math.min(height, stripeTop + Tile.SIZE); y++) {
+					grid.getRow(y, levels);
+					for (int x = 0, i = y * width; x < width; x++, i++) {
+						int gray = Math.min(white, (levels[x] * white + maxZ / 2) / maxZ); // a cell above the max level is white
+						if (isWide) {
+							shorts[i] = (short) gray;
+						} else {
+							bytes[i] = (byte) gray;
+						}
+					}
+				}
+			}));
+		}
+		for (ForkJoinTask<?> stripe : stripes) {
+			stripe.join();
+		}
+		return image;
+	}
+}
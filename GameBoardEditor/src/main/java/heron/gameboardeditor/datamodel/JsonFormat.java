@@ -0,0 +1,291 @@
+package heron.gameboardeditor.datamodel;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * This class reads and writes the JSON .heron format, version 1 of the .heron files, as a stream of tokens:
+ * no object is made for a block, the levels go straight between the file and the tiles of the grid.
+ *
+ * The JSON has a width, a height, a max level (older files do not have one) and the blocks in one of two layouts:
+ * "blockGrid", the layout of the editor, an array of columns of {"x", "y", "z", "isPointy"} objects, or "rows",
+ * a compact array of rows of levels, with the pointy cells listed as [x, y] pairs in "pointy". The fields can come
+ * in any order: a file which has its blocks before its size, like the ones written by older versions of the editor,
+ * is read by growing the grid one column or row at a time.
+ */
+final class JsonFormat {
+
+	private JsonFormat() {
+	}
+
+	/**
+	 * Writes a grid in the layout of the editor, without whitespace
+	 *
+	 * @param grid - the grid, which can be a read-only version written from a background thread
+	 * @param output - where the grid is written, it should be buffered
+	 */
+	static void write(Grid grid, Writer output) throws IOException {
+		JsonWriter out = new JsonWriter(output);
+		out.beginObject();
+		out.name("width").value(grid.getWidth());
+		out.name("height").value(grid.getHeight());
+		out.name("maxZ").value(grid.getMaxZ());
+		out.name("blockGrid").beginArray();
+		for (int x = 0; x < grid.getWidth(); x++) {
+			out.beginArray();
+			for (int y = 0; y < grid.getHeight(); y++) {
+				out.beginObject();
+				out.name("x").value(x);
+				out.name("y").value(y);
+				out.name("z").value(grid.getZ(x, y));
+				out.name("isPointy").value(grid.isPointy(x, y));
+				out.endObject();
+			}
+			out.endArray();
+		}
+		out.endArray();
+		out.endObject();
+		out.flush();
+	}
+
+	/**
+	 * Reads a grid in either layout
+	 *
+	 * @param input - where the grid is read from, it should be buffered
+	 * @return the grid
+	 */
+	static Grid read(Reader input) throws IOException {
+		return read(input, false);
+	}
+
+	/**
+	 * Reads a grid in either layout, checking the blocks more if asked to
+	 *
+	 * @param input - where the grid is read from, it should be buffered
+	 * @param isStrict - true if the "x" and "y" of each block object must be its place in the arrays, which the editor
+	 * does not need to read a file, since it places a block where its object is
+	 * @return the grid
+	 */
+	static Grid read(Reader input, boolean isStrict) throws IOException {
+		try {
+			return new GridReader(new JsonReader(input), isStrict).read();
+		} catch (IllegalStateException | NumberFormatException ex) { // a token of the wrong type
+			throw new IOException("This is not a valid .heron file: " + ex.getMessage(), ex);
+		}
+	}
+
+	/**
+	 * The state of one read: the grid is made once its size is known, from the fields or from the first line of blocks
+	 */
+	private static final class GridReader {
+		private final JsonReader in;
+		private int width = -1;
+		private int height = -1;
+		private int maxZ = -1;
+		private Grid grid;
+		private int lines; //the number of columns or rows of blocks read
+		private boolean isRows; //true if the blocks are rows of levels
+		private short[] line = new short[64]; //the levels of the column or row being read
+		private int[] pointy = new int[16]; //the cells which are pointy, as x, y pairs, set once all the levels are read
+		private int pointyCount;
+
+		private final boolean isStrict; //true if the place written in a block object is checked
+
+		private GridReader(JsonReader in, boolean isStrict) {
+			this.in = in;
+			this.isStrict = isStrict;
+		}
+
+		private Grid read() throws IOException {
+			if (in.peek() == JsonToken.END_DOCUMENT) {
+				throw new IOException("The file is empty");
+			}
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+				case "width":
+					width = in.nextInt();
+					break;
+				case "height":
+					height = in.nextInt();
+					break;
+				case "maxZ":
+					maxZ = in.nextInt();
+					break;
+				case "blockGrid":
+					isRows = false;
+					readLines();
+					break;
+				case "rows":
+					isRows = true;
+					readLines();
+					break;
+				case "pointy":
+					readPointyCells();
+					break;
+				default:
+					in.skipValue();
+				}
+			}
+			in.endObject();
+
+			if (grid == null) { // no blocks: every cell is at level 0
+				if (width < 0 || height < 0) {
+					throw new IOException("The file has no blocks and no size");
+				}
+				grid = new Grid(width, height);
+			} else if ((width >= 0 && width != grid.getWidth()) || (height >= 0 && height != grid.getHeight())
+					|| lines != (isRows ? grid.getHeight() : grid.getWidth())) {
+				throw new IOException("The size of the file is " + width + "x" + height + ", it does not match its blocks");
+			}
+			if (maxZ >= 0) {
+				grid.setMaxZ(maxZ);
+			}
+			for (int i = 0; i < pointyCount; i += 2) {
+				if (!grid.isCoordinateInGrid(pointy[i], pointy[i + 1])) {
+					throw new IOException("The pointy cell (" + pointy[i] + ", " + pointy[i + 1] + ") is outside of the grid");
+				}
+				grid.setPointy(pointy[i], pointy[i + 1], true);
+			}
+			return grid;
+		}
+
+		/**
+		 * Reads the columns of "blockGrid" or the rows of "rows"
+		 */
+		private void readLines() throws IOException {
+			if (grid != null) {
+				throw new IOException("The file has blocks in two layouts");
+			}
+			in.beginArray();
+			while (in.hasNext()) {
+				int length = isRows ? readRow() : readColumn();
+				if (grid == null) {
+					int across = isRows ? length : ((width >= 0) ? width : 0); //the grid has the whole size if it is known, or grows
+					int down = isRows ? ((height >= 0) ? height : 0) : length;
+					grid = new Grid(across, down);
+				}
+				if (length != (isRows ? grid.getWidth() : grid.getHeight())) {
+					throw new IOException((isRows ? "Row " : "Column ") + lines + " has " + length + " blocks instead of "
+							+ (isRows ? grid.getWidth() : grid.getHeight()));
+				}
+				if (lines == (isRows ? grid.getHeight() : grid.getWidth())) {
+					grid.extend(0, 0, isRows ? 0 : 1, isRows ? 1 : 0);
+				}
+				if (length == 0) { // a grid without rows has empty columns
+				} else if (isRows) {
+					grid.setRow(lines, line);
+				} else {
+					grid.setColumn(lines, line);
+				}
+				lines++;
+			}
+			in.endArray();
+		}
+
+		/**
+		 * Reads a column of block objects into line
+		 *
+		 * @return the number of blocks of the column
+		 */
+		private int readColumn() throws IOException {
+			int y = 0;
+			in.beginArray();
+			while (in.hasNext()) {
+				int z = 0;
+				boolean isPointy = false;
+				int x = lines;
+				int blockY = y;
+				in.beginObject();
+				while (in.hasNext()) {
+					switch (in.nextName()) {
+					case "x":
+						if (isStrict) {
+							x = in.nextInt();
+						} else {
+							in.skipValue(); // the place of a block is the place of its object in the arrays
+						}
+						break;
+					case "y":
+						if (isStrict) {
+							blockY = in.nextInt();
+						} else {
+							in.skipValue();
+						}
+						break;
+					case "z":
+						z = in.nextInt();
+						break;
+					case "isPointy":
+						isPointy = in.nextBoolean();
+						break;
+					default:
+						in.skipValue();
+					}
+				}
+				in.endObject();
+				if (x != lines || blockY != y) {
+					throw new IOException("The block of column " + lines + ", row " + y + " is at (" + x + ", " + blockY + ")");
+				}
+				setLevel(y, z);
+				if (isPointy) {
+					addPointy(lines, y);
+				}
+				y++;
+			}
+			in.endArray();
+			return y;
+		}
+
+		/**
+		 * Reads a row of levels into line
+		 *
+		 * @return the number of levels of the row
+		 */
+		private int readRow() throws IOException {
+			int x = 0;
+			in.beginArray();
+			while (in.hasNext()) {
+				setLevel(x++, in.nextInt());
+			}
+			in.endArray();
+			return x;
+		}
+
+		private void readPointyCells() throws IOException {
+			in.beginArray();
+			while (in.hasNext()) {
+				in.beginArray();
+				int x = in.nextInt();
+				int y = in.nextInt();
+				in.endArray();
+				addPointy(x, y);
+			}
+			in.endArray();
+		}
+
+		private void setLevel(int i, int z) throws IOException {
+			if (z < 0 || z > Short.MAX_VALUE) {
+				throw new IOException("Level " + z + " is not a valid level");
+			}
+			if (i == line.length) {
+				line = Arrays.copyOf(line, line.length * 2);
+			}
+			line[i] = (short) z;
+		}
+
+		private void addPointy(int x, int y) {
+			if (pointyCount == pointy.length) {
+				pointy = Arrays.copyOf(pointy, pointy.length * 2);
+			}
+			pointy[pointyCount++] = x;
+			pointy[pointyCount++] = y;
+		}
+	}
+}
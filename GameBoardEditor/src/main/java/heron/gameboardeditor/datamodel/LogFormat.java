@@ -0,0 +1,376 @@
+package heron.gameboardeditor.datamodel;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * This class reads and writes the log .heron format, version 5 of the .heron files, which Autosave appends to:
+ * a save only appends the tiles which changed since the last save, so its cost follows the size of the edits, not
+ * the size of the board.
+ *
+ * The file starts with MAGIC, the version and 3 bytes of padding. Records follow, each one its length, the CRC32 of
+ * its body and its body, whose first byte is its kind:
+ *  - a tile: its column and its row in the tile space, then the length of its cells before compression and the
+ *    compressed cells, the runs of levels of its cells row by row and its pointy cells, like a chunk of BinaryFormat.
+ *    A tile whose cells are all at level 0 has a length of 0 and no cells;
+ *  - a commit, which ends a save: the origin, the size and the max level of the grid, and the tiles of the tile space
+ *    which stayed in the grid since the save before, the intersection of the ranges of tiles of all the bounds the
+ *    grid had since. A tile outside of it was dropped by a crop, so it is empty even if the grid grew back over it;
+ *  - a base, only as the first record: the name of another .heron file in the same directory, whose tiles are the
+ *    tiles of the grid before the first record. So a board which was just opened is autosaved without writing it
+ *    again, the file it was opened from is the base (see Autosave.start). The tile records replace the tiles of the
+ *    base, and a tile of the base outside of the tiles kept by a commit is dropped like the others.
+ * The tiles after the last commit, or after a record torn by a crash, are not part of a save and are ignored, so the
+ * file always holds the last whole save. The newest record of a tile replaces the older ones, which are dead bytes
+ * until Autosave compacts the file, writing only the newest tile records to a new file.
+ */
+final class LogFormat {
+	static final int VERSION = 5;
+	static final int HEADER_LENGTH = 8;
+	private static final int TILE = 1;
+	private static final int COMMIT = 2;
+	private static final int BASE = 3;
+
+	private LogFormat() {
+	}
+
+	static byte[] header() {
+		byte[] header = new byte[HEADER_LENGTH];
+		System.arraycopy(BinaryFormat.MAGIC, 0, header, 0, BinaryFormat.MAGIC.length);
+		header[BinaryFormat.MAGIC.length] = VERSION;
+		return header;
+	}
+
+	/**
+	 * Returns if a file is a log .heron file. Such a file may have a base in its directory, so it is never the base
+	 * of another file: its link would not be next to its base
+	 */
+	static boolean isLog(File file) throws IOException {
+		byte[] head = new byte[HEADER_LENGTH];
+		try (InputStream in = new FileInputStream(file)) {
+			int length = in.readNBytes(head, 0, head.length);
+			return length > BinaryFormat.MAGIC.length && BinaryFormat.isBinary(head) && head[BinaryFormat.MAGIC.length] == VERSION;
+		}
+	}
+
+	/**
+	 * Returns the key of a tile of the tile space, in the maps of the tiles
+	 */
+	static long keyOf(int tileX, int tileY) {
+		return ((long) tileX << 32) | (tileY & 0xFFFFFFFFL);
+	}
+
+	static int tileXOf(long key) {
+		return (int) (key >> 32);
+	}
+
+	static int tileYOf(long key) {
+		return (int) key;
+	}
+
+	/**
+	 * Makes the record of a tile
+	 *
+	 * @param tile - the tile, or null if all its cells are at level 0
+	 */
+	static byte[] tileRecord(int tileX, int tileY, Tile tile) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(TILE);
+			out.writeInt(tileX);
+			out.writeInt(tileY);
+			if (tile == null) {
+				out.writeInt(0);
+			} else {
+				byte[] cells = encodeCells(tile);
+				out.writeInt(cells.length);
+				out.write(Compression.deflate(cells));
+			}
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex); // a ByteArrayOutputStream does not fail
+		}
+		return toRecord(bytes.toByteArray());
+	}
+
+	/**
+	 * Makes the record which ends a save
+	 *
+	 * @param version - the grid as it was saved
+	 * @param keptTiles - the range of tiles which stayed in the grid since the last save, in tiles of the tile space, or null if none did
+	 */
+	static byte[] commitRecord(Grid version, CellRectangle keptTiles) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(COMMIT);
+			out.writeInt(version.getOriginX());
+			out.writeInt(version.getOriginY());
+			out.writeInt(version.getWidth());
+			out.writeInt(version.getHeight());
+			out.writeInt(version.getMaxZ());
+			CellRectangle kept = (keptTiles == null) ? new CellRectangle(0, 0, 0, 0) : keptTiles;
+			out.writeInt(kept.getX());
+			out.writeInt(kept.getY());
+			out.writeInt(kept.getWidth());
+			out.writeInt(kept.getHeight());
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		return toRecord(bytes.toByteArray());
+	}
+
+	/**
+	 * Makes the record of the base of a file, its first record
+	 *
+	 * @param baseName - the name of the base file, in the directory of the file
+	 */
+	static byte[] baseRecord(String baseName) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeByte(BASE);
+			out.writeUTF(baseName);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		return toRecord(bytes.toByteArray());
+	}
+
+	/**
+	 * Returns the range of tiles of the tile space which hold the cells of a grid, in tiles
+	 */
+	static CellRectangle tileRangeOf(int originX, int originY, int width, int height) {
+		int firstTileX = originX >> Tile.SHIFT;
+		int firstTileY = originY >> Tile.SHIFT;
+		int endTileX = (width == 0) ? firstTileX : ((originX + width - 1) >> Tile.SHIFT) + 1;
+		int endTileY = (height == 0) ? firstTileY : ((originY + height - 1) >> Tile.SHIFT) + 1;
+		return new CellRectangle(firstTileX, firstTileY, endTileX - firstTileX, endTileY - firstTileY);
+	}
+
+	private static byte[] toRecord(byte[] body) {
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		ByteArrayOutputStream record = new ByteArrayOutputStream(body.length + 8);
+		try (DataOutputStream out = new DataOutputStream(record)) {
+			out.writeInt(body.length);
+			out.writeInt((int) crc.getValue());
+			out.write(body);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		return record.toByteArray();
+	}
+
+	//------------- cells of a tile -------------
+
+	private static byte[] encodeCells(Tile tile) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		int pointyCells = 0;
+		for (int i = 0; i < Tile.CELLS; ) {
+			int level = tile.getZ(i);
+			int runEnd = i + 1;
+			while (runEnd < Tile.CELLS && tile.getZ(runEnd) == level) {
+				runEnd++;
+			}
+			BinaryFormat.writeVarint(out, runEnd - i);
+			BinaryFormat.writeVarint(out, level);
+			for (; i < runEnd; i++) {
+				pointyCells += tile.isPointy(i) ? 1 : 0;
+			}
+		}
+		BinaryFormat.writeVarint(out, pointyCells);
+		if (pointyCells > 0) {
+			for (int i = 0; i < Tile.CELLS; i += 8) {
+				int bits = 0;
+				for (int bit = 0; bit < 8; bit++) {
+					bits |= tile.isPointy(i + bit) ? 1 << bit : 0;
+				}
+				out.writeByte(bits);
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	private static Tile decodeCells(byte[] cells, Object owner) throws IOException {
+		Tile tile = new Tile(owner);
+		ByteArrayInputStream bytes = new ByteArrayInputStream(cells);
+		DataInputStream in = new DataInputStream(bytes);
+		for (int i = 0; i < Tile.CELLS; ) {
+			long runLength = BinaryFormat.readVarint(in);
+			long level = BinaryFormat.readVarint(in);
+			if (runLength == 0 || runLength > Tile.CELLS - i || level > Short.MAX_VALUE) {
+				throw new IOException("A tile of this .heron file has a run of levels which is not valid");
+			}
+			for (int end = i + (int) runLength; i < end; i++) {
+				tile.setZ(i, (int) level);
+			}
+		}
+		if (BinaryFormat.readVarint(in) > 0) {
+			for (int i = 0; i < Tile.CELLS; i += 8) {
+				int bits = in.readUnsignedByte();
+				for (int bit = 0; bit < 8; bit++) {
+					tile.setPointy(i + bit, (bits & (1 << bit)) != 0);
+				}
+			}
+		}
+		if (bytes.available() > 0) {
+			throw new IOException("A tile of this .heron file is longer than its cells");
+		}
+		return tile;
+	}
+
+	//------------- reading -------------
+
+	/**
+	 * Reads the last whole save of a file
+	 *
+	 * @param input - where the file is read from, from its start, it should be buffered
+	 * @param directory - the directory of the file, where its base is, or null if it is not read from a file
+	 * @return the grid of the last save
+	 */
+	static Grid read(InputStream input, File directory) throws IOException {
+		Log log = Log.scan(input);
+		if (log.bounds == null) {
+			throw new IOException("This .heron file does not hold a whole save");
+		}
+		CellRectangle bounds = log.bounds;
+		Grid grid = new Grid(bounds.getWidth(), bounds.getHeight());
+		grid.setBounds(bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight()); // the tiles are in the tile space
+		grid.setMaxZ(log.maxZ);
+		if (log.baseName != null) {
+			if (directory == null) {
+				throw new IOException("This .heron file is based on " + log.baseName + ", it can only be read from its file");
+			}
+			putBaseTiles(grid, ProjectIO.load(new File(directory, log.baseName)), log);
+		}
+		Object owner = new Object();
+		for (Map.Entry<Long, byte[]> entry : log.tiles.entrySet()) {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(entry.getValue()));
+			in.skipBytes(9); // the kind and the place of the tile
+			int length = in.readInt();
+			byte[] cells;
+			try {
+				cells = Compression.inflate(in.readAllBytes(), length);
+			} catch (UncheckedIOException ex) {
+				throw new IOException("A tile of this .heron file cannot be decompressed", ex.getCause());
+			}
+			grid.putTile(tileXOf(entry.getKey()), tileYOf(entry.getKey()), decodeCells(cells, owner));
+		}
+		return grid;
+	}
+
+	/**
+	 * Puts the tiles of the base of a file in the grid of its last save, the ones which were not dropped and which
+	 * have no record of their own
+	 */
+	private static void putBaseTiles(Grid grid, Grid base, Log log) {
+		if (log.baseKept == null) {
+			return;
+		}
+		CellRectangle tileRange = tileRangeOf(grid.getOriginX(), grid.getOriginY(), grid.getWidth(), grid.getHeight());
+		CellRectangle baseTiles = log.baseKept.intersection(tileRange);
+		if (baseTiles == null) {
+			return;
+		}
+		for (int tileY = baseTiles.getY(); tileY < baseTiles.getEndY(); tileY++) {
+			for (int tileX = baseTiles.getX(); tileX < baseTiles.getEndX(); tileX++) {
+				long key = keyOf(tileX, tileY);
+				Tile tile = base.getTile(tileX, tileY);
+				if (tile != null && !log.tiles.containsKey(key) && !log.clearedTiles.contains(key)) {
+					grid.putTile(tileX, tileY, tile); // shared with the base, which is not used anymore
+				}
+			}
+		}
+	}
+
+	/**
+	 * The last whole save of a file, as its records are read
+	 */
+	static final class Log {
+		final Map<Long, byte[]> tiles = new HashMap<>(); //the body of the newest record of each tile which is not empty, by key
+		final Set<Long> clearedTiles = new HashSet<>(); //the tiles whose newest record is empty, which replace the tiles of the base
+		CellRectangle bounds; //the origin and the size of the grid, null if there is no whole save
+		int maxZ;
+		String baseName; //the name of the base file, null if the file has no base
+		CellRectangle baseKept; //the tiles of the base which stayed in the grid since its first save, null if none did
+
+		private Log() {
+		}
+
+		/**
+		 * Reads the records of a file up to the end of its last whole save
+		 *
+		 * @param input - where the file is read from, from its start, it should be buffered
+		 */
+		static Log scan(InputStream input) throws IOException {
+			Log log = new Log();
+			DataInputStream in = new DataInputStream(input);
+			byte[] header = new byte[HEADER_LENGTH];
+			in.readFully(header);
+			if (!BinaryFormat.isBinary(header) || header[BinaryFormat.MAGIC.length] != VERSION) {
+				throw new IOException("This is not a log .heron file");
+			}
+			Map<Long, byte[]> savedTiles = new HashMap<>(); //the tiles of the save being read, before its commit
+			for (boolean isFirst = true; ; isFirst = false) {
+				byte[] body;
+				try {
+					int length = in.readInt();
+					int checksum = in.readInt();
+					if (length < 1 || length > Tile.CELLS * 8) {
+						break; // a torn length
+					}
+					body = new byte[length];
+					in.readFully(body);
+					CRC32 crc = new CRC32();
+					crc.update(body);
+					if ((int) crc.getValue() != checksum) {
+						break;
+					}
+				} catch (EOFException ex) {
+					break; // the last record was not written completely
+				}
+				if (body[0] == TILE) {
+					DataInputStream fields = new DataInputStream(new ByteArrayInputStream(body, 1, 8));
+					savedTiles.put(keyOf(fields.readInt(), fields.readInt()), body);
+				} else if (body[0] == COMMIT) {
+					DataInputStream fields = new DataInputStream(new ByteArrayInputStream(body, 1, body.length - 1));
+					log.bounds = new CellRectangle(fields.readInt(), fields.readInt(), fields.readInt(), fields.readInt());
+					log.maxZ = fields.readInt();
+					CellRectangle kept = new CellRectangle(fields.readInt(), fields.readInt(), fields.readInt(), fields.readInt());
+					log.tiles.keySet().removeIf(key -> !kept.contains(tileXOf(key), tileYOf(key))); // the tiles dropped by a crop
+					log.clearedTiles.removeIf(key -> !kept.contains(tileXOf(key), tileYOf(key)));
+					log.baseKept = (log.baseKept == null) ? null : log.baseKept.intersection(kept);
+					for (Map.Entry<Long, byte[]> entry : savedTiles.entrySet()) {
+						boolean isEmpty = entry.getValue().length == 13; // the kind, the place and a length of 0
+						if (isEmpty) {
+							log.tiles.remove(entry.getKey());
+							log.clearedTiles.add(entry.getKey());
+						} else {
+							log.tiles.put(entry.getKey(), entry.getValue());
+							log.clearedTiles.remove(entry.getKey());
+						}
+					}
+					savedTiles.clear();
+				} else if (body[0] == BASE && isFirst) {
+					log.baseName = new DataInputStream(new ByteArrayInputStream(body, 1, body.length - 1)).readUTF();
+					log.baseKept = new CellRectangle(Integer.MIN_VALUE / 2, Integer.MIN_VALUE / 2, Integer.MAX_VALUE, Integer.MAX_VALUE); // every tile, until a commit drops some
+				} else {
+					break;
+				}
+			}
+			return log;
+		}
+	}
+}
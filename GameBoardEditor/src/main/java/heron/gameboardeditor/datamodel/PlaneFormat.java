@@ -0,0 +1,261 @@
+package heron.gameboardeditor.datamodel;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * This class reads and writes the plane .heron format, version 3 of the .heron files, which is made to be mapped
+ * in memory: every tile of the grid has a block of Tile.CELLS shorts at a fixed place of the file, so any tile is
+ * read straight from the mapped file, without reading the rest of the file, and written straight into it.
+ *
+ * The file starts with a header: MAGIC, the version, the width, the height and the max level of the grid, and the
+ * number of cells at each level, so a grid backed by the file knows them without reading its tiles. The blocks of the
+ * tiles follow, row of tiles by row of tiles, from the first page after the header. Each short is the state of a cell,
+ * level << 1 | pointy, little-endian. A file is bigger than a binary one, since empty tiles take their room too (the
+ * file system does not store the ones which were never written), but it can be far bigger than the heap: it is mapped
+ * in segments of whole rows of tiles, and a grid backed by it only holds the tiles it uses (see MappedSource).
+ */
+final class PlaneFormat {
+	static final int VERSION = 3;
+	static final int MAX_LEVEL = Short.MAX_VALUE >> 1; //the highest level a state can hold
+	private static final int TILE_BYTES = Tile.CELLS * 2;
+	private static final int PAGE_SIZE = 4096;
+	private static final long SEGMENT_BYTES = 1L << 30; //the most bytes mapped at once, a mapping holds at most 2 GB
+
+	private PlaneFormat() {
+	}
+
+	/**
+	 * Writes a grid straight into a mapped file
+	 *
+	 * @param grid - the grid, which can be a read-only version written from a background thread
+	 * @param file - the file, which is replaced
+	 */
+	static void write(Grid grid, File file) throws IOException {
+		if (grid.getMaxLevel() > MAX_LEVEL) {
+			throw new IOException("A level above " + MAX_LEVEL + " cannot be written in a mapped board");
+		}
+		long[] levelCounts = grid.getLevelCounts();
+		Layout layout = new Layout(grid.getWidth(), grid.getHeight(), levelCounts.length);
+		try (RandomAccessFile data = new RandomAccessFile(file, "rw"); FileChannel channel = data.getChannel()) {
+			data.setLength(0); // the blocks of the tiles start out as zeros, the empty tiles are not written
+			data.setLength(layout.fileLength);
+
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, layout.dataOffset);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			header.put(BinaryFormat.MAGIC);
+			header.put((byte) VERSION);
+			header.position(8);
+			header.putInt(grid.getWidth());
+			header.putInt(grid.getHeight());
+			header.putInt(grid.getMaxZ());
+			header.putInt(levelCounts.length);
+			for (long count : levelCounts) {
+				header.putLong(count);
+			}
+			header.force();
+
+			short[] states = new short[grid.getWidth()];
+			for (int segment = 0; segment < layout.segmentCount; segment++) {
+				MappedByteBuffer bytes = layout.map(channel, FileChannel.MapMode.READ_WRITE, segment);
+				ShortBuffer blocks = bytes.asShortBuffer();
+				int firstTileRow = segment * layout.tileRowsPerSegment;
+				int endY = Math.min(grid.getHeight(), (firstTileRow + layout.tileRowsPerSegment) << Tile.SHIFT);
+				for (int y = firstTileRow << Tile.SHIFT; y < endY; y++) {
+					grid.getRowStates(y, states);
+					int rowStart = ((y >> Tile.SHIFT) - firstTileRow) * layout.tilesAcross * Tile.CELLS + (y & Tile.MASK) * Tile.SIZE;
+					for (int x = 0; x < states.length; x += Tile.SIZE) {
+						int length = Math.min(Tile.SIZE, states.length - x);
+						if (!isZero(states, x, length)) {
+							blocks.position(rowStart + (x >> Tile.SHIFT) * Tile.CELLS);
+							blocks.put(states, x, length);
+						}
+					}
+				}
+				bytes.force();
+			}
+		}
+	}
+
+	private static boolean isZero(short[] states, int from, int length) {
+		for (int i = from; i < from + length; i++) {
+			if (states[i] != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Maps a file, whose tiles are then read when they are used
+	 *
+	 * @param file - the file, which must not change while it is mapped: a new version must be written to another file and moved in its place
+	 * @return the source of the tiles of the file
+	 */
+	static MappedSource map(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) { // the mappings stay valid once the channel is closed
+			long fileLength = channel.size();
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(fileLength, 24));
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			byte[] head = new byte[BinaryFormat.MAGIC.length + 1];
+			header.get(head, 0, Math.min(head.length, header.remaining()));
+			if (fileLength < 24 || !BinaryFormat.isBinary(head) || head[BinaryFormat.MAGIC.length] != VERSION) {
+				throw new IOException(file.getName() + " is not a mapped board");
+			}
+			int width = header.getInt(8);
+			int height = header.getInt(12);
+			int maxZ = header.getInt(16);
+			int levelCountLength = header.getInt(20);
+			if (width < 0 || height < 0 || levelCountLength < 0 || levelCountLength > MAX_LEVEL + 1) {
+				throw new IOException(file.getName() + " has a damaged header");
+			}
+			Layout layout = new Layout(width, height, levelCountLength);
+			if (fileLength < layout.fileLength) {
+				throw new IOException(file.getName() + " is cut short");
+			}
+			ByteBuffer counts = channel.map(FileChannel.MapMode.READ_ONLY, 24, 8L * levelCountLength).order(ByteOrder.LITTLE_ENDIAN);
+			long[] levelCounts = new long[levelCountLength];
+			for (int level = 0; level < levelCountLength; level++) {
+				levelCounts[level] = counts.getLong();
+			}
+			MappedByteBuffer[] segments = new MappedByteBuffer[layout.segmentCount];
+			for (int segment = 0; segment < segments.length; segment++) {
+				segments[segment] = layout.map(channel, FileChannel.MapMode.READ_ONLY, segment);
+			}
+			return new MappedSource(layout, maxZ, levelCounts, segments);
+		}
+	}
+
+	/**
+	 * Where each part of a file is, for a grid of a given size
+	 */
+	private static final class Layout {
+		private final int width;
+		private final int height;
+		private final int tilesAcross;
+		private final int tilesDown;
+		private final long dataOffset; //the place of the first block, the first page after the header
+		private final long fileLength;
+		private final int tileRowsPerSegment;
+		private final int segmentCount;
+
+		private Layout(int width, int height, int levelCountLength) throws IOException {
+			this.width = width;
+			this.height = height;
+			this.tilesAcross = (width + Tile.MASK) >> Tile.SHIFT;
+			this.tilesDown = (height + Tile.MASK) >> Tile.SHIFT;
+			long tileRowBytes = (long) tilesAcross * TILE_BYTES;
+			if (tileRowBytes > Integer.MAX_VALUE) {
+				throw new IOException("A board " + width + " cells wide is too wide to be mapped");
+			}
+			this.dataOffset = (24 + 8L * levelCountLength + PAGE_SIZE - 1) / PAGE_SIZE * PAGE_SIZE;
+			this.fileLength = dataOffset + tileRowBytes * tilesDown;
+			this.tileRowsPerSegment = (int) Math.max(1, SEGMENT_BYTES / Math.max(1, tileRowBytes));
+			this.segmentCount = (tilesDown + tileRowsPerSegment - 1) / tileRowsPerSegment;
+		}
+
+		private MappedByteBuffer map(FileChannel channel, FileChannel.MapMode mode, int segment) throws IOException {
+			long tileRowBytes = (long) tilesAcross * TILE_BYTES;
+			int tileRows = Math.min(tileRowsPerSegment, tilesDown - segment * tileRowsPerSegment);
+			MappedByteBuffer bytes = channel.map(mode, dataOffset + segment * tileRowsPerSegment * tileRowBytes, tileRows * tileRowBytes);
+			bytes.order(ByteOrder.LITTLE_ENDIAN);
+			return bytes;
+		}
+	}
+
+	/**
+	 * The tiles of a mapped file. A tile is made from its block when it is first used, and kept through a soft
+	 * reference, so the garbage collector drops the tiles which are not used anymore once memory is short, and
+	 * they are made again from the file if they are used again
+	 */
+	static final class MappedSource implements TileSource {
+		private static final Object NO_TILE = new Object(); //in the cache, a tile whose cells are all at level 0
+
+		private final Layout layout;
+		private final int maxZ;
+		private final long[] levelCounts;
+		private final MappedByteBuffer[] segments;
+		private final AtomicReferenceArray<Object> cache; //for each tile, null if it was never read, NO_TILE, or a soft reference to it
+		private final Object owner = new Object(); //the edit token of the tiles, which no grid has, so the grids copy them before writing
+
+		private MappedSource(Layout layout, int maxZ, long[] levelCounts, MappedByteBuffer[] segments) {
+			this.layout = layout;
+			this.maxZ = maxZ;
+			this.levelCounts = levelCounts;
+			this.segments = segments;
+			this.cache = new AtomicReferenceArray<>(layout.tilesAcross * layout.tilesDown);
+		}
+
+		@Override
+		public int getWidth() {
+			return layout.width;
+		}
+
+		@Override
+		public int getHeight() {
+			return layout.height;
+		}
+
+		@Override
+		public int getMaxZ() {
+			return maxZ;
+		}
+
+		@Override
+		public long[] getLevelCounts() {
+			return levelCounts.clone();
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public Tile getTile(int tileX, int tileY) {
+			if (tileX < 0 || tileX >= layout.tilesAcross || tileY < 0 || tileY >= layout.tilesDown) {
+				return null;
+			}
+			int index = tileY * layout.tilesAcross + tileX;
+			Object cached = cache.get(index);
+			if (cached == NO_TILE) {
+				return null;
+			}
+			Tile tile = (cached == null) ? null : ((SoftReference<Tile>) cached).get();
+			if (tile == null) { // two threads may read the same tile at once, they make the same tile
+				tile = Tile.fromStates(readStates(tileX, tileY), owner);
+				cache.set(index, (tile == null) ? NO_TILE : new SoftReference<>(tile));
+			}
+			return tile;
+		}
+
+		private short[] readStates(int tileX, int tileY) {
+			int segment = tileY / layout.tileRowsPerSegment;
+			int block = (tileY % layout.tileRowsPerSegment) * layout.tilesAcross + tileX;
+			ByteBuffer bytes = segments[segment].duplicate(); // a buffer of its own, so threads do not share its position
+			bytes.position(block * TILE_BYTES);
+			short[] states = new short[Tile.CELLS];
+			bytes.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(states);
+			return states;
+		}
+
+		/**
+		 * Returns the number of tiles held in memory now. Used by the tests
+		 */
+		int getCachedTileCount() {
+			int count = 0;
+			for (int i = 0; i < cache.length(); i++) {
+				Object cached = cache.get(i);
+				if (cached instanceof SoftReference && ((SoftReference<?>) cached).get() != null) {
+					count++;
+				}
+			}
+			return count;
+		}
+	}
+}
@@ -1,26 +1,306 @@
 package heron.gameboardeditor.datamodel;
 
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
-import com.google.gson.*;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.DoubleConsumer;
 
+import javax.imageio.ImageIO;
+
+/**
+ * This class reads and writes the .heron files of the editor.
+ *
+ * A .heron file is either binary (version 6, see BinaryFormat), which is what
+ * save writes, mapped (version 3, see PlaneFormat), which saveMapped writes for boards too large to be read whole, log
+ * (version 5, see LogFormat), which Autosave appends to, or JSON (version 1), which older versions of the editor
+ * wrote and which the templates still are (see JsonFormat). load finds the format
+ * from the first bytes of the file, so every kind of file is opened the same way. The formats go straight between
+ * the file and the tiles of the grid, without an object per block.
+ */
 public class ProjectIO {
-	
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	/**
+	 * Writes the grid to a binary .heron file. Like exportObj, it can write a read-only version of the grid from a background thread
+	 *
+	 * @param grid - the grid to save
+	 * @param output - the .heron file
+	 */
 	public static void save(Grid grid, File output) throws IOException {
-		Gson gson = new GsonBuilder().setPrettyPrinting().create();
-		FileWriter writer = new FileWriter(output);
-		gson.toJson(grid, writer);
-		writer.close();
-	}
-	
-	public static Grid load(File input) throws JsonSyntaxException, JsonIOException, IOException {
-		Gson gson = new Gson();
-		FileReader reader = new FileReader(input);
-		Grid grid = gson.fromJson(reader, Grid.class);
-		reader.close();
+		save(grid, output, null);
+	}
+
+	/**
+	 * Writes the grid to a binary .heron file, telling how much of it is written. Like every save, the file is written
+	 * to a temporary file, forced to the disk and moved in place of the old one, so a save which fails or is cut short
+	 * by a crash leaves the old file as it was
+	 *
+	 * @param grid - the grid to save
+	 * @param output - the .heron file
+	 * @param progress - told the part of the grid which is written, from 0 to 1, after each chunk of the file, or null
+	 */
+	public static void save(Grid grid, File output, DoubleConsumer progress) throws IOException {
+		replaceFile(output, file -> {
+			try (FileOutputStream fileOut = new FileOutputStream(file); OutputStream out = new BufferedOutputStream(fileOut, BUFFER_SIZE)) {
+				BinaryFormat.write(grid, out, ForkJoinPool.commonPool(), progress);
+				fileOut.getFD().sync();
+			}
+		});
+	}
+
+	/**
+	 * Writes the grid to a JSON .heron file, the format of version 1, which older versions of the editor can open
+	 *
+	 * @param grid - the grid to save
+	 * @param output - the .heron file
+	 */
+	public static void saveJson(Grid grid, File output) throws IOException {
+		replaceFile(output, file -> {
+			FileOutputStream fileOut = new FileOutputStream(file);
+			try (Writer writer = new BufferedWriter(new OutputStreamWriter(fileOut, StandardCharsets.UTF_8), BUFFER_SIZE)) {
+				JsonFormat.write(grid, writer);
+				fileOut.getFD().sync();
+			}
+		});
+	}
+
+	/**
+	 * Writes the grid to a mapped .heron file, which loadMapped opens without reading it. Since the new file is moved
+	 * in place of the old one, a grid backed by the old file can still read it
+	 *
+	 * @param grid - the grid to save
+	 * @param output - the .heron file
+	 */
+	public static void saveMapped(Grid grid, File output) throws IOException {
+		replaceFile(output, file -> PlaneFormat.write(grid, file)); // the mapping is forced to the disk
+	}
+
+	/**
+	 * Writes a temporary file next to a file, then moves it in place of the file in one step
+	 *
+	 * @param output - the file to replace
+	 * @param content - writes the temporary file, and forces it to the disk
+	 */
+	private static void replaceFile(File output, FileContent content) throws IOException {
+		File temporaryFile = File.createTempFile("." + output.getName() + ".", ".tmp", output.getAbsoluteFile().getParentFile());
+		try {
+			content.writeTo(temporaryFile);
+			Files.move(temporaryFile.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temporaryFile.delete(); // nothing is left of a save which failed
+		}
+	}
+
+	private interface FileContent {
+		void writeTo(File file) throws IOException;
+	}
+
+	/**
+	 * Reads a .heron file, binary, mapped, log or JSON
+	 *
+	 * @param input - the .heron file
+	 * @return the grid of the file
+	 */
+	public static Grid load(File input) throws IOException {
+		return load(input, false);
+	}
+
+	/**
+	 * Reads a .heron file like load, and checks it more than the editor needs to open it: the "x" and "y" of each
+	 * block of a JSON file must be its place in the arrays, and no cell may be above the max level of the grid. The
+	 * binary, mapped and log files are checked by their checksums and their index as they are read
+	 *
+	 * @param input - the .heron file
+	 * @return the grid of the file
+	 * @throws IOException if the file cannot be read or is not valid, with what is wrong in its message
+	 */
+	public static Grid check(File input) throws IOException {
+		Grid grid = load(input, true);
+		if (grid.getMaxLevel() > grid.getMaxZ()) {
+			throw new IOException("A cell is at level " + grid.getMaxLevel() + ", above the max level " + grid.getMaxZ());
+		}
 		return grid;
 	}
 
+	private static Grid load(File input, boolean isStrict) throws IOException {
+		try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(input), BUFFER_SIZE)) {
+			if (readVersion(in) == PlaneFormat.VERSION) {
+				Grid grid = new Grid(PlaneFormat.map(input));
+				grid.detachSource(); // every tile is read from the mapped file, in bulk
+				return grid;
+			}
+			return read(in, isStrict, input.getAbsoluteFile().getParentFile());
+		}
+	}
+
+	/**
+	 * Reads a .heron file from a stream, like a template on the classpath: binary, log or JSON. A mapped file is
+	 * only read from its file
+	 *
+	 * @param input - the content of the .heron file, from its start. It is not closed
+	 * @return the grid of the file
+	 */
+	public static Grid load(InputStream input) throws IOException {
+		BufferedInputStream in = new BufferedInputStream(input, BUFFER_SIZE);
+		if (readVersion(in) == PlaneFormat.VERSION) {
+			throw new IOException("A mapped .heron file can only be read from its file");
+		}
+		return read(in, false, null);
+	}
+
+	/**
+	 * @param directory - the directory of the file, where the base of a log file is, or null if it is not read from a file
+	 */
+	private static Grid read(BufferedInputStream in, boolean isStrict, File directory) throws IOException {
+		int version = readVersion(in);
+		if (version == BinaryFormat.VERSION) {
+			return BinaryFormat.read(in);
+		} else if (version == LogFormat.VERSION) {
+			return LogFormat.read(in, directory);
+		}
+		return JsonFormat.read(new InputStreamReader(in, StandardCharsets.UTF_8), isStrict);
+	}
+
+	/**
+	 * Opens a mapped .heron file without reading its tiles: the grid reads a tile from the file when it is first used,
+	 * and only keeps the tiles it changed and the ones memory allows, so a board larger than the heap can be opened.
+	 * The file must not be changed while the grid is used, saveMapped writes a new file and moves it in place.
+	 * A file of another format is loaded like load does
+	 *
+	 * @param input - the .heron file
+	 * @return the grid of the file
+	 */
+	public static Grid loadMapped(File input) throws IOException {
+		int version;
+		try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(input))) {
+			version = readVersion(in);
+		}
+		return (version == PlaneFormat.VERSION) ? new Grid(PlaneFormat.map(input)) : load(input);
+	}
+
+	/**
+	 * Opens a .heron file to show it before it is read whole: the grid only reads the header and the index of a binary
+	 * file, and reads a chunk of the file when one of its tiles is first used, or before, when the tiles around the
+	 * part of the board which is shown are read ahead (see Grid.prefetch). Like a mapped file, the file must not be
+	 * changed while the grid is used, save writes a new file and moves it in place. A mapped file is opened like
+	 * loadMapped does, a file of another format is loaded like load does
+	 *
+	 * @param input - the .heron file
+	 * @return the grid of the file
+	 */
+	public static Grid open(File input) throws IOException {
+		int version;
+		try (BufferedInputStream in = new BufferedInputStream(new FileInputStream(input))) {
+			version = readVersion(in);
+		}
+		return (version == BinaryFormat.VERSION) ? new Grid(BinaryFormat.open(input)) : loadMapped(input);
+	}
+
+	/**
+	 * Returns the version of the format of a .heron file, 1 for JSON, without moving the stream
+	 */
+	private static int readVersion(BufferedInputStream in) throws IOException {
+		byte[] head = new byte[BinaryFormat.MAGIC.length + 1];
+		in.mark(head.length);
+		int headLength = in.readNBytes(head, 0, head.length);
+		in.reset();
+		return (headLength == head.length && BinaryFormat.isBinary(head)) ? head[BinaryFormat.MAGIC.length] : 1;
+	}
+
+	/**
+	 * Makes a grid from a grayscale heightmap, a PNG or another image javax.imageio reads, a cell for each pixel.
+	 * Black is level 0 and white is maxZ (see HeightmapFormat)
+	 *
+	 * @param input - the image file
+	 * @param maxZ - the max level of the grid
+	 * @return the grid of the image
+	 */
+	public static Grid importHeightmap(File input, int maxZ) throws IOException {
+		BufferedImage image = ImageIO.read(input);
+		if (image == null) {
+			throw new IOException("This file is not an image");
+		}
+		return HeightmapFormat.read(image, maxZ, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Writes the grid to a grayscale PNG heightmap, a pixel for each cell, white for the max level of the grid. Like
+	 * exportObj, it can write a read-only version of the grid from a background thread
+	 *
+	 * @param grid - the grid to export
+	 * @param output - the PNG file
+	 */
+	public static void exportHeightmap(Grid grid, File output) throws IOException {
+		if (!ImageIO.write(HeightmapFormat.write(grid, ForkJoinPool.commonPool()), "png", output)) {
+			throw new IOException("PNG images cannot be written");
+		}
+	}
+
+	/**
+	 * Writes the grid to an OBJ file: a box for each block, with a pyramid on top of the pointy blocks.
+	 * Nothing else reads the grid while it is written, so it can be a read-only version of the grid (see
+	 * Grid.snapshot) written by a background thread while the grid is still edited.
+	 *
+	 * @param grid - the grid to export
+	 * @param output - the OBJ file
+	 */
+	public static void exportObj(Grid grid, File output) throws IOException {
+		try (Writer writer = new BufferedWriter(new FileWriter(output), BUFFER_SIZE)) { // closed even if a write fails
+			for (int x = 0; x < grid.getWidth(); x++) {
+				for (int y = 0; y < grid.getHeight(); y++) {
+					int r = y;
+					int c = x;
+					int e = grid.getZ(x, y);
+					writer.write("v " + c + " " + r + " " + e + "\n");
+					writer.write("v " + c + " " + r + " " + 0 + "\n");
+					writer.write("v " + c + " " + (r + 1) + " " + 0 + "\n");
+					writer.write("v " + c + " " + (r + 1) + " " + e + "\n");
+					writer.write("v " + (c + 1) + " " + r + " " + e + "\n");
+					writer.write("v " + (c + 1) + " " + r + " " + 0 + "\n");
+					writer.write("v " + (c + 1) + " " + (r + 1) + " " + 0 + "\n");
+					writer.write("v " + (c + 1) + " " + (r + 1) + " " + e + "\n");
+					if (grid.isPointy(x, y)) {
+						writer.write("v " + (c + 0.5) + " " + (r + 0.5) + " " + (e + 1) + "\n");
+					}
+				}
+			}
+
+			int i = 0;
+			for (int x = 0; x < grid.getWidth(); x++) {
+				for (int y = 0; y < grid.getHeight(); y++) {
+					writer.write("f " + (i + 4) + " " + (i + 3) + " " + (i + 2) + " " + (i + 1) + "\n");
+					writer.write("f " + (i + 2) + " " + (i + 6) + " " + (i + 5) + " " + (i + 1) + "\n");
+					writer.write("f " + (i + 3) + " " + (i + 7) + " " + (i + 6) + " " + (i + 2) + "\n");
+					writer.write("f " + (i + 8) + " " + (i + 7) + " " + (i + 3) + " " + (i + 4) + "\n");
+					writer.write("f " + (i + 5) + " " + (i + 8) + " " + (i + 4) + " " + (i + 1) + "\n");
+					writer.write("f " + (i + 6) + " " + (i + 7) + " " + (i + 8) + " " + (i + 5) + "\n");
+					if (grid.isPointy(x, y)) {
+						writer.write("f " + (i + 9) + " " + (i + 1) + " " + (i + 4) + "\n");
+						writer.write("f " + (i + 9) + " " + (i + 4) + " " + (i + 8) + "\n");
+						writer.write("f " + (i + 9) + " " + (i + 8) + " " + (i + 5) + "\n");
+						writer.write("f " + (i + 9) + " " + (i + 5) + " " + (i + 1) + "\n");
+						i = i + 9;
+					} else {
+						i += 8;
+					}
+				}
+			}
+		}
+	}
+
 }
@@ -0,0 +1,123 @@
+package heron.gameboardeditor.datamodel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class saves grids to .heron files on a thread of its own, so the grid can be edited while it is saved.
+ *
+ * A save writes a read-only version of the grid taken when it is asked for, with ProjectIO.save, so the old file is
+ * only replaced once the new one is on the disk. The saves are written one at a time, in the order they are asked
+ * for: two saves of a file never write it at once. A save of a file which waits for another save to finish takes
+ * the place of an older save of the same file which is still waiting, since the older version would be overwritten
+ * right away: the file is written once, with the newer version, and both saves are told when it is written.
+ */
+public class SaveQueue {
+
+	/**
+	 * Told how a save goes, on the thread of the queue
+	 */
+	public interface SaveListener {
+		/**
+		 * Called as the file is written
+		 *
+		 * @param file - the file being saved
+		 * @param progress - the part of the grid which is written, from 0 to 1
+		 */
+		void saveProgressed(File file, double progress);
+
+		/**
+		 * Called once the save is over
+		 *
+		 * @param file - the file which was saved
+		 * @param failure - why the file could not be saved, the old file is left as it was, or null if it was saved
+		 */
+		void saveFinished(File file, IOException failure);
+	}
+
+	private final ThreadPoolExecutor thread = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> new Thread(task, "heron-save"));
+	private final Map<File, Save> waitingSaves = new HashMap<>(); //the saves which did not start yet, by file
+
+	public SaveQueue() {
+		thread.allowCoreThreadTimeOut(true); // the thread stops once it is idle, so a save still running keeps the app alive until it is written but nothing else does
+	}
+
+	/**
+	 * Saves a grid as it is now, once the saves asked for before are written. It must be called by the thread which
+	 * edits the grid
+	 *
+	 * @param grid - the grid to save
+	 * @param file - the .heron file
+	 * @param listener - told how the save goes
+	 * @return the save, which is done once the file is written, or failed with the IOException of the save
+	 */
+	public synchronized Future<Void> save(Grid grid, File file, SaveListener listener) {
+		Grid version = grid.snapshot();
+		File key = file.getAbsoluteFile();
+		Save save = waitingSaves.get(key);
+		if (save == null) {
+			save = new Save(key);
+			waitingSaves.put(key, save);
+			thread.execute(save);
+		}
+		save.version = version;
+		save.listeners.add(listener);
+		return save.result;
+	}
+
+	/**
+	 * Waits until the saves asked for are written
+	 */
+	public void sync() throws InterruptedException {
+		try {
+			thread.submit(() -> { }).get();
+		} catch (ExecutionException ex) {
+			throw new IllegalStateException(ex.getCause()); // an empty task does not fail
+		}
+	}
+
+	/**
+	 * A save of a file, which may stand for several saves asked for while it was waiting
+	 */
+	private final class Save implements Runnable {
+		private final File file;
+		private Grid version; //the version to write, the newest one asked for
+		private final List<SaveListener> listeners = new ArrayList<>();
+		private final CompletableFuture<Void> result = new CompletableFuture<>();
+
+		private Save(File file) {
+			this.file = file;
+		}
+
+		@Override
+		public void run() {
+			synchronized (SaveQueue.this) { // from now on, a save of the file is a new save
+				waitingSaves.remove(file);
+			}
+			IOException failure = null;
+			try {
+				ProjectIO.save(version, file, progress -> listeners.forEach(listener -> listener.saveProgressed(file, progress)));
+			} catch (IOException ex) {
+				failure = ex;
+			}
+			for (SaveListener listener : listeners) {
+				listener.saveFinished(file, failure);
+			}
+			if (failure == null) {
+				result.complete(null);
+			} else {
+				result.completeExceptionally(failure);
+			}
+		}
+	}
+}
@@ -0,0 +1,102 @@
+package heron.gameboardeditor.datamodel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * This class holds the templates bundled with the editor, the .heron files of a folder of the classpath.
+ *
+ * A template is read once, by prewarm on a background thread when the editor starts or by get the first time it is
+ * used, and the catalog keeps its grid as a read-only version (see Grid.snapshot). get returns a clone of that
+ * version, which shares its tiles until they are written, so a template opens without reading or parsing its file
+ * again and the edits of the board never change the template.
+ */
+public class TemplateCatalog {
+	public static final String FOLDER = "/heron/gameboardeditor/Templates/";
+
+	private final List<String> names;
+	private final Map<String, CompletableFuture<Grid>> templates = new ConcurrentHashMap<>(); //the read-only grid of each template which was read or is being read, by name
+
+	/**
+	 * Constructs a catalog, which reads nothing yet
+	 *
+	 * @param names - the names of the template files in FOLDER
+	 */
+	public TemplateCatalog(String... names) {
+		this.names = List.copyOf(Arrays.asList(names));
+	}
+
+	public List<String> getNames() {
+		return names;
+	}
+
+	/**
+	 * Reads every template which was not read yet, one after the other
+	 *
+	 * @param executor - where the templates are read, like a background thread
+	 */
+	public void prewarm(Executor executor) {
+		for (String name : names) {
+			CompletableFuture<Grid> template = new CompletableFuture<>();
+			if (templates.putIfAbsent(name, template) == null) {
+				executor.execute(() -> readInto(name, template));
+			}
+		}
+	}
+
+	/**
+	 * Returns a new grid with the cells of a template. The template is read now if it was not read yet, and the call
+	 * waits for it if it is being read by prewarm
+	 *
+	 * @param name - the name of the template file in FOLDER
+	 * @return a writable grid, independent of the template and of the grids returned before
+	 * @throws IOException if the template is not in the catalog or its file cannot be read
+	 */
+	public Grid get(String name) throws IOException {
+		if (!names.contains(name)) {
+			throw new IOException("There is no template named " + name);
+		}
+		CompletableFuture<Grid> template = templates.get(name);
+		if (template == null) {
+			CompletableFuture<Grid> reading = new CompletableFuture<>();
+			template = templates.putIfAbsent(name, reading);
+			if (template == null) { // not read by prewarm, this thread reads it
+				readInto(name, reading);
+				template = reading;
+			}
+		}
+		try {
+			return template.join().clone();
+		} catch (CompletionException ex) {
+			throw (IOException) ex.getCause();
+		}
+	}
+
+	/**
+	 * Returns if a template was read, to tell if get will return right away
+	 */
+	public boolean isRead(String name) {
+		CompletableFuture<Grid> template = templates.get(name);
+		return template != null && template.isDone() && !template.isCompletedExceptionally();
+	}
+
+	private static void readInto(String name, CompletableFuture<Grid> template) {
+		try (InputStream in = TemplateCatalog.class.getResourceAsStream(FOLDER + name)) {
+			if (in == null) {
+				throw new IOException("The template " + name + " is not on the classpath");
+			}
+			template.complete(ProjectIO.load(in).snapshot());
+		} catch (IOException ex) {
+			template.completeExceptionally(ex);
+		} catch (RuntimeException ex) { // a template which is not a valid .heron file, which must not leave get waiting
+			template.completeExceptionally(new IOException("The template " + name + " cannot be read", ex));
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package heron.gameboardeditor.datamodel;
+
+import java.util.Arrays;
+
+/**
+ * This class stores the data of one square chunk of SIZE x SIZE cells of a Grid.
+ *
+ * Besides the level of each cell, a tile keeps the number of its cells at each level and a bitmap of
+ * those cells, so the cells at one level can be found without reading the other cells.
+ *
+ * A tile can be shared by several grids (a grid and its clones). Only the grid whose edit token is
+ * the owner of the tile may change it, every other grid copies the tile before writing to it.
+ */
+final class Tile {
+	static final int SHIFT = 6;
+	static final int SIZE = 1 << SHIFT; //the number of cells on each side of a tile
+	static final int MASK = SIZE - 1;
+	static final int CELLS = SIZE * SIZE;
+
+	private final short[] heights;
+	private long[] pointyBits; //one bit per cell, only allocated once a cell of the tile is pointy
+	private int usedCells; //the number of cells which are not at level 0 or are pointy
+	private int[] levelCounts = new int[Grid.DEFAULT_MAX_Z + 1]; //the number of cells at each level above 0
+	private long[][] levelBits = new long[Grid.DEFAULT_MAX_Z + 1][]; //one bit per cell for each level above 0, null if no cell is at the level
+	private final Object owner;
+
+	/**
+	 * Constructs an empty tile
+	 *
+	 * @param owner - the edit token of the grid which may write to this tile
+	 */
+	Tile(Object owner) {
+		this.heights = new short[CELLS];
+		this.owner = owner;
+	}
+
+	private Tile(Tile tile, Object owner) {
+		this.heights = tile.heights.clone();
+		this.pointyBits = (tile.pointyBits == null) ? null : tile.pointyBits.clone();
+		this.usedCells = tile.usedCells;
+		this.levelCounts = tile.levelCounts.clone();
+		this.levelBits = new long[tile.levelBits.length][];
+		for (int level = 0; level < levelBits.length; level++) {
+			if (tile.levelBits[level] != null) {
+				levelBits[level] = tile.levelBits[level].clone();
+			}
+		}
+		this.owner = owner;
+	}
+
+	/**
+	 * Makes a tile from the states of its cells, level << 1 | pointy, the way the plane files store them (see PlaneFormat)
+	 *
+	 * @param states - the state of each cell, row by row
+	 * @param owner - the edit token of the grid which may write to the tile
+	 * @return the tile, or null if all its cells are at level 0
+	 */
+	static Tile fromStates(short[] states, Object owner) {
+		Tile tile = null;
+		for (int i = 0; i < CELLS; i++) {
+			int state = states[i];
+			if (state != 0) {
+				if (tile == null) {
+					tile = new Tile(owner);
+				}
+				tile.setZ(i, state >> 1);
+				tile.setPointy(i, (state & 1) != 0);
+			}
+		}
+		return tile;
+	}
+
+	/**
+	 * Returns the index of the cell (x, y) inside its tile
+	 */
+	static int indexOf(int x, int y) {
+		return ((y & MASK) << SHIFT) | (x & MASK);
+	}
+
+	/**
+	 * Returns a copy of this tile which can be written by the owner
+	 *
+	 * @param owner - the edit token of the grid which may write to the copy
+	 * @return a copy of the tile
+	 */
+	Tile copy(Object owner) {
+		return new Tile(this, owner);
+	}
+
+	boolean isOwnedBy(Object token) {
+		return owner == token;
+	}
+
+	/**
+	 * Returns if every cell of the tile is at level 0 and not pointy, so the tile can be released
+	 */
+	boolean isEmpty() {
+		return usedCells == 0;
+	}
+
+	int getZ(int index) {
+		return heights[index];
+	}
+
+	/**
+	 * Sets the level of a cell. A cell set to level 0 is not pointy anymore
+	 */
+	void setZ(int index, int z) {
+		boolean wasUsed = isUsed(index);
+		int oldLevel = heights[index];
+		if (oldLevel != 0) {
+			levelCounts[oldLevel]--;
+			if (levelCounts[oldLevel] == 0) {
+				levelBits[oldLevel] = null;
+			} else {
+				levelBits[oldLevel][index >> 6] &= ~(1L << index);
+			}
+		}
+		if (z != 0) {
+			if (z >= levelCounts.length) {
+				levelCounts = Arrays.copyOf(levelCounts, Math.max(z + 1, levelCounts.length * 2));
+				levelBits = Arrays.copyOf(levelBits, levelCounts.length);
+			}
+			if (levelBits[z] == null) {
+				levelBits[z] = new long[CELLS / 64];
+			}
+			levelCounts[z]++;
+			levelBits[z][index >> 6] |= 1L << index;
+		}
+		heights[index] = (short) z;
+		if (z == 0 && pointyBits != null) {
+			pointyBits[index >> 6] &= ~(1L << index);
+		}
+		updateUsedCells(index, wasUsed);
+	}
+
+	/**
+	 * Returns the number of cells of the tile at a level above 0
+	 */
+	int getLevelCount(int level) {
+		return (level < levelCounts.length) ? levelCounts[level] : 0;
+	}
+
+	/**
+	 * Returns the cells of the tile at a level above 0, one bit per cell and one long per row
+	 * of the tile, or null if no cell is at that level. The array must not be changed
+	 */
+	long[] getLevelBits(int level) {
+		return (level < levelBits.length) ? levelBits[level] : null;
+	}
+
+	/**
+	 * Returns a level such that no cell of the tile is above it
+	 */
+	int getLevelLimit() {
+		return levelCounts.length - 1;
+	}
+
+	boolean isPointy(int index) {
+		return pointyBits != null && (pointyBits[index >> 6] & (1L << index)) != 0;
+	}
+
+	/**
+	 * Sets if a cell is pointy. Only a cell above level 0 can be pointy
+	 */
+	void setPointy(int index, boolean pointy) {
+		if (pointy && heights[index] == 0) {
+			return;
+		}
+		if (pointyBits == null) {
+			if (!pointy) {
+				return;
+			}
+			pointyBits = new long[CELLS / 64];
+		}
+		boolean wasUsed = isUsed(index);
+		if (pointy) {
+			pointyBits[index >> 6] |= 1L << index;
+		} else {
+			pointyBits[index >> 6] &= ~(1L << index);
+		}
+		updateUsedCells(index, wasUsed);
+	}
+
+	private boolean isUsed(int index) {
+		return heights[index] != 0 || isPointy(index);
+	}
+
+	private void updateUsedCells(int index, boolean wasUsed) {
+		boolean used = isUsed(index);
+		if (used && !wasUsed) {
+			usedCells++;
+		} else if (!used && wasUsed) {
+			usedCells--;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package heron.gameboardeditor.datamodel;
+
+/**
+ * This class stores the tiles of a Grid, row by row, in pages of PAGE_SIZE tiles.
+ *
+ * A page is only allocated once one of its tiles is set. Like the tiles, a page belongs to the edit
+ * token of the grid which created it: a copy of the directory shares all the pages, and a page is only
+ * copied when a grid which does not own it sets one of its tiles. So a copy costs one reference per
+ * page, and a write after a copy costs one page.
+ */
+final class TileDirectory {
+	private static final int PAGE_SHIFT = 6;
+	private static final int PAGE_SIZE = 1 << PAGE_SHIFT; //the number of tiles in a page
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	private final int size;
+	private final Tile[][] pages; //null if all the tiles of the page are null
+	private final Object[] owners; //the edit token of the grid which may change each page
+
+	/**
+	 * Constructs a directory with no tiles
+	 *
+	 * @param size - the number of tiles of the directory
+	 */
+	TileDirectory(int size) {
+		this.size = size;
+		int pageCount = (size + PAGE_MASK) >> PAGE_SHIFT;
+		this.pages = new Tile[pageCount][];
+		this.owners = new Object[pageCount];
+	}
+
+	private TileDirectory(TileDirectory directory) {
+		this.size = directory.size;
+		this.pages = directory.pages.clone();
+		this.owners = directory.owners.clone();
+	}
+
+	/**
+	 * Returns a copy of this directory which shares all its pages. Neither directory can change a shared page
+	 * anymore once the grids have new edit tokens, so each copies a page before setting one of its tiles
+	 */
+	TileDirectory copy() {
+		return new TileDirectory(this);
+	}
+
+	int size() {
+		return size;
+	}
+
+	Tile get(int index) {
+		Tile[] page = pages[index >> PAGE_SHIFT];
+		return (page == null) ? null : page[index & PAGE_MASK];
+	}
+
+	/**
+	 * Sets a tile, copying its page first if the page belongs to another edit token
+	 *
+	 * @param index - the index of the tile
+	 * @param tile - the new tile, or null if all its cells are at level 0
+	 * @param owner - the edit token of the grid which sets the tile
+	 */
+	void set(int index, Tile tile, Object owner) {
+		int pageIndex = index >> PAGE_SHIFT;
+		Tile[] page = pages[pageIndex];
+		if (page == null) {
+			if (tile == null) {
+				return;
+			}
+			page = new Tile[PAGE_SIZE];
+			pages[pageIndex] = page;
+			owners[pageIndex] = owner;
+		} else if (owners[pageIndex] != owner) {
+			page = page.clone();
+			pages[pageIndex] = page;
+			owners[pageIndex] = owner;
+		}
+		page[index & PAGE_MASK] = tile;
+	}
+}
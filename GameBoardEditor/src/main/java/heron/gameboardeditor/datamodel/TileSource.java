@@ -0,0 +1,49 @@
+package heron.gameboardeditor.datamodel;
+
+/**
+ * A place a Grid reads its tiles from when it uses them, instead of holding them all in memory (see Grid(TileSource)).
+ *
+ * The tiles of a source never change, and the grids only read them: a grid copies a tile of its source before
+ * writing to it. A source may be used by several threads at once, since the read-only versions of a grid read
+ * their tiles from the source of the grid.
+ */
+interface TileSource {
+
+	int getWidth();
+
+	int getHeight();
+
+	int getMaxZ();
+
+	/**
+	 * Returns the number of cells at each level, so the grid knows them without reading its tiles
+	 */
+	long[] getLevelCounts();
+
+	/**
+	 * Returns a tile of the source
+	 *
+	 * @param tileX - the column of the tile, the tile (0, 0) holds the cell (0, 0)
+	 * @param tileY - the row of the tile
+	 * @return the tile, which must not be written, or null if all its cells are at level 0
+	 */
+	Tile getTile(int tileX, int tileY);
+
+	/**
+	 * Reads a range of tiles in the background, if reading a tile when it is used is slow. A call replaces the range
+	 * of the last one: its tiles which are not read yet are not read anymore
+	 *
+	 * @param firstTileX - the first column of the range
+	 * @param firstTileY - the first row of the range
+	 * @param endTileX - the end column of the range, excluded
+	 * @param endTileY - the end row of the range, excluded
+	 */
+	default void prefetch(int firstTileX, int firstTileY, int endTileX, int endTileY) {
+	}
+
+	/**
+	 * Frees what the source holds, like an open file, once no grid reads it anymore
+	 */
+	default void close() {
+	}
+}
@@ -118,7 +118,7 @@ public class Maze {
 				initialBlock = path.get(rand.nextInt(mazeBranchBlocks.size() - 1));
 			}
     		int initialDirection = 1;
-			Block possiblePathBlock = grid.getBlockGrid()[initialBlock.getX()][initialBlock.getY() - 1];
+			Block possiblePathBlock = grid.getBlockAt(initialBlock.getX(), initialBlock.getY() - 1);
 			createMazePath(possiblePathBlock, initialDirection, initialBlock);
 		}
 	}
@@ -155,14 +155,14 @@ public class Maze {
 	 */
     private void attemptMazeMovement(Block block, int newDirection) {
 		if (newDirection == 1) { //up
-    		createMazePath(grid.getBlockGrid()[block.getX()][block.getY() - 1], newDirection, block);
+    		createMazePath(grid.getBlockAt(block.getX(), block.getY() - 1), newDirection, block);
     	}
 		else if (newDirection == 2) { //right
-    		createMazePath(grid.getBlockGrid()[block.getX() + 1][block.getY()], newDirection, block);
+    		createMazePath(grid.getBlockAt(block.getX() + 1, block.getY()), newDirection, block);
     	} else if (newDirection == 3) { //down
-    		createMazePath(grid.getBlockGrid()[block.getX()][block.getY() + 1], newDirection, block);
+    		createMazePath(grid.getBlockAt(block.getX(), block.getY() + 1), newDirection, block);
     	} else if (newDirection == 4) { //left
-    		createMazePath(grid.getBlockGrid()[block.getX() - 1][block.getY()], newDirection, block);
+    		createMazePath(grid.getBlockAt(block.getX() - 1, block.getY()), newDirection, block);
     	}
     }
     
@@ -23,7 +23,6 @@ public class DigTool extends Tool {
 	public void mousePressed(MouseEvent e) {
 		CellUI cellClicked = gridBoard.getCell((int) e.getX() / gridBoard.getTileSize(), (int) e.getY() / gridBoard.getTileSize());
 		handleDig(cellClicked, e);
-		undoRedoHandler.saveState();
 	}
 	
 	@Override
@@ -43,11 +42,13 @@ public class DigTool extends Tool {
 	 * @param e - the MouseEvent
 	 */
 	public void handleDig(CellUI cellClicked, MouseEvent e) {
-		if (e.getButton().equals(MouseButton.SECONDARY)) { //if the user right clicks
-			build(cellClicked, e);
-		} else {
-			dig(cellClicked, e);
-		}
+		gridBoard.getGridData().edit(() -> {
+			if (e.getButton().equals(MouseButton.SECONDARY)) { //if the user right clicks
+				build(cellClicked, e);
+			} else {
+				dig(cellClicked, e);
+			}
+		});
 		cellLastClicked = cellClicked;
 	}
 	
@@ -36,10 +36,9 @@ public class EraserTool extends Tool {
 		if (gridBoard.getGridData().isCoordinateInGrid(x, y)) {
 			CellUI cellClicked = gridBoard.getCell(x, y);
 			if (cellClicked.getLevel() > 0) {
-				cellClicked.setLevel(0);
+				gridBoard.getGridData().edit(() -> cellClicked.setLevel(0));
 				cellClicked.setSelected(false);
-				gridBoard.selectionTool.getSelectedCells().remove(cellClicked);
-				undoRedoHandler.saveState();
+				gridBoard.selectionTool.getSelectedCells().remove(cellClicked); //saved for undo with the rest of the stroke
 			}
 		}
 
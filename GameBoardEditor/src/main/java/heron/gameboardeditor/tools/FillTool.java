@@ -26,10 +26,8 @@ public class FillTool extends Tool {
 		int y = (int) e.getY() / gridBoard.getTileSize();
 		if (gridBoard.getGridData().isCoordinateInGrid(x, y)) {
 			CellUI cellClicked = gridBoard.getCell((int) e.getX() / (int) gridBoard.getTileSize(), (int) e.getY() / (int) gridBoard.getTileSize()); //the initial cell which is clicked
-        	fill(cellClicked.getBlock(), cellClicked.getBlock().getZ(), gridBoard.getLevel());
+        	gridData.edit(() -> fill(cellClicked.getBlock(), cellClicked.getBlock().getZ(), gridBoard.getLevel())); //the whole area is filled as one edit
     	}
-    	gridBoard.updateVisual();
-    	undoRedoHandler.saveState();
     }
     
     /**
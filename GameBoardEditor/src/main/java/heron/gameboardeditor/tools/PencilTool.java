@@ -32,8 +32,7 @@ public class PencilTool extends Tool {
 		if (gridBoard.getGridData().isCoordinateInGrid(x, y)) {
 			CellUI cellClicked = gridBoard.getCell(x, y);
 			if (cellClicked.getLevel() != gridBoard.getLevel()) {
-				cellClicked.setLevel(gridBoard.getLevel());
-				undoRedoHandler.saveState();	
+				gridBoard.getGridData().edit(() -> cellClicked.setLevel(gridBoard.getLevel())); //saved for undo with the rest of the stroke
 			}
 		}
 	}
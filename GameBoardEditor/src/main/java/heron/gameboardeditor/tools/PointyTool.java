@@ -18,6 +18,11 @@ public class PointyTool extends Tool {
 		this.gridBoard = gridBoard;
 	}
 	
+	@Override
+	public void beginStroke() {
+		cellLastClicked = null;
+	}
+	
 	@Override
 	public void mousePressed(MouseEvent e) {
 		CellUI cellClicked = gridBoard.getCell((int) e.getX() / gridBoard.getTileSize(), (int) e.getY() / gridBoard.getTileSize());
@@ -64,9 +69,7 @@ public class PointyTool extends Tool {
 		int y = (int) e.getY() / gridBoard.getTileSize();
 		if (gridBoard.getGridData().isCoordinateInGrid(x, y)) {
 			CellUI cellClicked = gridBoard.getCell(x, y);
-			cellClicked.setPointy(true);
-			cellClicked.updateVisualBasedOnBlock();
-			undoRedoHandler.saveState();
+			gridBoard.getGridData().edit(() -> cellClicked.setPointy(true)); //saved for undo with the rest of the stroke
 		}
 	}
 	
@@ -76,9 +79,7 @@ public class PointyTool extends Tool {
 		
 		if (gridBoard.getGridData().isCoordinateInGrid(x, y)) {
 			CellUI cellClicked = gridBoard.getCell(x, y);
-			cellClicked.setPointy(false);
-			cellClicked.updateVisualBasedOnBlock();
-			undoRedoHandler.saveState();
+			gridBoard.getGridData().edit(() -> cellClicked.setPointy(false));
 		}
 	}
 }
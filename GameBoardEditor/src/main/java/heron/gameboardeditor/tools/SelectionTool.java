@@ -94,7 +94,6 @@ public class SelectionTool extends Tool {
 				}
 			}
 			selectionRectangle.setVisible(false);
-			undoRedoHandler.saveState();
 		}
 	}
 	
@@ -167,7 +166,6 @@ public class SelectionTool extends Tool {
     	} 
     	int changeInXIndex = endXIndex - startXIndex;
     	int changeInYIndex = endYIndex - startYIndex;
-    	gridBoard.getGridData().cutAndPaste(selectedBlocks, changeInXIndex, changeInYIndex);
-    	gridBoard.updateVisual();
+    	gridBoard.getGridData().edit(() -> gridBoard.getGridData().cutAndPaste(selectedBlocks, changeInXIndex, changeInYIndex));
     }
 }
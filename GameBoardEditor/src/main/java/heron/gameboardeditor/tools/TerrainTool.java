@@ -45,9 +45,7 @@ public class TerrainTool extends Tool {
 	public void mousePressed(MouseEvent e) {
 		CellUI cellClicked = gridBoard.getCell((int) e.getX() / gridBoard.getTileSize(), (int) e.getY() /  gridBoard.getTileSize());
 		Block initialBlock = cellClicked.getBlock();
-		drawTerrainObject(terrainObject, initialBlock);
-		gridBoard.updateVisual();
-    	undoRedoHandler.saveState();
+		gridData.edit(() -> drawTerrainObject(terrainObject, initialBlock)); //the whole object is drawn as one edit
 	}
 	
 	/**
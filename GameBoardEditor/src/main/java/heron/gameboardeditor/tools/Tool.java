@@ -30,4 +30,19 @@ public abstract class Tool {
 		
 	}
 	
+	/**
+	 * Called when the mouse is pressed, before mousePressed: a gesture of the tool begins
+	 */
+	public void beginStroke() {
+		
+	}
+	
+	/**
+	 * Called when the mouse is released, after mouseReleased: everything the tool changed since the mouse
+	 * was pressed becomes one step of the undo history, however many cells the gesture crossed
+	 */
+	public void endStroke() {
+		undoRedoHandler.saveState();
+	}
+	
 }
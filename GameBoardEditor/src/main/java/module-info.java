@@ -5,8 +5,8 @@ module heron.gameboardeditor {
 	requires com.google.gson;
 	requires javafx.base;
 	requires java.base;
+	requires java.desktop;
 
     opens heron.gameboardeditor to javafx.fxml;
-    opens heron.gameboardeditor.datamodel to com.google.gson;
     exports heron.gameboardeditor;
 }
@@ -0,0 +1,77 @@
+package heron.gameboardeditor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import heron.gameboardeditor.BatchConverter.Format;
+import heron.gameboardeditor.BatchConverter.Result;
+import heron.gameboardeditor.datamodel.Grid;
+import heron.gameboardeditor.datamodel.ProjectIO;
+
+class BatchConverterTest {
+
+	private static final String TEMPLATES = "src/main/resources/heron/gameboardeditor/Templates/";
+
+	@Test
+	void testConvertFolder(@TempDir Path folder) throws IOException {
+		Path boards = Files.createDirectories(folder.resolve("boards").resolve("old"));
+		Files.copy(Path.of(TEMPLATES, "Duck.heron"), boards.resolve("duck.heron"));
+		Grid grid = new Grid(100, 80);
+		grid.setZ(99, 79, 3);
+		grid.setPointy(99, 79, true);
+		ProjectIO.saveJson(grid, folder.resolve("board.heron").toFile());
+		Files.writeString(folder.resolve("damaged.heron"), "{\"rows\": [[1, 2], [3]]}");
+		Files.writeString(boards.resolve("misplaced.heron"), "{\"blockGrid\": [[{\"x\": 0, \"y\": 0, \"z\": 1}, {\"x\": 0, \"y\": 0, \"z\": 2}]]}");
+		Files.writeString(folder.resolve("board.autosave.heron"), "not a board"); // left alone
+		Files.writeString(folder.resolve("notes.txt"), "not a board");
+
+		List<Result> results = BatchConverter.convert(folder, Format.BINARY, 2);
+		assertEquals(results.size(), 4);
+		assertEquals(results.get(0).getFile(), folder.resolve("board.heron"));
+		assertEquals(results.get(0).getFailure(), null);
+		assertTrue(results.get(0).getBytesWritten() < results.get(0).getBytesRead());
+		assertEquals(results.get(1).getFile(), boards.resolve("duck.heron"));
+		assertEquals(results.get(1).getFailure(), null);
+		assertTrue(results.get(2).getFailure() instanceof IOException);
+		assertEquals(results.get(3).getFile(), folder.resolve("damaged.heron"));
+		assertTrue(results.get(3).getFailure() instanceof IOException);
+
+		assertEquals(Files.readAllBytes(folder.resolve("board.heron"))[4], 6); // binary now
+		Grid converted = ProjectIO.load(folder.resolve("board.heron").toFile());
+		assertEquals(converted.getZ(99, 79), 3);
+		assertTrue(converted.isPointy(99, 79));
+		Grid duck = ProjectIO.load(boards.resolve("duck.heron").toFile());
+		Grid template = ProjectIO.load(new File(TEMPLATES + "Duck.heron"));
+		assertEquals(duck.getLevelCount(1), template.getLevelCount(1));
+		assertEquals(Files.readString(folder.resolve("damaged.heron")), "{\"rows\": [[1, 2], [3]]}"); // a file which failed is left as it was
+		assertEquals(Files.readString(folder.resolve("board.autosave.heron")), "not a board");
+
+		long length = folder.resolve("board.heron").toFile().length();
+		results = BatchConverter.convert(folder, Format.CHECK, 1);
+		assertEquals(results.get(0).getBytesWritten(), 0);
+		assertEquals(folder.resolve("board.heron").toFile().length(), length);
+	}
+
+	@Test
+	void testCheckIsStricterThanLoad(@TempDir Path folder) throws IOException {
+		File misplaced = folder.resolve("misplaced.heron").toFile();
+		Files.writeString(misplaced.toPath(), "{\"blockGrid\": [[{\"x\": 0, \"y\": 0, \"z\": 1}, {\"x\": 0, \"y\": 0, \"z\": 2}]]}");
+		assertEquals(ProjectIO.load(misplaced).getZ(0, 1), 2); // the editor places a block where its object is
+		assertThrows(IOException.class, () -> ProjectIO.check(misplaced));
+
+		File tooHigh = folder.resolve("high.heron").toFile();
+		Files.writeString(tooHigh.toPath(), "{\"maxZ\": 2, \"rows\": [[1, 3]]}");
+		assertEquals(ProjectIO.load(tooHigh).getZ(1, 0), 3);
+		assertThrows(IOException.class, () -> ProjectIO.check(tooHigh));
+
+		assertEquals(ProjectIO.check(new File(TEMPLATES + "AugieLetter.json")).getZ(0, 0), 5);
+	}
+}
@@ -0,0 +1,72 @@
+package heron.gameboardeditor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import heron.gameboardeditor.datamodel.Grid;
+import javafx.geometry.BoundingBox;
+
+class GridBoardUITest {
+
+	@Test
+	void testOnlyShownCellsAreOnTheBoard() {
+		Grid grid = new Grid(10000, 10000);
+		grid.setZ(3010, 2005, 4);
+		GridBoardUI board = new GridBoardUI(grid, null, 30);
+		assertEquals(board.getShownCellCount(), 0);
+		assertEquals(board.getPrefWidth(), 300000.0); // the board can still be scrolled to every cell
+
+		board.viewportChanged(new BoundingBox(0, 0, 1200, 800));
+		assertEquals(board.getShownCellCount(), 41 * 28); // 40x27 cells and the ones cut by the edges
+		CellUI corner = board.getCell(0, 0);
+		assertTrue(corner.isPainted());
+		assertEquals(corner.getParent(), board);
+
+		board.viewportChanged(new BoundingBox(90000, 60000, 1200, 800));
+		assertEquals(board.getShownCellCount(), 41 * 28);
+		assertEquals(corner.getParent(), board); // reused for a cell which was scrolled to
+		assertTrue(corner.getLayoutX() >= 90000);
+		CellUI cell = board.getCell(3010, 2005);
+		assertTrue(cell.isPainted());
+		assertEquals(cell.getLevel(), 4);
+		assertEquals(cell.getLayoutX(), 3010 * 30.0);
+	}
+
+	@Test
+	void testSelectedCellsAreKept() {
+		Grid grid = new Grid(1000, 1000);
+		GridBoardUI board = new GridBoardUI(grid, null, 30);
+		board.viewportChanged(new BoundingBox(0, 0, 600, 600));
+		CellUI selected = board.getCell(5, 5);
+		board.selectionTool.addSelectedCell(selected);
+		CellUI hidden = board.getCell(500, 500); // a tool can use a cell which is not shown
+		assertEquals(hidden.getParent(), null);
+		assertFalse(hidden.isPainted());
+
+		board.viewportChanged(new BoundingBox(6000, 6000, 600, 600));
+		assertEquals(selected.getParent(), null);
+		assertEquals(board.getCell(5, 5), selected);
+		assertTrue(selected.isSelected());
+
+		board.viewportChanged(new BoundingBox(0, 0, 600, 600));
+		assertEquals(board.getCell(5, 5), selected);
+		assertEquals(selected.getParent(), board);
+		assertEquals(board.getShownCellCount(), 21 * 21);
+		assertThrows(IndexOutOfBoundsException.class, () -> board.getCell(1000, 0));
+	}
+
+	@Test
+	void testZoomKeepsTheShownCells() {
+		Grid grid = new Grid(200, 200);
+		GridBoardUI board = new GridBoardUI(grid, null, 30);
+		board.viewportChanged(new BoundingBox(0, 0, 600, 600));
+		CellUI cell = board.getCell(10, 10);
+		board.setTileSize(20);
+		board.viewportChanged(new BoundingBox(0, 0, 600, 600));
+		assertEquals(board.getShownCellCount(), 31 * 31);
+		assertEquals(board.getCell(10, 10), cell);
+		assertEquals(cell.getLayoutX(), 200.0);
+		assertEquals(board.getPrefWidth(), 4000.0);
+	}
+}
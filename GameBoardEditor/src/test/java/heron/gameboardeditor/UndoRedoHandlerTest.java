@@ -0,0 +1,52 @@
+package heron.gameboardeditor;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import heron.gameboardeditor.datamodel.Grid;
+
+class UndoRedoHandlerTest {
+
+	/**
+	 * Records how the screen is refreshed, without JavaFX
+	 */
+	private static class RecordingController extends EditingScreenController {
+		private final List<Boolean> restores = new ArrayList<>(); //isMaxLevelChanged of each refresh
+
+		@Override
+		public void restoreState(boolean isMaxLevelChanged) {
+			restores.add(isMaxLevelChanged);
+		}
+	}
+
+	@Test
+	void testUndoMaxLevelReduction() {
+		Grid grid = new Grid(10, 10);
+		grid.setMaxZ(10);
+		RecordingController controller = new RecordingController();
+		UndoRedoHandler handler = new UndoRedoHandler(controller, grid);
+		grid.setZ(2, 3, 8);
+		handler.saveState();
+
+		grid.edit(() -> { // like EditingScreenController.setMaxLevel, which does not save a step
+			grid.setMaxZ(5);
+			grid.lowerBlocksHigherThan(5);
+		});
+		handler.undo(); // undoes the new max level, not the cell
+		assertEquals(grid.getMaxZ(), 10);
+		assertEquals(grid.getZ(2, 3), 8);
+		assertEquals(controller.restores, List.of(true)); // the colors of the levels are made again
+
+		handler.redo();
+		assertEquals(grid.getMaxZ(), 5);
+		handler.undo();
+		handler.undo();
+		assertEquals(grid.getZ(2, 3), 0);
+		assertEquals(controller.restores, List.of(true, true, true, false));
+		handler.dispose();
+	}
+}
@@ -0,0 +1,172 @@
+package heron.gameboardeditor.datamodel;
+
+import static heron.gameboardeditor.datamodel.GridAssertions.assertSameCells;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class AutosaveTest {
+
+	@Test
+	void testSaveAppendsOnlyTheChangedTiles(@TempDir Path folder) throws Exception {
+		Grid grid = randomGrid(1000, 1000, new Random(1));
+		Autosave autosave = Autosave.start(grid, folder.resolve("board.autosave.heron").toFile());
+		autosave.sync();
+		File file = autosave.getFile();
+		assertSameCells(ProjectIO.load(file), grid);
+		long baseLength = file.length();
+
+		grid.setZ(500, 500, 0);
+		grid.setPointy(10, 10, true);
+		autosave.save();
+		autosave.sync();
+		assertTrue(file.length() - baseLength < 2 * (Tile.CELLS + 100), "two tiles and a commit were appended, not " + (file.length() - baseLength) + " bytes");
+		assertSameCells(ProjectIO.load(file), grid);
+
+		long length = file.length();
+		autosave.save(); // nothing changed
+		autosave.sync();
+		assertEquals(file.length(), length);
+		autosave.stop();
+	}
+
+	@Test
+	void testCropAndGrowAgain(@TempDir Path folder) throws Exception {
+		Grid grid = new Grid(200, 150);
+		grid.allBlocksSetZ(2);
+		Autosave autosave = Autosave.start(grid, folder.resolve("board.autosave.heron").toFile());
+		grid.extend(-100, -10, 0, -70); // drops the first column of tiles, and the last row
+		grid.setZ(0, 0, 4);
+		autosave.save();
+		grid.extend(100, 10, 0, 70); // the cropped cells are empty
+		grid.setZ(5, 140, 3);
+		autosave.save();
+		autosave.sync();
+		Grid saved = ProjectIO.load(autosave.getFile());
+		assertSameCells(saved, grid);
+		assertEquals(saved.getZ(5, 5), 0);
+		assertEquals(saved.getZ(100, 10), 4);
+		assertEquals(saved.getLevelCount(2), grid.getLevelCount(2));
+
+		grid.extend(-64, 0, 0, 0); // cropped and grown again between two saves
+		grid.extend(64, 0, 0, 0);
+		autosave.save();
+		autosave.sync();
+		assertSameCells(ProjectIO.load(autosave.getFile()), grid);
+		autosave.stop();
+	}
+
+	@Test
+	void testTornSaveIsIgnored(@TempDir Path folder) throws Exception {
+		Grid grid = randomGrid(300, 300, new Random(2));
+		Autosave autosave = Autosave.start(grid, folder.resolve("board.autosave.heron").toFile());
+		grid.setZ(1, 1, 5);
+		autosave.save();
+		autosave.sync();
+		Grid firstVersion = grid.snapshot();
+		grid.setZ(1, 1, 1);
+		grid.setZ(299, 299, 5);
+		autosave.save();
+		autosave.sync();
+		autosave.stop();
+
+		File file = autosave.getFile();
+		try (RandomAccessFile data = new RandomAccessFile(file, "rw")) { // the editor died while the commit was written
+			data.setLength(data.length() - 3);
+		}
+		assertSameCells(ProjectIO.load(file), firstVersion);
+	}
+
+	@Test
+	void testCompaction(@TempDir Path folder) throws Exception {
+		Random random = new Random(3);
+		Grid grid = randomGrid(256, 256, random);
+		Autosave autosave = Autosave.start(grid, folder.resolve("board.autosave.heron").toFile(), 0);
+		autosave.sync();
+		long longest = 0;
+		for (int save = 0; save < 20; save++) {
+			for (int i = 0; i < 2000; i++) { // rewrites most of the tiles
+				grid.setZ(random.nextInt(256), random.nextInt(256), random.nextInt(6));
+			}
+			autosave.save();
+			autosave.sync();
+			longest = Math.max(longest, autosave.getFile().length());
+		}
+		assertSameCells(ProjectIO.load(autosave.getFile()), grid);
+		autosave.stop();
+
+		Autosave compacted = Autosave.start(grid, folder.resolve("compacted.autosave.heron").toFile());
+		compacted.sync();
+		assertTrue(longest <= 2 * compacted.getFile().length() + 100, "the dead records were compacted");
+		compacted.stop();
+	}
+
+	/**
+	 * A board which was just opened is autosaved from its file: it is not written again, and none of its chunks is read
+	 */
+	@Test
+	void testStartFromOpenedFile(@TempDir Path folder) throws Exception {
+		Random random = new Random(4);
+		Grid grid = randomGrid(1000, 600, random);
+		File projectFile = folder.resolve("board.heron").toFile();
+		ProjectIO.save(grid, projectFile);
+		Grid opened = ProjectIO.open(projectFile);
+		BinaryFormat.ChunkedSource source = (BinaryFormat.ChunkedSource) opened.getSource();
+		Autosave autosave = Autosave.start(opened, Autosave.fileFor(projectFile), projectFile, 0); // compacted as often as it can be
+		autosave.sync();
+		assertEquals(source.getDecodedChunkCount(), 0);
+		assertTrue(autosave.getFile().length() < 200, "only the base and a commit were written");
+		assertSameCells(ProjectIO.load(autosave.getFile()), grid);
+
+		for (int save = 0; save < 10; save++) {
+			for (int i = 0; i < 50; i++) { // the same few tiles, so the file is compacted
+				opened.setZ(random.nextInt(100), random.nextInt(100), random.nextInt(6));
+			}
+			autosave.save();
+		}
+		for (int x = 128; x < 192; x++) { // a tile of the base is cleared
+			for (int y = 64; y < 128; y++) {
+				opened.setZ(x, y, 0);
+			}
+		}
+		autosave.save();
+		autosave.sync();
+		assertEquals(source.getDecodedChunkCount(), 2); // the ones the edits read, which hold the first two rows of tiles
+		opened.extend(0, 0, -40, -100); // drops the last column and the last rows of tiles of the base
+		autosave.save();
+		autosave.sync();
+		ProjectIO.save(new Grid(10, 10), projectFile); // the board is saved again in place, the autosave keeps its version
+		assertSameCells(ProjectIO.load(autosave.getFile()), opened);
+		assertEquals(ProjectIO.load(autosave.getFile()).getLevelCount(0), opened.getLevelCount(0));
+		autosave.stop();
+
+		Autosave withoutBase = Autosave.start(opened, autosave.getFile()); // the same file, written whole
+		withoutBase.sync();
+		assertFalse(Autosave.baseFileFor(autosave.getFile()).exists());
+		assertSameCells(ProjectIO.load(withoutBase.getFile()), opened);
+		withoutBase.stop();
+	}
+
+	@Test
+	void testFileFor() {
+		assertEquals(Autosave.fileFor(new File("boards", "duck.heron")).getName(), "duck.autosave.heron");
+		assertEquals(Autosave.fileFor(new File("boards", "duck")).getParentFile(), new File("boards").getAbsoluteFile());
+	}
+
+	private static Grid randomGrid(int width, int height, Random random) {
+		Grid grid = new Grid(width, height);
+		for (int i = 0; i < width * height / 4; i++) {
+			int x = random.nextInt(width);
+			int y = random.nextInt(height);
+			grid.setZ(x, y, 1 + random.nextInt(5));
+			grid.setPointy(x, y, random.nextInt(8) == 0);
+		}
+		return grid;
+	}
+}
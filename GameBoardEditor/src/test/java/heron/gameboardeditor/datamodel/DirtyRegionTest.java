@@ -0,0 +1,55 @@
+package heron.gameboardeditor.datamodel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+class DirtyRegionTest {
+
+	@Test
+	void testNeighbouringCellsAreMerged() {
+		DirtyRegion region = new DirtyRegion();
+		for (int x = 0; x < 10; x++) {
+			region.add(x, 3);
+		}
+		assertEquals(region.getRectangles().size(), 1);
+		assertEquals(region.getRectangles().get(0), new CellRectangle(0, 3, 10, 1));
+		
+		for (int x = 0; x < 10; x++) {
+			region.add(x, 4);
+		}
+		assertEquals(region.getRectangles().size(), 1);
+		assertEquals(region.getRectangles().get(0), new CellRectangle(0, 3, 10, 2));
+		assertEquals(region.getCellCount(), 20);
+	}
+	
+	@Test
+	void testDistantCellsAreNotMerged() {
+		DirtyRegion region = new DirtyRegion();
+		region.add(0, 0);
+		region.add(5, 5);
+		region.add(0, 0);
+		assertEquals(region.getRectangles().size(), 2);
+		assertEquals(region.getCellCount(), 2);
+		assertEquals(region.getBounds(), new CellRectangle(0, 0, 6, 6));
+	}
+	
+	@Test
+	void testRegionStaysShort() {
+		DirtyRegion region = new DirtyRegion();
+		for (int i = 0; i < 1000; i++) {
+			region.add((i * 37) % 500, (i * 91) % 500);
+		}
+		assertTrue(region.getRectangles().size() <= 32);
+		for (int i = 0; i < 1000; i++) {
+			int x = (i * 37) % 500;
+			int y = (i * 91) % 500;
+			boolean isCovered = false;
+			for (CellRectangle rectangle : region.getRectangles()) {
+				isCovered |= rectangle.contains(x, y);
+			}
+			assertTrue(isCovered);
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+package heron.gameboardeditor.datamodel;
+
+import static heron.gameboardeditor.datamodel.GridAssertions.assertSameCells;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class EditJournalTest {
+
+	@Test
+	void testRecoverAfterEdits(@TempDir Path folder) throws IOException {
+		File directory = folder.resolve("journal").toFile();
+		Grid grid = new Grid(70, 70);
+		grid.setZ(3, 3, 2); // before the journal, in its first checkpoint
+		EditJournal journal = EditJournal.start(directory, grid, 2000); // small, so the journal starts over many times
+		edit(grid, new Random(14), 300, null);
+		journal.sync();
+
+		assertFalse(EditJournal.hasJournal(directory)); // its editor runs
+		File copy = folder.resolve("copy").toFile(); // what is left if the editor dies now
+		copy.mkdir();
+		Files.copy(new File(directory, EditJournal.CHECKPOINT_FILE).toPath(), new File(copy, EditJournal.CHECKPOINT_FILE).toPath());
+		Files.copy(new File(directory, EditJournal.JOURNAL_FILE).toPath(), new File(copy, EditJournal.JOURNAL_FILE).toPath());
+		assertTrue(EditJournal.hasJournal(copy));
+		assertSameCells(EditJournal.recover(copy), grid);
+		journal.discard();
+		assertFalse(EditJournal.hasJournal(directory));
+		assertFalse(directory.exists());
+	}
+
+	/**
+	 * The journal of a board which was just opened starts from its file: it is not written again, and none of its
+	 * chunks is read
+	 */
+	@Test
+	void testStartFromOpenedFile(@TempDir Path folder) throws IOException {
+		Grid grid = new Grid(1000, 600);
+		edit(grid, new Random(15), 2000, null);
+		File projectFile = folder.resolve("board.heron").toFile();
+		ProjectIO.save(grid, projectFile);
+		Grid opened = ProjectIO.open(projectFile);
+		BinaryFormat.ChunkedSource source = (BinaryFormat.ChunkedSource) opened.getSource();
+		File directory = folder.resolve("journal").toFile();
+		EditJournal journal = EditJournal.start(directory, opened, projectFile);
+		journal.sync();
+		assertEquals(source.getDecodedChunkCount(), 0);
+		assertTrue(new File(directory, EditJournal.CHECKPOINT_FILE).length() < 100, "the checkpoint holds no cells");
+
+		opened.setZ(5, 5, 3);
+		opened.extend(0, 0, 10, 0);
+		journal.sync();
+		ProjectIO.save(new Grid(10, 10), projectFile); // the board is saved again in place, the journal keeps its version
+		File copy = folder.resolve("copy").toFile(); // what is left if the editor dies now
+		copy.mkdir();
+		for (String name : List.of(EditJournal.CHECKPOINT_FILE, EditJournal.JOURNAL_FILE, EditJournal.BASE_FILE)) {
+			Files.copy(new File(directory, name).toPath(), new File(copy, name).toPath());
+		}
+		assertSameCells(EditJournal.recover(copy), opened);
+		journal.discard();
+		assertFalse(directory.exists());
+	}
+
+	/**
+	 * Two editors run at the same time, and a third one died: only the journal of the one which died can be recovered
+	 */
+	@Test
+	void testOnlyJournalsOfDeadEditorsAreRecovered(@TempDir Path folder) throws IOException {
+		File root = folder.toFile();
+		Grid first = new Grid(10, 10);
+		Grid second = new Grid(20, 20);
+		second.setZ(4, 5, 3);
+		EditJournal firstJournal = EditJournal.start(EditJournal.createDirectory(root), first);
+		File secondDirectory = EditJournal.createDirectory(root);
+		EditJournal secondJournal = EditJournal.start(secondDirectory, second);
+		assertNotEquals(firstJournal, secondJournal);
+		firstJournal.sync();
+		secondJournal.sync();
+		assertEquals(EditJournal.findJournals(root), List.of()); // both editors are open
+		assertThrows(IOException.class, () -> EditJournal.recover(secondDirectory));
+		assertThrows(IOException.class, () -> EditJournal.start(secondDirectory, first));
+
+		File dead = EditJournal.createDirectory(root); // what an editor which died leaves: its files, but not its lock
+		Files.copy(new File(secondDirectory, EditJournal.CHECKPOINT_FILE).toPath(), new File(dead, EditJournal.CHECKPOINT_FILE).toPath());
+		Files.copy(new File(secondDirectory, EditJournal.JOURNAL_FILE).toPath(), new File(dead, EditJournal.JOURNAL_FILE).toPath());
+		Files.createFile(new File(dead, EditJournal.LOCK_FILE).toPath());
+		assertEquals(EditJournal.findJournals(root), List.of(dead));
+		assertSameCells(EditJournal.recover(dead), second);
+
+		firstJournal.discard();
+		secondJournal.discard();
+		assertEquals(EditJournal.findJournals(root), List.of(dead));
+		EditJournal.delete(dead);
+		assertEquals(EditJournal.findJournals(root), List.of());
+		assertEquals(root.list().length, 0);
+	}
+
+	/**
+	 * The editor dies while a record is written: every length of the last records is tried,
+	 * the grid is recovered up to the last whole record
+	 */
+	@Test
+	void testRecoverFromTornWrite(@TempDir Path folder) throws IOException {
+		File directory = folder.resolve("journal").toFile();
+		Grid grid = new Grid(40, 40);
+		EditJournal journal = EditJournal.start(directory, grid, Long.MAX_VALUE);
+		List<Grid> versions = new ArrayList<>();
+		versions.add(grid.snapshot());
+		edit(grid, new Random(15), 40, versions);
+		journal.sync();
+		byte[] checkpoint = Files.readAllBytes(new File(directory, EditJournal.CHECKPOINT_FILE).toPath());
+		byte[] records = Files.readAllBytes(new File(directory, EditJournal.JOURNAL_FILE).toPath());
+		journal.discard();
+
+		List<Integer> recordEnds = new ArrayList<>(); // the length of the journal after each record
+		for (int end = 0; end < records.length; ) {
+			int length = ((records[end] & 0xFF) << 24) | ((records[end + 1] & 0xFF) << 16) | ((records[end + 2] & 0xFF) << 8) | (records[end + 3] & 0xFF);
+			end += 8 + length;
+			recordEnds.add(end);
+		}
+		assertEquals(recordEnds.size(), versions.size() - 1);
+
+		File crashed = folder.resolve("crashed").toFile();
+		crashed.mkdirs();
+		Files.write(new File(crashed, EditJournal.CHECKPOINT_FILE).toPath(), checkpoint);
+		int firstCut = recordEnds.get(recordEnds.size() - 4);
+		for (int cut = firstCut; cut <= records.length; cut++) {
+			Files.write(new File(crashed, EditJournal.JOURNAL_FILE).toPath(), Arrays.copyOf(records, cut));
+			int wholeRecords = 0;
+			while (wholeRecords < recordEnds.size() && recordEnds.get(wholeRecords) <= cut) {
+				wholeRecords++;
+			}
+			assertSameCells(EditJournal.recover(crashed), versions.get(wholeRecords));
+		}
+
+		byte[] damaged = records.clone(); // a record which was not written as it should
+		int damagedRecord = recordEnds.size() - 2;
+		damaged[recordEnds.get(damagedRecord - 1) + 10] ^= 0x5A;
+		Files.write(new File(crashed, EditJournal.JOURNAL_FILE).toPath(), damaged);
+		assertSameCells(EditJournal.recover(crashed), versions.get(damagedRecord));
+	}
+
+	/**
+	 * Edits the grid like the tools do, one edit at a time, and keeps a version after each edit which changed something
+	 */
+	private static void edit(Grid grid, Random random, int edits, List<Grid> versions) {
+		for (int i = 0; i < edits; i++) {
+			int x = random.nextInt(grid.getWidth());
+			int y = random.nextInt(grid.getHeight());
+			GridEdit edit = grid.edit(() -> {
+				if (random.nextInt(25) == 0) {
+					grid.extend(random.nextInt(10) - 3, random.nextInt(10) - 3, random.nextInt(10) - 3, random.nextInt(10) - 3);
+				} else if (random.nextInt(4) == 0) {
+					grid.setPointy(x, y, random.nextBoolean());
+				} else {
+					for (int j = 0; j < 1 + random.nextInt(10); j++) {
+						grid.setZ((x + j) % grid.getWidth(), y, random.nextInt(6));
+					}
+				}
+			});
+			if (versions != null && !edit.isEmpty()) {
+				versions.add(grid.snapshot());
+			}
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package heron.gameboardeditor.datamodel;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Assertions on Grids shared by the tests of this package.
+ */
+class GridAssertions {
+
+	private GridAssertions() {
+	}
+
+	/**
+	 * Asserts that two grids have the same origin, size, maximum level and cells.
+	 * 
+	 * @param grid     - the grid under test
+	 * @param expected - the grid it should equal
+	 */
+	static void assertSameCells(Grid grid, Grid expected) {
+		assertEquals(grid.getOriginX(), expected.getOriginX());
+		assertEquals(grid.getOriginY(), expected.getOriginY());
+		assertEquals(grid.getWidth(), expected.getWidth());
+		assertEquals(grid.getHeight(), expected.getHeight());
+		assertEquals(grid.getMaxZ(), expected.getMaxZ());
+		for (int x = 0; x < grid.getWidth(); x++) {
+			for (int y = 0; y < grid.getHeight(); y++) {
+				assertEquals(grid.getZ(x, y), expected.getZ(x, y));
+				assertEquals(grid.isPointy(x, y), expected.isPointy(x, y));
+			}
+		}
+	}
+}
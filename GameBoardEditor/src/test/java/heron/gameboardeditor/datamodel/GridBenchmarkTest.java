@@ -0,0 +1,235 @@
+package heron.gameboardeditor.datamodel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+import java.util.function.IntConsumer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+/**
+ * Benchmarks for the Grid. They are slow and use a lot of memory, so they only run with
+ * mvn test -Dheron.benchmark=true -Dtest=GridBenchmarkTest
+ */
+@EnabledIfSystemProperty(named = "heron.benchmark", matches = "true")
+class GridBenchmarkTest {
+
+	private static final int SIZE = 2000;
+	private static final int CLONES = 5;
+
+	/**
+	 * The layout of a block before the grid used flat arrays: one object per cell
+	 */
+	private static class ObjectBlock {
+		private int x;
+		private int y;
+		private int z;
+		private boolean isPointy;
+
+		private ObjectBlock(int x, int y, int z) {
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+	}
+
+	@Test
+	void benchmarkFootprintAndClone() {
+		long before = usedMemory();
+		ObjectBlock[][] blocks = new ObjectBlock[SIZE][SIZE];
+		for (int x = 0; x < SIZE; x++) {
+			for (int y = 0; y < SIZE; y++) {
+				blocks[x][y] = new ObjectBlock(x, y, (x + y) % 6);
+			}
+		}
+		double objectBytesPerCell = (double) (usedMemory() - before) / (SIZE * SIZE);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < CLONES; i++) {
+			ObjectBlock[][] clone = new ObjectBlock[SIZE][SIZE];
+			for (int x = 0; x < SIZE; x++) {
+				for (int y = 0; y < SIZE; y++) {
+					ObjectBlock block = blocks[x][y];
+					clone[x][y] = new ObjectBlock(block.x, block.y, block.z);
+					clone[x][y].isPointy = block.isPointy;
+				}
+			}
+		}
+		double objectCloneMillis = (System.nanoTime() - start) / 1e6 / CLONES;
+		blocks = null;
+
+		before = usedMemory();
+		Grid grid = new Grid(SIZE, SIZE);
+		for (int x = 0; x < SIZE; x++) {
+			for (int y = 0; y < SIZE; y++) {
+				grid.setZ(x, y, (x + y) % 6);
+			}
+		}
+		double gridBytesPerCell = (double) (usedMemory() - before) / (SIZE * SIZE);
+
+		start = System.nanoTime();
+		for (int i = 0; i < CLONES; i++) {
+			grid.clone();
+		}
+		double gridCloneMillis = (System.nanoTime() - start) / 1e6 / CLONES;
+
+		System.out.printf("%dx%d board: Block[][] %.1f bytes/cell, clone %.1f ms%n", SIZE, SIZE, objectBytesPerCell, objectCloneMillis);
+		System.out.printf("%dx%d board: Grid %.1f bytes/cell, clone %.1f ms%n", SIZE, SIZE, gridBytesPerCell, gridCloneMillis);
+	}
+
+	@Test
+	void benchmarkSparseEdits() {
+		int size = 8192;
+		Grid grid = new Grid(size, size);
+		for (int edited = 1; edited <= 4096; edited *= 8) { // the edited area grows, the board stays the same
+			for (int i = 0; i < edited; i++) {
+				grid.setZ((i * 97) % size, (i * 89) % size, 1 + i % 5);
+			}
+			long start = System.nanoTime();
+			Grid clone = grid.clone();
+			double cloneMillis = (System.nanoTime() - start) / 1e6;
+
+			start = System.nanoTime();
+			clone.resize(size + 100, size + 100);
+			clone.resize(size - 100, size - 100);
+			double resizeMillis = (System.nanoTime() - start) / 1e6;
+
+			System.out.printf("%dx%d board, %d tiles allocated: clone %.3f ms, grow and crop %.3f ms%n", size, size,
+					grid.getAllocatedTileCount(), cloneMillis, resizeMillis);
+		}
+	}
+
+	@Test
+	void benchmarkSelectLevel() {
+		int size = 4096;
+		Grid grid = new Grid(size, size);
+		grid.allBlocksSetZ(1);
+		for (int x = 1000; x < 1200; x++) { // a small plateau at level 3
+			for (int y = 2000; y < 2100; y++) {
+				grid.setZ(x, y, 3);
+			}
+		}
+		long[] count = new long[1];
+
+		long start = System.nanoTime();
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				if (grid.getBlockAt(x, y).getZ() == 3) {
+					count[0]++;
+				}
+			}
+		}
+		double scanMillis = (System.nanoTime() - start) / 1e6;
+
+		start = System.nanoTime();
+		grid.forEachCellAtLevel(3, (x, y) -> count[0]++);
+		double indexMillis = (System.nanoTime() - start) / 1e6;
+
+		System.out.printf("%dx%d board, %d cells at level 3: scan %.1f ms, level index %.3f ms%n", size, size,
+				grid.getLevelCount(3), scanMillis, indexMillis);
+	}
+
+	@Test
+	void benchmarkVersions() {
+		int size = 8192;
+		int versions = 1000;
+		Grid grid = new Grid(size, size);
+		grid.allBlocksSetZ(1);
+		Grid[] history = new Grid[versions];
+		long before = usedMemory();
+		long start = System.nanoTime();
+		for (int i = 0; i < versions; i++) {
+			grid.setZ((i * 97) % size, (i * 31) % size, 2); // one edited cell per version
+			history[i] = grid.snapshot();
+		}
+		double versionMillis = (System.nanoTime() - start) / 1e6 / versions;
+		double versionBytes = (double) (usedMemory() - before) / versions;
+
+		System.out.printf("%dx%d board: %.3f ms and %.0f KB per version with one edited cell (the grid is %d KB)%n", size, size,
+				versionMillis, versionBytes / 1024, (long) size * size * 2 / 1024);
+		assertEquals(history[0].getZ(97, 31), 1);
+	}
+
+	@Test
+	void benchmarkUndoMemory() {
+		int size = 500;
+		int strokes = 10000;
+		int cellsPerStroke = 12;
+
+		Grid grid = new Grid(size, size);
+		Grid[] mementos = new Grid[strokes]; // one version of the whole grid per stroke, like the undo stack kept before
+		long before = usedMemory();
+		drawStrokes(grid, strokes, cellsPerStroke, i -> mementos[i] = grid.snapshot());
+		double mementoBytes = (double) (usedMemory() - before) / strokes;
+
+		Grid deltaGrid = new Grid(size, size);
+		GridHistory history = new GridHistory(deltaGrid);
+		before = usedMemory();
+		drawStrokes(deltaGrid, strokes, cellsPerStroke, i -> history.saveStep());
+		double deltaBytes = (double) (usedMemory() - before) / strokes;
+
+		long start = System.nanoTime();
+		while (history.undo()) {
+		}
+		double undoMillis = (System.nanoTime() - start) / 1e6;
+
+		System.out.printf("%d strokes of %d cells on a %dx%d board: %.0f bytes per stroke with versions of the grid, %.0f bytes with deltas "
+				+ "(%.0f estimated, dedupe ratio %.2f), %.0f ms to undo them all%n", strokes, cellsPerStroke, size, size, mementoBytes, deltaBytes,
+				(double) history.getByteSize() / strokes, history.getDedupeRatio(), undoMillis);
+		assertEquals(deltaGrid.getLevelCount(0), (long) size * size);
+		assertEquals(mementos[0].getLevelCount(0), (long) size * size - cellsPerStroke);
+	}
+
+	@Test
+	void benchmarkUndoLatency() {
+		int size = 4096;
+		int strokes = 200;
+		int cellsPerStroke = 50;
+		Grid grid = new Grid(size, size);
+		grid.allBlocksSetZ(1);
+		GridHistory history = new GridHistory(grid);
+		drawStrokes(grid, strokes, cellsPerStroke, i -> history.saveStep());
+		long[] repaintedCells = new long[1];
+		grid.addGridListener(event -> repaintedCells[0] += event.getRegion().getCellCount()); // what the board repaints
+
+		int undone = history.getStepCount(); // a stroke drawn at level 1 changed nothing, so it is not a step
+		long start = System.nanoTime();
+		long slowest = 0;
+		for (int i = 0; i < undone; i++) {
+			long undoStart = System.nanoTime();
+			assertTrue(history.undo());
+			slowest = Math.max(slowest, System.nanoTime() - undoStart);
+		}
+		double undoMillis = (System.nanoTime() - start) / 1e6 / undone;
+
+		System.out.printf("%dx%d board: undo of a %d cell stroke in %.3f ms (slowest %.3f ms), %.0f cells repainted per undo%n", size, size,
+				cellsPerStroke, undoMillis, slowest / 1e6, (double) repaintedCells[0] / undone);
+		assertEquals(grid.getLevelCount(1), (long) size * size);
+	}
+
+	/**
+	 * Draws strokes like the pencil tool: a short line of cells, each one set by its own edit, then the end of the stroke
+	 */
+	private static void drawStrokes(Grid grid, int strokes, int cellsPerStroke, IntConsumer strokeEnded) {
+		Random random = new Random(10);
+		for (int i = 0; i < strokes; i++) {
+			int x = random.nextInt(grid.getWidth() - cellsPerStroke);
+			int y = random.nextInt(grid.getHeight());
+			int level = 1 + random.nextInt(5);
+			for (int j = 0; j < cellsPerStroke; j++) {
+				int cellX = x + j;
+				grid.edit(() -> grid.setZ(cellX, y, level));
+			}
+			strokeEnded.accept(i);
+		}
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
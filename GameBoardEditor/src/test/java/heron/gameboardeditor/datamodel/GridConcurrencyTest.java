@@ -0,0 +1,109 @@
+package heron.gameboardeditor.datamodel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+class GridConcurrencyTest {
+	private static final int READERS = 3;
+	private static final int EDITS = 50;
+
+	/**
+	 * One thread edits a grid and publishes a version after each edit, while other threads read the latest version.
+	 * Every edit sets all the cells of the grid to one level, one cell at a time in a random order, so a version
+	 * which would see a part of a later edit would have cells at different levels.
+	 */
+	@Test
+	void testVersionsReadWhileGridIsEdited() throws Exception {
+		AtomicReference<Grid> latest = new AtomicReference<>();
+		AtomicBoolean isEditing = new AtomicBoolean(true);
+		AtomicInteger readCount = new AtomicInteger();
+		ExecutorService threads = Executors.newFixedThreadPool(READERS + 1);
+		try {
+			Future<?> writer = threads.submit(() -> {
+				try {
+					Random random = new Random(9);
+					Grid grid = new Grid(100, 100);
+					grid.allBlocksSetZ(1);
+					latest.set(grid.snapshot());
+					for (int i = 0; i < EDITS; i++) {
+						int level = 1 + i % 5;
+						boolean pointy = i % 2 == 0;
+						grid.edit(() -> {
+							if (random.nextInt(10) == 0) {
+								int left = random.nextInt(61) - 30;
+								int top = random.nextInt(61) - 30;
+								grid.extend(left, top, -left, -top); // the grid moves in its tile space, columns and rows are added on one side and cropped on the other
+							}
+							int cellCount = grid.getWidth() * grid.getHeight();
+							int start = random.nextInt(cellCount);
+							for (int j = 0; j < cellCount; j++) {
+								int cell = (start + j * 7919) % cellCount; // 7919 is a prime, so every cell is visited once
+								int x = cell % grid.getWidth();
+								int y = cell / grid.getWidth();
+								grid.setZ(x, y, level);
+								grid.setPointy(x, y, pointy);
+							}
+						});
+						latest.set(grid.snapshot());
+					}
+				} finally {
+					isEditing.set(false);
+				}
+			});
+
+			List<Future<?>> readers = new ArrayList<>();
+			for (int i = 0; i < READERS; i++) {
+				readers.add(threads.submit(() -> {
+					while (isEditing.get()) {
+						Grid version = latest.get();
+						if (version != null) { // null until the writer publishes its first version
+							assertConsistent(version);
+							readCount.incrementAndGet();
+						}
+					}
+				}));
+			}
+			writer.get(60, TimeUnit.SECONDS);
+			for (Future<?> reader : readers) {
+				reader.get(60, TimeUnit.SECONDS); // throws if a reader saw an inconsistent version
+			}
+		} finally {
+			threads.shutdownNow();
+		}
+		assertTrue(readCount.get() > 0);
+	}
+
+	/**
+	 * Checks that all the cells of a version are at the same level and have the same pointy status,
+	 * and that the number of cells at each level agrees with the cells
+	 */
+	private static void assertConsistent(Grid version) {
+		assertTrue(version.isFrozen());
+		int level = version.getZ(0, 0);
+		boolean pointy = version.isPointy(0, 0);
+		for (int x = 0; x < version.getWidth(); x++) {
+			for (int y = 0; y < version.getHeight(); y++) {
+				assertEquals(version.getZ(x, y), level);
+				assertEquals(version.isPointy(x, y), pointy);
+			}
+		}
+		assertEquals(version.getLevelCount(level), (long) version.getWidth() * version.getHeight());
+
+		Grid copy = version.clone(); // a reader can make its own writable grid from a version
+		copy.setZ(0, 0, (level == 1) ? 2 : 1);
+		assertEquals(version.getZ(0, 0), level);
+	}
+
+}
@@ -0,0 +1,133 @@
+package heron.gameboardeditor.datamodel;
+
+import static heron.gameboardeditor.datamodel.GridAssertions.assertSameCells;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class GridEditTest {
+
+	@Test
+	void testEditPublishesOneEvent() {
+		Grid grid = new Grid(100, 100);
+		List<GridChangeEvent> events = new ArrayList<>();
+		grid.addGridListener(events::add);
+
+		GridEdit edit = grid.edit(() -> {
+			for (int x = 10; x < 20; x++) {
+				grid.setZ(x, 5, 3);
+				grid.setPointy(x, 5, true);
+			}
+			grid.setZ(70, 80, 1);
+		});
+		assertEquals(events.size(), 1);
+		assertSame(events.get(0).getEdit(), edit);
+		assertEquals(events.get(0).getRegion().getCellCount(), 11);
+		assertEquals(edit.getCellCount(), 11);
+		assertFalse(edit.isResized());
+	}
+
+	@Test
+	void testCellIsRecordedOnce() {
+		Grid grid = new Grid(10, 10);
+		grid.setZ(1, 1, 2);
+		GridEdit edit = grid.edit(() -> {
+			for (int z = 0; z < 5; z++) {
+				grid.setZ(1, 1, z);
+			}
+		});
+		assertEquals(edit.getCellCount(), 1);
+
+		edit = grid.edit(() -> {
+			grid.setZ(1, 1, 1);
+			grid.setZ(1, 1, 4); // back to the level it had before the edit
+		});
+		assertTrue(edit.isEmpty());
+	}
+
+	@Test
+	void testNestedEdits() {
+		Grid grid = new Grid(10, 10);
+		List<GridChangeEvent> events = new ArrayList<>();
+		grid.addGridListener(events::add);
+
+		grid.beginEdit();
+		grid.setZ(0, 0, 1);
+		assertNull(grid.edit(() -> grid.setZ(1, 1, 1)));
+		grid.allBlocksSetZ(2);
+		assertTrue(events.isEmpty());
+		GridEdit edit = grid.commitEdit();
+		assertEquals(events.size(), 1);
+		assertEquals(edit.getCellCount(), 100);
+
+		assertThrows(IllegalStateException.class, () -> grid.commitEdit());
+	}
+
+	@Test
+	void testUndoAndRedo() {
+		Random random = new Random(6);
+		Grid grid = new Grid(70, 70);
+		for (int i = 0; i < 20; i++) {
+			Grid before = grid.clone();
+			GridEdit edit = grid.edit(() -> {
+				for (int j = 0; j < 200; j++) {
+					int operation = random.nextInt(12);
+					int x = random.nextInt(grid.getWidth());
+					int y = random.nextInt(grid.getHeight());
+					if (operation == 0 && random.nextBoolean()) {
+						grid.resize(1 + random.nextInt(140), 1 + random.nextInt(140));
+					} else if (operation == 0) {
+						int cropX = Math.min(50, (grid.getWidth() - 1) / 2); // the grid keeps at least one column and one row
+						int cropY = Math.min(50, (grid.getHeight() - 1) / 2);
+						grid.extend(random.nextInt(100) - cropX, random.nextInt(100) - cropY, random.nextInt(100) - cropX, random.nextInt(100) - cropY);
+					} else if (operation == 1) {
+						grid.lowerBlocksHigherThan(random.nextInt(4));
+					} else if (operation == 2) {
+						grid.setMaxZ(3 + random.nextInt(5));
+					} else if (operation < 7) {
+						grid.setZ(x, y, random.nextInt(6));
+					} else {
+						grid.setPointy(x, y, random.nextBoolean());
+					}
+				}
+			});
+			Grid after = grid.clone();
+
+			edit.undo(grid);
+			assertSameCells(grid, before);
+			edit.redo(grid);
+			assertSameCells(grid, after);
+		}
+	}
+
+	@Test
+	void testBoundsPutBackAreNotAResize() {
+		Grid grid = new Grid(10, 10);
+		List<GridChangeEvent> events = new ArrayList<>();
+		grid.addGridListener(events::add);
+		grid.edit(() -> {
+			grid.extend(5, 5, 0, 0);
+			grid.setZ(0, 0, 2);
+			grid.extend(-5, -5, 0, 0);
+			grid.setZ(1, 1, 3);
+		});
+		assertEquals(events.size(), 1);
+		assertFalse(events.get(0).isResized());
+		assertEquals(events.get(0).getShiftX(), 0);
+	}
+
+	@Test
+	void testRecordIsSmallerThanGrid() {
+		Grid grid = new Grid(500, 500);
+		GridEdit edit = grid.edit(() -> {
+			for (int x = 0; x < 10; x++) {
+				grid.setZ(x, 0, 1);
+			}
+		});
+		assertTrue(edit.getByteSize() < 500);
+	}
+}
@@ -0,0 +1,224 @@
+package heron.gameboardeditor.datamodel;
+
+import static heron.gameboardeditor.datamodel.GridAssertions.assertSameCells;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class GridHistoryTest {
+
+	@Test
+	void testUndoAndRedoEveryStep() {
+		Random random = new Random(10);
+		Grid grid = new Grid(80, 80);
+		GridHistory history = new GridHistory(grid);
+		List<Grid> versions = new ArrayList<>();
+		versions.add(grid.snapshot());
+		for (int step = 0; step < 30; step++) {
+			int edits = 1 + random.nextInt(20);
+			for (int i = 0; i < edits; i++) { // like a tool, each cell is changed by its own edit
+				int x = random.nextInt(grid.getWidth());
+				int y = random.nextInt(grid.getHeight());
+				if (random.nextInt(30) == 0) {
+					grid.extend(random.nextInt(20) - 5, random.nextInt(20) - 5, random.nextInt(20) - 5, random.nextInt(20) - 5);
+				} else if (random.nextBoolean()) {
+					grid.setZ(x, y, random.nextInt(6));
+				} else {
+					grid.setPointy(x, y, random.nextBoolean());
+				}
+			}
+			if (history.saveStep()) {
+				versions.add(grid.snapshot());
+			}
+		}
+
+		for (int i = versions.size() - 2; i >= 0; i--) {
+			assertTrue(history.undo());
+			assertSameCells(grid, versions.get(i));
+		}
+		assertFalse(history.undo());
+		for (int i = 1; i < versions.size(); i++) {
+			assertTrue(history.redo());
+			assertSameCells(grid, versions.get(i));
+		}
+		assertFalse(history.redo());
+	}
+
+	@Test
+	void testStepWithoutChangeIsNotSaved() {
+		Grid grid = new Grid(10, 10);
+		GridHistory history = new GridHistory(grid);
+		assertFalse(history.saveStep());
+		grid.setZ(1, 1, 2);
+		grid.setZ(1, 1, 2); // the cell is already at that level
+		assertTrue(history.saveStep());
+		assertFalse(history.saveStep());
+		assertEquals(history.getStepCount(), 1);
+	}
+
+	@Test
+	void testStrokeIsOneStep() {
+		Grid grid = new Grid(100, 100);
+		GridHistory history = new GridHistory(grid);
+		for (int x = 0; x < 100; x++) { // a drag across a row, and back over the same cells
+			int cellX = x;
+			grid.edit(() -> grid.setZ(cellX, 50, 2));
+		}
+		for (int x = 99; x >= 0; x--) {
+			int cellX = x;
+			grid.edit(() -> grid.setZ(cellX, 50, 3));
+		}
+		assertTrue(history.saveStep());
+		assertEquals(history.getStepCount(), 1);
+		assertTrue(history.getByteSize() < 100 * 10); // each cell is kept once
+
+		assertTrue(history.undo());
+		assertEquals(grid.getLevelCount(0), 100 * 100);
+		assertFalse(history.undo());
+	}
+
+	@Test
+	void testChangeAfterUndoDropsRedo() {
+		Grid grid = new Grid(10, 10);
+		GridHistory history = new GridHistory(grid);
+		grid.setZ(1, 1, 2);
+		history.saveStep();
+		grid.setZ(2, 2, 3);
+		assertTrue(history.undo()); // the pending change is saved as a step, then undone
+		assertEquals(grid.getZ(2, 2), 0);
+		assertTrue(history.canRedo());
+
+		grid.setZ(3, 3, 1);
+		assertFalse(history.canRedo());
+		assertFalse(history.redo());
+		assertEquals(history.getStepCount(), 1);
+		assertTrue(history.undo());
+		assertTrue(history.undo());
+		assertEquals(grid.getZ(1, 1), 0);
+		assertEquals(grid.getZ(3, 3), 0);
+	}
+
+	@Test
+	void testHistoryOverBudgetWalksBackToStart() {
+		Random random = new Random(12);
+		Grid grid = new Grid(300, 300);
+		long budget = 20_000;
+		GridHistory history = new GridHistory(grid, budget);
+		List<Grid> versions = new ArrayList<>();
+		versions.add(grid.snapshot());
+		for (int step = 0; step < 200; step++) {
+			int x = random.nextInt(250);
+			int y = random.nextInt(250);
+			int level = 1 + random.nextInt(5);
+			grid.edit(() -> {
+				for (int i = 0; i < 50; i++) {
+					grid.setZ(x + i, y + i % 7, level);
+				}
+			});
+			assertTrue(history.saveStep());
+			versions.add(grid.snapshot());
+			assertTrue(history.getByteSize() <= budget);
+		}
+		assertEquals(history.getStepCount(), 200);
+		assertTrue(history.getDiskByteSize() > 0);
+
+		for (int i = versions.size() - 2; i >= 0; i--) {
+			assertTrue(history.undo());
+			assertSameCells(grid, versions.get(i));
+			assertTrue(history.getByteSize() <= budget);
+		}
+		assertFalse(history.undo());
+		for (int i = 1; i < versions.size(); i += 2) { // redo half of the steps, then change the grid
+			assertTrue(history.redo());
+			assertTrue(history.redo());
+			assertSameCells(grid, versions.get(i + 1));
+		}
+		history.setMemoryBudget(1); // every step which is not in the file is moved to it
+		assertTrue(history.getByteSize() <= 32 * history.getStepCount());
+		assertTrue(history.undo());
+		assertSameCells(grid, versions.get(versions.size() - 2));
+		grid.setZ(0, 0, 1);
+		assertFalse(history.canRedo());
+		history.dispose();
+	}
+
+	/**
+	 * Undoing and redoing over the steps in the temporary file reads them back and moves others to it, again and again
+	 */
+	@Test
+	void testTemporaryFileStaysBounded() throws IOException {
+		Random random = new Random(13);
+		Grid grid = new Grid(300, 300);
+		GridHistory history = new GridHistory(grid, 20_000);
+		List<Grid> versions = new ArrayList<>();
+		versions.add(grid.snapshot());
+		for (int step = 0; step < 100; step++) {
+			int x = random.nextInt(250);
+			int y = random.nextInt(250);
+			grid.edit(() -> {
+				for (int i = 0; i < 50; i++) {
+					grid.setZ(x + i, y + i % 7, 1 + random.nextInt(5));
+				}
+			});
+			history.saveStep();
+			versions.add(grid.snapshot());
+		}
+		long longest = 0;
+		for (int cycle = 0; cycle < 20; cycle++) {
+			while (history.undo()) {
+				longest = Math.max(longest, history.getSpillFileLength());
+				assertTrue(history.getSpillFileLength() <= 2 * history.getDiskByteSize() + 20_000, "the dead bytes are dropped");
+			}
+			assertSameCells(grid, versions.get(0));
+			while (history.redo()) {
+				assertTrue(history.getSpillFileLength() <= 2 * history.getDiskByteSize() + 20_000);
+			}
+			assertSameCells(grid, versions.get(versions.size() - 1));
+		}
+		assertTrue(longest > 0);
+		history.dispose();
+	}
+
+	/**
+	 * A square filled and cleared over and over: the compressed steps share their changes, which are kept once
+	 */
+	@Test
+	void testRepeatedStepsAreKeptOnce() {
+		Grid grid = new Grid(100, 100);
+		GridHistory history = new GridHistory(grid);
+		assertEquals(history.getDedupeRatio(), 1.0);
+		int steps = 120;
+		for (int step = 0; step < steps; step++) {
+			int level = (step % 2 == 0) ? 2 : 0;
+			grid.edit(() -> {
+				for (int x = 10; x < 40; x++) {
+					for (int y = 10; y < 40; y++) {
+						grid.setZ(x, y, level);
+					}
+				}
+			});
+			assertTrue(history.saveStep());
+		}
+		assertEquals(history.getStepCount(), steps);
+		assertTrue(history.getDedupeRatio() > (steps - GridHistory.LIVE_STEPS) / 2 - 1); // two different steps, each kept once
+		grid.edit(() -> grid.setZ(70, 70, 4)); // a step which shares nothing
+		assertTrue(history.saveStep());
+
+		for (int step = steps; step >= 0; step--) {
+			assertTrue(history.undo());
+		}
+		assertFalse(history.undo());
+		assertEquals(grid.getLevelCount(0), 100 * 100);
+		for (int step = 0; step < steps; step++) {
+			assertTrue(history.redo());
+		}
+		assertEquals(grid.getLevelCount(0), 100 * 100);
+		assertTrue(history.redo());
+		assertEquals(grid.getZ(70, 70), 4);
+	}
+}
@@ -2,7 +2,10 @@ package heron.gameboardeditor.datamodel;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
 import java.util.Set;
 
 import org.junit.jupiter.api.Test;
@@ -55,5 +58,325 @@ class GridTest {
 		assertEquals(grid.isCoordinateInGrid(5, 5), false);
 		assertEquals(grid.isCoordinateInGrid(4, 4), true);
 	}
+	
+	@Test
+	void testBlockIsViewOfCell() {
+		Grid grid = new Grid(4, 3);
+		grid.getBlockAt(2, 1).setZ(3);
+		grid.getBlockAt(2, 1).setPointy(true);
+		assertEquals(grid.getZ(2, 1), 3);
+		assertEquals(grid.isPointy(2, 1), true);
+		assertEquals(grid.getBlockAt(2, 1), grid.getBlockAt(2, 1));
+		assertNotEquals(grid.getBlockAt(2, 1), grid.getBlockAt(1, 2));
+		assertNotEquals(grid.getBlockAt(0, 0), new Block(0, 0, 0));
+	}
+	
+	@Test
+	void testCloneIsIndependent() {
+		Grid grid = new Grid(3, 3);
+		grid.setZ(1, 1, 2);
+		grid.setPointy(1, 1, true);
+		Grid clone = grid.clone();
+		clone.setZ(1, 1, 4);
+		clone.setPointy(1, 1, false);
+		assertEquals(grid.getZ(1, 1), 2);
+		assertEquals(grid.isPointy(1, 1), true);
+		assertEquals(clone.getZ(1, 1), 4);
+		assertEquals(clone.isPointy(1, 1), false);
+	}
+	
+	@Test
+	void testResize() {
+		Grid grid = new Grid(3, 2);
+		grid.setZ(2, 1, 5);
+		grid.setPointy(2, 1, true);
+		grid.setZ(0, 1, 1);
+		grid.resize(4, 3);
+		assertEquals(grid.toString(), "Grid 4x3\n"
+				+ " 0 0 0 0\n"
+				+ " 1 0 5 0\n"
+				+ " 0 0 0 0\n");
+		assertEquals(grid.isPointy(2, 1), true);
+		grid.resize(2, 2);
+		assertEquals(grid.toString(), "Grid 2x2\n"
+				+ " 0 0\n"
+				+ " 1 0\n");
+		assertEquals(grid.getMaxLevel(), 1);
+	}
+	
+	@Test
+	void testEmptyTilesAreNotAllocated() {
+		Grid grid = new Grid(1000, 1000);
+		assertEquals(grid.getAllocatedTileCount(), 0);
+		grid.setZ(10, 10, 3);
+		grid.setZ(999, 999, 1);
+		assertEquals(grid.getAllocatedTileCount(), 2);
+		grid.setZ(10, 10, 0);
+		assertEquals(grid.getAllocatedTileCount(), 1);
+		grid.setPointy(999, 999, true);
+		assertEquals(grid.isPointy(999, 999), true);
+		grid.setZ(999, 999, 0); // a cell at level 0 is not pointy
+		assertEquals(grid.isPointy(999, 999), false);
+		assertEquals(grid.getAllocatedTileCount(), 0);
+		grid.setPointy(999, 999, true);
+		assertEquals(grid.isPointy(999, 999), false);
+		assertEquals(grid.getAllocatedTileCount(), 0);
+	}
+	
+	@Test
+	void testCloneSharesTilesUntilWritten() {
+		Grid grid = new Grid(200, 200);
+		grid.allBlocksSetZ(2);
+		Grid clone = grid.clone();
+		clone.setZ(150, 150, 4);
+		grid.setZ(0, 0, 1);
+		assertEquals(grid.getZ(150, 150), 2);
+		assertEquals(clone.getZ(150, 150), 4);
+		assertEquals(grid.getZ(0, 0), 1);
+		assertEquals(clone.getZ(0, 0), 2);
+		
+		Grid cloneOfClone = clone.clone();
+		clone.lowerBlocksHigherThan(1);
+		assertEquals(clone.getMaxLevel(), 1);
+		assertEquals(cloneOfClone.getMaxLevel(), 4);
+		assertEquals(grid.getMaxLevel(), 2);
+	}
+	
+	@Test
+	void testBulkChangesOnlyCopyChangedTiles() {
+		Grid grid = new Grid(200, 200);
+		grid.allBlocksSetZ(2);
+		grid.setPointy(130, 130, true);
+		Grid version = grid.snapshot();
+		grid.setPointy(false); // only the tile of (130, 130) has a pointy cell
+		assertSame(grid.getTile(0, 0), version.getTile(0, 0));
+		assertNotSame(grid.getTile(2, 2), version.getTile(2, 2));
+		assertEquals(grid.isPointy(130, 130), false);
+		assertEquals(version.isPointy(130, 130), true);
+
+		grid.allBlocksSetZ(2); // nothing changes
+		assertSame(grid.getTile(1, 1), version.getTile(1, 1));
+		grid.resize(192, 200); // drops the last column of tiles, the new last one has no cropped cell
+		assertSame(grid.getTile(2, 0), version.getTile(2, 0));
+		grid.resize(180, 200);
+		assertNotSame(grid.getTile(2, 0), version.getTile(2, 0));
+		assertEquals(version.getZ(185, 0), 2);
+	}
+	
+	@Test
+	void testCroppedCellsAreEmptyWhenGrowingAgain() {
+		Grid grid = new Grid(100, 100);
+		grid.allBlocksSetZ(3);
+		grid.setPointy(true);
+		Grid clone = grid.clone();
+		grid.resize(70, 70);
+		grid.resize(100, 100);
+		assertEquals(grid.getZ(69, 69), 3);
+		assertEquals(grid.isPointy(69, 69), true);
+		assertEquals(grid.getZ(70, 69), 0);
+		assertEquals(grid.getZ(69, 70), 0);
+		assertEquals(grid.isPointy(99, 99), false);
+		assertEquals(clone.getZ(99, 99), 3);
+		assertEquals(clone.isPointy(99, 99), true);
+	}
+	
+	@Test
+	void testSnapshotIsReadOnlyVersion() {
+		Grid grid = new Grid(300, 300);
+		grid.setZ(10, 10, 2);
+		Grid version = grid.snapshot();
+		assertEquals(version.isFrozen(), true);
+		assertSame(version.snapshot(), version);
+		assertThrows(UnsupportedOperationException.class, () -> version.setZ(0, 0, 1));
+		assertThrows(UnsupportedOperationException.class, () -> version.allBlocksSetZ(1));
+		assertThrows(UnsupportedOperationException.class, () -> version.getBlockAt(10, 10).setZ(0));
+		
+		grid.setZ(10, 10, 3);
+		grid.extend(5, 5, 0, 0);
+		assertEquals(version.getZ(10, 10), 2);
+		assertEquals(version.getWidth(), 300);
+		
+		Grid restored = version.clone(); // a writable grid made from the version
+		assertEquals(restored.isFrozen(), false);
+		restored.setZ(10, 10, 4);
+		assertEquals(version.getZ(10, 10), 2);
+		assertEquals(grid.getZ(15, 15), 3);
+	}
+	
+	@Test
+	void testExtendOnEverySide() {
+		Grid grid = new Grid(100, 80);
+		grid.setZ(0, 0, 1);
+		grid.setZ(99, 79, 2);
+		grid.setPointy(99, 79, true);
+		List<GridChangeEvent> events = new ArrayList<>();
+		grid.addGridListener(events::add);
+		
+		grid.extend(30, 200, 5, 0);
+		assertEquals(grid.getWidth(), 135);
+		assertEquals(grid.getHeight(), 280);
+		assertEquals(grid.getOriginX(), -30);
+		assertEquals(grid.getOriginY(), -200);
+		assertEquals(grid.getZ(30, 200), 1);
+		assertEquals(grid.getZ(129, 279), 2);
+		assertEquals(grid.isPointy(129, 279), true);
+		assertEquals(grid.getLevelCount(0), 135 * 280 - 2);
+		assertEquals(events.size(), 1);
+		assertEquals(events.get(0).isResized(), true);
+		assertEquals(events.get(0).getShiftX(), 30);
+		assertEquals(events.get(0).getShiftY(), 200);
+		
+		grid.setZ(0, 0, 3);
+		grid.extend(-31, -200, 0, 0); // crops the cells at (30, 200) and (0, 0)
+		assertEquals(grid.getWidth(), 104);
+		assertEquals(grid.getHeight(), 80);
+		assertEquals(grid.getZ(98, 79), 2);
+		assertEquals(grid.getLevelCount(1), 0);
+		assertEquals(grid.getLevelCount(3), 0);
+		assertEquals(events.get(2).getShiftX(), -31);
+		
+		grid.extend(31, 200, 0, 0); // the cropped cells are empty when the grid grows again
+		assertEquals(grid.getZ(30, 200), 0);
+		assertEquals(grid.getZ(0, 0), 0);
+		assertEquals(grid.getZ(129, 279), 2);
+	}
+	
+	@Test
+	void testRepaintedCellsPerOperation() {
+		Grid grid = new Grid(300, 200);
+		List<GridChangeEvent> events = new ArrayList<>();
+		grid.addGridListener(events::add);
+		
+		grid.setZ(5, 5, 2);
+		assertEquals(events.size(), 1);
+		assertEquals(events.get(0).getRegion().getCellCount(), 1);
+		
+		events.clear();
+		grid.setZ(5, 5, 2); // nothing changes
+		grid.setPointy(6, 6, true); // a cell at level 0 cannot be pointy
+		assertEquals(events.size(), 0);
+		
+		Set<Block> selectedBlocks = new HashSet<>();
+		selectedBlocks.add(grid.getBlockAt(5, 5));
+		grid.cutAndPaste(selectedBlocks, 1, 0);
+		assertEquals(events.size(), 1);
+		assertEquals(events.get(0).getRegion().getCellCount(), 2);
+		
+		events.clear();
+		grid.lowerBlocksHigherThan(1);
+		assertEquals(events.size(), 1);
+		assertEquals(events.get(0).getRegion().getCellCount(), 64 * 64); // only the tile of the lowered cell
+		
+		events.clear();
+		grid.lowerBlocksHigherThan(1);
+		assertEquals(events.size(), 0);
+		
+		grid.allBlocksSetZ(3);
+		assertEquals(events.size(), 1);
+		assertEquals(events.get(0).getRegion().getCellCount(), 300 * 200);
+		
+		events.clear();
+		grid.resize(310, 200);
+		assertEquals(events.size(), 1);
+		assertEquals(events.get(0).isResized(), true);
+		
+		events.clear();
+		Grid clone = grid.clone();
+		clone.setZ(0, 0, 1);
+		assertEquals(events.size(), 0);
+	}
+	
+	@Test
+	void testLevelCounts() {
+		Grid grid = new Grid(150, 100);
+		assertEquals(grid.isEmpty(), true);
+		assertEquals(grid.getMaxLevel(), 0);
+		assertEquals(grid.getMinLevel(), 0);
+		assertEquals(grid.getLevelCount(0), 150 * 100);
+		
+		Random random = new Random(42);
+		for (int step = 0; step < 2000; step++) {
+			int operation = random.nextInt(100);
+			if (operation < 90) {
+				grid.setZ(random.nextInt(grid.getWidth()), random.nextInt(grid.getHeight()), random.nextInt(12));
+			} else if (operation < 93) {
+				grid.lowerBlocksHigherThan(random.nextInt(12));
+			} else if (operation < 95) {
+				grid.resize(20 + random.nextInt(200), 20 + random.nextInt(200));
+			} else if (operation < 96) {
+				int cropX = Math.min(50, (grid.getWidth() - 1) / 2); // the grid keeps at least one column and one row
+				int cropY = Math.min(50, (grid.getHeight() - 1) / 2);
+				grid.extend(random.nextInt(100) - cropX, random.nextInt(100) - cropY, random.nextInt(100) - cropX, random.nextInt(100) - cropY);
+			} else if (operation < 98) {
+				grid = grid.clone();
+			} else {
+				grid.allBlocksSetZ(random.nextInt(3));
+			}
+			assertLevelCountsMatchCells(grid);
+		}
+		
+		grid.allBlocksSetZ(4);
+		assertEquals(grid.getMinLevel(), 4);
+		assertEquals(grid.getMaxLevel(), 4);
+		grid.allBlocksSetZ(0);
+		assertEquals(grid.isEmpty(), true);
+	}
+	
+	@Test
+	void testRowsMatchCells() {
+		Random random = new Random(16);
+		Grid grid = new Grid(150, 20);
+		grid.extend(-37, 0, 0, 0); // rows which do not start at the start of a tile
+		short[] row = new short[grid.getWidth()];
+		for (int y = 0; y < grid.getHeight(); y++) {
+			for (int x = 0; x < row.length; x++) {
+				row[x] = (short) ((random.nextInt(3) == 0) ? random.nextInt(9) : 0);
+			}
+			grid.setRow(y, row);
+		}
+		grid.setZ(5, 5, 4);
+		grid.setPointy(5, 5, true);
+		GridEdit edit = grid.edit(() -> grid.setRow(5, new short[grid.getWidth()])); // a row back to level 0 is not pointy anymore
+		assertFalse(grid.isPointy(5, 5));
+		assertLevelCountsMatchCells(grid);
+		short[] read = new short[grid.getWidth()];
+		for (int y = 0; y < grid.getHeight(); y++) {
+			grid.getRow(y, read);
+			for (int x = 0; x < read.length; x++) {
+				assertEquals(read[x], grid.getZ(x, y));
+			}
+		}
+		edit.undo(grid);
+		assertTrue(grid.isPointy(5, 5));
+		assertLevelCountsMatchCells(grid);
+	}
+
+	private static void assertLevelCountsMatchCells(Grid grid) {
+		long[] counts = new long[12];
+		int max = 0;
+		int min = Integer.MAX_VALUE;
+		for (int x = 0; x < grid.getWidth(); x++) {
+			for (int y = 0; y < grid.getHeight(); y++) {
+				int level = grid.getZ(x, y);
+				counts[level]++;
+				max = Math.max(max, level);
+				min = Math.min(min, level);
+			}
+		}
+		for (int level = 0; level < counts.length; level++) {
+			assertEquals(grid.getLevelCount(level), counts[level]);
+			int expectedLevel = level;
+			long[] visited = new long[1];
+			Grid visitedGrid = grid;
+			grid.forEachCellAtLevel(level, (x, y) -> {
+				assertEquals(visitedGrid.getZ(x, y), expectedLevel);
+				visited[0]++;
+			});
+			assertEquals(visited[0], counts[level]);
+		}
+		assertEquals(grid.getMaxLevel(), max);
+		assertEquals(grid.getMinLevel(), min);
+		assertEquals(grid.isEmpty(), max == 0);
+	}
 
 }
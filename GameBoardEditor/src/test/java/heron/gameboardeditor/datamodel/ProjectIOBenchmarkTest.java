@@ -0,0 +1,433 @@
+package heron.gameboardeditor.datamodel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import heron.gameboardeditor.CellUI;
+import heron.gameboardeditor.GridBoardUI;
+import javafx.geometry.BoundingBox;
+
+/**
+ * Benchmarks for the .heron files. They write large files, so they only run with
+ * mvn test -Dheron.benchmark=true -Dtest=ProjectIOBenchmarkTest
+ */
+@EnabledIfSystemProperty(named = "heron.benchmark", matches = "true")
+class ProjectIOBenchmarkTest {
+
+	private static final String TEMPLATES = "src/main/resources/heron/gameboardeditor/Templates/";
+	private static final int RUNS = 5;
+
+	@TempDir
+	Path folder;
+
+	@Test
+	void benchmarkTemplates() throws IOException {
+		long jsonBytes = 0;
+		long binaryBytes = 0;
+		double jsonLoadMillis = 0;
+		double binaryLoadMillis = 0;
+		File[] templates = new File(TEMPLATES).listFiles();
+		for (File template : templates) {
+			Grid grid = ProjectIO.load(template);
+			File file = folder.resolve(template.getName()).toFile();
+			ProjectIO.save(grid, file);
+			jsonBytes += template.length();
+			binaryBytes += file.length();
+			jsonLoadMillis += loadMillis(template);
+			binaryLoadMillis += loadMillis(file);
+		}
+		System.out.printf("%d templates: JSON %d KB, loaded in %.2f ms; binary %.1f KB, loaded in %.2f ms%n", templates.length,
+				jsonBytes / 1024, jsonLoadMillis, binaryBytes / 1024.0, binaryLoadMillis);
+	}
+
+	@Test
+	void benchmarkLargeBoards() throws IOException {
+		benchmark("terrain", terrain(4096), false);
+		benchmark("noise", noise(4096), false);
+		benchmark("terrain", terrain(1024), true); // the JSON of a 4096x4096 board is about 1 GB
+	}
+
+	/**
+	 * The throughput of the chunks of the binary files on 1 to 8 threads, in MB of cells (2 bytes a cell) per second
+	 */
+	@Test
+	void benchmarkParallelChunks() throws IOException {
+		System.out.printf("%d processors%n", Runtime.getRuntime().availableProcessors());
+		benchmarkThreads("terrain", terrain(4096));
+		benchmarkThreads("noise", noise(4096));
+	}
+
+	private static void benchmarkThreads(String name, Grid grid) throws IOException {
+		double cellMegabytes = 2.0 * grid.getWidth() * grid.getHeight() / 1e6;
+		for (int threads : new int[] { 1, 2, 4, 8 }) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				BinaryFormat.write(grid, bytes, pool, null); // warm up
+				BinaryFormat.read(new ByteArrayInputStream(bytes.toByteArray()), pool);
+				long start = System.nanoTime();
+				for (int i = 0; i < RUNS; i++) {
+					bytes.reset();
+					BinaryFormat.write(grid, bytes, pool, null);
+				}
+				double writeSeconds = (System.nanoTime() - start) / 1e9 / RUNS;
+				byte[] file = bytes.toByteArray();
+				start = System.nanoTime();
+				for (int i = 0; i < RUNS; i++) {
+					BinaryFormat.read(new ByteArrayInputStream(file), pool);
+				}
+				double readSeconds = (System.nanoTime() - start) / 1e9 / RUNS;
+				System.out.printf("%dx%d %s board, %d threads: written at %.0f MB/s, read at %.0f MB/s%n", grid.getWidth(), grid.getHeight(),
+						name, threads, cellMegabytes / writeSeconds, cellMegabytes / readSeconds);
+			} finally {
+				pool.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * The mapped files against the binary ones: saving and loading a whole board, and opening a board to show a
+	 * viewport of it, which only reads the tiles of the viewport from a mapped file
+	 */
+	@Test
+	void benchmarkMappedBoards() throws IOException {
+		benchmarkMapped("terrain", terrain(4096));
+		benchmarkMapped("noise", noise(4096));
+	}
+
+	private void benchmarkMapped(String name, Grid grid) throws IOException {
+		File binaryFile = folder.resolve(name + ".heron").toFile();
+		File mappedFile = folder.resolve(name + "-mapped.heron").toFile();
+		long start = System.nanoTime();
+		for (int i = 0; i < RUNS; i++) {
+			ProjectIO.save(grid, binaryFile);
+		}
+		double binarySaveMillis = (System.nanoTime() - start) / 1e6 / RUNS;
+		start = System.nanoTime();
+		for (int i = 0; i < RUNS; i++) {
+			ProjectIO.saveMapped(grid, mappedFile);
+		}
+		double mappedSaveMillis = (System.nanoTime() - start) / 1e6 / RUNS;
+		double binaryLoadMillis = loadMillis(binaryFile);
+		double mappedLoadMillis = loadMillis(mappedFile);
+		double binaryViewportMillis = viewportMillis(binaryFile);
+		double mappedViewportMillis = viewportMillis(mappedFile);
+		assertEquals(ProjectIO.loadMapped(mappedFile).getLevelCount(1), grid.getLevelCount(1));
+		System.out.printf("%dx%d %s board: binary %.1f MB, saved in %.0f ms, loaded in %.0f ms, viewport in %.1f ms; "
+				+ "mapped %.1f MB, saved in %.0f ms, loaded in %.0f ms, viewport in %.1f ms%n", grid.getWidth(), grid.getHeight(), name,
+				binaryFile.length() / 1e6, binarySaveMillis, binaryLoadMillis, binaryViewportMillis,
+				mappedFile.length() / 1e6, mappedSaveMillis, mappedLoadMillis, mappedViewportMillis);
+		binaryFile.delete();
+		mappedFile.delete();
+	}
+
+	/**
+	 * The time to open a board and read a viewport of 256x256 cells in its middle
+	 */
+	private static double viewportMillis(File file) throws IOException {
+		long sum = 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < RUNS; i++) {
+			Grid grid = ProjectIO.loadMapped(file);
+			int left = grid.getWidth() / 2 - 128;
+			int top = grid.getHeight() / 2 - 128;
+			for (int y = top; y < top + 256; y++) {
+				for (int x = left; x < left + 256; x++) {
+					sum += grid.getZ(x, y);
+				}
+			}
+		}
+		assertTrue(sum >= 0);
+		return (System.nanoTime() - start) / 1e6 / RUNS;
+	}
+
+	/**
+	 * Exporting and importing the heightmap of a 8192x8192 board, with the PNG encoding apart, on the threads of the
+	 * common pool and on one thread
+	 */
+	@Test
+	void benchmarkHeightmap() throws IOException {
+		Grid grid = blocks(8192);
+		ForkJoinPool oneThread = new ForkJoinPool(1);
+		BufferedImage image = HeightmapFormat.write(grid, ForkJoinPool.commonPool());
+		double[] writeMillis = { Double.MAX_VALUE, Double.MAX_VALUE };
+		double[] readMillis = { Double.MAX_VALUE, Double.MAX_VALUE };
+		for (int i = 0; i < RUNS; i++) {
+			ForkJoinPool[] pools = { ForkJoinPool.commonPool(), oneThread };
+			for (int p = 0; p < pools.length; p++) {
+				long start = System.nanoTime();
+				HeightmapFormat.write(grid, pools[p]);
+				writeMillis[p] = Math.min(writeMillis[p], (System.nanoTime() - start) / 1e6);
+				start = System.nanoTime();
+				HeightmapFormat.read(image, grid.getMaxZ(), pools[p]);
+				readMillis[p] = Math.min(readMillis[p], (System.nanoTime() - start) / 1e6);
+			}
+		}
+		oneThread.shutdown();
+		File file = folder.resolve("heightmap.png").toFile();
+		long start = System.nanoTime();
+		ProjectIO.exportHeightmap(grid, file);
+		double exportMillis = (System.nanoTime() - start) / 1e6;
+		start = System.nanoTime();
+		assertEquals(ProjectIO.importHeightmap(file, grid.getMaxZ()).getLevelCount(3), grid.getLevelCount(3));
+		double importMillis = (System.nanoTime() - start) / 1e6;
+		System.out.printf("8192x8192 heightmap on %d threads: pixels written in %.0f ms (%.0f ms on one thread), read in %.0f ms (%.0f ms on one thread); "
+				+ "PNG of %.1f MB exported in %.0f ms, imported in %.0f ms%n", ForkJoinPool.getCommonPoolParallelism(), writeMillis[0], writeMillis[1],
+				readMillis[0], readMillis[1], file.length() / 1e6, exportMillis, importMillis);
+	}
+
+	/**
+	 * Opening a template by parsing its JSON file against taking a copy of it from the catalog, once it was read
+	 */
+	@Test
+	void benchmarkTemplateCatalog() throws IOException {
+		TemplateCatalog catalog = new TemplateCatalog("AugieLetter.json");
+		catalog.get("AugieLetter.json");
+		double parseMillis = Double.MAX_VALUE;
+		double copyMillis = Double.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			try (InputStream in = TemplateCatalog.class.getResourceAsStream(TemplateCatalog.FOLDER + "AugieLetter.json")) {
+				ProjectIO.load(in);
+			}
+			parseMillis = Math.min(parseMillis, (System.nanoTime() - start) / 1e6);
+			start = System.nanoTime();
+			catalog.get("AugieLetter.json");
+			copyMillis = Math.min(copyMillis, (System.nanoTime() - start) / 1e6);
+		}
+		System.out.printf("template: %.2f ms parsed, %.3f ms copied from the catalog%n", parseMillis, copyMillis);
+	}
+
+	/**
+	 * The time to show the first viewport of a 10000x10000 board, 43x24 cells in its middle like the editor shows in a
+	 * window of 1280x720, once the board is loaded whole and once it is opened from the index of its file, then the
+	 * time for the GridBoardUI of the opened board to paint it, with the nodes it puts on the board
+	 */
+	@Test
+	void benchmarkOpenViewport() throws IOException {
+		Grid grid = blocks(10000);
+		File file = folder.resolve("board.heron").toFile();
+		ProjectIO.save(grid, file);
+		grid = null;
+		long start = System.nanoTime();
+		long sum = sumOfViewport(ProjectIO.load(file));
+		double loadMillis = (System.nanoTime() - start) / 1e6;
+		double openMillis = Double.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++) {
+			start = System.nanoTime();
+			assertEquals(sumOfViewport(ProjectIO.open(file)), sum);
+			openMillis = Math.min(openMillis, (System.nanoTime() - start) / 1e6);
+		}
+		System.out.printf("10000x10000 board, %.1f MB: first viewport in %.0f ms loaded whole, in %.1f ms opened%n", file.length() / 1e6, loadMillis, openMillis);
+
+		new GridBoardUI(new Grid(100, 100), null, CellUI.DEFAULT_TILE_SIZE).viewportChanged(new BoundingBox(0, 0, 1280, 720)); // loads the classes of JavaFX
+		double paintMillis = Double.MAX_VALUE;
+		int nodes = 0;
+		for (int i = 0; i < RUNS; i++) {
+			start = System.nanoTime();
+			GridBoardUI board = new GridBoardUI(ProjectIO.open(file), null, CellUI.DEFAULT_TILE_SIZE);
+			board.viewportChanged(new BoundingBox(5000 * CellUI.DEFAULT_TILE_SIZE, 5000 * CellUI.DEFAULT_TILE_SIZE, 1280, 720));
+			paintMillis = Math.min(paintMillis, (System.nanoTime() - start) / 1e6);
+			nodes = board.getChildren().size();
+			board.dispose();
+		}
+		System.out.printf("10000x10000 board opened and painted by GridBoardUI in %.1f ms, %d nodes on the board%n", paintMillis, nodes);
+	}
+
+	private static long sumOfViewport(Grid grid) {
+		long sum = 0;
+		for (int y = grid.getHeight() / 2; y < grid.getHeight() / 2 + 24; y++) {
+			for (int x = grid.getWidth() / 2; x < grid.getWidth() / 2 + 43; x++) {
+				sum += grid.getZ(x, y);
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * A board of random blocks of levels, made row by row, so a board of 10000x10000 is made quickly
+	 */
+	static Grid blocks(int size) {
+		Random random = new Random(16);
+		int[][] levels = new int[size / 97 + 1][size / 131 + 1];
+		for (int[] row : levels) {
+			for (int i = 0; i < row.length; i++) {
+				row[i] = random.nextInt(Grid.DEFAULT_MAX_Z + 1);
+			}
+		}
+		Grid grid = new Grid(size, size);
+		short[] row = new short[size];
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				row[x] = (short) levels[y / 97][x / 131];
+			}
+			grid.setRow(y, row);
+		}
+		return grid;
+	}
+
+	/**
+	 * An autosave of a stroke of a few cells against a whole save, on boards of growing size: the autosave only
+	 * appends the tiles of the stroke, so its time stays the same while the time of a whole save grows with the board
+	 */
+	@Test
+	void benchmarkAutosave() throws IOException {
+		for (int size : new int[] { 1024, 2048, 4096 }) {
+			Grid grid = terrain(size);
+			File file = folder.resolve("board.heron").toFile();
+			long start = System.nanoTime();
+			for (int i = 0; i < RUNS; i++) {
+				ProjectIO.save(grid, file);
+			}
+			double saveMillis = (System.nanoTime() - start) / 1e6 / RUNS;
+
+			Autosave autosave = Autosave.start(grid, Autosave.fileFor(file));
+			autosave.sync();
+			long baseLength = autosave.getFile().length();
+			start = System.nanoTime();
+			for (int i = 0; i < RUNS; i++) {
+				for (int x = 0; x < 100; x++) { // a stroke across two tiles
+					grid.setZ(size / 2 - 50 + x, size / 2, 1 + i);
+				}
+				autosave.save();
+				autosave.sync();
+			}
+			double autosaveMillis = (System.nanoTime() - start) / 1e6 / RUNS;
+			long appendedBytes = (autosave.getFile().length() - baseLength) / RUNS;
+			autosave.stop();
+			assertEquals(ProjectIO.load(autosave.getFile()).getZ(size / 2, size / 2), RUNS);
+			System.out.printf("%dx%d board: saved in %.0f ms, autosaved in %.1f ms, %d bytes appended%n", size, size,
+					saveMillis, autosaveMillis, appendedBytes);
+			file.delete();
+			autosave.getFile().delete();
+		}
+	}
+
+	/**
+	 * The heap held by a JSON file once it is loaded, against the heap held by its tree of objects, which is what
+	 * reflecting it into objects costs at least. The streaming reader only holds a line of levels besides the grid
+	 */
+	@Test
+	void benchmarkJsonLoadMemory() throws IOException {
+		Grid grid = terrain(1024);
+		File file = folder.resolve("terrain.json").toFile();
+		ProjectIO.saveJson(grid, file);
+		grid = null;
+
+		long before = usedMemory();
+		long start = System.nanoTime();
+		Grid loaded = ProjectIO.load(file);
+		double streamMillis = (System.nanoTime() - start) / 1e6;
+		long gridBytes = usedMemory() - before;
+
+		before = usedMemory();
+		start = System.nanoTime();
+		JsonElement tree;
+		try (Reader reader = new FileReader(file)) {
+			tree = JsonParser.parseReader(reader);
+		}
+		double treeMillis = (System.nanoTime() - start) / 1e6;
+		long treeBytes = usedMemory() - before;
+		System.out.printf("%dx%d terrain board, %.0f MB of JSON: streamed into a grid of %.1f MB in %.0f ms, tree of %.0f MB in %.0f ms%n",
+				loaded.getWidth(), loaded.getHeight(), file.length() / 1e6, gridBytes / 1e6, streamMillis, treeBytes / 1e6, treeMillis);
+		assertTrue(tree.isJsonObject());
+	}
+
+	private void benchmark(String name, Grid grid, boolean withJson) throws IOException {
+		File file = folder.resolve(name + ".heron").toFile();
+		long start = System.nanoTime();
+		for (int i = 0; i < RUNS; i++) {
+			ProjectIO.save(grid, file);
+		}
+		double saveMillis = (System.nanoTime() - start) / 1e6 / RUNS;
+		double loadMillis = loadMillis(file);
+		assertEquals(ProjectIO.load(file).getLevelCount(0), grid.getLevelCount(0));
+		System.out.printf("%dx%d %s board: binary %.1f MB, saved in %.0f ms, loaded in %.0f ms%n", grid.getWidth(), grid.getHeight(),
+				name, file.length() / 1e6, saveMillis, loadMillis);
+
+		if (withJson) {
+			File jsonFile = folder.resolve(name + ".json").toFile();
+			start = System.nanoTime();
+			ProjectIO.saveJson(grid, jsonFile);
+			saveMillis = (System.nanoTime() - start) / 1e6;
+			start = System.nanoTime();
+			ProjectIO.load(jsonFile);
+			loadMillis = (System.nanoTime() - start) / 1e6;
+			System.out.printf("%dx%d %s board: JSON %.1f MB, saved in %.0f ms, loaded in %.0f ms%n", grid.getWidth(), grid.getHeight(),
+					name, jsonFile.length() / 1e6, saveMillis, loadMillis);
+			jsonFile.delete();
+		}
+		file.delete();
+	}
+
+	private static double loadMillis(File file) throws IOException {
+		ProjectIO.load(file); // warm up
+		long start = System.nanoTime();
+		for (int i = 0; i < RUNS; i++) {
+			ProjectIO.load(file);
+		}
+		return (System.nanoTime() - start) / 1e6 / RUNS;
+	}
+
+	/**
+	 * A board like the ones drawn with the editor: plateaus at a few levels, some of their cells pointy
+	 */
+	static Grid terrain(int size) {
+		Random random = new Random(16);
+		Grid grid = new Grid(size, size);
+		for (int i = 0; i < size / 4; i++) {
+			int x = random.nextInt(size);
+			int y = random.nextInt(size);
+			int width = 1 + random.nextInt(size / 8);
+			int height = 1 + random.nextInt(size / 8);
+			int level = 1 + random.nextInt(Grid.DEFAULT_MAX_Z);
+			for (int cellY = y; cellY < Math.min(y + height, size); cellY++) {
+				for (int cellX = x; cellX < Math.min(x + width, size); cellX++) {
+					grid.setZ(cellX, cellY, level);
+				}
+			}
+			grid.setPointy(x, y, true);
+		}
+		return grid;
+	}
+
+	/**
+	 * The worst board for the runs of levels: a random level for each cell
+	 */
+	static Grid noise(int size) {
+		Random random = new Random(16);
+		Grid grid = new Grid(size, size);
+		for (int y = 0; y < size; y++) {
+			for (int x = 0; x < size; x++) {
+				grid.setZ(x, y, random.nextInt(Grid.DEFAULT_MAX_Z + 1));
+			}
+		}
+		return grid;
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,336 @@
+package heron.gameboardeditor.datamodel;
+
+import static heron.gameboardeditor.datamodel.GridAssertions.assertSameCells;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ProjectIOTest {
+	
+	private static final String TEMPLATES = "src/main/resources/heron/gameboardeditor/Templates/";
+
+	@Test
+	void testLoadTemplate() throws IOException {
+		Grid grid = ProjectIO.load(new File(TEMPLATES + "AugieLetter.json"));
+		assertEquals(grid.getWidth(), 25);
+		assertEquals(grid.getHeight(), 25);
+		assertEquals(grid.getMaxZ(), 5);
+		assertEquals(grid.getZ(0, 0), 5);
+		assertEquals(grid.getZ(0, 1), 4);
+		assertEquals(grid.getZ(0, 2), 3);
+	}
+	
+	@Test
+	void testLoadTemplateWithoutMaxLevel() throws IOException {
+		Grid grid = ProjectIO.load(new File(TEMPLATES + "Maze.heron"));
+		assertEquals(grid.getWidth(), 15);
+		assertEquals(grid.getMaxZ(), Grid.DEFAULT_MAX_Z);
+	}
+	
+	@Test
+	void testSaveAndLoad(@TempDir Path folder) throws IOException {
+		Grid grid = new Grid(6, 4);
+		grid.setMaxZ(8);
+		grid.setZ(5, 3, 8);
+		grid.setZ(1, 2, 3);
+		grid.setPointy(1, 2, true);
+		File file = folder.resolve("board.heron").toFile();
+		ProjectIO.save(grid, file);
+		
+		Grid loaded = ProjectIO.load(file);
+		assertEquals(loaded.toString(), grid.toString());
+		assertEquals(loaded.getMaxZ(), 8);
+		assertEquals(loaded.isPointy(1, 2), true);
+		assertEquals(loaded.isPointy(5, 3), false);
+	}
+	
+	@Test
+	void testSaveAndLoadEveryCell(@TempDir Path folder) throws IOException {
+		Random random = new Random(16);
+		Grid grid = new Grid(37, 13); // rows which do not end on a whole byte of the pointy bitset
+		grid.setMaxZ(300);
+		for (int x = 0; x < grid.getWidth(); x++) {
+			for (int y = 0; y < grid.getHeight(); y++) {
+				if (random.nextInt(3) != 0) {
+					grid.setZ(x, y, (random.nextInt(4) == 0) ? random.nextInt(301) : 2); // runs and levels of more than one byte
+					grid.setPointy(x, y, random.nextInt(5) == 0);
+				}
+			}
+		}
+		File file = folder.resolve("board.heron").toFile();
+		ProjectIO.save(grid, file);
+		assertSameCells(ProjectIO.load(file), grid);
+
+		File jsonFile = folder.resolve("old.heron").toFile();
+		ProjectIO.saveJson(grid, jsonFile);
+		assertSameCells(ProjectIO.load(jsonFile), grid);
+		assertTrue(file.length() * 20 < jsonFile.length());
+	}
+	
+	@Test
+	void testTemplateIsSmallerInBinary(@TempDir Path folder) throws IOException {
+		File template = new File(TEMPLATES + "Duck.heron");
+		Grid grid = ProjectIO.load(template);
+		File file = folder.resolve("Duck.heron").toFile();
+		ProjectIO.save(grid, file);
+		assertTrue(file.length() * 50 < template.length());
+		assertSameCells(ProjectIO.load(file), grid);
+	}
+	
+	@Test
+	void testDamagedFileIsNotLoaded(@TempDir Path folder) throws IOException {
+		Grid grid = new Grid(20, 20);
+		grid.setZ(3, 4, 5);
+		File file = folder.resolve("board.heron").toFile();
+		ProjectIO.save(grid, file);
+		byte[] bytes = Files.readAllBytes(file.toPath());
+		bytes[bytes.length - 6] ^= 0x01;
+		Files.write(file.toPath(), bytes);
+		assertThrows(IOException.class, () -> ProjectIO.load(file));
+	}
+
+	@Test
+	void testChunksOnSeveralThreads() throws IOException {
+		Random random = new Random(16);
+		Grid grid = new Grid(200, 300); // 5 chunks, the last one of 44 rows
+		for (int i = 0; i < 5000; i++) {
+			int x = random.nextInt(200);
+			int y = random.nextInt(300);
+			grid.setZ(x, y, 1 + random.nextInt(20));
+			grid.setPointy(x, y, random.nextBoolean());
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ForkJoinPool threads = new ForkJoinPool(3);
+		try {
+			BinaryFormat.write(grid, bytes, threads, null);
+			assertSameCells(BinaryFormat.read(new ByteArrayInputStream(bytes.toByteArray()), ForkJoinPool.commonPool()), grid);
+			Grid loaded = BinaryFormat.read(new ByteArrayInputStream(bytes.toByteArray()), threads);
+			assertSameCells(loaded, grid);
+			assertEquals(loaded.getLevelCount(7), grid.getLevelCount(7));
+		} finally {
+			threads.shutdown();
+		}
+
+		byte[] damaged = bytes.toByteArray();
+		damaged[damaged.length / 2] ^= 0x01; // inside of a chunk
+		assertThrows(IOException.class, () -> BinaryFormat.read(new ByteArrayInputStream(damaged)));
+	}
+
+	@Test
+	void testOpenReadsChunksWhenUsed(@TempDir Path folder) throws Exception {
+		Random random = new Random(22);
+		Grid grid = new Grid(1100, 200); // 3 chunks across, the last one 76 columns wide, and 4 rows of chunks
+		for (int i = 0; i < 20000; i++) {
+			int x = random.nextInt(1100);
+			int y = random.nextInt(200);
+			grid.setZ(x, y, 1 + random.nextInt(5));
+			grid.setPointy(x, y, random.nextBoolean());
+		}
+		File file = folder.resolve("board.heron").toFile();
+		ProjectIO.save(grid, file);
+		assertSameCells(ProjectIO.load(file), grid);
+
+		Grid opened = ProjectIO.open(file);
+		BinaryFormat.ChunkedSource source = (BinaryFormat.ChunkedSource) opened.getSource();
+		assertEquals(source.getDecodedChunkCount(), 0);
+		for (int level = 0; level <= 5; level++) {
+			assertEquals(opened.getLevelCount(level), grid.getLevelCount(level));
+		}
+		assertEquals(opened.getZ(600, 70), grid.getZ(600, 70));
+		assertEquals(source.getDecodedChunkCount(), 1);
+
+		opened.prefetch(new CellRectangle(-100, 150, 700, 500)); // the two first chunks of the two last rows
+		source.awaitPrefetch();
+		assertEquals(source.getDecodedChunkCount(), 5);
+		assertSameCells(opened, grid);
+
+		Grid openedBefore = ProjectIO.open(file);
+		Grid cleared = new Grid(1100, 200);
+		ProjectIO.save(cleared, file); // a new file moved in place of the open one
+		assertSameCells(openedBefore, grid);
+		assertSameCells(ProjectIO.open(file), cleared);
+
+		Grid closed = ProjectIO.open(file);
+		BinaryFormat.ChunkedSource closedSource = (BinaryFormat.ChunkedSource) closed.getSource();
+		closed.getZ(0, 0);
+		closed.closeSource(); // the board is replaced by another one
+		assertFalse(closedSource.isOpen());
+		assertThrows(UncheckedIOException.class, () -> closed.getZ(1000, 190)); // a chunk which was not read
+
+		byte[] damaged = Files.readAllBytes(file.toPath());
+		damaged[damaged.length - 20] ^= 0x01; // inside of the index
+		Files.write(file.toPath(), damaged);
+		assertThrows(IOException.class, () -> ProjectIO.open(file));
+	}
+
+	@Test
+	void testFailedSaveKeepsTheOldFile(@TempDir Path folder) throws IOException {
+		Grid grid = new Grid(10, 10);
+		grid.setZ(2, 2, 6);
+		File file = folder.resolve("board.heron").toFile();
+		ProjectIO.saveMapped(grid, file);
+		grid.setMaxZ(PlaneFormat.MAX_LEVEL + 1);
+		grid.setZ(2, 2, PlaneFormat.MAX_LEVEL + 1); // too high for a mapped file, the save fails once its file is made
+		assertThrows(IOException.class, () -> ProjectIO.saveMapped(grid, file));
+		assertEquals(ProjectIO.load(file).getZ(2, 2), 6);
+		assertEquals(folder.toFile().list().length, 1); // the temporary file is deleted
+	}
+
+	@Test
+	void testLoadRows(@TempDir Path folder) throws IOException {
+		File file = folder.resolve("rows.heron").toFile();
+		Files.writeString(file.toPath(), "{\"rows\": [[0, 1, 2], [3, 4, 0]], \"pointy\": [[1, 1]], \"maxZ\": 7, \"width\": 3, \"height\": 2}");
+		Grid grid = ProjectIO.load(file);
+		assertEquals(grid.getWidth(), 3);
+		assertEquals(grid.getHeight(), 2);
+		assertEquals(grid.getMaxZ(), 7);
+		assertEquals(grid.getZ(2, 0), 2);
+		assertEquals(grid.getZ(0, 1), 3);
+		assertEquals(grid.isPointy(1, 1), true);
+		assertEquals(grid.isPointy(1, 0), false);
+	}
+	
+	@Test
+	void testInvalidJsonIsNotLoaded(@TempDir Path folder) throws IOException {
+		File file = folder.resolve("invalid.heron").toFile();
+		for (String json : new String[] { "", "[1, 2]", "{\"rows\": [[1, 2], [3]]}", "{\"width\": 4, \"blockGrid\": [[{\"z\": 1}]]}",
+				"{\"rows\": [[1, \"high\"]]}", "{\"rows\": [[1]], \"pointy\": [[0, 3]]}" }) {
+			Files.writeString(file.toPath(), json);
+			assertThrows(IOException.class, () -> ProjectIO.load(file), json);
+		}
+	}
+
+	@Test
+	void testSaveAndLoadMapped(@TempDir Path folder) throws IOException {
+		Random random = new Random(16);
+		Grid grid = new Grid(150, 70); // tiles cut by the right and the bottom edges
+		grid.setMaxZ(300);
+		for (int x = 0; x < grid.getWidth(); x++) {
+			for (int y = 0; y < grid.getHeight(); y++) {
+				if (x < 64 || random.nextInt(3) == 0) { // the tiles of the middle column have few raised cells
+					grid.setZ(x, y, 1 + random.nextInt(300));
+					grid.setPointy(x, y, random.nextInt(5) == 0);
+				}
+			}
+		}
+		File file = folder.resolve("board.heron").toFile();
+		ProjectIO.saveMapped(grid, file);
+		assertSameCells(ProjectIO.load(file), grid);
+		assertEquals(ProjectIO.load(file).getSource(), null);
+
+		Grid mapped = ProjectIO.loadMapped(file);
+		for (int level = 1; level <= 300; level++) {
+			assertEquals(mapped.getLevelCount(level), grid.getLevelCount(level));
+		}
+		assertSameCells(mapped, grid);
+
+		File binaryFile = folder.resolve("small.heron").toFile(); // a file of another format is loaded whole
+		ProjectIO.save(grid, binaryFile);
+		assertEquals(ProjectIO.loadMapped(binaryFile).getSource(), null);
+		assertSameCells(ProjectIO.loadMapped(binaryFile), grid);
+	}
+
+	@Test
+	void testMappedGridReadsTilesWhenUsed(@TempDir Path folder) throws IOException {
+		Grid grid = new Grid(300, 300);
+		for (int x = 0; x < 300; x += 7) {
+			for (int y = 0; y < 300; y += 5) {
+				grid.setZ(x, y, 3);
+			}
+		}
+		File file = folder.resolve("board.heron").toFile();
+		ProjectIO.saveMapped(grid, file);
+		Grid mapped = ProjectIO.loadMapped(file);
+		PlaneFormat.MappedSource source = (PlaneFormat.MappedSource) mapped.getSource();
+		assertEquals(source.getCachedTileCount(), 0);
+		assertEquals(mapped.getLevelCount(3), grid.getLevelCount(3));
+		assertEquals(mapped.getZ(70, 5), 3);
+		assertEquals(source.getCachedTileCount(), 1);
+
+		Grid version = mapped.snapshot();
+		mapped.setZ(70, 5, 4); // the file does not change
+		assertEquals(mapped.getZ(70, 5), 4);
+		assertEquals(version.getZ(70, 5), 3);
+		assertEquals(ProjectIO.loadMapped(file).getZ(70, 5), 3);
+
+		for (int x = 0; x < 64; x += 7) { // a tile put back to level 0 is not read again
+			for (int y = 0; y < 64; y += 5) {
+				mapped.setZ(x, y, 0);
+			}
+		}
+		assertEquals(mapped.getZ(0, 0), 0);
+		assertEquals(mapped.getLevelCount(3), grid.getLevelCount(3) - 130 - 1);
+
+		mapped.resize(100, 100); // the cropped cells are at level 0 when the grid grows again
+		mapped.resize(300, 300);
+		assertEquals(mapped.getZ(210, 5), 0);
+		assertEquals(mapped.getZ(98, 5), 3);
+		assertEquals(mapped.getLevelCount(3), 15 * 20 - 130 - 1);
+
+		Grid copy = mapped.clone();
+		copy.detachSource();
+		assertEquals(copy.getSource(), null);
+		assertSameCells(copy, mapped);
+		assertSameCells(version, ProjectIO.load(file));
+	}
+
+	@Test
+	void testHeightmap(@TempDir Path folder) throws IOException {
+		Random random = new Random(24);
+		Grid grid = new Grid(150, 70); // stripes and tiles which are not full
+		grid.setMaxZ(7);
+		for (int i = 0; i < 3000; i++) {
+			grid.setZ(random.nextInt(150), random.nextInt(70), random.nextInt(8));
+		}
+		File file = folder.resolve("heightmap.png").toFile();
+		ProjectIO.exportHeightmap(grid.snapshot(), file);
+		BufferedImage image = ImageIO.read(file);
+		assertEquals(image.getType(), BufferedImage.TYPE_BYTE_GRAY);
+		assertEquals(image.getRaster().getSample(0, 0, 0), grid.getZ(0, 0) * 255 / 7, 1);
+		Grid heightmap = ProjectIO.importHeightmap(file, 7);
+		grid.setPointy(false);
+		assertSameCells(heightmap, grid);
+		assertEquals(heightmap.getLevelCount(7), grid.getLevelCount(7));
+
+		Grid fewerLevels = ProjectIO.importHeightmap(file, 1); // the grays are read as the nearest level
+		for (int x = 0; x < grid.getWidth(); x++) {
+			assertEquals(fewerLevels.getZ(x, 5), (grid.getZ(x, 5) >= 4) ? 1 : 0);
+		}
+
+		grid.setMaxZ(1000); // 16 bits per pixel
+		ProjectIO.exportHeightmap(grid, file);
+		assertSameCells(ProjectIO.importHeightmap(file, 1000), grid);
+	}
+
+	@Test
+	void testColorHeightmap(@TempDir Path folder) throws IOException {
+		BufferedImage image = new BufferedImage(3, 1, BufferedImage.TYPE_INT_RGB);
+		image.setRGB(0, 0, 0xFFFFFF);
+		image.setRGB(1, 0, 0x808080);
+		image.setRGB(2, 0, 0xFF0000); // red is dark
+		File file = folder.resolve("color.png").toFile();
+		ImageIO.write(image, "png", file);
+		Grid grid = ProjectIO.importHeightmap(file, 4);
+		assertEquals(grid.getZ(0, 0), 4);
+		assertEquals(grid.getZ(1, 0), 2);
+		assertEquals(grid.getZ(2, 0), 1);
+
+		File text = folder.resolve("text.png").toFile();
+		Files.writeString(text.toPath(), "not an image");
+		assertThrows(IOException.class, () -> ProjectIO.importHeightmap(text, 4));
+	}
+}
@@ -0,0 +1,107 @@
+package heron.gameboardeditor.datamodel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SaveQueueTest {
+
+	@Test
+	void testSaveWhileEditing(@TempDir Path folder) throws Exception {
+		Grid grid = new Grid(100, 200);
+		grid.setZ(3, 4, 5);
+		File file = folder.resolve("board.heron").toFile();
+		RecordingListener listener = new RecordingListener(null);
+		Future<Void> save = new SaveQueue().save(grid, file, listener);
+		grid.setZ(3, 4, 2); // the version of the save does not change
+		save.get();
+		assertEquals(ProjectIO.load(file).getZ(3, 4), 5);
+		assertEquals(listener.progress, List.of(0.25, 0.5, 0.75, 1.0)); // one for each of the 4 chunks
+		assertEquals(listener.finishedCount, 1);
+		assertEquals(listener.failure, null);
+	}
+
+	@Test
+	void testWaitingSavesOfAFileAreWrittenOnce(@TempDir Path folder) throws Exception {
+		SaveQueue queue = new SaveQueue();
+		Grid grid = new Grid(20, 20);
+		CountDownLatch isWaiting = new CountDownLatch(1);
+		Future<Void> firstSave = queue.save(grid, folder.resolve("first.heron").toFile(), new RecordingListener(isWaiting));
+
+		File file = folder.resolve("board.heron").toFile();
+		RecordingListener olderListener = new RecordingListener(null);
+		RecordingListener newerListener = new RecordingListener(null);
+		grid.setZ(1, 1, 3);
+		Future<Void> olderSave = queue.save(grid, file, olderListener);
+		grid.setZ(1, 1, 4);
+		Future<Void> newerSave = queue.save(grid, file, newerListener);
+		assertSame(olderSave, newerSave);
+		isWaiting.countDown();
+
+		firstSave.get();
+		newerSave.get();
+		assertEquals(ProjectIO.load(file).getZ(1, 1), 4);
+		assertEquals(olderListener.finishedCount, 1);
+		assertEquals(newerListener.finishedCount, 1);
+		assertEquals(olderListener.progress, List.of(1.0)); // the file was written once
+
+		grid.setZ(1, 1, 5); // once a save started, a new save of the file is written after it
+		Future<Void> lastSave = queue.save(grid, file, newerListener);
+		assertNotSame(lastSave, newerSave);
+		lastSave.get();
+		assertEquals(ProjectIO.load(file).getZ(1, 1), 5);
+	}
+
+	@Test
+	void testFailedSave(@TempDir Path folder) throws Exception {
+		RecordingListener listener = new RecordingListener(null);
+		File file = folder.resolve("missing").resolve("board.heron").toFile();
+		Future<Void> save = new SaveQueue().save(new Grid(10, 10), file, listener);
+		ExecutionException ex = assertThrows(ExecutionException.class, save::get);
+		assertTrue(ex.getCause() instanceof IOException);
+		assertSame(listener.failure, ex.getCause());
+		assertEquals(listener.finishedCount, 1);
+	}
+
+	/**
+	 * Records what a save tells, and can hold the thread of the queue until a latch is released
+	 */
+	private static final class RecordingListener implements SaveQueue.SaveListener {
+		private final CountDownLatch release;
+		private final List<Double> progress = new ArrayList<>();
+		private int finishedCount;
+		private IOException failure;
+
+		private RecordingListener(CountDownLatch release) {
+			this.release = release;
+		}
+
+		@Override
+		public void saveProgressed(File file, double progress) {
+			this.progress.add(progress);
+			try {
+				if (release != null) {
+					release.await();
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public void saveFinished(File file, IOException failure) {
+			finishedCount++;
+			this.failure = failure;
+		}
+	}
+}
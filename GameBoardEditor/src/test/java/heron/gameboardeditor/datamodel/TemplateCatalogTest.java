@@ -0,0 +1,59 @@
+package heron.gameboardeditor.datamodel;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class TemplateCatalogTest {
+
+	@Test
+	void testTemplatesAreReadFromTheClasspath() throws Exception {
+		TemplateCatalog catalog = new TemplateCatalog("AugieLetter.json", "Duck.heron");
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		catalog.prewarm(executor);
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertTrue(catalog.isRead("AugieLetter.json"));
+		assertTrue(catalog.isRead("Duck.heron"));
+
+		Grid template = catalog.get("Duck.heron");
+		Grid file = ProjectIO.load(new File("src/main/resources/heron/gameboardeditor/Templates/Duck.heron"));
+		assertEquals(template.getWidth(), file.getWidth());
+		assertEquals(template.getHeight(), file.getHeight());
+		for (int x = 0; x < file.getWidth(); x++) {
+			for (int y = 0; y < file.getHeight(); y++) {
+				assertEquals(template.getZ(x, y), file.getZ(x, y));
+				assertEquals(template.isPointy(x, y), file.isPointy(x, y));
+			}
+		}
+	}
+
+	@Test
+	void testEditsDoNotChangeTheTemplate() throws Exception {
+		TemplateCatalog catalog = new TemplateCatalog("Heart.heron");
+		assertFalse(catalog.isRead("Heart.heron"));
+		Grid first = catalog.get("Heart.heron"); // read on this thread, without prewarm
+		assertTrue(catalog.isRead("Heart.heron"));
+		assertFalse(first.isFrozen());
+		int level = first.getZ(3, 4);
+		first.setZ(3, 4, (level + 1) % (first.getMaxZ() + 1));
+		first.allBlocksSetZ(0);
+		Grid second = catalog.get("Heart.heron");
+		assertEquals(second.getZ(3, 4), level);
+		assertNotSame(second, first);
+	}
+
+	@Test
+	void testMissingTemplate() {
+		TemplateCatalog catalog = new TemplateCatalog("Missing.heron");
+		assertThrows(IOException.class, () -> catalog.get("Missing.heron"));
+		assertThrows(IOException.class, () -> catalog.get("Duck.heron"), "not in the catalog");
+		assertFalse(catalog.isRead("Missing.heron"));
+	}
+}